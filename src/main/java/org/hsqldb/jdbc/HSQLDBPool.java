@@ -2,13 +2,169 @@ package org.hsqldb.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
+import javax.sql.ConnectionEvent;
+import javax.sql.PooledConnection;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.hsqldb.jdbc.pool.JDBCPooledConnection;
+import org.qortal.repository.ConnectionPoolStats;
 
+/**
+ * HSQLDB connection pool that can grow, within bounds, under contention.
+ * <p>
+ * Also records how long callers wait for connections, which threads hold connections and for how long,
+ * and flags connections held for suspiciously long as possible leaks.
+ * <p>
+ * Underlying {@link JDBCPool} is allocated at maximum size, but only the first <tt>currentPoolSize</tt>
+ * slots are handed out. If a caller waits too long for a connection, more slots are made available.
+ * After a quiet period, the pool shrinks back towards its minimum size and closes idle connections.
+ */
 public class HSQLDBPool extends JDBCPool {
 
-	public HSQLDBPool(int poolSize) {
-		super(poolSize);
+	private static final Logger LOGGER = LogManager.getLogger(HSQLDBPool.class);
+
+	/** Exclusive upper bounds of wait-time histogram buckets (ms). Final bucket is unbounded. */
+	private static final long[] WAIT_BUCKET_BOUNDS = new long[] { 1L, 10L, 100L, 1000L, 10000L };
+
+	/** How long to sleep between attempts to fetch a connection. (ms) */
+	private static final long WAIT_INTERVAL = 10L;
+	/** How long to wait for a connection if pool's login timeout isn't set. (seconds) */
+	private static final int DEFAULT_TIMEOUT = 30;
+	/** Grow pool if caller has waited this long for a connection, and pool hasn't grown recently. (ms) */
+	private static final long GROWTH_WAIT_THRESHOLD = 50L;
+	/** Shrink pool if no caller has had to wait, and pool hasn't been resized, for this long. (ms) */
+	private static final long SHRINK_QUIET_PERIOD = 5 * 60 * 1000L;
+	/** Minimum interval between checks for leaks and shrinking. (ms) */
+	private static final long MAINTENANCE_INTERVAL = 10 * 1000L;
+	/** Maximum number of stack frames to log for suspected leaks. */
+	private static final int MAX_LEAK_STACK_FRAMES = 12;
+
+	private final String name;
+	private final int minPoolSize;
+	private final int maxPoolSize;
+	private final int resizeStep;
+	/** Connections held longer than this are flagged as possible leaks. (ms) 0 means no leak flagging. */
+	private final long leakThreshold;
+
+	/** Connections are only handed out from slots below this index. */
+	private volatile int currentPoolSize;
+	private final Object resizeLock = new Object();
+	private long lastResizeTimestamp = System.currentTimeMillis();
+
+	private final AtomicReferenceArray<Thread> holderThreads;
+	private final AtomicLongArray acquireTimestamps;
+	private final AtomicIntegerArray leakFlags;
+
+	private final LongAdder acquisitions = new LongAdder();
+	private final LongAdder tryFailures = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder totalWaitMillis = new LongAdder();
+	private final AtomicLong maxWaitMillis = new AtomicLong();
+	private final LongAdder[] waitBuckets = new LongAdder[WAIT_BUCKET_BOUNDS.length + 1];
+	private final AtomicLong maxHeldMillis = new AtomicLong();
+	private final LongAdder leaksFlagged = new LongAdder();
+	private final LongAdder growths = new LongAdder();
+	private final LongAdder shrinks = new LongAdder();
+
+	private final AtomicLong lastContentionTimestamp = new AtomicLong(System.currentTimeMillis());
+	private final AtomicLong lastMaintenanceTimestamp = new AtomicLong(System.currentTimeMillis());
+
+	/**
+	 * Creates pool that starts at <tt>minPoolSize</tt> connections, growing up to <tt>maxPoolSize</tt> under contention.
+	 *
+	 * @param name used in logging and stats
+	 * @param minPoolSize
+	 * @param maxPoolSize if less than <tt>minPoolSize</tt>, then pool is fixed at <tt>minPoolSize</tt>
+	 * @param leakThreshold connections held longer than this (ms) are logged as possible leaks, or 0 to disable
+	 */
+	public HSQLDBPool(String name, int minPoolSize, int maxPoolSize, long leakThreshold) {
+		super(Math.max(minPoolSize, maxPoolSize));
+
+		this.name = name;
+		this.minPoolSize = minPoolSize;
+		this.maxPoolSize = Math.max(minPoolSize, maxPoolSize);
+		this.resizeStep = Math.max(1, minPoolSize / 10);
+		this.leakThreshold = leakThreshold;
+
+		this.currentPoolSize = minPoolSize;
+
+		this.holderThreads = new AtomicReferenceArray<>(this.maxPoolSize);
+		this.acquireTimestamps = new AtomicLongArray(this.maxPoolSize);
+		this.leakFlags = new AtomicIntegerArray(this.maxPoolSize);
+
+		for (int b = 0; b < this.waitBuckets.length; ++b)
+			this.waitBuckets[b] = new LongAdder();
+	}
+
+	/**
+	 * Retrieves a connection, waiting if necessary, and growing pool if wait is too long.
+	 *
+	 * @return a connection to the data source
+	 * @exception SQLException if pool is closed, if no connection became available in time, or if a database access error occurs
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (closed)
+			throw new SQLException("connection pool is closed");
+
+		this.maybePerformMaintenance();
+
+		int timeout = this.getLoginTimeout();
+		if (timeout == 0)
+			timeout = DEFAULT_TIMEOUT;
+
+		final long before = System.nanoTime();
+		final long deadline = before + TimeUnit.SECONDS.toNanos(timeout);
+		boolean hasWaited = false;
+		boolean wasInterrupted = false;
+
+		try {
+			while (true) {
+				Connection connection = this.allocateConnection();
+				if (connection != null) {
+					this.recordWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before));
+					return connection;
+				}
+
+				if (closed)
+					throw new SQLException("connection pool is closed");
+
+				if (!hasWaited) {
+					hasWaited = true;
+					this.lastContentionTimestamp.set(System.currentTimeMillis());
+				}
+
+				final long now = System.nanoTime();
+
+				if (now - before >= TimeUnit.MILLISECONDS.toNanos(GROWTH_WAIT_THRESHOLD))
+					this.maybeGrow();
+
+				if (now >= deadline) {
+					this.timeouts.increment();
+					throw new SQLException(String.format("Timed out after %ds waiting for connection from %s pool (%s)", timeout, this.name, this.summarize()));
+				}
+
+				try {
+					Thread.sleep(WAIT_INTERVAL);
+				} catch (InterruptedException e) {
+					// Carry on waiting, as JDBCPool does, but let caller know once we're done
+					wasInterrupted = true;
+				}
+			}
+		} finally {
+			if (wasInterrupted)
+				Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
@@ -19,7 +175,24 @@ public class HSQLDBPool extends JDBCPool {
 	 * @exception SQLException if a database access error occurs
 	 */
 	public Connection tryConnection() throws SQLException {
-		for (int i = 0; i < states.length(); i++) {
+		this.maybePerformMaintenance();
+
+		Connection connection = this.allocateConnection();
+
+		if (connection == null) {
+			this.tryFailures.increment();
+			this.lastContentionTimestamp.set(System.currentTimeMillis());
+			return null;
+		}
+
+		this.recordWait(0L);
+		return connection;
+	}
+
+	private Connection allocateConnection() throws SQLException {
+		final int poolSize = this.currentPoolSize;
+
+		for (int i = 0; i < poolSize; i++) {
 			if (states.compareAndSet(i, RefState.available, RefState.allocated)) {
 				JDBCPooledConnection pooledConnection = connections[i];
 
@@ -27,7 +200,9 @@ public class HSQLDBPool extends JDBCPool {
 					// Probably shutdown situation
 					return null;
 
-				return pooledConnection.getConnection();
+				Connection connection = pooledConnection.getConnection();
+				this.recordHolder(i);
+				return connection;
 			}
 
 			if (states.compareAndSet(i, RefState.empty, RefState.allocated)) {
@@ -42,7 +217,9 @@ public class HSQLDBPool extends JDBCPool {
 					pooledConnection.addStatementEventListener(this);
 					connections[i] = pooledConnection;
 
-					return pooledConnection.getConnection();
+					Connection connection = pooledConnection.getConnection();
+					this.recordHolder(i);
+					return connection;
 				} catch (SQLException e) {
 					states.set(i, RefState.empty);
 				}
@@ -52,4 +229,237 @@ public class HSQLDBPool extends JDBCPool {
 		return null;
 	}
 
+	@Override
+	public void connectionClosed(ConnectionEvent event) {
+		// Clear holder before slot is marked available for reuse
+		this.releaseHolder((PooledConnection) event.getSource());
+
+		super.connectionClosed(event);
+	}
+
+	@Override
+	public void connectionErrorOccurred(ConnectionEvent event) {
+		this.releaseHolder((PooledConnection) event.getSource());
+
+		super.connectionErrorOccurred(event);
+	}
+
+	// Holder tracking
+
+	private void recordHolder(int slot) {
+		this.holderThreads.set(slot, Thread.currentThread());
+		this.leakFlags.set(slot, 0);
+		this.acquireTimestamps.set(slot, System.currentTimeMillis());
+	}
+
+	private void releaseHolder(PooledConnection pooledConnection) {
+		for (int i = 0; i < connections.length; i++) {
+			if (connections[i] != pooledConnection)
+				continue;
+
+			long acquireTimestamp = this.acquireTimestamps.getAndSet(i, 0L);
+			this.holderThreads.set(i, null);
+
+			if (acquireTimestamp != 0L)
+				this.maxHeldMillis.accumulateAndGet(System.currentTimeMillis() - acquireTimestamp, Math::max);
+
+			return;
+		}
+	}
+
+	private void recordWait(long waitMillis) {
+		this.acquisitions.increment();
+		this.totalWaitMillis.add(waitMillis);
+		this.maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+
+		int bucket = 0;
+		while (bucket < WAIT_BUCKET_BOUNDS.length && waitMillis >= WAIT_BUCKET_BOUNDS[bucket])
+			++bucket;
+
+		this.waitBuckets[bucket].increment();
+	}
+
+	// Resizing
+
+	private void maybeGrow() {
+		final int oldPoolSize;
+		final int newPoolSize;
+
+		synchronized (this.resizeLock) {
+			oldPoolSize = this.currentPoolSize;
+			if (oldPoolSize >= this.maxPoolSize)
+				return;
+
+			// Give previous growth a chance to help before growing again
+			final long now = System.currentTimeMillis();
+			if (this.growths.sum() > 0 && now - this.lastResizeTimestamp < GROWTH_WAIT_THRESHOLD)
+				return;
+
+			newPoolSize = Math.min(oldPoolSize + this.resizeStep, this.maxPoolSize);
+			this.currentPoolSize = newPoolSize;
+			this.lastResizeTimestamp = now;
+		}
+
+		this.growths.increment();
+		LOGGER.info(() -> String.format("Growing %s connection pool from %d to %d connections (%s)", this.name, oldPoolSize, newPoolSize, this.summarize()));
+	}
+
+	private void maybePerformMaintenance() {
+		final long now = System.currentTimeMillis();
+		final long lastMaintenanceTimestamp = this.lastMaintenanceTimestamp.get();
+
+		if (now - lastMaintenanceTimestamp < MAINTENANCE_INTERVAL)
+			return;
+
+		// Only one thread needs to perform maintenance
+		if (!this.lastMaintenanceTimestamp.compareAndSet(lastMaintenanceTimestamp, now))
+			return;
+
+		this.flagLeaks(now);
+		this.maybeShrink(now);
+		this.releaseExcessConnections();
+	}
+
+	private void flagLeaks(long now) {
+		if (this.leakThreshold <= 0)
+			return;
+
+		for (int i = 0; i < this.maxPoolSize; i++) {
+			Thread holderThread = this.holderThreads.get(i);
+			long acquireTimestamp = this.acquireTimestamps.get(i);
+
+			if (holderThread == null || acquireTimestamp == 0L)
+				continue;
+
+			long heldMillis = now - acquireTimestamp;
+			if (heldMillis < this.leakThreshold)
+				continue;
+
+			// Only flag each holding once
+			if (!this.leakFlags.compareAndSet(i, 0, 1))
+				continue;
+
+			this.leaksFlagged.increment();
+
+			String stackTrace = Arrays.stream(holderThread.getStackTrace())
+					.limit(MAX_LEAK_STACK_FRAMES)
+					.map(String::valueOf)
+					.collect(Collectors.joining("\n\tat "));
+
+			LOGGER.warn(String.format("Possible leak: thread '%s' has held %s pool connection for %dms (threshold: %dms), currently at:\n\tat %s",
+					holderThread.getName(), this.name, heldMillis, this.leakThreshold, stackTrace));
+		}
+	}
+
+	private void maybeShrink(long now) {
+		final int oldPoolSize;
+		final int newPoolSize;
+
+		synchronized (this.resizeLock) {
+			oldPoolSize = this.currentPoolSize;
+			if (oldPoolSize <= this.minPoolSize)
+				return;
+
+			if (now - this.lastContentionTimestamp.get() < SHRINK_QUIET_PERIOD || now - this.lastResizeTimestamp < SHRINK_QUIET_PERIOD)
+				return;
+
+			newPoolSize = Math.max(oldPoolSize - this.resizeStep, this.minPoolSize);
+
+			// Don't shrink below current demand
+			if (this.countInUse() >= newPoolSize)
+				return;
+
+			this.currentPoolSize = newPoolSize;
+			this.lastResizeTimestamp = now;
+		}
+
+		this.shrinks.increment();
+		LOGGER.info(() -> String.format("Shrinking %s connection pool from %d to %d connections", this.name, oldPoolSize, newPoolSize));
+	}
+
+	/** Closes idle connections in slots beyond current pool size. */
+	private void releaseExcessConnections() {
+		for (int i = this.currentPoolSize; i < states.length(); i++) {
+			if (!states.compareAndSet(i, RefState.available, RefState.allocated))
+				continue;
+
+			JDBCPooledConnection pooledConnection = connections[i];
+
+			// Remove from pool first, so any close events during release are ignored
+			connections[i] = null;
+
+			if (pooledConnection != null)
+				pooledConnection.release();
+
+			states.set(i, RefState.empty);
+		}
+	}
+
+	// Stats
+
+	private int countInUse() {
+		int inUse = 0;
+
+		for (int i = 0; i < this.maxPoolSize; i++)
+			if (this.holderThreads.get(i) != null)
+				++inUse;
+
+		return inUse;
+	}
+
+	private String summarize() {
+		return String.format("%d of %d in use, max %d", this.countInUse(), this.currentPoolSize, this.maxPoolSize);
+	}
+
+	public ConnectionPoolStats getStats() {
+		ConnectionPoolStats stats = new ConnectionPoolStats();
+		final long now = System.currentTimeMillis();
+
+		stats.name = this.name;
+		stats.minSize = this.minPoolSize;
+		stats.maxSize = this.maxPoolSize;
+		stats.currentSize = this.currentPoolSize;
+
+		for (int i = 0; i < this.maxPoolSize; i++) {
+			int state = states.get(i);
+
+			if (state == RefState.available) {
+				++stats.idle;
+				continue;
+			}
+
+			Thread holderThread = this.holderThreads.get(i);
+			long acquireTimestamp = this.acquireTimestamps.get(i);
+			if (holderThread == null || acquireTimestamp == 0L)
+				continue;
+
+			++stats.inUse;
+
+			long heldMillis = now - acquireTimestamp;
+			boolean isLeakSuspect = this.leakThreshold > 0 && heldMillis >= this.leakThreshold;
+			stats.holders.add(new ConnectionPoolStats.Holder(holderThread.getName(), heldMillis, isLeakSuspect));
+		}
+
+		// Longest-held first
+		stats.holders.sort((a, b) -> Long.compare(b.heldMillis, a.heldMillis));
+
+		stats.acquisitions = this.acquisitions.sum();
+		stats.tryFailures = this.tryFailures.sum();
+		stats.timeouts = this.timeouts.sum();
+		stats.totalWaitMillis = this.totalWaitMillis.sum();
+		stats.maxWaitMillis = this.maxWaitMillis.get();
+
+		for (int b = 0; b < this.waitBuckets.length; ++b) {
+			Long lessThan = b < WAIT_BUCKET_BOUNDS.length ? WAIT_BUCKET_BOUNDS[b] : null;
+			stats.waitHistogram.add(new ConnectionPoolStats.WaitBucket(lessThan, this.waitBuckets[b].sum()));
+		}
+
+		stats.maxHeldMillis = this.maxHeldMillis.get();
+		stats.leaksFlagged = this.leaksFlagged.sum();
+		stats.growths = this.growths.sum();
+		stats.shrinks = this.shrinks.sum();
+
+		return stats;
+	}
+
 }
@@ -0,0 +1,71 @@
+package org.qortal.account;
+
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.settings.Settings;
+
+/**
+ * Account state write-back caching
+ * <p>
+ * When processing or orphaning a block, many transactions adjust the same accounts' balances,
+ * and block rewards, levels and minted block counts touch many accounts too.
+ * <p>
+ * Instead of one repository update per change, the repository holds these changes in memory
+ * while this cache is in effect, and writes only the final values, in batches, via {@link AccountStateCache#commit()}.
+ * <p>
+ * Unlike {@link AccountRefCache}, reads during caching return the latest values, including any changes made during caching.
+ * <p>
+ * If the cache is closed without being committed, e.g. due to an exception, then uncommitted changes are discarded,
+ * just as they would be by rolling back the repository transaction.
+ * <p>
+ * <tt>AccountStateCache</tt> implements <tt>AutoCloseable</tt> for (typical) use in a try-with-resources block.
+ *
+ * @see org.qortal.block.Block#process()
+ * @see org.qortal.block.Block#orphan()
+ */
+public class AccountStateCache implements AutoCloseable {
+
+	private final Repository repository;
+	private boolean isActive;
+
+	/**
+	 * Starts caching account state changes for passed <tt>repository</tt> handle.
+	 * <p>
+	 * Does nothing if account state caching is disabled in settings.
+	 *
+	 * @param repository
+	 * @throws IllegalStateException if account state is already being cached for <tt>repository</tt>
+	 */
+	public AccountStateCache(Repository repository) throws DataException {
+		this.repository = repository;
+		this.isActive = Settings.getInstance().isAccountStateCacheEnabled();
+
+		if (this.isActive)
+			this.repository.getAccountRepository().startAccountStateCache();
+	}
+
+	/**
+	 * Writes all cached account state changes to repository.
+	 * <p>
+	 * Stops caching, so any further changes go straight to repository.
+	 *
+	 * @throws DataException
+	 */
+	public void commit() throws DataException {
+		if (!this.isActive)
+			return;
+
+		this.isActive = false;
+		this.repository.getAccountRepository().commitAccountStateCache();
+	}
+
+	@Override
+	public void close() {
+		if (!this.isActive)
+			return;
+
+		this.isActive = false;
+		this.repository.getAccountRepository().discardAccountStateCache();
+	}
+
+}
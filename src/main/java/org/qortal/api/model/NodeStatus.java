@@ -3,10 +3,14 @@ package org.qortal.api.model;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 
+import org.qortal.controller.BlockMessageCache;
 import org.qortal.controller.Controller;
 import org.qortal.controller.OnlineAccountsManager;
 import org.qortal.controller.Synchronizer;
+import org.qortal.controller.repository.RepositoryMaintenanceScheduler;
+import org.qortal.network.ByteBufferPool;
 import org.qortal.network.Network;
+import org.qortal.repository.RecentBlockCache;
 
 @XmlAccessorType(XmlAccessType.FIELD)
 public class NodeStatus {
@@ -21,6 +25,12 @@ public class NodeStatus {
 
 	public final int height;
 
+	// Only present via API call, not websocket, as it changes too frequently
+	public ByteBufferPool.Stats networkBufferPool;
+	public BlockMessageCache.Stats blockMessageCache;
+	public RecentBlockCache.Stats recentBlockCache;
+	public RepositoryMaintenanceScheduler.Stats repositoryMaintenance;
+
 	public NodeStatus() {
 		this.isMintingPossible = OnlineAccountsManager.getInstance().hasActiveOnlineAccountSignatures();
 
@@ -158,6 +158,30 @@ public class PeersResource {
 		return Network.getInstance().getStatsSnapshot();
 	}
 
+	@GET
+	@Path("/enginestats/shards")
+	@Operation(
+		summary = "Fetch statistics snapshot for each networking engine channel selector",
+		responses = {
+			@ApiResponse(
+				content = @Content(
+					mediaType = MediaType.APPLICATION_JSON,
+					array = @ArraySchema(
+						schema = @Schema(
+							implementation = ExecuteProduceConsume.StatsSnapshot.class
+						)
+					)
+				)
+			)
+		}
+	)
+	@SecurityRequirement(name = "apiKey")
+	public List<ExecuteProduceConsume.StatsSnapshot> getShardEngineStats(@HeaderParam(Security.API_KEY_HEADER) String apiKey) {
+		Security.checkApiCallAllowed(request);
+
+		return Network.getInstance().getShardStatsSnapshots();
+	}
+
 	@POST
 	@Operation(
 		summary = "Add new peer address",
@@ -45,12 +45,15 @@ import org.qortal.controller.Controller;
 import org.qortal.controller.Synchronizer;
 import org.qortal.controller.Synchronizer.SynchronizationResult;
 import org.qortal.controller.repository.BlockArchiveRebuilder;
+import org.qortal.controller.repository.RepositoryMaintenanceScheduler;
 import org.qortal.data.account.MintingAccountData;
 import org.qortal.data.account.RewardShareData;
 import org.qortal.network.Network;
 import org.qortal.network.Peer;
 import org.qortal.network.PeerAddress;
+import org.qortal.repository.ConnectionPoolStats;
 import org.qortal.repository.DataException;
+import org.qortal.repository.RecentBlockCache;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
 import org.qortal.settings.Settings;
@@ -149,6 +152,15 @@ public class AdminResource {
 	public NodeStatus status() {
 		NodeStatus nodeStatus = new NodeStatus();
 
+		nodeStatus.networkBufferPool = Network.getInstance().getByteBufferPool().getStats();
+		nodeStatus.blockMessageCache = Controller.getInstance().getBlockMessageCacheStats();
+
+		RecentBlockCache recentBlockCache = RepositoryManager.getRecentBlockCache();
+		if (recentBlockCache != null)
+			nodeStatus.recentBlockCache = recentBlockCache.getStats();
+
+		nodeStatus.repositoryMaintenance = RepositoryMaintenanceScheduler.getInstance().getStats();
+
 		return nodeStatus;
 	}
 
@@ -749,6 +761,36 @@ public class AdminResource {
 		}
 	}
 
+	@GET
+	@Path("/repository/pool")
+	@Operation(
+		summary = "Fetch repository connection pool statistics",
+		description = "Includes connection wait-time histogram, current connection holders and possible connection leaks.",
+		responses = {
+			@ApiResponse(
+				content = @Content(
+					mediaType = MediaType.APPLICATION_JSON,
+					array = @ArraySchema(
+						schema = @Schema(
+							implementation = ConnectionPoolStats.class
+						)
+					)
+				)
+			)
+		}
+	)
+	@ApiErrors({ApiError.REPOSITORY_ISSUE})
+	@SecurityRequirement(name = "apiKey")
+	public List<ConnectionPoolStats> getRepositoryPoolStats(@HeaderParam(Security.API_KEY_HEADER) String apiKey) {
+		Security.checkApiCallAllowed(request);
+
+		try {
+			return RepositoryManager.getConnectionPoolStats();
+		} catch (DataException e) {
+			throw ApiExceptionFactory.INSTANCE.createException(request, ApiError.REPOSITORY_ISSUE, e);
+		}
+	}
+
 	@POST
 	@Path("/repository/checkpoint")
 	@Operation(
@@ -0,0 +1,152 @@
+package org.qortal.arbitrary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only channel presenting a file's chunks, in order, as one contiguous file,
+ * so that it can be read from any position without joining the chunks first.
+ */
+public class ArbitraryDataChunkChannel implements SeekableByteChannel {
+
+    private final List<Path> chunkPaths;
+    /** Offset of start of each chunk, plus total size as final element. */
+    private final long[] chunkOffsets;
+    /** Opened on demand. */
+    private final FileChannel[] chunkChannels;
+
+    private long position = 0;
+    private boolean isOpen = true;
+
+    public ArbitraryDataChunkChannel(List<Path> chunkPaths) throws IOException {
+        this.chunkPaths = chunkPaths;
+        this.chunkOffsets = new long[chunkPaths.size() + 1];
+        this.chunkChannels = new FileChannel[chunkPaths.size()];
+
+        for (int i = 0; i < chunkPaths.size(); ++i) {
+            this.chunkOffsets[i + 1] = this.chunkOffsets[i] + Files.size(chunkPaths.get(i));
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!this.isOpen) {
+            throw new ClosedChannelException();
+        }
+        if (this.position >= this.size()) {
+            return -1;
+        }
+
+        int totalBytesRead = 0;
+        while (dst.hasRemaining() && this.position < this.size()) {
+            int chunkIndex = this.getChunkIndex(this.position);
+            long chunkPosition = this.position - this.chunkOffsets[chunkIndex];
+            long chunkRemaining = this.chunkOffsets[chunkIndex + 1] - this.position;
+
+            // Don't read past end of this chunk
+            ByteBuffer chunkDst = dst.slice();
+            if (chunkDst.remaining() > chunkRemaining) {
+                chunkDst.limit((int) chunkRemaining);
+            }
+
+            int bytesRead = this.getChunkChannel(chunkIndex).read(chunkDst, chunkPosition);
+            if (bytesRead < 0) {
+                throw new IOException(String.format("Chunk %s is shorter than expected", this.chunkPaths.get(chunkIndex)));
+            }
+
+            dst.position(dst.position() + bytesRead);
+            this.position += bytesRead;
+            totalBytesRead += bytesRead;
+        }
+
+        return totalBytesRead;
+    }
+
+    private int getChunkIndex(long position) {
+        int index = Arrays.binarySearch(this.chunkOffsets, position);
+        if (index < 0) {
+            // Not the start of a chunk, so use the chunk before the insertion point
+            return -index - 2;
+        }
+
+        // Skip any empty chunks
+        while (this.chunkOffsets[index + 1] == position) {
+            ++index;
+        }
+        return index;
+    }
+
+    private FileChannel getChunkChannel(int chunkIndex) throws IOException {
+        if (this.chunkChannels[chunkIndex] == null) {
+            this.chunkChannels[chunkIndex] = FileChannel.open(this.chunkPaths.get(chunkIndex), StandardOpenOption.READ);
+        }
+        return this.chunkChannels[chunkIndex];
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() {
+        return this.position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return this.chunkOffsets[this.chunkOffsets.length - 1];
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.isOpen;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.isOpen = false;
+
+        IOException exception = null;
+        for (FileChannel chunkChannel : this.chunkChannels) {
+            if (chunkChannel == null) {
+                continue;
+            }
+
+            try {
+                chunkChannel.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+package org.qortal.arbitrary;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.settings.Settings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store, holding a single copy of each data file, keyed by hash,
+ * under <tt>_chunks/&lt;hash[0:2]&gt;/&lt;hash[2:4]&gt;/&lt;hash58&gt;</tt> in the data directory.
+ * <p>
+ * The per-transaction files, at {@link ArbitraryDataFile#getOutputFilePath(String, byte[], boolean)},
+ * are hard links to the stored copy, so the rest of the system is unaware of the store. The file system's
+ * link count acts as a reference count: a stored copy is referenced by every link other than its own, and
+ * can be removed by {@link #cleanup()} once no transaction references it.
+ * <p>
+ * Only used on file systems with hard link support. Elsewhere, each transaction keeps its own copy, as before.
+ */
+public class ArbitraryDataChunkStore {
+
+    private static final Logger LOGGER = LogManager.getLogger(ArbitraryDataChunkStore.class);
+
+    private static final String STORE_DIRECTORY_NAME = "_chunks";
+
+    /** Depth of stored files below store directory */
+    private static final int STORE_DEPTH = 3;
+
+    private static Boolean isHardLinkSupported;
+
+    private ArbitraryDataChunkStore() {
+    }
+
+    public static boolean isEnabled() {
+        if (!Settings.getInstance().isChunkDeduplicationEnabled()) {
+            return false;
+        }
+
+        if (isHardLinkSupported == null) {
+            // We rely on "unix:nlink" attribute for reference counts
+            isHardLinkSupported = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+        }
+        return isHardLinkSupported;
+    }
+
+    public static Path getStorePath() {
+        return Paths.get(Settings.getInstance().getDataPath(), STORE_DIRECTORY_NAME);
+    }
+
+    public static Path getStoredFilePath(String hash58) {
+        String hash58First2Chars = hash58.substring(0, 2).toLowerCase();
+        String hash58Next2Chars = hash58.substring(2, 4).toLowerCase();
+        return Paths.get(getStorePath().toString(), hash58First2Chars, hash58Next2Chars, hash58);
+    }
+
+    public static boolean contains(String hash58) {
+        return isEnabled() && Files.exists(getStoredFilePath(hash58));
+    }
+
+    /**
+     * Links <tt>destPath</tt> to the stored copy of file with hash <tt>hash58</tt>, if we have one.
+     *
+     * @return true if <tt>destPath</tt> now shares the stored copy, false if the file needs fetching or writing
+     */
+    public static boolean link(String hash58, Path destPath) {
+        if (hash58 == null || destPath == null || !contains(hash58)) {
+            return false;
+        }
+
+        Path storedFilePath = getStoredFilePath(hash58);
+        try {
+            if (Files.exists(destPath)) {
+                return Files.isSameFile(destPath, storedFilePath);
+            }
+
+            Files.createDirectories(destPath.getParent());
+            Files.createLink(destPath, storedFilePath);
+            LOGGER.trace("Linked {} to stored file {}", destPath, hash58);
+            return true;
+
+        } catch (IOException e) {
+            // Stored copy may have been cleaned up in the meantime
+            LOGGER.debug("Unable to link {} to stored file {}: {}", destPath, hash58, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Adds file at <tt>path</tt>, which must already have been validated as having hash <tt>hash58</tt>,
+     * to the store. If we already hold a copy, the file at <tt>path</tt> is replaced by a link to it.
+     */
+    public static void add(String hash58, Path path) {
+        if (hash58 == null || path == null || !isEnabled() || !Files.exists(path)) {
+            return;
+        }
+
+        Path storedFilePath = getStoredFilePath(hash58);
+        try {
+            if (!Files.exists(storedFilePath)) {
+                Files.createDirectories(storedFilePath.getParent());
+                try {
+                    Files.createLink(storedFilePath, path);
+                    return;
+                } catch (FileAlreadyExistsException e) {
+                    // Stored by another thread in the meantime, so share that copy instead
+                }
+            }
+
+            if (Files.isSameFile(path, storedFilePath)) {
+                return;
+            }
+
+            // Swap our copy for a link to the stored copy, without leaving a window where neither exists
+            Path tempPath = path.resolveSibling(path.getFileName() + ".link");
+            Files.deleteIfExists(tempPath);
+            Files.createLink(tempPath, storedFilePath);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.trace("Replaced {} with link to stored file {}", path, hash58);
+
+        } catch (IOException | UnsupportedOperationException e) {
+            // Keep our own copy
+            LOGGER.debug("Unable to add {} to chunk store: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns number of data files sharing the stored copy of file with hash <tt>hash58</tt>,
+     * or 0 if we don't have one.
+     */
+    public static int getReferenceCount(String hash58) {
+        if (!contains(hash58)) {
+            return 0;
+        }
+        return getReferenceCount(getStoredFilePath(hash58));
+    }
+
+    private static int getReferenceCount(Path storedFilePath) {
+        try {
+            // Don't count the store's own link
+            return (Integer) Files.getAttribute(storedFilePath, "unix:nlink") - 1;
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            // Unable to tell, so treat as referenced
+            return 1;
+        }
+    }
+
+    /**
+     * Deletes stored files that are no longer referenced by any transaction.
+     * <p>
+     * Warning: walks through the entire store. Do not call it too frequently.
+     *
+     * @return number of stored files deleted
+     */
+    public static int cleanup() {
+        Path storePath = getStorePath();
+        if (!isEnabled() || !Files.exists(storePath)) {
+            return 0;
+        }
+
+        List<Path> storedFilePaths;
+        try (Stream<Path> paths = Files.walk(storePath, STORE_DEPTH)) {
+            storedFilePaths = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.info("Unable to walk through chunk store: {}", e.getMessage());
+            return 0;
+        }
+
+        int deletedCount = 0;
+        for (Path storedFilePath : storedFilePaths) {
+            if (getReferenceCount(storedFilePath) > 0) {
+                continue;
+            }
+
+            try {
+                Files.delete(storedFilePath);
+                deletedCount++;
+
+                // Remove empty hash prefix directories, but not the store itself
+                Path parent = storedFilePath.getParent();
+                while (parent != null && !parent.equals(storePath) && isEmptyDirectory(parent)) {
+                    Files.delete(parent);
+                    parent = parent.getParent();
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Unable to delete unreferenced stored file {}: {}", storedFilePath, e.getMessage());
+            }
+        }
+
+        if (deletedCount > 0) {
+            LOGGER.debug("Deleted {} unreferenced files from chunk store", deletedCount);
+        }
+        return deletedCount;
+    }
+
+    private static boolean isEmptyDirectory(Path path) throws IOException {
+        try (DirectoryStream<Path> contents = Files.newDirectoryStream(path)) {
+            return !contents.iterator().hasNext();
+        }
+    }
+
+}
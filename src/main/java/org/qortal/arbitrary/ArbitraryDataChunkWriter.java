@@ -0,0 +1,223 @@
+package org.qortal.arbitrary;
+
+import org.qortal.arbitrary.ArbitraryDataFile.ValidationResult;
+import org.qortal.repository.DataException;
+import org.qortal.utils.NamedThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits everything written to it into chunks as it arrives, so that a resource can be zipped, encrypted
+ * and chunked in a single pass, instead of writing and re-reading the whole file at each step.
+ * <p>
+ * Chunks are hashed and written by parallel workers. The complete file is written, and hashed, in order
+ * on a separate thread. As with {@link ArbitraryDataFile#split(int)}, nothing is chunked if the data fits
+ * in a single chunk.
+ */
+public class ArbitraryDataChunkWriter extends OutputStream {
+
+    /** Maximum number of buffers waiting to be hashed and written, to bound memory use */
+    private static final int MAX_PENDING_BUFFERS = 16;
+
+    private final Path completeFilePath;
+    private final int chunkSize;
+    private final byte[] signature;
+
+    private final OutputStream completeFileOutputStream;
+    private final MessageDigest completeFileDigest;
+    /** Single thread, so that complete file is written and hashed in order */
+    private final ExecutorService completeFileExecutor;
+    private final ExecutorService chunkExecutor;
+
+    private final List<Future<ArbitraryDataFileChunk>> chunkFutures = new ArrayList<>();
+    private final Deque<Future<?>> pendingFutures = new ArrayDeque<>();
+
+    private byte[] buffer;
+    private int bufferLength;
+    private long size = 0;
+    private boolean isClosed = false;
+
+    private byte[] hash;
+    private List<ArbitraryDataFileChunk> chunks;
+
+    public ArbitraryDataChunkWriter(Path completeFilePath, int chunkSize, byte[] signature) throws IOException {
+        this.completeFilePath = completeFilePath;
+        this.chunkSize = chunkSize;
+        this.signature = signature;
+
+        try {
+            this.completeFileDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 unavailable", e);
+        }
+
+        this.completeFileOutputStream = Files.newOutputStream(completeFilePath);
+        this.completeFileExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("Chunk-Writer-Complete-File"));
+
+        int threadCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        this.chunkExecutor = Executors.newFixedThreadPool(threadCount, new NamedThreadFactory("Chunk-Writer"));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (this.isClosed) {
+            throw new IOException("Chunk writer is closed");
+        }
+
+        while (length > 0) {
+            if (this.buffer != null && this.bufferLength == this.chunkSize) {
+                // Only emit a full buffer once more data arrives, as we don't chunk data that fits in a single chunk
+                this.emitBuffer(true);
+            }
+            if (this.buffer == null) {
+                this.buffer = new byte[this.chunkSize];
+                this.bufferLength = 0;
+            }
+
+            int bytesToCopy = Math.min(length, this.chunkSize - this.bufferLength);
+            System.arraycopy(data, offset, this.buffer, this.bufferLength, bytesToCopy);
+
+            this.bufferLength += bytesToCopy;
+            this.size += bytesToCopy;
+            offset += bytesToCopy;
+            length -= bytesToCopy;
+        }
+    }
+
+    private void emitBuffer(boolean isChunk) throws IOException {
+        final byte[] data = this.bufferLength == this.buffer.length ? this.buffer : Arrays.copyOf(this.buffer, this.bufferLength);
+        this.buffer = null;
+
+        this.pendingFutures.add(this.completeFileExecutor.submit(() -> {
+            this.completeFileDigest.update(data);
+            this.completeFileOutputStream.write(data);
+            return null;
+        }));
+
+        if (isChunk) {
+            Future<ArbitraryDataFileChunk> chunkFuture = this.chunkExecutor.submit(() -> this.createChunk(data));
+            this.chunkFutures.add(chunkFuture);
+            this.pendingFutures.add(chunkFuture);
+        }
+
+        // Wait for oldest work to finish, rather than let buffers pile up
+        while (this.pendingFutures.size() > MAX_PENDING_BUFFERS) {
+            ArbitraryDataChunkWriter.await(this.pendingFutures.removeFirst());
+        }
+    }
+
+    private ArbitraryDataFileChunk createChunk(byte[] data) throws DataException {
+        // Hashes data, and writes it to the data directory
+        ArbitraryDataFileChunk chunk = new ArbitraryDataFileChunk(data, this.signature);
+
+        ValidationResult validationResult = chunk.isValid();
+        if (validationResult != ValidationResult.OK) {
+            throw new DataException(String.format("Chunk %s is invalid", chunk));
+        }
+
+        return chunk;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.isClosed) {
+            return;
+        }
+        this.isClosed = true;
+
+        try {
+            if (this.buffer != null) {
+                // Final buffer is only a chunk if earlier buffers were
+                this.emitBuffer(!this.chunkFutures.isEmpty());
+            }
+
+            while (!this.pendingFutures.isEmpty()) {
+                ArbitraryDataChunkWriter.await(this.pendingFutures.removeFirst());
+            }
+
+            List<ArbitraryDataFileChunk> chunks = new ArrayList<>();
+            for (Future<ArbitraryDataFileChunk> chunkFuture : this.chunkFutures) {
+                chunks.add(ArbitraryDataChunkWriter.await(chunkFuture));
+            }
+
+            this.chunks = chunks;
+            this.hash = this.completeFileDigest.digest();
+
+        } finally {
+            this.shutdownExecutors();
+            this.completeFileOutputStream.close();
+        }
+    }
+
+    /**
+     * Stops accepting work. Work already submitted is left to finish, rather than interrupted,
+     * so that every chunk future completes and its chunk can be found by {@link #deleteChunks()}.
+     */
+    private void shutdownExecutors() {
+        this.completeFileExecutor.shutdown();
+        this.chunkExecutor.shutdown();
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while writing chunks");
+        } catch (ExecutionException e) {
+            throw new IOException(String.format("Unable to write chunk: %s", e.getCause().getMessage()), e.getCause());
+        }
+    }
+
+    /**
+     * Returns data file for complete file, with its chunks, moving the complete file into the data directory.
+     * Writer must have been closed successfully first.
+     */
+    public ArbitraryDataFile getArbitraryDataFile() throws DataException {
+        if (this.hash == null) {
+            throw new DataException("Chunk writer hasn't finished writing");
+        }
+
+        return ArbitraryDataFile.fromChunkedPath(this.completeFilePath, this.hash, this.chunks, this.signature);
+    }
+
+    /**
+     * Deletes any chunks written so far, e.g. if writing failed part way through.
+     * <p>
+     * Waits for chunks still being written, so none are left behind once we return.
+     */
+    public void deleteChunks() {
+        this.shutdownExecutors();
+
+        for (Future<ArbitraryDataFileChunk> chunkFuture : this.chunkFutures) {
+            try {
+                chunkFuture.get().delete();
+            } catch (ExecutionException e) {
+                // Nothing was written for this chunk
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+}
@@ -102,6 +102,12 @@ public class ArbitraryDataFile {
         }
         else {
             outputFilePath = getOutputFilePath(this.hash58, signature, true);
+
+            // Share our existing copy of this data, if another transaction already uses it
+            if (ArbitraryDataChunkStore.link(this.hash58, outputFilePath)) {
+                this.filePath = outputFilePath;
+                return;
+            }
         }
 
         File outputFile = outputFilePath.toFile();
@@ -112,6 +118,10 @@ public class ArbitraryDataFile {
             this.delete();
             throw new DataException(String.format("Unable to write data with hash %s: %s", this.hash58, e.getMessage()));
         }
+
+        if (!useTemporaryFile) {
+            ArbitraryDataChunkStore.add(this.hash58, outputFilePath);
+        }
     }
 
     public static ArbitraryDataFile fromHash58(String hash58, byte[] signature) throws DataException {
@@ -189,6 +199,23 @@ public class ArbitraryDataFile {
         return null;
     }
 
+    /**
+     * Returns data file for a file whose hash and chunks are already known, e.g. from {@link ArbitraryDataChunkWriter},
+     * moving it into the data directory without reading it again.
+     */
+    public static ArbitraryDataFile fromChunkedPath(Path path, byte[] hash, List<ArbitraryDataFileChunk> chunks, byte[] signature) throws DataException {
+        ArbitraryDataFile arbitraryDataFile = ArbitraryDataFile.fromHash(hash, signature);
+        Path destPath = ArbitraryDataFile.getOutputFilePath(arbitraryDataFile.hash58, signature, true);
+        try {
+            Files.move(path, destPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new DataException(String.format("Unable to move file %s to data directory %s", path, destPath));
+        }
+
+        arbitraryDataFile.chunks = new ArrayList<>(chunks);
+        return arbitraryDataFile;
+    }
+
     public static ArbitraryDataFile fromFile(File file, byte[] signature) {
         return ArbitraryDataFile.fromPath(Paths.get(file.getPath()), signature);
     }
@@ -2,29 +2,39 @@ package org.qortal.arbitrary;
 
 import com.google.common.io.Resources;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.JSONException;
 import org.qortal.api.HTMLParser;
 import org.qortal.arbitrary.ArbitraryDataFile.*;
 import org.qortal.arbitrary.exception.MissingDataException;
+import org.qortal.arbitrary.metadata.ArbitraryDataMetadataCache;
 import org.qortal.arbitrary.misc.Service;
 import org.qortal.controller.Controller;
+import org.qortal.repository.DataException;
 import org.qortal.settings.Settings;
+import org.qortal.utils.Base58;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -82,6 +92,18 @@ public class ArbitraryDataRenderer {
             arbitraryDataReader.setSecret58(secret58); // Optional, used for loading encrypted file hashes only
 
             if (!arbitraryDataReader.isCachedDataAvailable()) {
+                // Serve straight from chunks if possible, to avoid waiting for the whole resource to be built
+                ArbitraryDataStreamingReader streamingReader = ArbitraryDataStreamingReader.fromResource(resourceId, resourceIdType, service, identifier);
+                if (streamingReader != null) {
+                    // Build in the background too, as streaming re-reads and decrypts chunks on every request,
+                    // and has to inflate from the start of a file for each range requested
+                    arbitraryDataReader.loadAsynchronously(false, 1);
+
+                    try (streamingReader) {
+                        return this.renderStreamed(streamingReader);
+                    }
+                }
+
                 // If async is requested, show a loading screen whilst build is in progress
                 if (async) {
                     arbitraryDataReader.loadAsynchronously(false, 10);
@@ -163,30 +185,20 @@ public class ArbitraryDataRenderer {
                 }
             }
 
-            if (HTMLParser.isHtmlFile(filename)) {
+            boolean isHtmlFile = HTMLParser.isHtmlFile(filename);
+            if (isHtmlFile && Files.size(filePath) > Settings.getInstance().getMaxRenderedHtmlSize()) {
+                // Too large to parse in memory, so serve as a regular file instead
+                LOGGER.info("Serving {} unparsed, as it is larger than maxRenderedHtmlSize", filename);
+                isHtmlFile = false;
+            }
+
+            if (isHtmlFile) {
                 // HTML file - needs to be parsed
-                byte[] data = Files.readAllBytes(filePath); // TODO: limit file size that can be read into memory
-                HTMLParser htmlParser = new HTMLParser(resourceId, inPath, prefix, includeResourceIdInPrefix, data, qdnContext, service, identifier, theme, usingCustomRouting);
-                htmlParser.addAdditionalHeaderTags();
-                response.addHeader("Content-Security-Policy", "default-src 'self' 'unsafe-inline' 'unsafe-eval'; media-src 'self' data: blob:; img-src 'self' data: blob:;");
-                response.setContentType(context.getMimeType(filename));
-                response.setContentLength(htmlParser.getData().length);
-                response.getOutputStream().write(htmlParser.getData());
+                this.serveHtml(Files.readAllBytes(filePath), filename, usingCustomRouting);
             }
             else {
                 // Regular file - can be streamed directly
-                File file = filePath.toFile();
-                FileInputStream inputStream = new FileInputStream(file);
-                response.addHeader("Content-Security-Policy", "default-src 'self'");
-                response.setContentType(context.getMimeType(filename));
-                int bytesRead, length = 0;
-                byte[] buffer = new byte[10240];
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    response.getOutputStream().write(buffer, 0, bytesRead);
-                    length += bytesRead;
-                }
-                response.setContentLength(length);
-                inputStream.close();
+                this.serveFile(filePath, filename, Paths.get(unzippedPath));
             }
             return response;
         } catch (FileNotFoundException | NoSuchFileException e) {
@@ -198,6 +210,303 @@ public class ArbitraryDataRenderer {
         return ArbitraryDataRenderer.getResponse(response, 404, "Error 404: File Not Found");
     }
 
+    /**
+     * Renders file from resource that hasn't been built, reading it straight out of the resource's chunks.
+     * Path resolution mirrors that of built resources in {@link #render()}.
+     */
+    private HttpServletResponse renderStreamed(ArbitraryDataStreamingReader streamingReader) {
+        // Set path automatically for single file resources (except for apps, which handle routing differently)
+        List<String> files = streamingReader.getRootNames();
+        if (files.size() == 1 && this.service != Service.APP) {
+            // This is a single file resource
+            inPath = files.get(0);
+        }
+
+        try {
+            String filename = this.getStreamedFilename(streamingReader, inPath);
+            boolean usingCustomRouting = false;
+            if (streamingReader.isDirectory(filename) && (!inPath.endsWith("/"))) {
+                inPath = inPath + "/";
+                filename = this.getStreamedFilename(streamingReader, inPath);
+            }
+
+            // If this is an app, then forward all unhandled requests to the index, to give the app the option to route it
+            if (!streamingReader.isFile(filename) && this.service == Service.APP) {
+                for (String indexFile : ArbitraryDataRenderer.indexFiles()) {
+                    if (streamingReader.isFile(indexFile)) {
+                        filename = indexFile;
+                        usingCustomRouting = true;
+                        break;
+                    }
+                }
+            }
+
+            long fileSize = streamingReader.getSize(filename);
+
+            boolean isHtmlFile = HTMLParser.isHtmlFile(filename);
+            if (isHtmlFile && fileSize > Settings.getInstance().getMaxRenderedHtmlSize()) {
+                // Too large to parse in memory, so serve as a regular file instead
+                LOGGER.info("Serving {} unparsed, as it is larger than maxRenderedHtmlSize", filename);
+                isHtmlFile = false;
+            }
+
+            if (isHtmlFile) {
+                try (InputStream inputStream = streamingReader.getInputStream(filename)) {
+                    this.serveHtml(IOUtils.toByteArray(inputStream), filename, usingCustomRouting);
+                }
+            }
+            else {
+                // Validators come from the transaction, as there is no cached build
+                String eTag = String.format("\"%s\"", Base58.encode(streamingReader.getSignature()));
+                long lastModified = streamingReader.getTimestamp() > 0 ? streamingReader.getTimestamp() : -1;
+                final String streamedFilename = filename;
+
+                this.serveContent(filename, fileSize, eTag, lastModified, (start, length, outputStream) -> {
+                    // Zip entries can't be seeked, so skip to start of range
+                    try (InputStream inputStream = streamingReader.getInputStream(streamedFilename)) {
+                        IOUtils.skipFully(inputStream, start);
+                        IOUtils.copyLarge(inputStream, outputStream, 0, length);
+                    }
+                });
+            }
+            return response;
+        } catch (IOException e) {
+            LOGGER.info("Unable to stream file at path {}: {}", inPath, e.getMessage());
+        }
+
+        return ArbitraryDataRenderer.getResponse(response, 404, "Error 404: File Not Found");
+    }
+
+    private String getStreamedFilename(ArbitraryDataStreamingReader streamingReader, String userPath) {
+        if (userPath == null || userPath.endsWith("/") || userPath.equals("")) {
+            // Locate index file
+            for (String indexFile : ArbitraryDataRenderer.indexFiles()) {
+                if (streamingReader.isFile(userPath + indexFile)) {
+                    return userPath + indexFile;
+                }
+            }
+        }
+        return userPath;
+    }
+
+    private void serveHtml(byte[] data, String filename, boolean usingCustomRouting) throws IOException {
+        HTMLParser htmlParser = new HTMLParser(resourceId, inPath, prefix, includeResourceIdInPrefix, data, qdnContext, service, identifier, theme, usingCustomRouting);
+        htmlParser.addAdditionalHeaderTags();
+        response.addHeader("Content-Security-Policy", "default-src 'self' 'unsafe-inline' 'unsafe-eval'; media-src 'self' data: blob:; img-src 'self' data: blob:;");
+        response.setContentType(context.getMimeType(filename));
+        response.setContentLength(htmlParser.getData().length);
+        response.getOutputStream().write(htmlParser.getData());
+    }
+
+    /**
+     * Streams regular file, supporting conditional (ETag / Last-Modified) and partial (Range / If-Range) requests,
+     * so that media can be seeked without re-downloading the whole file.
+     */
+    private void serveFile(Path filePath, String filename, Path resourcePath) throws IOException {
+        long fileSize = Files.size(filePath);
+
+        // Validators come from the cached build's transaction signature and build time,
+        // so they change whenever the resource is rebuilt
+        String eTag = null;
+        long lastModified = -1;
+        try {
+            ArbitraryDataMetadataCache cache = new ArbitraryDataMetadataCache(resourcePath);
+            cache.read();
+            if (cache.getSignature() != null) {
+                eTag = String.format("\"%s\"", Base58.encode(cache.getSignature()));
+                lastModified = cache.getTimestamp() > 0 ? cache.getTimestamp() : -1;
+            }
+        } catch (IOException | DataException | JSONException e) {
+            LOGGER.debug("Unable to read cache metadata for {}: {}", resourcePath, e.getMessage());
+        }
+
+        this.serveContent(filename, fileSize, eTag, lastModified, (start, length, outputStream) -> {
+            try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                WritableByteChannel outputChannel = Channels.newChannel(outputStream);
+
+                long position = start;
+                long end = start + length;
+                while (position < end) {
+                    long transferred = fileChannel.transferTo(position, end - position, outputChannel);
+                    if (transferred <= 0) {
+                        // File was truncated while we were serving it
+                        throw new IOException(String.format("Unexpected end of file %s", filename));
+                    }
+                    position += transferred;
+                }
+            }
+        });
+    }
+
+    /** Writes <tt>length</tt> bytes of file content, starting at <tt>start</tt>, to response. */
+    @FunctionalInterface
+    private interface ContentWriter {
+        void write(long start, long length, OutputStream outputStream) throws IOException;
+    }
+
+    private void serveContent(String filename, long fileSize, String eTag, long lastModified, ContentWriter contentWriter) throws IOException {
+        response.addHeader("Content-Security-Policy", "default-src 'self'");
+        response.setContentType(context.getMimeType(filename));
+        response.setHeader("Accept-Ranges", "bytes");
+        if (eTag != null) {
+            response.setHeader("ETag", eTag);
+        }
+        if (lastModified > 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+
+        if (this.isNotModified(eTag, lastModified)) {
+            response.setStatus(304);
+            return;
+        }
+
+        long start = 0;
+        long length = fileSize;
+
+        if (this.isRangeApplicable(eTag, lastModified)) {
+            ByteRange range;
+            try {
+                range = ByteRange.parse(request.getHeader("Range"), fileSize);
+            } catch (IllegalArgumentException e) {
+                response.setStatus(416);
+                response.setHeader("Content-Range", String.format("bytes */%d", fileSize));
+                return;
+            }
+
+            if (range != null) {
+                start = range.start;
+                length = range.getLength();
+                response.setStatus(206);
+                response.setHeader("Content-Range", String.format("bytes %d-%d/%d", range.start, range.end, fileSize));
+            }
+        }
+
+        response.setContentLengthLong(length);
+        contentWriter.write(start, length, response.getOutputStream());
+    }
+
+    private boolean isNotModified(String eTag, long lastModified) {
+        // If-None-Match takes precedence over If-Modified-Since
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return eTag != null && ArbitraryDataRenderer.matchesETag(ifNoneMatch, eTag);
+        }
+
+        long ifModifiedSince = this.getDateHeader("If-Modified-Since");
+        // HTTP dates only have one-second resolution
+        return lastModified > 0 && ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private boolean isRangeApplicable(String eTag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+
+        // If-Range requires strong comparison, which weak ETags never satisfy
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(eTag);
+        }
+
+        long ifRangeDate = this.getDateHeader("If-Range");
+        return lastModified > 0 && ifRangeDate >= 0 && lastModified / 1000 == ifRangeDate / 1000;
+    }
+
+    private long getDateHeader(String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            // Unparseable dates are ignored
+            return -1;
+        }
+    }
+
+    /** Returns whether <tt>eTag</tt> is in comma-separated list of ETags (or "*"), using weak comparison. */
+    public static boolean matchesETag(String eTagList, String eTag) {
+        for (String candidate : eTagList.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Inclusive byte range, as requested via HTTP Range header. */
+    public static class ByteRange {
+        public final long start;
+        public final long end;
+
+        public ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getLength() {
+            return this.end - this.start + 1;
+        }
+
+        /**
+         * Parses single-range HTTP Range header, e.g. "bytes=0-499", "bytes=500-" or "bytes=-500".
+         *
+         * @return requested range, clamped to file size, or null if whole file should be served
+         * (no header, malformed header or multiple ranges)
+         * @throws IllegalArgumentException if range can't be satisfied
+         */
+        public static ByteRange parse(String rangeHeader, long fileSize) {
+            if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+                return null;
+            }
+
+            String rangeSpec = rangeHeader.substring("bytes=".length()).trim();
+            if (rangeSpec.contains(",")) {
+                // Multiple ranges aren't supported, so serve whole file instead
+                return null;
+            }
+
+            int dashIndex = rangeSpec.indexOf('-');
+            if (dashIndex < 0) {
+                return null;
+            }
+
+            try {
+                String startString = rangeSpec.substring(0, dashIndex).trim();
+                String endString = rangeSpec.substring(dashIndex + 1).trim();
+
+                if (startString.isEmpty()) {
+                    // Suffix range, e.g. last 500 bytes
+                    long suffixLength = Long.parseLong(endString);
+                    if (suffixLength <= 0 || fileSize == 0) {
+                        throw new IllegalArgumentException("Unsatisfiable range");
+                    }
+                    return new ByteRange(Math.max(0, fileSize - suffixLength), fileSize - 1);
+                }
+
+                long start = Long.parseLong(startString);
+                if (start >= fileSize) {
+                    throw new IllegalArgumentException("Unsatisfiable range");
+                }
+
+                long end = endString.isEmpty() ? fileSize - 1 : Long.parseLong(endString);
+                if (start < 0 || end < start) {
+                    // Invalid range, so ignore it
+                    return null;
+                }
+
+                return new ByteRange(start, Math.min(end, fileSize - 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
     private String getFilename(String directory, String userPath) {
         if (userPath == null || userPath.endsWith("/") || userPath.equals("")) {
             // Locate index file
@@ -0,0 +1,302 @@
+package org.qortal.arbitrary;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.arbitrary.ArbitraryDataFile.ResourceIdType;
+import org.qortal.arbitrary.misc.Service;
+import org.qortal.crypto.AESDecryptingChannel;
+import org.qortal.data.transaction.ArbitraryTransactionData;
+import org.qortal.data.transaction.ArbitraryTransactionData.Compression;
+import org.qortal.data.transaction.ArbitraryTransactionData.DataType;
+import org.qortal.data.transaction.ArbitraryTransactionData.Method;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+import org.qortal.transform.Transformer;
+import org.qortal.utils.Base58;
+import org.qortal.utils.ListUtils;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.*;
+
+/**
+ * Serves individual files from a QDN resource straight out of its (possibly encrypted) chunks,
+ * without joining, decrypting and unzipping the whole resource first.
+ * <p>
+ * Chunks are decrypted on demand by {@link AESDecryptingChannel}, and only the zip's central directory,
+ * plus the entries actually requested, are read. Chunks have already been validated against their hashes,
+ * which are listed in the transaction's metadata file.
+ * <p>
+ * Only resources made of a single PUT layer, with all files held locally, can be streamed.
+ * Everything else needs building by {@link ArbitraryDataReader}.
+ */
+public class ArbitraryDataStreamingReader implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(ArbitraryDataStreamingReader.class);
+
+    /** Name of enclosing folder in zip, and of file for uncompressed data, as created by {@link ArbitraryDataWriter}. */
+    private static final String DATA_FOLDER_NAME = "data";
+
+    private final SeekableByteChannel channel;
+    private final ZipFile zipFile;
+    /** Files, keyed by path relative to the data folder. */
+    private final Map<String, ZipArchiveEntry> entries = new HashMap<>();
+    private final Set<String> directories = new HashSet<>();
+    private final SortedSet<String> rootNames = new TreeSet<>();
+    private long totalSize;
+
+    private byte[] signature;
+    private long timestamp;
+
+    public ArbitraryDataStreamingReader(SeekableByteChannel channel, Compression compression) throws IOException {
+        this.channel = channel;
+
+        if (compression == Compression.NONE) {
+            // Uncompressed resources hold a single file
+            this.zipFile = null;
+            this.rootNames.add(DATA_FOLDER_NAME);
+            this.totalSize = channel.size();
+            return;
+        }
+
+        if (compression != Compression.ZIP) {
+            throw new IOException(String.format("Unsupported compression: %s", compression));
+        }
+
+        this.zipFile = new ZipFile(channel);
+        String prefix = DATA_FOLDER_NAME + "/";
+
+        for (ZipArchiveEntry entry : Collections.list(this.zipFile.getEntries())) {
+            if (!entry.getName().startsWith(prefix)) {
+                continue;
+            }
+
+            String name = entry.getName().substring(prefix.length());
+            if (name.endsWith("/")) {
+                name = name.substring(0, name.length() - 1);
+            }
+            if (name.isEmpty()) {
+                continue;
+            }
+
+            if (entry.isDirectory()) {
+                this.directories.add(name);
+            } else {
+                this.entries.put(name, entry);
+                this.totalSize += entry.getSize();
+            }
+
+            // Record parent directories, and top-level names
+            int slashIndex = name.indexOf('/');
+            this.rootNames.add(slashIndex < 0 ? name : name.substring(0, slashIndex));
+            for (int i = name.lastIndexOf('/'); i > 0; i = name.lastIndexOf('/', i - 1)) {
+                this.directories.add(name.substring(0, i));
+            }
+        }
+
+        this.rootNames.remove(".qortal");
+    }
+
+    /**
+     * Returns streaming reader for resource, or null if resource needs building, or fetching, first.
+     */
+    public static ArbitraryDataStreamingReader fromResource(String resourceId, ResourceIdType resourceIdType, Service service, String identifier) {
+        if (!Settings.getInstance().isQdnStreamingEnabled() || !service.isStreamingSupported()) {
+            return null;
+        }
+
+        try {
+            ArbitraryTransactionData transactionData = ArbitraryDataStreamingReader.fetchTransactionData(resourceId, resourceIdType, service, identifier);
+
+            // Anything with patches, or without chunks, needs building
+            if (transactionData == null || transactionData.getMethod() != Method.PUT || transactionData.getDataType() != DataType.DATA_HASH) {
+                return null;
+            }
+            if (transactionData.getName() != null && ListUtils.isNameBlocked(transactionData.getName())) {
+                return null;
+            }
+
+            ArbitraryDataFile arbitraryDataFile = ArbitraryDataFile.fromTransactionData(transactionData);
+            if (arbitraryDataFile == null || !arbitraryDataFile.allFilesExist()) {
+                // Leave fetching of missing files to the build process
+                return null;
+            }
+
+            List<Path> paths = new ArrayList<>();
+            if (arbitraryDataFile.exists()) {
+                paths.add(arbitraryDataFile.getFilePath());
+            } else {
+                for (ArbitraryDataFileChunk chunk : arbitraryDataFile.getChunks()) {
+                    paths.add(chunk.getFilePath());
+                }
+            }
+            if (paths.isEmpty()) {
+                return null;
+            }
+
+            SeekableByteChannel channel = new ArbitraryDataChunkChannel(paths);
+            try {
+                if (channel.size() != transactionData.getSize()) {
+                    throw new IOException(String.format("Size %d doesn't match transaction size %d", channel.size(), transactionData.getSize()));
+                }
+
+                byte[] secret = transactionData.getSecret();
+                if (secret != null && secret.length == Transformer.AES256_LENGTH) {
+                    SecretKey aesKey = new SecretKeySpec(secret, 0, secret.length, "AES");
+                    channel = new AESDecryptingChannel(channel, aesKey);
+                }
+
+                ArbitraryDataStreamingReader streamingReader = new ArbitraryDataStreamingReader(channel, transactionData.getCompression());
+                streamingReader.signature = transactionData.getSignature();
+                streamingReader.timestamp = transactionData.getTimestamp();
+
+                // Oversized resources fail validation when built, so leave that to the build process too
+                Long maxSize = service.getMaxSize();
+                if (maxSize != null && streamingReader.totalSize > maxSize) {
+                    streamingReader.close();
+                    return null;
+                }
+
+                return streamingReader;
+            } catch (IOException | GeneralSecurityException e) {
+                channel.close();
+                throw e;
+            }
+
+        } catch (DataException | IOException | GeneralSecurityException e) {
+            // Legacy resources, e.g. not using CBC mode, end up here too
+            LOGGER.debug("Unable to stream {} {}: {}", service, resourceId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static ArbitraryTransactionData fetchTransactionData(String resourceId, ResourceIdType resourceIdType, Service service, String identifier) throws DataException {
+        try (final Repository repository = RepositoryManager.getRepository()) {
+            switch (resourceIdType) {
+                case NAME:
+                    // Latest transaction, using any method, so that we can detect patches
+                    return repository.getArbitraryRepository().getLatestTransaction(resourceId, service, null, identifier);
+
+                case SIGNATURE:
+                    TransactionData transactionData = repository.getTransactionRepository().fromSignature(Base58.decode(resourceId));
+                    if (!(transactionData instanceof ArbitraryTransactionData)) {
+                        return null;
+                    }
+                    return (ArbitraryTransactionData) transactionData;
+
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /** Returns names of files and directories at top level of resource. */
+    public List<String> getRootNames() {
+        return new ArrayList<>(this.rootNames);
+    }
+
+    /** Returns whether file exists at <tt>path</tt>, relative to root of resource. */
+    public boolean isFile(String path) {
+        path = ArbitraryDataStreamingReader.normalizePath(path);
+        if (path == null) {
+            return false;
+        }
+
+        if (this.zipFile == null) {
+            return path.equals(DATA_FOLDER_NAME);
+        }
+        return this.entries.containsKey(path);
+    }
+
+    /** Returns whether directory exists at <tt>path</tt>, relative to root of resource. */
+    public boolean isDirectory(String path) {
+        path = ArbitraryDataStreamingReader.normalizePath(path);
+        if (path == null) {
+            return false;
+        }
+
+        return path.isEmpty() || this.directories.contains(path);
+    }
+
+    /** Returns uncompressed size of file at <tt>path</tt>, or -1 if unknown. */
+    public long getSize(String path) throws IOException {
+        if (!this.isFile(path)) {
+            throw new IOException(String.format("File not found: %s", path));
+        }
+
+        if (this.zipFile == null) {
+            return this.channel.size();
+        }
+        return this.entries.get(ArbitraryDataStreamingReader.normalizePath(path)).getSize();
+    }
+
+    /** Returns stream of (decrypted, uncompressed) contents of file at <tt>path</tt>. */
+    public InputStream getInputStream(String path) throws IOException {
+        if (!this.isFile(path)) {
+            throw new IOException(String.format("File not found: %s", path));
+        }
+
+        if (this.zipFile == null) {
+            this.channel.position(0);
+            return Channels.newInputStream(this.channel);
+        }
+        return this.zipFile.getInputStream(this.entries.get(ArbitraryDataStreamingReader.normalizePath(path)));
+    }
+
+    /** Returns total uncompressed size of all files. */
+    public long getTotalSize() {
+        return this.totalSize;
+    }
+
+    public byte[] getSignature() {
+        return this.signature;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.zipFile != null) {
+            // Also closes channel
+            this.zipFile.close();
+        } else {
+            this.channel.close();
+        }
+    }
+
+    /** Returns path without leading/trailing slashes, or null if path tries to escape the resource. */
+    private static String normalizePath(String path) {
+        if (path == null) {
+            return null;
+        }
+
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                return null;
+            }
+        }
+
+        return path;
+    }
+
+}
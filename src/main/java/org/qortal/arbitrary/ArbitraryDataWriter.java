@@ -19,12 +19,11 @@ import org.qortal.utils.Base58;
 import org.qortal.utils.FilesystemUtils;
 import org.qortal.utils.ZipUtils;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.FileNameMap;
 import java.net.URLConnection;
 import java.nio.file.*;
@@ -61,7 +60,6 @@ public class ArbitraryDataWriter {
 
     // Intermediate paths to cleanup
     private Path workingPath;
-    private Path compressedPath;
     private Path encryptedPath;
 
     public ArbitraryDataWriter(Path filePath, String name, Service service, String identifier, Method method, Compression compression,
@@ -93,9 +91,7 @@ public class ArbitraryDataWriter {
             this.validateService();
             this.buildFileList();
             this.process();
-            this.compress();
-            this.encrypt();
-            this.split();
+            this.compressEncryptAndSplit();
             this.createMetadataFile();
             this.validate();
 
@@ -254,67 +250,67 @@ public class ArbitraryDataWriter {
         }
     }
 
-    private void compress() throws InterruptedException, DataException {
-        // Compress the data if requested
-        if (this.compression != Compression.NONE) {
-            this.compressedPath = Paths.get(this.workingPath.toString(), "data.zip");
-            try {
+    /**
+     * Zips, encrypts and splits the data in a single pass, hashing chunks in parallel as they are produced,
+     * rather than writing and re-reading the whole resource at each step.
+     */
+    private void compressEncryptAndSplit() throws InterruptedException, DataException {
+        this.encryptedPath = Paths.get(this.workingPath.toString(), "data.zip.encrypted");
+        ArbitraryDataChunkWriter chunkWriter = null;
+        try {
+            this.aesKey = AES.generateKey(256);
 
-                if (this.compression == Compression.ZIP) {
-                    LOGGER.info("Compressing...");
-                    String enclosingFolderName = "data";
-                    ZipUtils.zip(this.filePath.toString(), this.compressedPath.toString(), enclosingFolderName);
-                }
-                else {
-                    throw new DataException(String.format("Unknown compression type specified: %s", compression.toString()));
+            // We don't have a signature yet, so use null to put the chunks in a generic folder
+            chunkWriter = new ArbitraryDataChunkWriter(this.encryptedPath, this.chunkSize, null);
+
+            try (OutputStream outputStream = AES.encryptingOutputStream("AES/CBC/PKCS5Padding", this.aesKey, chunkWriter)) {
+                switch (this.compression) {
+                    case ZIP:
+                        LOGGER.info("Compressing and encrypting...");
+                        String enclosingFolderName = "data";
+                        ZipUtils.zip(this.filePath.toString(), outputStream, enclosingFolderName);
+                        break;
+
+                    case NONE:
+                        LOGGER.info("Encrypting...");
+                        Files.copy(this.filePath, outputStream);
+                        break;
+
+                    default:
+                        throw new DataException(String.format("Unknown compression type specified: %s", compression.toString()));
+                    // FUTURE: other compression types
                 }
-                // FUTURE: other compression types
+            }
 
-                // Delete the input directory
-                if (FilesystemUtils.pathInsideDataOrTempPath(this.filePath)) {
-                    File directory = new File(this.filePath.toString());
-                    FileUtils.deleteDirectory(directory);
-                }
-                // Replace filePath pointer with the zipped file path
-                this.filePath = this.compressedPath;
+            this.arbitraryDataFile = chunkWriter.getArbitraryDataFile();
 
-            } catch (IOException | DataException e) {
-                throw new DataException("Unable to zip directory", e);
+            int chunkCount = this.arbitraryDataFile.chunkCount();
+            if (chunkCount > 0) {
+                LOGGER.info(String.format("Successfully split into %d chunk%s", chunkCount, (chunkCount == 1 ? "" : "s")));
             }
-        }
-    }
-
-    private void encrypt() throws DataException {
-        this.encryptedPath = Paths.get(this.workingPath.toString(), "data.zip.encrypted");
-        try {
-            // Encrypt the file with AES
-            LOGGER.info("Encrypting...");
-            this.aesKey = AES.generateKey(256);
-            AES.encryptFile("AES/CBC/PKCS5Padding", this.aesKey, this.filePath.toString(), this.encryptedPath.toString());
 
-            // Delete the input file
+            // Delete the input
             if (FilesystemUtils.pathInsideDataOrTempPath(this.filePath)) {
-                Files.delete(this.filePath);
+                if (this.compression == Compression.NONE) {
+                    Files.delete(this.filePath);
+                }
+                else {
+                    File directory = new File(this.filePath.toString());
+                    FileUtils.deleteDirectory(directory);
+                }
             }
             // Replace filePath pointer with the encrypted file path
-            this.filePath = this.encryptedPath;
+            this.filePath = this.arbitraryDataFile.getFilePath();
 
         } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | NoSuchPaddingException
-                | BadPaddingException | IllegalBlockSizeException | IOException | InvalidKeyException e) {
-            throw new DataException(String.format("Unable to encrypt file %s: %s", this.filePath, e.getMessage()));
-        }
-    }
-
-    private void split() throws IOException, DataException {
-        // We don't have a signature yet, so use null to put the file in a generic folder
-        this.arbitraryDataFile = ArbitraryDataFile.fromPath(this.filePath, null);
-        if (this.arbitraryDataFile == null) {
-            throw new IOException("No file available when trying to split");
-        }
-
-        int chunkCount = this.arbitraryDataFile.split(this.chunkSize);
-        if (chunkCount > 0) {
-            LOGGER.info(String.format("Successfully split into %d chunk%s", chunkCount, (chunkCount == 1 ? "" : "s")));
+                | IOException | InvalidKeyException | DataException e) {
+            if (chunkWriter != null) {
+                chunkWriter.deleteChunks();
+            }
+            throw new DataException(String.format("Unable to compress and encrypt %s: %s", this.filePath, e.getMessage()), e);
+        } catch (InterruptedException e) {
+            chunkWriter.deleteChunks();
+            throw e;
         }
     }
 
@@ -328,7 +324,8 @@ public class ArbitraryDataWriter {
             metadata.setDescription(this.description);
             metadata.setTags(this.tags);
             metadata.setCategory(this.category);
-            metadata.setChunks(this.arbitraryDataFile.chunkHashList());
+            // Chunk hashes were computed as the chunks were written, so there's no need to read them back
+            metadata.setChunks(this.arbitraryDataFile.getChunkHashes());
             metadata.setFiles(this.files);
             metadata.setMimeType(this.mimeType);
             metadata.write();
@@ -350,7 +347,7 @@ public class ArbitraryDataWriter {
         if (validationResult != ValidationResult.OK) {
             throw new DataException(String.format("File %s failed validation: %s", this.arbitraryDataFile, validationResult));
         }
-        LOGGER.info("Whole file hash is valid: {}", this.arbitraryDataFile.digest58());
+        LOGGER.info("Whole file hash is valid: {}", this.arbitraryDataFile.getHash58());
 
         // Validate each chunk
         for (ArbitraryDataFileChunk chunk : this.arbitraryDataFile.getChunks()) {
@@ -371,7 +368,7 @@ public class ArbitraryDataWriter {
             ArbitraryDataTransactionMetadata metadata = new ArbitraryDataTransactionMetadata(metadataFile.getFilePath());
             metadata.read();
             // Check all chunks exist
-            for (byte[] chunk : this.arbitraryDataFile.chunkHashList()) {
+            for (byte[] chunk : this.arbitraryDataFile.getChunkHashes()) {
                 if (!metadata.containsChunk(chunk)) {
                     throw new DataException(String.format("Missing chunk %s in metadata file", Base58.encode(chunk)));
                 }
@@ -395,12 +392,6 @@ public class ArbitraryDataWriter {
 
     private void cleanupFilesystem() throws IOException {
         // Clean up
-        if (FilesystemUtils.pathInsideDataOrTempPath(this.compressedPath)) {
-            File zippedFile = new File(this.compressedPath.toString());
-            if (zippedFile.exists()) {
-                zippedFile.delete();
-            }
-        }
         if (FilesystemUtils.pathInsideDataOrTempPath(this.encryptedPath)) {
             File encryptedFile = new File(this.encryptedPath.toString());
             if (encryptedFile.exists()) {
@@ -256,6 +256,18 @@ public enum Service {
         return this.isPrivate;
     }
 
+    public Long getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Whether resources can be served straight from their chunks, without building.
+     * Single file and JSON resources need their contents validating first, so can't be.
+     */
+    public boolean isStreamingSupported() {
+        return !this.single && this.requiredKeys == null;
+    }
+
     public static Service valueOf(int value) {
         return map.get(value);
     }
@@ -19,6 +19,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.qortal.account.Account;
 import org.qortal.account.AccountRefCache;
+import org.qortal.account.AccountStateCache;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.account.PublicKeyAccount;
 import org.qortal.asset.Asset;
@@ -134,6 +135,11 @@ public class Block {
 	/** Cached online accounts validation decision, to avoid revalidating when true */
 	private boolean onlineAccountsAlreadyValid = false;
 
+	/** Cached signatures validation decision, e.g. from pre-validation, to avoid revalidating when true */
+	private volatile boolean signaturesAlreadyValid = false;
+	/** Online reward-shares whose nonces and aggregate signature were found valid during pre-validation, or null */
+	private volatile List<RewardShareData> preValidatedOnlineRewardShares = null;
+
 	@FunctionalInterface
 	private interface BlockRewardDistributor {
 		long distribute(long amount, Map<String, Long> balanceChanges) throws DataException;
@@ -572,6 +578,7 @@ public class Block {
 	 */
 	public void clearOnlineAccountsValidationCache() {
 		this.onlineAccountsAlreadyValid = false;
+		this.preValidatedOnlineRewardShares = null;
 	}
 
 	// More information
@@ -849,6 +856,7 @@ public class Block {
 		if (!(this.minter instanceof PrivateKeyAccount))
 			throw new IllegalStateException("Block's minter is not a PrivateKeyAccount - can't sign!");
 
+		this.signaturesAlreadyValid = false;
 		this.blockData.setMinterSignature(((PrivateKeyAccount) this.minter).sign(BlockTransformer.getBytesForMinterSignature(this.blockData)));
 	}
 
@@ -866,6 +874,7 @@ public class Block {
 		if (!(this.minter instanceof PrivateKeyAccount))
 			throw new IllegalStateException("Block's minter is not a PrivateKeyAccount - can't sign!");
 
+		this.signaturesAlreadyValid = false;
 		try {
 			this.blockData.setTransactionsSignature(((PrivateKeyAccount) this.minter).sign(BlockTransformer.getBytesForTransactionsSignature(this)));
 		} catch (TransformationException e) {
@@ -995,6 +1004,10 @@ public class Block {
 	 * @return true if both minter and transaction signatures are valid, false otherwise
 	 */
 	public boolean isSignatureValid() {
+		// Don't bother revalidating if signatures have already been validated, e.g. by preValidate()
+		if (this.signaturesAlreadyValid)
+			return true;
+
 		try {
 			// Check minter's signature first
 			if (!this.minter.verify(this.blockData.getMinterSignature(), BlockTransformer.getBytesForMinterSignature(this.blockData)))
@@ -1007,9 +1020,44 @@ public class Block {
 			return false;
 		}
 
+		this.signaturesAlreadyValid = true;
 		return true;
 	}
 
+	/**
+	 * Performs CPU-heavy, stateless checks ahead of {@link #isSignatureValid()} and {@link #isValid()},
+	 * typically on another thread while earlier blocks are still being processed.
+	 * <p>
+	 * Checks minter and transaction signatures, and online accounts' nonces and aggregate signature.
+	 * Checks that pass are remembered so they are skipped later. Checks that fail are not remembered,
+	 * so they are simply repeated, and reported, by normal validation.
+	 * <p>
+	 * Online reward-shares depend on chain state, which might change before this block is validated,
+	 * so online accounts' signatures are only skipped later if block's online reward-shares are unchanged.
+	 *
+	 * @param repository separate repository session, as this block's repository might be in use by another thread
+	 * @throws DataException
+	 */
+	public void preValidate(Repository repository) throws DataException {
+		if (!this.isSignatureValid())
+			return;
+
+		// Doesn't apply for Genesis block!
+		if (this.blockData.getHeight() != null && this.blockData.getHeight() == 1)
+			return;
+
+		ConciseSet accountIndexes = BlockTransformer.decodeOnlineAccounts(this.blockData.getEncodedOnlineAccounts());
+		if (accountIndexes.size() != this.blockData.getOnlineAccountsCount())
+			return;
+
+		List<RewardShareData> onlineRewardShares = repository.getAccountRepository().getRewardSharesByIndexes(accountIndexes.toArray());
+		if (onlineRewardShares == null)
+			return;
+
+		if (this.areOnlineAccountsSignaturesValid(onlineRewardShares) == ValidationResult.OK)
+			this.preValidatedOnlineRewardShares = onlineRewardShares;
+	}
+
 	/**
 	 * Returns whether Block's timestamp is valid.
 	 * <p>
@@ -1077,6 +1125,24 @@ public class Block {
 			}
 		}
 
+		// Skip nonce and signature checks if they've already passed, for the same reward-shares, during pre-validation
+		if (!this.werePreValidated(onlineRewardShares)) {
+			ValidationResult signaturesResult = this.areOnlineAccountsSignaturesValid(onlineRewardShares);
+			if (signaturesResult != ValidationResult.OK)
+				return signaturesResult;
+		}
+
+		// All online accounts valid, so save our list of online accounts for potential later use
+		this.cachedOnlineRewardShares = onlineRewardShares;
+
+		// Remember that the accounts are valid, to speed up subsequent checks
+		this.onlineAccountsAlreadyValid = true;
+
+		return ValidationResult.OK;
+	}
+
+	/** Returns whether online accounts' nonces and aggregate signature are valid, given block's online reward-shares. */
+	private ValidationResult areOnlineAccountsSignaturesValid(List<RewardShareData> onlineRewardShares) {
 		// If block is past a certain age then we simply assume the signatures were correct
 		long signatureRequirementThreshold = NTP.getTime() - BlockChain.getInstance().getOnlineAccountSignaturesMinLifetime();
 		if (this.blockData.getTimestamp() < signatureRequirementThreshold)
@@ -1142,13 +1208,20 @@ public class Block {
 		if (!Qortal25519Extras.verifyAggregated(aggregatePublicKey, aggregateSignature, onlineTimestampBytes))
 			return ValidationResult.ONLINE_ACCOUNT_SIGNATURE_INCORRECT;
 
-		// All online accounts valid, so save our list of online accounts for potential later use
-		this.cachedOnlineRewardShares = onlineRewardShares;
+		return ValidationResult.OK;
+	}
 
-		// Remember that the accounts are valid, to speed up subsequent checks
-		this.onlineAccountsAlreadyValid = true;
+	/** Returns whether online accounts' signatures passed pre-validation using the same <tt>onlineRewardShares</tt>. */
+	private boolean werePreValidated(List<RewardShareData> onlineRewardShares) {
+		List<RewardShareData> preValidatedOnlineRewardShares = this.preValidatedOnlineRewardShares;
+		if (preValidatedOnlineRewardShares == null || preValidatedOnlineRewardShares.size() != onlineRewardShares.size())
+			return false;
 
-		return ValidationResult.OK;
+		for (int i = 0; i < onlineRewardShares.size(); ++i)
+			if (!Arrays.equals(preValidatedOnlineRewardShares.get(i).getRewardSharePublicKey(), onlineRewardShares.get(i).getRewardSharePublicKey()))
+				return false;
+
+		return true;
 	}
 
 
@@ -1482,35 +1555,41 @@ public class Block {
 
 		LOGGER.trace(() -> String.format("Processing block %d", this.blockData.getHeight()));
 
-		if (this.blockData.getHeight() > 1) {
-			// Increase account levels
-			increaseAccountLevels();
+		// Hold account state changes in memory, writing final values in one go after all changes
+		try (AccountStateCache accountStateCache = new AccountStateCache(this.repository)) {
+			if (this.blockData.getHeight() > 1) {
+				// Increase account levels
+				increaseAccountLevels();
 
-			// Distribute block rewards, including transaction fees, before transactions processed
-			processBlockRewards();
+				// Distribute block rewards, including transaction fees, before transactions processed
+				processBlockRewards();
 
-			if (this.blockData.getHeight() == 212937)
-				// Apply fix for block 212937
-				Block212937.processFix(this);
+				if (this.blockData.getHeight() == 212937)
+					// Apply fix for block 212937
+					Block212937.processFix(this);
 
-			else if (this.blockData.getHeight() == BlockChain.getInstance().getSelfSponsorshipAlgoV1Height())
-				SelfSponsorshipAlgoV1Block.processAccountPenalties(this);
-		}
+				else if (this.blockData.getHeight() == BlockChain.getInstance().getSelfSponsorshipAlgoV1Height())
+					SelfSponsorshipAlgoV1Block.processAccountPenalties(this);
+			}
 
-		// We're about to (test-)process a batch of transactions,
-		// so create an account reference cache so get/set correct last-references.
-		try (AccountRefCache accountRefCache = new AccountRefCache(this.repository)) {
-			// Process transactions (we'll link them to this block after saving the block itself)
-			processTransactions();
+			// We're about to (test-)process a batch of transactions,
+			// so create an account reference cache so get/set correct last-references.
+			try (AccountRefCache accountRefCache = new AccountRefCache(this.repository)) {
+				// Process transactions (we'll link them to this block after saving the block itself)
+				processTransactions();
 
-			// Group-approval transactions
-			processGroupApprovalTransactions();
+				// Group-approval transactions
+				processGroupApprovalTransactions();
 
-			// Process AT fees and save AT states into repository
-			processAtFeesAndStates();
+				// Process AT fees and save AT states into repository
+				processAtFeesAndStates();
 
-			// Commit new accounts' last-reference changes
-			accountRefCache.commit();
+				// Commit new accounts' last-reference changes
+				accountRefCache.commit();
+			}
+
+			// Commit account state changes
+			accountStateCache.commit();
 		}
 
 		// Link block into blockchain by fetching signature of highest block and setting that as our reference
@@ -1702,29 +1781,38 @@ public class Block {
 	protected void linkTransactionsToBlock() throws DataException {
 		TransactionRepository transactionRepository = this.repository.getTransactionRepository();
 
-		for (int sequence = 0; sequence < transactions.size(); ++sequence) {
-			Transaction transaction = transactions.get(sequence);
-			TransactionData transactionData = transaction.getTransactionData();
+		// Send linking rows to repository in batches, rather than one at a time
+		this.repository.startBatchedUpdates();
 
-			// Link transaction to this block
-			BlockTransactionData blockTransactionData = new BlockTransactionData(this.getSignature(), sequence,
-					transactionData.getSignature());
-			this.repository.getBlockRepository().save(blockTransactionData);
+		try {
+			for (int sequence = 0; sequence < transactions.size(); ++sequence) {
+				Transaction transaction = transactions.get(sequence);
+				TransactionData transactionData = transaction.getTransactionData();
 
-			// Update transaction's height in repository and local transactionData
-			transactionRepository.updateBlockHeight(transactionData.getSignature(), this.blockData.getHeight());
-			transaction.getTransactionData().setBlockHeight(this.blockData.getHeight());
+				// Link transaction to this block
+				BlockTransactionData blockTransactionData = new BlockTransactionData(this.getSignature(), sequence,
+						transactionData.getSignature());
+				this.repository.getBlockRepository().save(blockTransactionData);
 
-			// Update transaction's sequence in repository and local transactionData
-			transactionRepository.updateBlockSequence(transactionData.getSignature(), sequence);
-			transaction.getTransactionData().setBlockSequence(sequence);
+				// Update transaction's height in repository and local transactionData
+				transactionRepository.updateBlockHeight(transactionData.getSignature(), this.blockData.getHeight());
+				transaction.getTransactionData().setBlockHeight(this.blockData.getHeight());
 
-			// No longer unconfirmed
-			transactionRepository.confirmTransaction(transactionData.getSignature());
+				// Update transaction's sequence in repository and local transactionData
+				transactionRepository.updateBlockSequence(transactionData.getSignature(), sequence);
+				transaction.getTransactionData().setBlockSequence(sequence);
 
-			List<String> participantAddresses = transaction.getInvolvedAddresses();
-			transactionRepository.saveParticipants(transactionData, participantAddresses);
+				List<String> participantAddresses = transaction.getInvolvedAddresses();
+				transactionRepository.saveParticipants(transactionData, participantAddresses);
+			}
+		} finally {
+			// Even if linking failed, stop batching so repository isn't left queueing
+			this.repository.executeBatchedUpdates();
 		}
+
+		// No longer unconfirmed (done separately as deletes would interrupt batching above)
+		for (Transaction transaction : transactions)
+			transactionRepository.confirmTransaction(transaction.getTransactionData().getSignature());
 	}
 
 	/**
@@ -1738,31 +1826,37 @@ public class Block {
 		// Log some debugging info relating to the block weight calculation
 		this.logDebugInfo();
 
-		// Return AT fees and delete AT states from repository
-		orphanAtFeesAndStates();
+		// Hold account state changes in memory, writing final values in one go after all changes
+		try (AccountStateCache accountStateCache = new AccountStateCache(this.repository)) {
+			// Return AT fees and delete AT states from repository
+			orphanAtFeesAndStates();
 
-		// Orphan, and unlink, transactions from this block
-		orphanTransactionsFromBlock();
+			// Orphan, and unlink, transactions from this block
+			orphanTransactionsFromBlock();
 
-		// Undo any group-approval decisions that happen at this block
-		orphanGroupApprovalTransactions();
+			// Undo any group-approval decisions that happen at this block
+			orphanGroupApprovalTransactions();
 
-		if (this.blockData.getHeight() > 1) {
-			// Invalidate expandedAccounts as they may have changed due to orphaning TRANSFER_PRIVS transactions, etc.
-			this.cachedExpandedAccounts = null;
+			if (this.blockData.getHeight() > 1) {
+				// Invalidate expandedAccounts as they may have changed due to orphaning TRANSFER_PRIVS transactions, etc.
+				this.cachedExpandedAccounts = null;
 
-			if (this.blockData.getHeight() == 212937)
-				// Revert fix for block 212937
-				Block212937.orphanFix(this);
+				if (this.blockData.getHeight() == 212937)
+					// Revert fix for block 212937
+					Block212937.orphanFix(this);
 
-			else if (this.blockData.getHeight() == BlockChain.getInstance().getSelfSponsorshipAlgoV1Height())
-				SelfSponsorshipAlgoV1Block.orphanAccountPenalties(this);
+				else if (this.blockData.getHeight() == BlockChain.getInstance().getSelfSponsorshipAlgoV1Height())
+					SelfSponsorshipAlgoV1Block.orphanAccountPenalties(this);
 
-			// Block rewards, including transaction fees, removed after transactions undone
-			orphanBlockRewards();
+				// Block rewards, including transaction fees, removed after transactions undone
+				orphanBlockRewards();
+
+				// Decrease account levels
+				decreaseAccountLevels();
+			}
 
-			// Decrease account levels
-			decreaseAccountLevels();
+			// Commit account state changes
+			accountStateCache.commit();
 		}
 
 		// Delete block from blockchain
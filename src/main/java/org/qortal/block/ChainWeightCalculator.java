@@ -0,0 +1,203 @@
+package org.qortal.block;
+
+import java.math.BigInteger;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.qortal.utils.NTP;
+
+/**
+ * Allocation-light equivalent of {@link Block#calcChainWeight(int, byte[], java.util.List, int)},
+ * working on {@link CompactBlockSummaries}.
+ * <p>
+ * Key distances and block weights are calculated using fixed-width arithmetic on 32-bit words
+ * (least-significant word first) instead of {@link BigInteger}s. Block weights are then added straight into
+ * a single chain weight accumulator, at the bit offset their later left-shifts would have moved them to.
+ * Only the final chain weight is converted into a <tt>BigInteger</tt>.
+ * <p>
+ * Reuses internal buffers, so instances are <b>not</b> thread-safe.
+ */
+public class ChainWeightCalculator {
+
+	/** Number of 32-bit words in a key, or key distance. */
+	private static final int KEY_WORDS = 8;
+	/** Block weight is online accounts count (one word) shifted above key distance. */
+	private static final int BLOCK_WEIGHT_WORDS = KEY_WORDS + 1;
+	/** Must match Block's CHAIN_WEIGHT_SHIFT */
+	private static final int CHAIN_WEIGHT_SHIFT = 8;
+
+	private static final long WORD_MASK = 0xFFFFFFFFL;
+
+	private final MessageDigest sha256;
+
+	private final byte[] heightBytes = new byte[8];
+	private final byte[] digest = new byte[KEY_WORDS * 4];
+	/** Sign-extended keys, one word longer than a key so subtraction can't overflow */
+	private final int[] idealKey = new int[KEY_WORDS + 1];
+	private final int[] perturbedKey = new int[KEY_WORDS + 1];
+	private final int[] blockWeight = new int[BLOCK_WEIGHT_WORDS];
+
+	public ChainWeightCalculator() {
+		try {
+			this.sha256 = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 message digest not available");
+		}
+	}
+
+	/**
+	 * Returns cumulative chain weight of <tt>blockSummaries</tt>, which follow common block.
+	 * <p>
+	 * Always returns the same value as {@link Block#calcChainWeight(int, byte[], java.util.List, int)}
+	 * given the same summaries.
+	 */
+	public BigInteger calcChainWeight(int commonBlockHeight, byte[] commonBlockSignature, CompactBlockSummaries blockSummaries, int maxHeight) {
+		final int blockCount = countBlocks(blockSummaries, maxHeight);
+		if (blockCount == 0)
+			return BigInteger.ZERO;
+
+		// Earliest block weight ends up shifted furthest left. Extra word covers carries from summing all the block weights.
+		final int chainWeightBits = (blockCount - 1) * CHAIN_WEIGHT_SHIFT + BLOCK_WEIGHT_WORDS * 32;
+		int[] chainWeight = new int[(chainWeightBits + 31) / 32 + 1];
+
+		final byte[] signatures = blockSummaries.getSignatures();
+		final byte[] minterPublicKeys = blockSummaries.getMinterPublicKeys();
+
+		for (int i = 0; i < blockCount; ++i) {
+			if (i == 0)
+				this.digestKey(this.idealKey, commonBlockHeight, commonBlockSignature, 0, commonBlockSignature.length);
+			else
+				this.digestKey(this.idealKey, blockSummaries.getHeight(i - 1), signatures, blockSummaries.getSignatureOffset(i - 1), blockSummaries.getSignatureLength(i - 1));
+
+			int parentHeight = i == 0 ? commonBlockHeight : blockSummaries.getHeight(i - 1);
+			this.digestKey(this.perturbedKey, parentHeight + 1, minterPublicKeys, blockSummaries.getMinterPublicKeyOffset(i), blockSummaries.getMinterPublicKeyLength(i));
+
+			this.calcBlockWeight(blockSummaries.getMinterLevel(i), blockSummaries.getOnlineAccountsCount(i));
+
+			addShifted(chainWeight, this.blockWeight, (blockCount - 1 - i) * CHAIN_WEIGHT_SHIFT);
+		}
+
+		return toBigInteger(chainWeight);
+	}
+
+	/** Returns number of summaries that contribute to chain weight, as per Block.calcChainWeight(). */
+	private static int countBlocks(CompactBlockSummaries blockSummaries, int maxHeight) {
+		// After this timestamp, we only compare the same number of blocks
+		if (NTP.getTime() < BlockChain.getInstance().getCalcChainWeightTimestamp())
+			return blockSummaries.size();
+
+		for (int i = 0; i < blockSummaries.size(); ++i)
+			if (blockSummaries.getHeight(i) >= maxHeight)
+				return i + 1;
+
+		return blockSummaries.size();
+	}
+
+	/** Sets <tt>key</tt> to SHA-256 digest of height (as long) and data, as a sign-extended two's-complement number. */
+	private void digestKey(int[] key, int height, byte[] data, int offset, int length) {
+		long heightLong = height;
+		for (int b = 7; b >= 0; --b) {
+			this.heightBytes[b] = (byte) heightLong;
+			heightLong >>= 8;
+		}
+
+		this.sha256.update(this.heightBytes);
+		this.sha256.update(data, offset, length);
+
+		try {
+			this.sha256.digest(this.digest, 0, this.digest.length);
+		} catch (DigestException e) {
+			throw new RuntimeException("Unable to calculate SHA-256 digest", e);
+		}
+
+		// Digest is big-endian
+		for (int w = 0; w < KEY_WORDS; ++w) {
+			int d = (KEY_WORDS - 1 - w) * 4;
+			key[w] = (this.digest[d] & 0xFF) << 24 | (this.digest[d + 1] & 0xFF) << 16 | (this.digest[d + 2] & 0xFF) << 8 | (this.digest[d + 3] & 0xFF);
+		}
+
+		// Sign extension, as per new BigInteger(byte[])
+		key[KEY_WORDS] = this.digest[0] < 0 ? -1 : 0;
+	}
+
+	/**
+	 * Sets <tt>blockWeight</tt> to <tt>(onlineAccountsCount << 256) + (MAX_DISTANCE - |idealKey - perturbedKey|) / minterLevel</tt>.
+	 */
+	private void calcBlockWeight(int minterLevel, int onlineAccountsCount) {
+		if (minterLevel <= 0)
+			throw new ArithmeticException("Minter level must be positive");
+
+		// difference = idealKey - perturbedKey, reusing idealKey
+		int[] difference = this.idealKey;
+		long borrow = 0;
+		for (int w = 0; w <= KEY_WORDS; ++w) {
+			long result = (difference[w] & WORD_MASK) - (this.perturbedKey[w] & WORD_MASK) - borrow;
+			difference[w] = (int) result;
+			borrow = (result >>> 63);
+		}
+
+		// Absolute value: two's-complement negate if negative
+		if (difference[KEY_WORDS] < 0) {
+			long carry = 1;
+			for (int w = 0; w <= KEY_WORDS; ++w) {
+				long result = (~difference[w] & WORD_MASK) + carry;
+				difference[w] = (int) result;
+				carry = result >>> 32;
+			}
+		}
+
+		// |difference| < 2^256 so MAX_DISTANCE (2^256 - 1) minus difference is simply bitwise NOT of lowest 256 bits.
+		// Then divide by minter level, most-significant word first.
+		long remainder = 0;
+		for (int w = KEY_WORDS - 1; w >= 0; --w) {
+			long dividend = (remainder << 32) | (~difference[w] & WORD_MASK);
+			this.blockWeight[w] = (int) (dividend / minterLevel);
+			remainder = dividend % minterLevel;
+		}
+
+		this.blockWeight[KEY_WORDS] = onlineAccountsCount;
+	}
+
+	/** Adds <tt>value</tt>, shifted left by <tt>shift</tt> bits, into <tt>accumulator</tt>. */
+	private static void addShifted(int[] accumulator, int[] value, int shift) {
+		final int wordShift = shift >>> 5;
+		final int bitShift = shift & 31;
+
+		long carry = 0;
+		int w = 0;
+
+		// One extra word to hold bits shifted out of the most-significant word
+		for (; w <= value.length; ++w) {
+			long low = w > 0 ? (value[w - 1] & WORD_MASK) : 0;
+			long high = w < value.length ? (value[w] & WORD_MASK) : 0;
+
+			long shiftedWord = bitShift == 0 ? high : ((high << bitShift) | (low >>> (32 - bitShift))) & WORD_MASK;
+
+			long result = (accumulator[wordShift + w] & WORD_MASK) + shiftedWord + carry;
+			accumulator[wordShift + w] = (int) result;
+			carry = result >>> 32;
+		}
+
+		for (int a = wordShift + w; carry != 0; ++a) {
+			long result = (accumulator[a] & WORD_MASK) + carry;
+			accumulator[a] = (int) result;
+			carry = result >>> 32;
+		}
+	}
+
+	private static BigInteger toBigInteger(int[] words) {
+		byte[] bytes = new byte[words.length * 4];
+
+		for (int w = 0; w < words.length; ++w) {
+			int b = (words.length - 1 - w) * 4;
+			bytes[b] = (byte) (words[w] >>> 24);
+			bytes[b + 1] = (byte) (words[w] >>> 16);
+			bytes[b + 2] = (byte) (words[w] >>> 8);
+			bytes[b + 3] = (byte) words[w];
+		}
+
+		return new BigInteger(1, bytes);
+	}
+
+}
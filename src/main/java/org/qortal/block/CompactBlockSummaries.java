@@ -0,0 +1,131 @@
+package org.qortal.block;
+
+import java.util.List;
+
+import org.qortal.data.block.BlockSummaryData;
+
+/**
+ * Block summaries held in primitive arrays, for chain weight calculations.
+ * <p>
+ * Signatures and minter public keys are packed into single byte arrays, indexed via offsets,
+ * so a whole list of summaries costs a handful of allocations instead of several per summary.
+ * <p>
+ * Minter levels must already be populated in the summaries used to build this,
+ * e.g. via {@link org.qortal.controller.Synchronizer#populateBlockSummariesMinterLevels}.
+ */
+public class CompactBlockSummaries {
+
+	private final int count;
+
+	private final int[] heights;
+	private final int[] onlineAccountsCounts;
+	private final int[] minterLevels;
+
+	/** All signatures, concatenated. Signature <tt>i</tt> runs from <tt>signatureOffsets[i]</tt> to <tt>signatureOffsets[i + 1]</tt>. */
+	private final byte[] signatures;
+	private final int[] signatureOffsets;
+
+	/** All minter public keys, concatenated. Key <tt>i</tt> runs from <tt>minterPublicKeyOffsets[i]</tt> to <tt>minterPublicKeyOffsets[i + 1]</tt>. */
+	private final byte[] minterPublicKeys;
+	private final int[] minterPublicKeyOffsets;
+
+	private CompactBlockSummaries(int[] heights, int[] onlineAccountsCounts, int[] minterLevels,
+			byte[] signatures, int[] signatureOffsets, byte[] minterPublicKeys, int[] minterPublicKeyOffsets) {
+		this.count = heights.length;
+
+		this.heights = heights;
+		this.onlineAccountsCounts = onlineAccountsCounts;
+		this.minterLevels = minterLevels;
+
+		this.signatures = signatures;
+		this.signatureOffsets = signatureOffsets;
+
+		this.minterPublicKeys = minterPublicKeys;
+		this.minterPublicKeyOffsets = minterPublicKeyOffsets;
+	}
+
+	/**
+	 * Returns compact copy of <tt>blockSummaries</tt>.
+	 *
+	 * @throws NullPointerException if any summary is missing online accounts count or minter level
+	 */
+	public static CompactBlockSummaries fromBlockSummaries(List<BlockSummaryData> blockSummaries) {
+		final int count = blockSummaries.size();
+
+		int[] heights = new int[count];
+		int[] onlineAccountsCounts = new int[count];
+		int[] minterLevels = new int[count];
+		int[] signatureOffsets = new int[count + 1];
+		int[] minterPublicKeyOffsets = new int[count + 1];
+
+		for (int i = 0; i < count; ++i) {
+			BlockSummaryData blockSummary = blockSummaries.get(i);
+
+			heights[i] = blockSummary.getHeight();
+			onlineAccountsCounts[i] = blockSummary.getOnlineAccountsCount();
+			minterLevels[i] = blockSummary.getMinterLevel();
+
+			signatureOffsets[i + 1] = signatureOffsets[i] + blockSummary.getSignature().length;
+			minterPublicKeyOffsets[i + 1] = minterPublicKeyOffsets[i] + blockSummary.getMinterPublicKey().length;
+		}
+
+		byte[] signatures = new byte[signatureOffsets[count]];
+		byte[] minterPublicKeys = new byte[minterPublicKeyOffsets[count]];
+
+		for (int i = 0; i < count; ++i) {
+			BlockSummaryData blockSummary = blockSummaries.get(i);
+
+			byte[] signature = blockSummary.getSignature();
+			System.arraycopy(signature, 0, signatures, signatureOffsets[i], signature.length);
+
+			byte[] minterPublicKey = blockSummary.getMinterPublicKey();
+			System.arraycopy(minterPublicKey, 0, minterPublicKeys, minterPublicKeyOffsets[i], minterPublicKey.length);
+		}
+
+		return new CompactBlockSummaries(heights, onlineAccountsCounts, minterLevels,
+				signatures, signatureOffsets, minterPublicKeys, minterPublicKeyOffsets);
+	}
+
+	public int size() {
+		return this.count;
+	}
+
+	public int getHeight(int index) {
+		return this.heights[index];
+	}
+
+	public int getOnlineAccountsCount(int index) {
+		return this.onlineAccountsCounts[index];
+	}
+
+	public int getMinterLevel(int index) {
+		return this.minterLevels[index];
+	}
+
+	/** Returns backing array containing all signatures. Do not modify! */
+	public byte[] getSignatures() {
+		return this.signatures;
+	}
+
+	public int getSignatureOffset(int index) {
+		return this.signatureOffsets[index];
+	}
+
+	public int getSignatureLength(int index) {
+		return this.signatureOffsets[index + 1] - this.signatureOffsets[index];
+	}
+
+	/** Returns backing array containing all minter public keys. Do not modify! */
+	public byte[] getMinterPublicKeys() {
+		return this.minterPublicKeys;
+	}
+
+	public int getMinterPublicKeyOffset(int index) {
+		return this.minterPublicKeyOffsets[index];
+	}
+
+	public int getMinterPublicKeyLength(int index) {
+		return this.minterPublicKeyOffsets[index + 1] - this.minterPublicKeyOffsets[index];
+	}
+
+}
@@ -0,0 +1,265 @@
+package org.qortal.controller;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import org.qortal.network.message.Message;
+import org.qortal.network.message.MessageException;
+import org.qortal.network.message.MessageType;
+import org.qortal.transform.TransformationException;
+import org.qortal.utils.ByteArray;
+
+/**
+ * Byte-budgeted cache of serialized, outgoing block messages, shared by all peer threads.
+ * <p>
+ * Entries are keyed by block signature and the message type requested by the peer,
+ * e.g. BLOCK_V2 for newer peers, BLOCK for older peers.
+ * <p>
+ * Lookups are lock-free. Once total size of cached messages exceeds budget,
+ * the oldest entries are evicted (first-in, first-out).
+ * <p>
+ * Concurrent requests for the same uncached block are coalesced so that only one thread
+ * serializes the block while the others wait for, and share, the result.
+ */
+public class BlockMessageCache {
+
+	@FunctionalInterface
+	public interface MessageBuilder {
+		/** Returns newly built, {@link Cloneable} message, or null if message can't be built. */
+		Message build() throws TransformationException;
+	}
+
+	@XmlAccessorType(XmlAccessType.FIELD)
+	public static class Stats {
+		public long hits;
+		public long misses;
+		public long builds;
+		public long coalesced;
+		public long evictions;
+		public long oversized;
+		public int entries;
+		public long bytes;
+		public long maxBytes;
+
+		public Stats() {
+		}
+	}
+
+	private static class CacheKey {
+		private final MessageType type;
+		private final ByteArray signature;
+
+		private CacheKey(MessageType type, byte[] signature) {
+			this.type = type;
+			this.signature = ByteArray.wrap(signature);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this)
+				return true;
+
+			if (!(other instanceof CacheKey))
+				return false;
+
+			CacheKey otherKey = (CacheKey) other;
+
+			return this.type == otherKey.type && this.signature.equals(otherKey.signature);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.type, this.signature);
+		}
+	}
+
+	private static class CachedMessage {
+		private final Message message;
+		private final int length;
+
+		private CachedMessage(Message message, int length) {
+			this.message = message;
+			this.length = length;
+		}
+	}
+
+	private final long maxBytes;
+
+	private final ConcurrentHashMap<CacheKey, CachedMessage> messages = new ConcurrentHashMap<>();
+	/** Keys in insertion order, for eviction. */
+	private final Queue<CacheKey> insertionOrder = new ConcurrentLinkedQueue<>();
+	/** Blocks currently being serialized, so other threads can wait for result instead of serializing too. */
+	private final ConcurrentHashMap<CacheKey, CompletableFuture<Message>> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong totalBytes = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder builds = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder oversized = new LongAdder();
+
+	public BlockMessageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns copy of cached message, of <tt>type</tt>, for block with <tt>signature</tt>, with message ID set to <tt>id</tt>.
+	 *
+	 * @return cloned message, or null if not cached
+	 */
+	public Message get(MessageType type, byte[] signature, int id) {
+		CachedMessage cachedMessage = this.messages.get(new CacheKey(type, signature));
+
+		if (cachedMessage == null) {
+			this.misses.increment();
+			return null;
+		}
+
+		this.hits.increment();
+
+		// Shared message must not have its ID changed, so we return a clone instead
+		return Message.cloneWithNewId(cachedMessage.message, id);
+	}
+
+	/**
+	 * Returns copy of cached message, of <tt>type</tt>, for block with <tt>signature</tt>, with message ID set to <tt>id</tt>,
+	 * building and caching message using <tt>builder</tt> if necessary.
+	 * <p>
+	 * If another thread is already building the same message, then we wait for, and use, their result.
+	 *
+	 * @return cloned message, or null if <tt>builder</tt> returned null
+	 */
+	public Message getOrBuild(MessageType type, byte[] signature, int id, MessageBuilder builder) throws TransformationException {
+		CacheKey key = new CacheKey(type, signature);
+
+		CachedMessage cachedMessage = this.messages.get(key);
+		if (cachedMessage != null) {
+			this.hits.increment();
+			return Message.cloneWithNewId(cachedMessage.message, id);
+		}
+
+		CompletableFuture<Message> ourBuild = new CompletableFuture<>();
+		CompletableFuture<Message> otherBuild = this.inFlight.putIfAbsent(key, ourBuild);
+
+		if (otherBuild != null) {
+			this.coalesced.increment();
+
+			try {
+				Message message = otherBuild.get();
+				if (message != null)
+					return Message.cloneWithNewId(message, id);
+			} catch (ExecutionException e) {
+				// Other thread failed to build message, so we'll try ourselves below
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+
+			Message message = builder.build();
+			if (message == null)
+				return null;
+
+			this.builds.increment();
+			return Message.cloneWithNewId(message, id);
+		}
+
+		try {
+			// Another thread might have finished building just before we registered our build
+			cachedMessage = this.messages.get(key);
+			if (cachedMessage != null) {
+				ourBuild.complete(cachedMessage.message);
+				return Message.cloneWithNewId(cachedMessage.message, id);
+			}
+
+			Message message = builder.build();
+			this.builds.increment();
+
+			if (message != null)
+				this.put(key, message);
+
+			ourBuild.complete(message);
+
+			return message != null ? Message.cloneWithNewId(message, id) : null;
+		} catch (TransformationException | RuntimeException e) {
+			ourBuild.completeExceptionally(e);
+			throw e;
+		} finally {
+			this.inFlight.remove(key, ourBuild);
+		}
+	}
+
+	/**
+	 * Caches <tt>message</tt>, which must be {@link Cloneable} and not modified after being passed.
+	 */
+	public void put(MessageType type, byte[] signature, Message message) {
+		this.put(new CacheKey(type, signature), message);
+	}
+
+	private void put(CacheKey key, Message message) {
+		if (this.maxBytes <= 0)
+			// Cache disabled
+			return;
+
+		int length;
+		try {
+			length = message.getFramedLength();
+		} catch (MessageException e) {
+			// Message too large to send, so don't bother caching
+			this.oversized.increment();
+			return;
+		}
+
+		if (length > this.maxBytes) {
+			this.oversized.increment();
+			return;
+		}
+
+		if (this.messages.putIfAbsent(key, new CachedMessage(message, length)) != null)
+			// Already cached
+			return;
+
+		this.insertionOrder.add(key);
+		long totalBytes = this.totalBytes.addAndGet(length);
+
+		while (totalBytes > this.maxBytes) {
+			CacheKey eldestKey = this.insertionOrder.poll();
+			if (eldestKey == null)
+				break;
+
+			CachedMessage evictedMessage = this.messages.remove(eldestKey);
+			if (evictedMessage == null)
+				continue;
+
+			this.evictions.increment();
+			totalBytes = this.totalBytes.addAndGet(-evictedMessage.length);
+		}
+	}
+
+	public Stats getStats() {
+		Stats stats = new Stats();
+
+		stats.hits = this.hits.sum();
+		stats.misses = this.misses.sum();
+		stats.builds = this.builds.sum();
+		stats.coalesced = this.coalesced.sum();
+		stats.evictions = this.evictions.sum();
+		stats.oversized = this.oversized.sum();
+		stats.entries = this.messages.size();
+		stats.bytes = this.totalBytes.get();
+		stats.maxBytes = this.maxBytes;
+
+		return stats;
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.qortal.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.qortal.network.message.Message;
+import org.qortal.network.message.MessageType;
+import org.qortal.utils.ByteArray;
+
+/**
+ * Cache of pre-serialized replies to GET_BLOCK_SUMMARIES and GET_SIGNATURES_V2 requests.
+ * <p>
+ * Many peers syncing from us ask for the same ranges of blocks, so rather than rebuilding
+ * each reply from the repository, the serialized reply message is shared and only cloned with a new message ID.
+ * <p>
+ * Only full replies (containing as many entries as requested) should be cached, as these don't change
+ * when new blocks are added to our chain. Each reply records the height of the last block it covers, so that
+ * replies covering orphaned blocks can be invalidated.
+ * <p>
+ * Least-recently used replies are evicted once cache is full.
+ */
+public class BlockReplyCache {
+
+	private static class ReplyKey {
+		private final MessageType type;
+		private final ByteArray parentSignature;
+		private final int numberRequested;
+
+		private ReplyKey(MessageType type, byte[] parentSignature, int numberRequested) {
+			this.type = type;
+			this.parentSignature = ByteArray.wrap(parentSignature);
+			this.numberRequested = numberRequested;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this)
+				return true;
+
+			if (!(other instanceof ReplyKey))
+				return false;
+
+			ReplyKey otherKey = (ReplyKey) other;
+
+			return this.type == otherKey.type
+					&& this.numberRequested == otherKey.numberRequested
+					&& this.parentSignature.equals(otherKey.parentSignature);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.type, this.parentSignature, this.numberRequested);
+		}
+	}
+
+	private static class CachedReply {
+		private final Message message;
+		/** Height of last block covered by reply */
+		private final int lastHeight;
+
+		private CachedReply(Message message, int lastHeight) {
+			this.message = message;
+			this.lastHeight = lastHeight;
+		}
+	}
+
+	private final int maxReplies;
+	/** Incremented whenever replies are invalidated */
+	private long generation = 0;
+
+	@SuppressWarnings("serial")
+	private final LinkedHashMap<ReplyKey, CachedReply> replies = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ReplyKey, CachedReply> eldest) {
+			return this.size() > BlockReplyCache.this.maxReplies;
+		}
+	};
+
+	public BlockReplyCache(int maxReplies) {
+		this.maxReplies = maxReplies;
+	}
+
+	/**
+	 * Returns copy of cached reply, of <tt>type</tt>, for blocks following <tt>parentSignature</tt>, with message ID set to <tt>id</tt>.
+	 *
+	 * @return cloned reply message, or null if not cached
+	 */
+	public synchronized Message get(MessageType type, byte[] parentSignature, int numberRequested, int id) {
+		CachedReply cachedReply = this.replies.get(new ReplyKey(type, parentSignature, numberRequested));
+		if (cachedReply == null)
+			return null;
+
+		// Shared message must not have its ID changed, so we return a clone instead
+		return Message.cloneWithNewId(cachedReply.message, id);
+	}
+
+	/**
+	 * Returns value to pass to {@link #put(long, byte[], int, int, Message)}, obtained <i>before</i> building reply.
+	 */
+	public synchronized long getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * Caches <tt>message</tt>, a full reply covering blocks following <tt>parentSignature</tt>, up to and including <tt>lastHeight</tt>.
+	 * <p>
+	 * Reply is silently dropped if cache has been invalidated since <tt>generation</tt> was obtained,
+	 * as reply might have been built from blocks that were being orphaned.
+	 * <p>
+	 * <tt>message</tt> must be {@link Cloneable} and must not be modified after being passed.
+	 */
+	public synchronized void put(long generation, byte[] parentSignature, int numberRequested, int lastHeight, Message message) {
+		if (this.maxReplies <= 0 || generation != this.generation)
+			return;
+
+		this.replies.put(new ReplyKey(message.getType(), parentSignature, numberRequested), new CachedReply(message, lastHeight));
+	}
+
+	/**
+	 * Discards any replies covering blocks at <tt>height</tt> or above, e.g. because those blocks have been orphaned.
+	 */
+	public synchronized void invalidateFrom(int height) {
+		++this.generation;
+		this.replies.values().removeIf(cachedReply -> cachedReply.lastHeight >= height);
+	}
+
+	public synchronized void clear() {
+		++this.generation;
+		this.replies.clear();
+	}
+
+	public synchronized int size() {
+		return this.replies.size();
+	}
+
+}
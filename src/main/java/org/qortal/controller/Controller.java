@@ -1,6 +1,6 @@
 package org.qortal.controller;
 
-import java.awt.TrayIcon.MessageType;
+import java.awt.TrayIcon;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -39,6 +39,7 @@ import org.qortal.block.BlockChain;
 import org.qortal.block.BlockChain.BlockTimingByHeight;
 import org.qortal.controller.arbitrary.*;
 import org.qortal.controller.repository.PruneManager;
+import org.qortal.controller.repository.RepositoryMaintenanceScheduler;
 import org.qortal.controller.repository.NamesDatabaseIntegrityCheck;
 import org.qortal.controller.tradebot.TradeBot;
 import org.qortal.data.account.AccountBalanceData;
@@ -102,18 +103,14 @@ public class Controller extends Thread {
 	/** Latest blocks on our chain. Note: tail/last is the latest block. */
 	private final Deque<BlockData> latestBlocks = new LinkedList<>();
 
-	/** Cache of BlockMessages, indexed by block signature */
-	@SuppressWarnings("serial")
-	private final LinkedHashMap<ByteArray, CachedBlockMessage> blockMessageCache = new LinkedHashMap<>() {
-		@Override
-		protected boolean removeEldestEntry(Map.Entry<ByteArray, CachedBlockMessage> eldest) {
-			return this.size() > Settings.getInstance().getBlockCacheSize();
-		}
-	};
+	/** Cache of serialized block messages, indexed by block signature, shared by all peers */
+	private final BlockMessageCache blockMessageCache = new BlockMessageCache(Settings.getInstance().getBlockMessageCacheMaxBytes());
+
+	/** Cache of pre-serialized BLOCK_SUMMARIES / SIGNATURES replies, for peers syncing from further back than latestBlocks */
+	private final BlockReplyCache blockReplyCache = new BlockReplyCache(Settings.getInstance().getBlockReplyCacheSize());
 
 	private long repositoryBackupTimestamp = startTime; // ms
 	private long repositoryMaintenanceTimestamp = startTime; // ms
-	private long repositoryCheckpointTimestamp = startTime; // ms
 	private long prunePeersTimestamp = startTime; // ms
 	private long ntpCheckTimestamp = startTime; // ms
 	private long deleteExpiredTimestamp = startTime + DELETE_EXPIRED_INTERVAL; // ms
@@ -142,6 +139,8 @@ public class Controller extends Thread {
 			public AtomicLong requests = new AtomicLong();
 			public AtomicLong cacheHits = new AtomicLong();
 			public AtomicLong fullyFromCache = new AtomicLong();
+			public AtomicLong replyCacheHits = new AtomicLong();
+			public AtomicLong replyCacheFills = new AtomicLong();
 
 			public GetBlockSummariesStats() {
 			}
@@ -152,6 +151,8 @@ public class Controller extends Thread {
 			public AtomicLong requests = new AtomicLong();
 			public AtomicLong cacheHits = new AtomicLong();
 			public AtomicLong fullyFromCache = new AtomicLong();
+			public AtomicLong replyCacheHits = new AtomicLong();
+			public AtomicLong replyCacheFills = new AtomicLong();
 
 			public GetBlockSignaturesV2Stats() {
 			}
@@ -335,6 +336,9 @@ public class Controller extends Thread {
 			BlockData blockData = repository.getBlockRepository().getLastBlock();
 			int blockCacheSize = Settings.getInstance().getBlockCacheSize();
 
+			// Cached replies might cover blocks that are no longer on our chain
+			this.blockReplyCache.clear();
+
 			synchronized (this.latestBlocks) {
 				this.latestBlocks.clear();
 
@@ -517,6 +521,9 @@ public class Controller extends Thread {
 		LOGGER.info("Starting transaction importer");
 		TransactionImporter.getInstance().start();
 
+		LOGGER.info("Starting repository maintenance scheduler");
+		RepositoryMaintenanceScheduler.getInstance().start();
+
 		// Auto-update service?
 		if (Settings.getInstance().isAutoUpdateEnabled()) {
 			LOGGER.info("Starting auto-update");
@@ -580,7 +587,6 @@ public class Controller extends Thread {
 		Thread.currentThread().setName("Qortal");
 
 		final long repositoryBackupInterval = Settings.getInstance().getRepositoryBackupInterval();
-		final long repositoryCheckpointInterval = Settings.getInstance().getRepositoryCheckpointInterval();
 		long repositoryMaintenanceInterval = getRandomRepositoryMaintenanceInterval();
 		final long prunePeersInterval = 5 * 60 * 1000L; // Every 5 minutes
 
@@ -623,13 +629,6 @@ public class Controller extends Thread {
 				// Clean up arbitrary data queues and lists
 				ArbitraryDataBuildManager.getInstance().cleanupQueues(now);
 
-				// Time to 'checkpoint' uncommitted repository writes?
-				if (now >= repositoryCheckpointTimestamp + repositoryCheckpointInterval) {
-					repositoryCheckpointTimestamp = now + repositoryCheckpointInterval;
-
-					RepositoryManager.setRequestedCheckpoint(Boolean.TRUE);
-				}
-
 				// Give repository a chance to backup (if enabled)
 				if (repositoryBackupInterval > 0 && now >= repositoryBackupTimestamp + repositoryBackupInterval) {
 					repositoryBackupTimestamp = now + repositoryBackupInterval;
@@ -637,7 +636,7 @@ public class Controller extends Thread {
 					if (Settings.getInstance().getShowBackupNotification())
 						SysTray.getInstance().showMessage(Translator.INSTANCE.translate("SysTray", "DB_BACKUP"),
 								Translator.INSTANCE.translate("SysTray", "CREATING_BACKUP_OF_DB_FILES"),
-								MessageType.INFO);
+								TrayIcon.MessageType.INFO);
 
 					try {
 						// Timeout if the database isn't ready for backing up after 60 seconds
@@ -653,27 +652,9 @@ public class Controller extends Thread {
 				if (repositoryMaintenanceInterval > 0 && now >= repositoryMaintenanceTimestamp + repositoryMaintenanceInterval) {
 					repositoryMaintenanceTimestamp = now + repositoryMaintenanceInterval;
 
-					if (Settings.getInstance().getShowMaintenanceNotification())
-						SysTray.getInstance().showMessage(Translator.INSTANCE.translate("SysTray", "DB_MAINTENANCE"),
-								Translator.INSTANCE.translate("SysTray", "PERFORMING_DB_MAINTENANCE"),
-								MessageType.INFO);
-
-					LOGGER.info("Starting scheduled repository maintenance. This can take a while...");
-					int attempts = 0;
-					while (attempts <= 5) {
-						try (final Repository repository = RepositoryManager.getRepository()) {
-							attempts++;
-
-							// Timeout if the database isn't ready for maintenance after 60 seconds
-							long timeout = 60 * 1000L;
-							repository.performPeriodicMaintenance(timeout);
-
-							LOGGER.info("Scheduled repository maintenance completed");
-							break;
-						} catch (DataException | TimeoutException e) {
-							LOGGER.info("Scheduled repository maintenance failed. Retrying up to 5 times...", e);
-						}
-					}
+					// Performed at next quiet window, so as not to stall block processing
+					LOGGER.info("Requesting scheduled repository maintenance");
+					RepositoryMaintenanceScheduler.getInstance().requestMaintenance();
 
 					// Get a new random interval
 					repositoryMaintenanceInterval = getRandomRepositoryMaintenanceInterval();
@@ -972,6 +953,9 @@ public class Controller extends Thread {
 				LOGGER.info("Shutting down transaction importer");
 				TransactionImporter.getInstance().shutdown();
 
+				LOGGER.info("Shutting down repository maintenance scheduler");
+				RepositoryMaintenanceScheduler.getInstance().shutdown();
+
 				if (blockMinter != null) {
 					LOGGER.info("Shutting down block minter");
 					blockMinter.shutdown();
@@ -1099,6 +1083,9 @@ public class Controller extends Thread {
 		BlockData blockDataCopy = new BlockData(latestBlockData);
 		int blockCacheSize = Settings.getInstance().getBlockCacheSize();
 
+		// Give block processing some breathing room before any repository maintenance
+		RepositoryMaintenanceScheduler.getInstance().onNewBlock();
+
 		synchronized (this.latestBlocks) {
 			BlockData cachedChainTip = this.latestBlocks.peekLast();
 
@@ -1153,6 +1140,9 @@ public class Controller extends Thread {
 		// Protective copy
 		BlockData blockDataCopy = new BlockData(latestBlockData);
 
+		// Any cached replies covering orphaned block are now invalid
+		this.blockReplyCache.invalidateFrom(blockDataCopy.getHeight() + 1);
+
 		synchronized (this.latestBlocks) {
 			BlockData cachedChainTip = this.latestBlocks.pollLast();
 			boolean refillNeeded = false;
@@ -1380,19 +1370,17 @@ public class Controller extends Thread {
 		byte[] signature = getBlockMessage.getSignature();
 		this.stats.getBlockMessageStats.requests.incrementAndGet();
 
-		ByteArray signatureAsByteArray = ByteArray.wrap(signature);
-
-		CachedBlockMessage cachedBlockMessage = this.blockMessageCache.get(signatureAsByteArray);
-		int blockCacheSize = Settings.getInstance().getBlockCacheSize();
+		// V2 support
+		final MessageType replyType = peer.getPeersVersion() >= BlockV2Message.MIN_PEER_VERSION
+				? MessageType.BLOCK_V2
+				: MessageType.BLOCK;
 
-		// Check cached latest block message
+		// Check cached block messages
+		Message cachedBlockMessage = this.blockMessageCache.get(replyType, signature, message.getId());
 		if (cachedBlockMessage != null) {
 			this.stats.getBlockMessageStats.cacheHits.incrementAndGet();
 
-			// We need to duplicate it to prevent multiple threads setting ID on the same message
-			CachedBlockMessage clonedBlockMessage = Message.cloneWithNewId(cachedBlockMessage, message.getId());
-
-			if (!peer.sendMessage(clonedBlockMessage))
+			if (!peer.sendMessage(cachedBlockMessage))
 				peer.disconnect("failed to send block");
 
 			return;
@@ -1429,16 +1417,23 @@ public class Controller extends Thread {
 							default:
 								return;
 						}
-						blockMessage.setId(message.getId());
+
+						// If request is for a recent block, cache pristine copy for other peers
+						Integer height = serializedBlock.getC();
+						if (height != null && isRecentBlockHeight(height)) {
+							this.stats.getBlockMessageStats.cacheFills.incrementAndGet();
+							this.blockMessageCache.put(replyType, signature, blockMessage);
+
+							blockMessage = Message.cloneWithNewId(blockMessage, message.getId());
+						} else {
+							blockMessage.setId(message.getId());
+						}
 
 						// This call also causes the other needed data to be pulled in from repository
-						if (!peer.sendMessage(blockMessage)) {
+						if (!peer.sendMessage(blockMessage))
 							peer.disconnect("failed to send block");
-							// Don't fall-through to caching because failure to send might be from failure to build message
-							return;
-						}
 
-						// Sent successfully from archive, so nothing more to do
+						// Sent from archive, so nothing more to do
 						return;
 					}
 				}
@@ -1463,33 +1458,20 @@ public class Controller extends Thread {
 
 			Block block = new Block(repository, blockData);
 
-			// V2 support
-			if (peer.getPeersVersion() >= BlockV2Message.MIN_PEER_VERSION) {
-				Message blockMessage = new BlockV2Message(block);
+			Message blockMessage;
+			if (isRecentBlockHeight(blockData.getHeight())) {
+				// Recent block is only serialized once, even if many peers ask for it at the same time, e.g. freshly minted block
+				blockMessage = this.blockMessageCache.getOrBuild(replyType, signature, message.getId(), () -> {
+					this.stats.getBlockMessageStats.cacheFills.incrementAndGet();
+					return replyType == MessageType.BLOCK_V2 ? new CachedBlockV2Message(block) : new CachedBlockMessage(block);
+				});
+			} else {
+				blockMessage = replyType == MessageType.BLOCK_V2 ? new CachedBlockV2Message(block) : new CachedBlockMessage(block);
 				blockMessage.setId(message.getId());
-				if (!peer.sendMessage(blockMessage)) {
-					peer.disconnect("failed to send block");
-					// Don't fall-through to caching because failure to send might be from failure to build message
-					return;
-				}
-				return;
 			}
 
-			CachedBlockMessage blockMessage = new CachedBlockMessage(block);
-			blockMessage.setId(message.getId());
-
-			if (!peer.sendMessage(blockMessage)) {
+			if (!peer.sendMessage(blockMessage))
 				peer.disconnect("failed to send block");
-				// Don't fall-through to caching because failure to send might be from failure to build message
-				return;
-			}
-
-			// If request is for a recent block, cache it
-			if (getChainHeight() - blockData.getHeight() <= blockCacheSize) {
-				this.stats.getBlockMessageStats.cacheFills.incrementAndGet();
-
-				this.blockMessageCache.put(ByteArray.wrap(blockData.getSignature()), blockMessage);
-			}
 		} catch (DataException e) {
 			LOGGER.error(String.format("Repository issue while sending block %s to peer %s", Base58.encode(signature), peer), e);
 		} catch (TransformationException e) {
@@ -1497,6 +1479,11 @@ public class Controller extends Thread {
 		}
 	}
 
+	/** Returns whether block at <tt>height</tt> is within <tt>blockCacheSize</tt> of our chain tip, and so worth caching. */
+	private boolean isRecentBlockHeight(int height) {
+		return getChainHeight() - height <= Settings.getInstance().getBlockCacheSize();
+	}
+
 	private void onNetworkGetBlockSummariesMessage(Peer peer, Message message) {
 		GetBlockSummariesMessage getBlockSummariesMessage = (GetBlockSummariesMessage) message;
 		final byte[] parentSignature = getBlockSummariesMessage.getParentSignature();
@@ -1527,11 +1514,28 @@ public class Controller extends Thread {
 					.map(BlockSummaryData::new)
 					.collect(Collectors.toList());
 		}
+		final boolean servedFromLatestBlocks = !blockSummaries.isEmpty();
+
+		final MessageType replyType = peer.getPeersVersion() >= BlockSummariesV2Message.MINIMUM_PEER_VERSION
+				? MessageType.BLOCK_SUMMARIES_V2
+				: MessageType.BLOCK_SUMMARIES;
+		final int numberRequested = Math.min(Network.MAX_BLOCK_SUMMARIES_PER_REPLY, getBlockSummariesMessage.getNumberRequested());
+		// Taken before reading from repository, so we don't cache a reply built while blocks were being orphaned
+		final long replyCacheGeneration = this.blockReplyCache.getGeneration();
 
 		if (blockSummaries.isEmpty()) {
-			try (final Repository repository = RepositoryManager.getRepository()) {
-				int numberRequested = Math.min(Network.MAX_BLOCK_SUMMARIES_PER_REPLY, getBlockSummariesMessage.getNumberRequested());
+			// Attempt to serve pre-serialized reply
+			Message cachedReply = this.blockReplyCache.get(replyType, parentSignature, numberRequested, message.getId());
+			if (cachedReply != null) {
+				this.stats.getBlockSummariesStats.replyCacheHits.incrementAndGet();
+
+				if (!peer.sendMessage(cachedReply))
+					peer.disconnect("failed to send block summaries");
 
+				return;
+			}
+
+			try (final Repository repository = RepositoryManager.getRepository()) {
 				BlockData blockData = repository.getBlockRepository().fromReference(parentSignature);
 				if (blockData == null) {
 					// Try the archive
@@ -1567,9 +1571,18 @@ public class Controller extends Thread {
 				this.stats.getBlockSummariesStats.fullyFromCache.incrementAndGet();
 		}
 
-		Message blockSummariesMessage = peer.getPeersVersion() >= BlockSummariesV2Message.MINIMUM_PEER_VERSION
+		Message blockSummariesMessage = replyType == MessageType.BLOCK_SUMMARIES_V2
 				? new BlockSummariesV2Message(blockSummaries)
 				: new BlockSummariesMessage(blockSummaries);
+
+		// Full replies from repository won't change unless blocks are orphaned, so cache a pristine copy
+		if (!servedFromLatestBlocks && !blockSummaries.isEmpty() && blockSummaries.size() >= numberRequested) {
+			this.stats.getBlockSummariesStats.replyCacheFills.incrementAndGet();
+
+			int lastHeight = blockSummaries.get(blockSummaries.size() - 1).getHeight();
+			this.blockReplyCache.put(replyCacheGeneration, parentSignature, numberRequested, lastHeight, Message.cloneWithNewId(blockSummariesMessage, -1));
+		}
+
 		blockSummariesMessage.setId(message.getId());
 		if (!peer.sendMessage(blockSummariesMessage))
 			peer.disconnect("failed to send block summaries");
@@ -1601,10 +1614,26 @@ public class Controller extends Thread {
 					.map(BlockData::getSignature)
 					.collect(Collectors.toList());
 		}
+		final boolean servedFromLatestBlocks = !signatures.isEmpty();
+
+		final int numberRequested = getSignaturesMessage.getNumberRequested();
+		// Taken before reading from repository, so we don't cache a reply built while blocks were being orphaned
+		final long replyCacheGeneration = this.blockReplyCache.getGeneration();
+		int lastHeight = 0;
 
 		if (signatures.isEmpty()) {
+			// Attempt to serve pre-serialized reply
+			Message cachedReply = this.blockReplyCache.get(MessageType.SIGNATURES, parentSignature, numberRequested, message.getId());
+			if (cachedReply != null) {
+				this.stats.getBlockSignaturesV2Stats.replyCacheHits.incrementAndGet();
+
+				if (!peer.sendMessage(cachedReply))
+					peer.disconnect("failed to send signatures (v2)");
+
+				return;
+			}
+
 			try (final Repository repository = RepositoryManager.getRepository()) {
-				int numberRequested = getSignaturesMessage.getNumberRequested();
 				BlockData blockData = repository.getBlockRepository().fromReference(parentSignature);
 				if (blockData == null) {
 					// Try the archive
@@ -1613,6 +1642,7 @@ public class Controller extends Thread {
 
 				while (blockData != null && signatures.size() < numberRequested) {
 					signatures.add(blockData.getSignature());
+					lastHeight = blockData.getHeight();
 
 					byte[] previousSignature = blockData.getSignature();
 					blockData = repository.getBlockRepository().fromReference(previousSignature);
@@ -1632,6 +1662,16 @@ public class Controller extends Thread {
 		}
 
 		Message signaturesMessage = new SignaturesMessage(signatures);
+
+		// Full replies from repository won't change unless blocks are orphaned, so cache a pristine copy.
+		// Oversized requests aren't cached to keep cache's memory use bounded.
+		if (!servedFromLatestBlocks && !signatures.isEmpty() && signatures.size() >= numberRequested
+				&& numberRequested <= Network.MAX_SIGNATURES_PER_REPLY) {
+			this.stats.getBlockSignaturesV2Stats.replyCacheFills.incrementAndGet();
+
+			this.blockReplyCache.put(replyCacheGeneration, parentSignature, numberRequested, lastHeight, Message.cloneWithNewId(signaturesMessage, -1));
+		}
+
 		signaturesMessage.setId(message.getId());
 		if (!peer.sendMessage(signaturesMessage))
 			peer.disconnect("failed to send signatures (v2)");
@@ -2004,4 +2044,8 @@ public class Controller extends Thread {
 		return this.stats;
 	}
 
+	public BlockMessageCache.Stats getBlockMessageCacheStats() {
+		return this.blockMessageCache.getStats();
+	}
+
 }
@@ -5,6 +5,12 @@ import java.security.SecureRandom;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
@@ -16,6 +22,8 @@ import org.qortal.account.PublicKeyAccount;
 import org.qortal.block.Block;
 import org.qortal.block.Block.ValidationResult;
 import org.qortal.block.BlockChain;
+import org.qortal.block.ChainWeightCalculator;
+import org.qortal.block.CompactBlockSummaries;
 import org.qortal.data.block.BlockData;
 import org.qortal.data.block.BlockSummaryData;
 import org.qortal.data.block.CommonBlockData;
@@ -87,6 +95,20 @@ public class Synchronizer extends Thread {
 	public Long timeValidBlockLastReceived = null;
 	public Long timeInvalidBlockLastReceived = null;
 
+	/** Effective minter levels, keyed by reward-share public key, valid only at the chain tip they were looked up at. */
+	private static class MinterLevelCache {
+		private final byte[] chainTipSignature;
+		private final Map<ByteArray, Integer> minterLevels = new ConcurrentHashMap<>();
+
+		private MinterLevelCache(byte[] chainTipSignature) {
+			this.chainTipSignature = chainTipSignature;
+		}
+	}
+	private volatile MinterLevelCache minterLevelCache = null;
+
+	/** Pool for checking downloaded blocks' signatures ahead of validation, or null if disabled */
+	private final ForkJoinPool preValidationPool;
+
 	private static Synchronizer instance;
 
 	public enum SynchronizationResult {
@@ -115,6 +137,19 @@ public class Synchronizer extends Thread {
 
 	private Synchronizer() {
 		this.running = true;
+
+		if (Settings.getInstance().isSyncPreValidationEnabled()) {
+			// Leave a core for the synchronizer thread itself
+			int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+			this.preValidationPool = new ForkJoinPool(parallelism, pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("Block pre-validation " + thread.getPoolIndex());
+				return thread;
+			}, null, false);
+		} else {
+			this.preValidationPool = null;
+		}
 	}
 
 	public static Synchronizer getInstance() {
@@ -159,6 +194,9 @@ public class Synchronizer extends Thread {
 	public void shutdown() {
 		this.running = false;
 		this.interrupt();
+
+		if (this.preValidationPool != null)
+			this.preValidationPool.shutdownNow();
 	}
 
 
@@ -275,7 +313,10 @@ public class Synchronizer extends Thread {
 		int index = new SecureRandom().nextInt(peers.size());
 		Peer peer = peers.get(index);
 
-		SynchronizationResult syncResult = actuallySynchronize(peer, false);
+		// Other peers on the same chain tip can supply blocks in parallel
+		List<Peer> helperPeers = this.getPeersWithSameChainTip(peer, peers);
+
+		SynchronizationResult syncResult = actuallySynchronize(peer, helperPeers, false);
 		if (syncResult == SynchronizationResult.NO_BLOCKCHAIN_LOCK) {
 			// No blockchain lock - force a retry by returning false
 			return false;
@@ -284,7 +325,41 @@ public class Synchronizer extends Thread {
 		return true;
 	}
 
+	/**
+	 * Returns up to <tt>maxSyncBlockPeers - 1</tt> peers, other than <tt>peer</tt>, with the same chain tip as <tt>peer</tt>.
+	 */
+	private List<Peer> getPeersWithSameChainTip(Peer peer, List<Peer> peers) {
+		BlockSummaryData peerChainTipData = peer.getChainTipData();
+		if (peerChainTipData == null)
+			return Collections.emptyList();
+
+		final int maxHelperPeers = Settings.getInstance().getMaxSyncBlockPeers() - 1;
+
+		List<Peer> helperPeers = new ArrayList<>();
+		for (Peer otherPeer : peers) {
+			if (helperPeers.size() >= maxHelperPeers)
+				break;
+
+			if (otherPeer == peer)
+				continue;
+
+			BlockSummaryData otherPeerChainTipData = otherPeer.getChainTipData();
+			if (otherPeerChainTipData != null && Arrays.equals(otherPeerChainTipData.getSignature(), peerChainTipData.getSignature()))
+				helperPeers.add(otherPeer);
+		}
+
+		return helperPeers;
+	}
+
 	public SynchronizationResult actuallySynchronize(Peer peer, boolean force) throws InterruptedException {
+		return actuallySynchronize(peer, Collections.emptyList(), force);
+	}
+
+	/**
+	 * Synchronizes with <tt>peer</tt>, optionally spreading block requests across <tt>helperPeers</tt>,
+	 * which should share the same chain tip as <tt>peer</tt>.
+	 */
+	public SynchronizationResult actuallySynchronize(Peer peer, List<Peer> helperPeers, boolean force) throws InterruptedException {
 		boolean hasStatusChanged = false;
 		BlockData priorChainTip = Controller.getInstance().getChainTip();
 
@@ -303,7 +378,7 @@ public class Synchronizer extends Thread {
 			Controller.getInstance().updateSysTray();
 
 		try {
-			SynchronizationResult syncResult = Synchronizer.getInstance().synchronize(peer, force);
+			SynchronizationResult syncResult = Synchronizer.getInstance().synchronize(peer, helperPeers, force);
 			switch (syncResult) {
 				case GENESIS_ONLY:
 				case NO_COMMON_BLOCK:
@@ -605,6 +680,9 @@ public class Synchronizer extends Thread {
 
 				NumberFormat accurateFormatter = new DecimalFormat("0.################E0");
 
+				// Reused for all chain weight calculations below
+				ChainWeightCalculator chainWeightCalculator = new ChainWeightCalculator();
+
 				// Remove peers with no common block data
 				Iterator iterator = peers.iterator();
 				while (iterator.hasNext()) {
@@ -729,7 +807,8 @@ public class Synchronizer extends Thread {
 					// Calculate our chain weight
 					BigInteger ourChainWeight = BigInteger.valueOf(0);
 					if (ourBlockSummaries.size() > 0)
-						ourChainWeight = Block.calcChainWeight(commonBlockSummary.getHeight(), commonBlockSummary.getSignature(), ourBlockSummaries, maxHeightForChainWeightComparisons);
+						ourChainWeight = chainWeightCalculator.calcChainWeight(commonBlockSummary.getHeight(), commonBlockSummary.getSignature(),
+								CompactBlockSummaries.fromBlockSummaries(ourBlockSummaries), maxHeightForChainWeightComparisons);
 
 					LOGGER.debug(String.format("Our chain weight based on %d blocks is %s", (usingSameLengthChainWeight ? minChainLength : ourBlockSummaries.size()), accurateFormatter.format(ourChainWeight)));
 
@@ -761,7 +840,8 @@ public class Synchronizer extends Thread {
 
 						// Calculate cumulative chain weight of this blockchain subset, from common block to highest mutual block held by all peers in this group.
 						LOGGER.debug(String.format("About to calculate chain weight based on %d blocks for peer %s with common block %.8s (peer has %d blocks after common block)", (usingSameLengthChainWeight ? minChainLength : peerBlockSummariesAfterCommonBlock.size()), peer, Base58.encode(commonBlockSummary.getSignature()), peerAdditionalBlocksAfterCommonBlock));
-						BigInteger peerChainWeight = Block.calcChainWeight(commonBlockSummary.getHeight(), commonBlockSummary.getSignature(), peerBlockSummariesAfterCommonBlock, maxHeightForChainWeightComparisons);
+						BigInteger peerChainWeight = chainWeightCalculator.calcChainWeight(commonBlockSummary.getHeight(), commonBlockSummary.getSignature(),
+								CompactBlockSummaries.fromBlockSummaries(peerBlockSummariesAfterCommonBlock), maxHeightForChainWeightComparisons);
 						peer.getCommonBlockData().setChainWeight(peerChainWeight);
 						LOGGER.debug(String.format("Chain weight of peer %s based on %d blocks (%d - %d) is %s", peer, (usingSameLengthChainWeight ? minChainLength : peerBlockSummariesAfterCommonBlock.size()), peerBlockSummariesAfterCommonBlock.get(0).getHeight(), peerBlockSummariesAfterCommonBlock.get(peerBlockSummariesAfterCommonBlock.size()-1).getHeight(), accurateFormatter.format(peerChainWeight)));
 
@@ -927,6 +1007,16 @@ public class Synchronizer extends Thread {
 	 * @throws InterruptedException
 	 */
 	public SynchronizationResult synchronize(Peer peer, boolean force) throws InterruptedException {
+		return synchronize(peer, Collections.emptyList(), force);
+	}
+
+	/**
+	 * Attempt to synchronize blockchain with peer, also fetching blocks from <tt>helperPeers</tt>.
+	 * <p>
+	 * <tt>helperPeers</tt> are only used to supply blocks when simply applying new blocks on top of our chain.
+	 * Block signatures, and any blocks for a re-org, are always fetched from <tt>peer</tt>.
+	 */
+	public SynchronizationResult synchronize(Peer peer, List<Peer> helperPeers, boolean force) throws InterruptedException {
 		// Make sure we're the only thread modifying the blockchain
 		// If we're already synchronizing with another peer then this will also return fast
 		ReentrantLock blockchainLock = Controller.getInstance().getBlockchainLock();
@@ -1012,7 +1102,7 @@ public class Synchronizer extends Thread {
 						syncResult = syncToPeerChain(repository, commonBlockData, ourInitialHeight, peer, peerHeight, peerBlockSummaries);
 					} else {
 						// Simply fetch and apply blocks as they arrive
-						syncResult = applyNewBlocks(repository, commonBlockData, ourInitialHeight, peer, peerHeight, peerBlockSummaries);
+						syncResult = applyNewBlocks(repository, commonBlockData, ourInitialHeight, peer, helperPeers, peerHeight, peerBlockSummaries);
 					}
 
 					if (syncResult != SynchronizationResult.OK)
@@ -1457,10 +1547,10 @@ public class Synchronizer extends Thread {
 			this.timeValidBlockLastReceived = NTP.getTime();
 
 			// Save transactions attached to this block
-			for (Transaction transaction : newBlock.getTransactions()) {
-				TransactionData transactionData = transaction.getTransactionData();
-				repository.getTransactionRepository().save(transactionData);
-			}
+			List<TransactionData> transactions = newBlock.getTransactions().stream()
+					.map(Transaction::getTransactionData)
+					.collect(Collectors.toList());
+			repository.getTransactionRepository().save(transactions);
 
 			newBlock.process();
 
@@ -1482,7 +1572,7 @@ public class Synchronizer extends Thread {
 	}
 
 	private SynchronizationResult applyNewBlocks(Repository repository, BlockData commonBlockData, int ourInitialHeight,
-												 Peer peer, int peerHeight, List<BlockSummaryData> peerBlockSummaries) throws InterruptedException, DataException {
+												 Peer peer, List<Peer> helperPeers, int peerHeight, List<BlockSummaryData> peerBlockSummaries) throws InterruptedException, DataException {
 		LOGGER.debug(String.format("Fetching new blocks from peer %s", peer));
 
 		final int commonBlockHeight = commonBlockData.getHeight();
@@ -1492,93 +1582,127 @@ public class Synchronizer extends Thread {
 
 		// Fetch, and apply, blocks from peer
 		byte[] latestPeerSignature = commonBlockSig;
+		int latestPeerSignatureHeight = commonBlockHeight;
 		int maxBatchHeight = commonBlockHeight + SYNC_BATCH_SIZE;
 
-		// Convert any block summaries from above into signatures to request from peer
-		List<byte[]> peerBlockSignatures = peerBlockSummaries.stream().map(BlockSummaryData::getSignature).collect(Collectors.toList());
+		BlockFetchPipeline pipeline = new BlockFetchPipeline(repository, peer, helperPeers);
+		try {
+			// Convert any block summaries from above into signatures to request from peer
+			if (!peerBlockSummaries.isEmpty()) {
+				pipeline.addSignatures(peerBlockSummaries.stream().map(BlockSummaryData::getSignature).collect(Collectors.toList()));
+				latestPeerSignature = peerBlockSummaries.get(peerBlockSummaries.size() - 1).getSignature();
+				latestPeerSignatureHeight += peerBlockSummaries.size();
+			}
 
-		while (ourHeight < peerHeight && ourHeight < maxBatchHeight) {
-			if (Controller.isStopping())
-				return SynchronizationResult.SHUTTING_DOWN;
+			boolean peerHasMoreSignatures = true;
 
-			// Do we need more signatures?
-			if (peerBlockSignatures.isEmpty()) {
-				int numberRequested = Math.min(maxBatchHeight - ourHeight, MAXIMUM_REQUEST_SIZE);
+			while (ourHeight < peerHeight && ourHeight < maxBatchHeight) {
+				if (Controller.isStopping())
+					return SynchronizationResult.SHUTTING_DOWN;
 
-				LOGGER.trace(String.format("Requesting %d signature%s after height %d, sig %.8s",
-						numberRequested, (numberRequested != 1 ? "s": ""), ourHeight, Base58.encode(latestPeerSignature)));
+				// Do we need more signatures? Top up while there are still blocks in flight, to keep request window full
+				boolean needMoreSignatures = !pipeline.hasBlocks() || (peerHasMoreSignatures && pipeline.needsSignatures());
+				if (needMoreSignatures && latestPeerSignatureHeight < maxBatchHeight) {
+					int numberRequested = Math.min(maxBatchHeight - latestPeerSignatureHeight, MAXIMUM_REQUEST_SIZE);
 
-				peerBlockSignatures = this.getBlockSignatures(peer, latestPeerSignature, numberRequested);
+					LOGGER.trace(String.format("Requesting %d signature%s after height %d, sig %.8s",
+							numberRequested, (numberRequested != 1 ? "s": ""), latestPeerSignatureHeight, Base58.encode(latestPeerSignature)));
 
-				if (peerBlockSignatures == null || peerBlockSignatures.isEmpty()) {
-					LOGGER.info(String.format("Peer %s failed to respond with more block signatures after height %d, sig %.8s", peer,
-							ourHeight, Base58.encode(latestPeerSignature)));
-					return SynchronizationResult.NO_REPLY;
+					List<byte[]> peerBlockSignatures = this.getBlockSignatures(peer, latestPeerSignature, numberRequested);
+
+					if (peerBlockSignatures == null || peerBlockSignatures.isEmpty()) {
+						if (!pipeline.hasBlocks()) {
+							LOGGER.info(String.format("Peer %s failed to respond with more block signatures after height %d, sig %.8s", peer,
+									latestPeerSignatureHeight, Base58.encode(latestPeerSignature)));
+							return SynchronizationResult.NO_REPLY;
+						}
+
+						// Carry on with blocks we already know about
+						peerHasMoreSignatures = false;
+					} else {
+						LOGGER.trace(String.format("Received %s signature%s", peerBlockSignatures.size(), (peerBlockSignatures.size() != 1 ? "s" : "")));
+
+						pipeline.addSignatures(peerBlockSignatures);
+						latestPeerSignature = peerBlockSignatures.get(peerBlockSignatures.size() - 1);
+						latestPeerSignatureHeight += peerBlockSignatures.size();
+						peerHasMoreSignatures = true;
+					}
 				}
 
-				LOGGER.trace(String.format("Received %s signature%s", peerBlockSignatures.size(), (peerBlockSignatures.size() != 1 ? "s" : "")));
-			}
+				byte[] nextPeerSignature = pipeline.getNextSignature();
+				++ourHeight;
 
-			latestPeerSignature = peerBlockSignatures.get(0);
-			peerBlockSignatures.remove(0);
-			++ourHeight;
+				LOGGER.trace(String.format("Fetching block %d, sig %.8s", ourHeight, Base58.encode(nextPeerSignature)));
+				FetchedBlock fetchedBlock = pipeline.nextBlock();
+				LOGGER.trace(String.format("Fetched block %d, sig %.8s", ourHeight, Base58.encode(nextPeerSignature)));
 
-			LOGGER.trace(String.format("Fetching block %d, sig %.8s from %s", ourHeight, Base58.encode(latestPeerSignature), peer));
-			Block newBlock = this.fetchBlock(repository, peer, latestPeerSignature);
-			LOGGER.trace(String.format("Fetched block %d, sig %.8s from %s", ourHeight, Base58.encode(latestPeerSignature), peer));
+				Block newBlock = fetchedBlock != null ? fetchedBlock.block : null;
 
-			if (newBlock == null) {
-				LOGGER.info(String.format("Peer %s failed to respond with block for height %d, sig %.8s", peer,
-						ourHeight, Base58.encode(latestPeerSignature)));
-				return SynchronizationResult.NO_REPLY;
-			}
+				if (newBlock != null && fetchedBlock.peer != peer && !newBlock.isSignatureValid()) {
+					// Don't blame sync peer for a helper peer's bad data - drop the helper and ask sync peer instead
+					LOGGER.debug(String.format("Helper peer %s sent block with invalid signature for height %d, sig %.8s - no longer using it for this sync",
+							fetchedBlock.peer, ourHeight, Base58.encode(nextPeerSignature)));
+					pipeline.removeHelperPeer(fetchedBlock.peer);
 
-			if (!newBlock.isSignatureValid()) {
-				LOGGER.info(String.format("Peer %s sent block with invalid signature for height %d, sig %.8s", peer,
-						ourHeight, Base58.encode(latestPeerSignature)));
-				return SynchronizationResult.INVALID_DATA;
-			}
+					newBlock = this.fetchBlock(repository, peer, nextPeerSignature);
+				}
 
-			// Transactions are transmitted without approval status so determine that now
-			for (Transaction transaction : newBlock.getTransactions())
-				transaction.setInitialApprovalStatus();
+				if (newBlock == null) {
+					LOGGER.info(String.format("Peer %s failed to respond with block for height %d, sig %.8s", peer,
+							ourHeight, Base58.encode(nextPeerSignature)));
+					return SynchronizationResult.NO_REPLY;
+				}
 
-			newBlock.preProcess();
+				if (!newBlock.isSignatureValid()) {
+					LOGGER.info(String.format("Peer %s sent block with invalid signature for height %d, sig %.8s", peer,
+							ourHeight, Base58.encode(nextPeerSignature)));
+					return SynchronizationResult.INVALID_DATA;
+				}
 
-			ValidationResult blockResult = newBlock.isValid();
-			if (blockResult != ValidationResult.OK) {
-				LOGGER.info(String.format("Peer %s sent invalid block for height %d, sig %.8s: %s", peer,
-						ourHeight, Base58.encode(latestPeerSignature), blockResult.name()));
-				this.addInvalidBlockSignature(newBlock.getSignature());
-				this.timeInvalidBlockLastReceived = NTP.getTime();
-				return SynchronizationResult.INVALID_DATA;
-			}
+				// Transactions are transmitted without approval status so determine that now
+				for (Transaction transaction : newBlock.getTransactions())
+					transaction.setInitialApprovalStatus();
 
-			// Block is valid
-			this.timeValidBlockLastReceived = NTP.getTime();
+				newBlock.preProcess();
 
-			// Save transactions attached to this block
-			for (Transaction transaction : newBlock.getTransactions()) {
-				TransactionData transactionData = transaction.getTransactionData();
-				repository.getTransactionRepository().save(transactionData);
-			}
+				ValidationResult blockResult = newBlock.isValid();
+				if (blockResult != ValidationResult.OK) {
+					LOGGER.info(String.format("Peer %s sent invalid block for height %d, sig %.8s: %s", peer,
+							ourHeight, Base58.encode(nextPeerSignature), blockResult.name()));
+					this.addInvalidBlockSignature(newBlock.getSignature());
+					this.timeInvalidBlockLastReceived = NTP.getTime();
+					return SynchronizationResult.INVALID_DATA;
+				}
 
-			newBlock.process();
+				// Block is valid
+				this.timeValidBlockLastReceived = NTP.getTime();
 
-			LOGGER.trace(String.format("Processed block height %d, sig %.8s", newBlock.getBlockData().getHeight(), Base58.encode(newBlock.getBlockData().getSignature())));
+				// Save transactions attached to this block
+				List<TransactionData> transactions = newBlock.getTransactions().stream()
+						.map(Transaction::getTransactionData)
+						.collect(Collectors.toList());
+				repository.getTransactionRepository().save(transactions);
 
-			repository.saveChanges();
+				newBlock.process();
 
-			synchronized (this.syncLock) {
-				if (peer.getChainTipData() != null) {
-					this.blocksRemaining = peer.getChainTipData().getHeight() - newBlock.getBlockData().getHeight();
+				LOGGER.trace(String.format("Processed block height %d, sig %.8s", newBlock.getBlockData().getHeight(), Base58.encode(newBlock.getBlockData().getSignature())));
+
+				repository.saveChanges();
+
+				synchronized (this.syncLock) {
+					if (peer.getChainTipData() != null) {
+						this.blocksRemaining = peer.getChainTipData().getHeight() - newBlock.getBlockData().getHeight();
+					}
 				}
+
+				Controller.getInstance().onNewBlock(newBlock.getBlockData());
 			}
 
-			Controller.getInstance().onNewBlock(newBlock.getBlockData());
+			return SynchronizationResult.OK;
+		} finally {
+			// Don't leave any unwanted requests outstanding
+			pipeline.cancel();
 		}
-
-		return SynchronizationResult.OK;
 	}
 
 	private List<BlockSummaryData> getBlockSummaries(Peer peer, byte[] parentSignature, int numberRequested) throws InterruptedException {
@@ -1616,6 +1740,10 @@ public class Synchronizer extends Thread {
 		Message getBlockMessage = new GetBlockMessage(signature);
 
 		Message message = peer.getResponse(getBlockMessage);
+		return this.blockFromResponse(repository, peer, message);
+	}
+
+	private Block blockFromResponse(Repository repository, Peer peer, Message message) {
 		if (message == null) {
 			peer.getPeerData().incrementFailedSyncCount();
 			if (peer.getPeerData().getFailedSyncCount() >= MAX_CONSECUTIVE_FAILED_SYNC_ATTEMPTS) {
@@ -1647,23 +1775,251 @@ public class Synchronizer extends Thread {
 		}
 	}
 
+	/** Block returned by {@link BlockFetchPipeline}, with the peer that supplied it. */
+	private static class FetchedBlock {
+		private final Block block;
+		private final Peer peer;
+
+		private FetchedBlock(Block block, Peer peer) {
+			this.block = block;
+			this.peer = peer;
+		}
+	}
+
+	/**
+	 * Keeps a window of outstanding block requests, spread across sync peer and any helper peers with the same chain tip,
+	 * while handing back blocks strictly in height order, ready for validation and processing.
+	 * <p>
+	 * Any block that can't be obtained from the pipeline, e.g. due to timeout or a helper peer sending the wrong block,
+	 * is re-requested directly from the sync peer. Helper peers that fail are no longer used.
+	 * <p>
+	 * Blocks that arrive early are pre-validated on {@code preValidationPool} (see {@link Block#preValidate(Repository)})
+	 * while earlier blocks are processed, so their signature checks are already done by the time they're needed.
+	 */
+	private class BlockFetchPipeline {
+		private final Repository repository;
+		private final Peer peer;
+		private final List<Peer> helperPeers;
+		private final int windowSize;
+
+		/** Signatures of blocks not yet requested, in height order */
+		private final Deque<byte[]> unrequestedSignatures = new ArrayDeque<>();
+		/** Outstanding block requests, in height order */
+		private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+		private int nextPeerIndex = 0;
+
+		private class PendingBlock {
+			private final byte[] signature;
+			private final Peer peer;
+			private final CompletableFuture<Message> future;
+
+			/** Whether response has been converted into block */
+			private boolean isResolved = false;
+			/** Block, if response was the requested block */
+			private Block block;
+			private CompletableFuture<Void> preValidation;
+
+			private PendingBlock(byte[] signature, Peer peer, CompletableFuture<Message> future) {
+				this.signature = signature;
+				this.peer = peer;
+				this.future = future;
+			}
+		}
+
+		public BlockFetchPipeline(Repository repository, Peer peer, List<Peer> helperPeers) {
+			this.repository = repository;
+			this.peer = peer;
+			this.helperPeers = new ArrayList<>(helperPeers);
+			this.windowSize = Settings.getInstance().getSyncBlockRequestWindow();
+		}
+
+		public void addSignatures(List<byte[]> signatures) {
+			this.unrequestedSignatures.addAll(signatures);
+		}
+
+		/** Returns whether there are any blocks left to fetch. */
+		public boolean hasBlocks() {
+			return !this.pendingBlocks.isEmpty() || !this.unrequestedSignatures.isEmpty();
+		}
+
+		/** Returns whether more signatures are needed to keep request window full. */
+		public boolean needsSignatures() {
+			return this.unrequestedSignatures.size() < this.windowSize;
+		}
+
+		/** Returns signature of block that will be returned by next call to {@link #nextBlock()}. */
+		public byte[] getNextSignature() {
+			PendingBlock pendingBlock = this.pendingBlocks.peekFirst();
+			if (pendingBlock != null)
+				return pendingBlock.signature;
+
+			return this.unrequestedSignatures.peekFirst();
+		}
+
+		/**
+		 * Returns next block in height order, with the peer that supplied it, waiting for it to arrive if necessary.
+		 * <p>
+		 * Blocks are only matched to requests by signature, so callers must check the block's signature
+		 * before blaming its supplier.
+		 *
+		 * @return fetched block, or null if sync peer failed to supply block
+		 */
+		public FetchedBlock nextBlock() throws InterruptedException {
+			this.fill();
+
+			PendingBlock pendingBlock = this.pendingBlocks.pollFirst();
+			if (pendingBlock == null)
+				return null;
+
+			// Keep window full, and pre-validate blocks that have already arrived, while we wait
+			this.fill();
+			this.preValidateArrivedBlocks();
+
+			this.resolve(pendingBlock);
+
+			if (pendingBlock.block != null) {
+				if (pendingBlock.preValidation != null) {
+					try {
+						pendingBlock.preValidation.get();
+					} catch (ExecutionException e) {
+						// Normal validation will repeat any checks that didn't pass
+					}
+				}
+
+				return new FetchedBlock(pendingBlock.block, pendingBlock.peer);
+			}
+
+			if (pendingBlock.peer != this.peer) {
+				LOGGER.debug(String.format("Helper peer %s failed to supply block %.8s - no longer using it for this sync",
+						pendingBlock.peer, Base58.encode(pendingBlock.signature)));
+				this.removeHelperPeer(pendingBlock.peer);
+			}
+
+			// Request may have timed out while queued behind others, so try again with sync peer alone
+			Block block = fetchBlock(this.repository, this.peer, pendingBlock.signature);
+			if (block == null)
+				return null;
+
+			return new FetchedBlock(block, this.peer);
+		}
+
+		/** Stops sending requests to helper peer, e.g. after it supplied a bad block. */
+		public void removeHelperPeer(Peer helperPeer) {
+			this.helperPeers.remove(helperPeer);
+		}
+
+		/** Waits for response to <tt>pendingBlock</tt>'s request, then converts it into block if it's the block we asked for. */
+		private void resolve(PendingBlock pendingBlock) throws InterruptedException {
+			if (pendingBlock.isResolved)
+				return;
+
+			Message message;
+			try {
+				message = pendingBlock.future.get();
+			} catch (ExecutionException | CancellationException e) {
+				message = null;
+			}
+
+			pendingBlock.isResolved = true;
+
+			if (message == null)
+				return;
+
+			Block block = blockFromResponse(this.repository, pendingBlock.peer, message);
+			if (block != null && Arrays.equals(block.getSignature(), pendingBlock.signature))
+				pendingBlock.block = block;
+		}
+
+		private void preValidateArrivedBlocks() throws InterruptedException {
+			if (preValidationPool == null)
+				return;
+
+			for (PendingBlock pendingBlock : this.pendingBlocks) {
+				if (pendingBlock.isResolved || !pendingBlock.future.isDone())
+					continue;
+
+				this.resolve(pendingBlock);
+
+				final Block block = pendingBlock.block;
+				if (block != null)
+					pendingBlock.preValidation = CompletableFuture.runAsync(() -> preValidateBlock(block), preValidationPool);
+			}
+		}
+
+		/** Cancels any outstanding requests, freeing up their reply slots. */
+		public void cancel() {
+			for (PendingBlock pendingBlock : this.pendingBlocks)
+				pendingBlock.future.cancel(false);
+
+			this.pendingBlocks.clear();
+			this.unrequestedSignatures.clear();
+		}
+
+		private void fill() {
+			while (this.pendingBlocks.size() < this.windowSize && !this.unrequestedSignatures.isEmpty()) {
+				byte[] signature = this.unrequestedSignatures.pollFirst();
+				Peer requestPeer = this.choosePeer();
+
+				CompletableFuture<Message> future = requestPeer.sendRequest(new GetBlockMessage(signature));
+				this.pendingBlocks.addLast(new PendingBlock(signature, requestPeer, future));
+			}
+		}
+
+		/** Round-robin across sync peer and helper peers. */
+		private Peer choosePeer() {
+			int peerIndex = this.nextPeerIndex % (this.helperPeers.size() + 1);
+			this.nextPeerIndex = peerIndex + 1;
+
+			if (peerIndex == 0)
+				return this.peer;
+
+			return this.helperPeers.get(peerIndex - 1);
+		}
+	}
+
+	private static void preValidateBlock(Block block) {
+		// Block's own repository session belongs to synchronizer thread, so use a separate one
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			block.preValidate(repository);
+		} catch (DataException | RuntimeException e) {
+			// Normal validation will repeat any checks, and report any problems
+			LOGGER.debug(String.format("Unable to pre-validate block %.8s: %s", Base58.encode(block.getSignature()), e.getMessage()));
+		}
+	}
+
 	public void populateBlockSummariesMinterLevels(Repository repository, List<BlockSummaryData> blockSummaries) throws DataException {
 		final int firstBlockHeight = blockSummaries.get(0).getHeight();
 
+		// Minter levels only change as blocks are processed or orphaned, so levels looked up at the same chain tip can be reused
+		MinterLevelCache minterLevelCache = this.getMinterLevelCache(repository);
+
+		// Only fetched if needed
+		List<byte[]> rewardShareTransactionSignatures = null;
+
 		for (int i = 0; i < blockSummaries.size(); ++i) {
 			if (Controller.isStopping())
 				return;
 
 			BlockSummaryData blockSummary = blockSummaries.get(i);
+			ByteArray rewardSharePublicKey = ByteArray.wrap(blockSummary.getMinterPublicKey());
+
+			Integer cachedMinterLevel = minterLevelCache.minterLevels.get(rewardSharePublicKey);
+			if (cachedMinterLevel != null) {
+				blockSummary.setMinterLevel(cachedMinterLevel);
+				continue;
+			}
 
 			// Qortal: minter is always a reward-share, so find actual minter and get their effective minting level
 			int minterLevel = Account.getRewardShareEffectiveMintingLevel(repository, blockSummary.getMinterPublicKey());
-			if (minterLevel == 0) {
+			if (minterLevel != 0) {
+				minterLevelCache.minterLevels.put(rewardSharePublicKey, minterLevel);
+			} else {
 				// It looks like this block's minter's reward-share has been cancelled.
 				// So search for REWARD_SHARE transactions since common block to find missing minter info
-				List<byte[]> transactionSignatures = repository.getTransactionRepository().getSignaturesMatchingCriteria(Transaction.TransactionType.REWARD_SHARE, null, firstBlockHeight, null);
+				if (rewardShareTransactionSignatures == null)
+					rewardShareTransactionSignatures = repository.getTransactionRepository().getSignaturesMatchingCriteria(Transaction.TransactionType.REWARD_SHARE, null, firstBlockHeight, null);
 
-				for (byte[] transactionSignature : transactionSignatures) {
+				for (byte[] transactionSignature : rewardShareTransactionSignatures) {
 					RewardShareTransactionData transactionData = (RewardShareTransactionData) repository.getTransactionRepository().fromSignature(transactionSignature);
 
 					if (transactionData != null && Arrays.equals(transactionData.getRewardSharePublicKey(), blockSummary.getMinterPublicKey())) {
@@ -1685,4 +2041,16 @@ public class Synchronizer extends Thread {
 		}
 	}
 
+	private MinterLevelCache getMinterLevelCache(Repository repository) throws DataException {
+		byte[] chainTipSignature = repository.getBlockRepository().getLastBlock().getSignature();
+
+		MinterLevelCache minterLevelCache = this.minterLevelCache;
+		if (minterLevelCache == null || !Arrays.equals(minterLevelCache.chainTipSignature, chainTipSignature)) {
+			minterLevelCache = new MinterLevelCache(chainTipSignature);
+			this.minterLevelCache = minterLevelCache;
+		}
+
+		return minterLevelCache;
+	}
+
 }
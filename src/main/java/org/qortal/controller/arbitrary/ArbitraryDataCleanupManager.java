@@ -3,6 +3,7 @@ package org.qortal.controller.arbitrary;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.qortal.api.resource.TransactionsResource.ConfirmationStatus;
+import org.qortal.arbitrary.ArbitraryDataChunkStore;
 import org.qortal.data.transaction.ArbitraryTransactionData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.repository.DataException;
@@ -99,6 +100,9 @@ public class ArbitraryDataCleanupManager extends Thread {
 				// Periodically delete any unnecessary files from the temp directory
 				if (offset == 0 || offset % (limit * 10) == 0) {
 					this.cleanupTempDirectory(now);
+
+					// Also reclaim space used by stored chunks that no transaction references any more
+					ArbitraryDataChunkStore.cleanup();
 				}
 
 				// Any arbitrary transactions we want to fetch data for?
@@ -355,6 +359,7 @@ public class ArbitraryDataCleanupManager extends Thread {
 	 */
 	private boolean deleteRandomFile(Repository repository, File directory, String name) {
 		Path tempDataPath = Paths.get(Settings.getInstance().getTempDataPath());
+		Path chunkStorePath = ArbitraryDataChunkStore.getStorePath();
 
 		// Pick a random directory
 		final File[] contentsList = directory.listFiles();
@@ -372,6 +377,10 @@ public class ArbitraryDataCleanupManager extends Thread {
 			if (FilesystemUtils.isChild(randomItem.toPath(), tempDataPath)) {
 				return false;
 			}
+			// Skip the chunk store, as its files are only deleted once unreferenced
+			if (FilesystemUtils.isChild(randomItem.toPath(), chunkStorePath)) {
+				return false;
+			}
 			// Make sure it exists
 			if (!randomItem.exists()) {
 				return false;
@@ -2,6 +2,7 @@ package org.qortal.controller.arbitrary;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.qortal.arbitrary.ArbitraryDataChunkStore;
 import org.qortal.arbitrary.ArbitraryDataFile;
 import org.qortal.arbitrary.ArbitraryDataFileChunk;
 import org.qortal.controller.Controller;
@@ -287,6 +288,26 @@ public class ArbitraryDataFileListManager {
         try {
             ArbitraryDataFile arbitraryDataFile = ArbitraryDataFile.fromTransactionData(arbitraryTransactionData);
             missingHashes = arbitraryDataFile.missingHashes();
+
+            if (missingHashes != null) {
+                // Chunks already stored for other transactions don't need fetching, so link them instead
+                Iterator<byte[]> missingHashesIterator = missingHashes.iterator();
+                while (missingHashesIterator.hasNext()) {
+                    String hash58 = Base58.encode(missingHashesIterator.next());
+                    if (ArbitraryDataChunkStore.link(hash58, ArbitraryDataFile.getOutputFilePath(hash58, signature, false))) {
+                        missingHashesIterator.remove();
+                    }
+                }
+            }
+
+            if (missingHashes != null && missingHashes.isEmpty() && arbitraryDataFile.allFilesExist()) {
+                // Remaining chunks were already stored for other transactions, so there's nothing to request
+                LOGGER.debug("All files for signature {} are held locally, so skipping file list request", signature58);
+                this.deleteFileListRequestsForSignature(signature);
+                ArbitraryDataStorageManager.getInstance().invalidateHostedTransactionsCache();
+                ArbitraryDataManager.getInstance().invalidateCache(arbitraryTransactionData);
+                return true;
+            }
         } catch (DataException e) {
             // Leave missingHashes as null, so that all hashes are requested
         }
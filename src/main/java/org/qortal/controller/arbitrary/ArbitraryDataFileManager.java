@@ -3,8 +3,10 @@ package org.qortal.controller.arbitrary;
 import com.google.common.net.InetAddresses;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.qortal.arbitrary.ArbitraryDataChunkStore;
 import org.qortal.arbitrary.ArbitraryDataFile;
 import org.qortal.controller.Controller;
+import org.qortal.controller.arbitrary.ArbitraryDataFileRequestScheduler.ScheduledRequest;
 import org.qortal.data.arbitrary.ArbitraryDirectConnectionInfo;
 import org.qortal.data.arbitrary.ArbitraryFileListResponseInfo;
 import org.qortal.data.arbitrary.ArbitraryRelayInfo;
@@ -62,6 +64,11 @@ public class ArbitraryDataFileManager extends Thread {
      */
     private Map<String, Long> recentDataRequests = Collections.synchronizedMap(new HashMap<>());
 
+    /**
+     * Decides which chunk to request next from which peer, based on chunk rarity and peers' measured throughput
+     */
+    private final ArbitraryDataFileRequestScheduler requestScheduler = new ArbitraryDataFileRequestScheduler();
+
 
     public static int MAX_FILE_HASH_RESPONSES = 1000;
 
@@ -82,7 +89,7 @@ public class ArbitraryDataFileManager extends Thread {
 
         try {
             // Use a fixed thread pool to execute the arbitrary data file requests
-            int threadCount = 5;
+            int threadCount = Settings.getInstance().getArbitraryDataFileRequestThreads();
             ExecutorService arbitraryDataFileRequestExecutor = Executors.newFixedThreadPool(threadCount);
             for (int i = 0; i < threadCount; i++) {
                 arbitraryDataFileRequestExecutor.execute(new ArbitraryDataFileRequestThread());
@@ -102,6 +109,10 @@ public class ArbitraryDataFileManager extends Thread {
         this.interrupt();
     }
 
+    public ArbitraryDataFileRequestScheduler getRequestScheduler() {
+        return this.requestScheduler;
+    }
+
 
     public void cleanupRequestCache(Long now) {
         if (now == null) {
@@ -119,6 +130,8 @@ public class ArbitraryDataFileManager extends Thread {
 
         final long recentDataRequestMinimumTimestamp = now - ArbitraryDataManager.getInstance().ARBITRARY_RECENT_DATA_REQUESTS_TIMEOUT;
         recentDataRequests.entrySet().removeIf(entry -> entry.getValue() < recentDataRequestMinimumTimestamp);
+
+        requestScheduler.cleanup(now);
     }
 
 
@@ -143,7 +156,8 @@ public class ArbitraryDataFileManager extends Thread {
             String hash58 = Base58.encode(hash);
             if (!arbitraryDataFile.chunkExists(hash)) {
                 // Only request the file if we aren't already requesting it from someone else
-                if (!arbitraryDataFileRequests.containsKey(Base58.encode(hash))) {
+                // Endgame requests from the scheduler can outlive this map's entry, so check the scheduler too
+                if (!arbitraryDataFileRequests.containsKey(hash58) && !requestScheduler.isRequesting(hash58)) {
                     LOGGER.debug("Requesting data file {} from peer {}", hash58, peer);
                     Long startTime = NTP.getTime();
                     ArbitraryDataFile receivedArbitraryDataFile = fetchArbitraryDataFile(peer, null, arbitraryTransactionData, signature, hash, null);
@@ -153,13 +167,13 @@ public class ArbitraryDataFileManager extends Thread {
                         receivedAtLeastOneFile = true;
 
                         // Remove this hash from arbitraryDataFileHashResponses now that we have received it
-                        arbitraryDataFileHashResponses.remove(hash58);
+                        removeFileHashResponses(hash58);
                     }
                     else {
                         LOGGER.debug("Peer {} didn't respond with data file {} for signature {}. Time taken: {} ms", peer, Base58.encode(hash), Base58.encode(signature), (endTime-startTime));
 
                         // Remove this hash from arbitraryDataFileHashResponses now that we have failed to receive it
-                        arbitraryDataFileHashResponses.remove(hash58);
+                        removeFileHashResponses(hash58);
 
                         // Stop asking for files from this peer
                         break;
@@ -171,24 +185,74 @@ public class ArbitraryDataFileManager extends Thread {
             }
             else {
                 // Remove this hash from arbitraryDataFileHashResponses because we have a local copy
-                arbitraryDataFileHashResponses.remove(hash58);
+                removeFileHashResponses(hash58);
             }
         }
 
         if (receivedAtLeastOneFile) {
-            // Invalidate the hosted transactions cache as we are now hosting something new
-            ArbitraryDataStorageManager.getInstance().invalidateHostedTransactionsCache();
+            this.onArbitraryDataFilesReceived(arbitraryDataFile, arbitraryTransactionData);
+        }
+
+        return receivedAtLeastOneFile;
+    }
 
-            // Check if we have all the files we need for this transaction
-            if (arbitraryDataFile.allFilesExist()) {
+    /**
+     * Fetches a single chunk, as chosen by the request scheduler, and reports the outcome
+     * back to the scheduler so that it can adapt the peer's request window.
+     */
+    public void fetchScheduledArbitraryDataFile(ScheduledRequest request, ArbitraryTransactionData arbitraryTransactionData) throws DataException {
+        Peer peer = request.getPeer();
+        String hash58 = request.getHash58();
+        byte[] hash = Base58.decode(hash58);
+        byte[] signature = Base58.decode(request.getSignature58());
 
-                // We have all the chunks for this transaction, so we should invalidate the transaction's name's
-                // data cache so that it is rebuilt the next time we serve it
-                ArbitraryDataManager.getInstance().invalidateCache(arbitraryTransactionData);
-            }
+        ArbitraryDataFile arbitraryDataFile = ArbitraryDataFile.fromTransactionData(arbitraryTransactionData);
+        if (arbitraryDataFile.chunkExists(hash) || ArbitraryDataChunkStore.link(hash58, ArbitraryDataFile.getOutputFilePath(hash58, signature, false))) {
+            // We have a local copy, e.g. received from another peer during endgame, or shared with another transaction
+            removeFileHashResponses(hash58);
+            requestScheduler.onRequestCancelled(request);
+            return;
         }
 
-        return receivedAtLeastOneFile;
+        LOGGER.debug("Requesting data file {} from peer {}{}", hash58, peer, request.isEndgame() ? " (endgame)" : "");
+        Long startTime = NTP.getTime();
+        ArbitraryDataFile receivedArbitraryDataFile = null;
+        try {
+            receivedArbitraryDataFile = fetchArbitraryDataFile(peer, null, arbitraryTransactionData, signature, hash, null);
+        } finally {
+            Long bytesReceived = receivedArbitraryDataFile != null ? receivedArbitraryDataFile.size() : null;
+            Long endTime = NTP.getTime();
+            requestScheduler.onRequestFinished(request, bytesReceived, endTime != null ? endTime : startTime);
+        }
+
+        if (receivedArbitraryDataFile == null) {
+            LOGGER.debug("Peer {} didn't respond with data file {} for signature {}", peer, hash58, request.getSignature58());
+            return;
+        }
+
+        LOGGER.debug("Received data file {} from peer {}. Time taken: {} ms", hash58, peer, (NTP.getTime() - startTime));
+
+        // Other peers' responses for this hash are no longer needed
+        removeFileHashResponses(hash58);
+
+        this.onArbitraryDataFilesReceived(arbitraryDataFile, arbitraryTransactionData);
+    }
+
+    private void onArbitraryDataFilesReceived(ArbitraryDataFile arbitraryDataFile, ArbitraryTransactionData arbitraryTransactionData) {
+        // Invalidate the hosted transactions cache as we are now hosting something new
+        ArbitraryDataStorageManager.getInstance().invalidateHostedTransactionsCache();
+
+        // Check if we have all the files we need for this transaction
+        if (arbitraryDataFile.allFilesExist()) {
+
+            // We have all the chunks for this transaction, so we should invalidate the transaction's name's
+            // data cache so that it is rebuilt the next time we serve it
+            ArbitraryDataManager.getInstance().invalidateCache(arbitraryTransactionData);
+        }
+    }
+
+    private void removeFileHashResponses(String hash58) {
+        arbitraryDataFileHashResponses.removeIf(responseInfo -> responseInfo != null && Objects.equals(responseInfo.getHash58(), hash58));
     }
 
     private ArbitraryDataFile fetchArbitraryDataFile(Peer peer, Peer requestingPeer, ArbitraryTransactionData arbitraryTransactionData, byte[] signature, byte[] hash, Message originalMessage) throws DataException {
@@ -197,8 +261,11 @@ public class ArbitraryDataFileManager extends Thread {
         String hash58 = Base58.encode(hash);
         ArbitraryDataFile arbitraryDataFile;
 
-        // Fetch the file if it doesn't exist locally
-        if (!fileAlreadyExists) {
+        // Fetch the file if it doesn't exist locally, and we don't hold a copy for another transaction
+        if (!fileAlreadyExists && ArbitraryDataChunkStore.link(hash58, existingFile.getFilePath())) {
+            LOGGER.debug(String.format("Data file %.8s is already stored for another transaction, so skipping the request", hash58));
+            arbitraryDataFile = existingFile;
+        } else if (!fileAlreadyExists) {
             LOGGER.debug(String.format("Fetching data file %.8s from peer %s", hash58, peer));
             arbitraryDataFileRequests.put(hash58, NTP.getTime());
             Message getArbitraryDataFileMessage = new GetArbitraryDataFileMessage(signature, hash);
@@ -0,0 +1,357 @@
+package org.qortal.controller.arbitrary;
+
+import org.qortal.arbitrary.ArbitraryDataFile;
+import org.qortal.data.arbitrary.ArbitraryFileListResponseInfo;
+import org.qortal.network.Peer;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Decides which data file chunk to request next, and from which peer, in the style of BitTorrent.
+ * <p>
+ * Chunks advertised by the fewest peers are requested first, so that chunks only held by one peer aren't left
+ * until last. Each peer has a window of in-flight requests, which grows while the peer keeps up and shrinks when
+ * it doesn't, but never below what is needed to cover the peer's round trip time. Faster peers are preferred.
+ * <p>
+ * Once all remaining chunks for a transaction are in flight, the last few are requested again from other peers
+ * ("endgame"), so that one slow peer doesn't hold up the whole resource.
+ */
+public class ArbitraryDataFileRequestScheduler {
+
+    /** Weight given to newest sample in throughput and RTT moving averages */
+    private static final double EWMA_WEIGHT = 0.3;
+
+    public static final int INITIAL_WINDOW = 2;
+    public static final int MIN_WINDOW = 1;
+    /** Peers only serve a handful of GET_ARBITRARY_DATA_FILE requests at once, so there's no point exceeding that */
+    public static final int MAX_WINDOW = 5;
+
+    /** Window grows while per-request throughput stays above this fraction of the peer's average */
+    private static final double WINDOW_GROWTH_THRESHOLD = 0.75;
+
+    /** Endgame starts when a transaction has this many chunks (or fewer) left, all of them in flight */
+    public static final int ENDGAME_MAX_CHUNKS = 4;
+    /** Maximum number of peers asked for the same chunk during endgame */
+    public static final int ENDGAME_MAX_REQUESTS_PER_CHUNK = 2;
+
+    /** Discard stats for peers we haven't requested anything from for this long */
+    private static final long PEER_STATS_TIMEOUT = 60 * 60 * 1000L; // ms
+
+    public static class PeerStats {
+        /** Average throughput per request, in bytes per ms, or 0 if not yet measured */
+        private double throughput = 0;
+        /** Average round trip time, in ms, or 0 if not yet measured */
+        private double rtt = 0;
+        private int window = INITIAL_WINDOW;
+        private int inFlight = 0;
+        private int consecutiveFailures = 0;
+        private long lastUsed;
+
+        public double getThroughput() {
+            return this.throughput;
+        }
+
+        public double getRtt() {
+            return this.rtt;
+        }
+
+        public int getWindow() {
+            return this.window;
+        }
+
+        public int getInFlight() {
+            return this.inFlight;
+        }
+
+        public int getConsecutiveFailures() {
+            return this.consecutiveFailures;
+        }
+
+        private boolean hasCapacity() {
+            return this.inFlight < this.window;
+        }
+    }
+
+    public static class ScheduledRequest {
+        private final String hash58;
+        private final String signature58;
+        private final Peer peer;
+        private final boolean isEndgame;
+        private final long startTime;
+        private boolean isFinished = false;
+
+        private ScheduledRequest(String hash58, String signature58, Peer peer, boolean isEndgame, long startTime) {
+            this.hash58 = hash58;
+            this.signature58 = signature58;
+            this.peer = peer;
+            this.isEndgame = isEndgame;
+            this.startTime = startTime;
+        }
+
+        public String getHash58() {
+            return this.hash58;
+        }
+
+        public String getSignature58() {
+            return this.signature58;
+        }
+
+        public Peer getPeer() {
+            return this.peer;
+        }
+
+        public boolean isEndgame() {
+            return this.isEndgame;
+        }
+    }
+
+    /** Keyed by peer address, so that stats survive reconnections */
+    private final Map<String, PeerStats> peerStats = new HashMap<>();
+    /** In-flight requests, keyed by hash58 */
+    private final Map<String, List<ScheduledRequest>> inFlightRequests = new HashMap<>();
+
+
+    /**
+     * Picks the next chunk to request, and the peer to request it from, out of <tt>responses</tt>,
+     * removing the chosen response (and any expired ones) from the list.
+     * <p>
+     * Chunks already being requested outside of this scheduler, according to <tt>isRequestedElsewhere</tt>,
+     * are skipped, but their responses are kept for later.
+     * <p>
+     * Caller must hold the lock on <tt>responses</tt>.
+     *
+     * @return request, which must be passed to {@link #onRequestFinished} or {@link #onRequestCancelled}
+     * once complete, or null if there is nothing to request right now
+     */
+    public synchronized ScheduledRequest nextRequest(List<ArbitraryFileListResponseInfo> responses, long now, Predicate<String> isRequestedElsewhere) {
+        // Remove expired responses, and count how many peers have each chunk
+        Map<String, Set<String>> peersByHash = new HashMap<>();
+        Iterator<ArbitraryFileListResponseInfo> iterator = responses.iterator();
+        while (iterator.hasNext()) {
+            ArbitraryFileListResponseInfo responseInfo = iterator.next();
+            if (responseInfo == null || !responseInfo.isValid()
+                    || now - responseInfo.getTimestamp() >= ArbitraryDataManager.ARBITRARY_RELAY_TIMEOUT) {
+                iterator.remove();
+                continue;
+            }
+
+            peersByHash.computeIfAbsent(responseInfo.getHash58(), k -> new HashSet<>()).add(responseInfo.getPeer().toString());
+        }
+
+        // Average throughput of measured peers, which unmeasured peers are assumed to have, so that they get tried
+        double averageThroughput = this.peerStats.values().stream()
+                .filter(stats -> stats.throughput > 0)
+                .mapToDouble(stats -> stats.throughput)
+                .average().orElse(0);
+
+        // Rarest chunk first, then fastest peer, then fewest hops
+        Comparator<ArbitraryFileListResponseInfo> comparator = Comparator
+                .comparingInt((ArbitraryFileListResponseInfo r) -> peersByHash.get(r.getHash58()).size())
+                .thenComparingDouble(r -> -this.getScore(r.getPeer(), averageThroughput))
+                .thenComparingInt(ArbitraryFileListResponseInfo::getRequestHops);
+
+        ArbitraryFileListResponseInfo best = null;
+        Set<String> signaturesWithUnrequestedChunks = new HashSet<>();
+
+        for (ArbitraryFileListResponseInfo responseInfo : responses) {
+            if (this.inFlightRequests.containsKey(responseInfo.getHash58())) {
+                continue;
+            }
+            if (isRequestedElsewhere.test(responseInfo.getHash58())) {
+                // e.g. being fetched directly from a peer, which counts as in flight
+                continue;
+            }
+            signaturesWithUnrequestedChunks.add(responseInfo.getSignature58());
+
+            if (!this.getPeerStats(responseInfo.getPeer()).hasCapacity()) {
+                continue;
+            }
+
+            if (best == null || comparator.compare(responseInfo, best) < 0) {
+                best = responseInfo;
+            }
+        }
+
+        boolean isEndgame = false;
+        if (best == null) {
+            best = this.nextEndgameResponse(responses, signaturesWithUnrequestedChunks, comparator);
+            isEndgame = true;
+        }
+
+        if (best == null) {
+            return null;
+        }
+
+        responses.remove(best);
+
+        ScheduledRequest request = new ScheduledRequest(best.getHash58(), best.getSignature58(), best.getPeer(), isEndgame, now);
+        this.inFlightRequests.computeIfAbsent(request.hash58, k -> new ArrayList<>()).add(request);
+
+        PeerStats stats = this.getPeerStats(request.peer);
+        stats.inFlight++;
+        stats.lastUsed = now;
+
+        return request;
+    }
+
+    private ArbitraryFileListResponseInfo nextEndgameResponse(List<ArbitraryFileListResponseInfo> responses,
+                                                              Set<String> signaturesWithUnrequestedChunks,
+                                                              Comparator<ArbitraryFileListResponseInfo> comparator) {
+        // Count in-flight chunks per transaction
+        Map<String, Integer> inFlightChunkCounts = new HashMap<>();
+        for (List<ScheduledRequest> requests : this.inFlightRequests.values()) {
+            inFlightChunkCounts.merge(requests.get(0).signature58, 1, Integer::sum);
+        }
+
+        ArbitraryFileListResponseInfo best = null;
+
+        for (ArbitraryFileListResponseInfo responseInfo : responses) {
+            List<ScheduledRequest> requests = this.inFlightRequests.get(responseInfo.getHash58());
+            if (requests == null || requests.size() >= ENDGAME_MAX_REQUESTS_PER_CHUNK) {
+                continue;
+            }
+
+            // Only once every remaining chunk of this transaction is in flight, and there are only a few left
+            String signature58 = responseInfo.getSignature58();
+            if (signaturesWithUnrequestedChunks.contains(signature58)
+                    || inFlightChunkCounts.getOrDefault(signature58, 0) > ENDGAME_MAX_CHUNKS) {
+                continue;
+            }
+
+            // Don't ask the same peer twice
+            String peerAddress = responseInfo.getPeer().toString();
+            if (requests.stream().anyMatch(request -> request.peer.toString().equals(peerAddress))) {
+                continue;
+            }
+
+            if (!this.getPeerStats(responseInfo.getPeer()).hasCapacity()) {
+                continue;
+            }
+
+            if (best == null || comparator.compare(responseInfo, best) < 0) {
+                best = responseInfo;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Records outcome of request, adapting the peer's window.
+     *
+     * @param bytesReceived size of received file, or null if request failed
+     */
+    public synchronized void onRequestFinished(ScheduledRequest request, Long bytesReceived, long now) {
+        if (!this.finishRequest(request, bytesReceived != null)) {
+            return;
+        }
+
+        PeerStats stats = this.getPeerStats(request.peer);
+        stats.lastUsed = now;
+
+        if (bytesReceived == null) {
+            // Back off, as the peer is overloaded or unreachable
+            stats.consecutiveFailures++;
+            stats.window = Math.max(MIN_WINDOW, stats.window / 2);
+            return;
+        }
+
+        stats.consecutiveFailures = 0;
+
+        long elapsed = Math.max(1L, now - request.startTime);
+        double throughputSample = (double) bytesReceived / elapsed;
+
+        // Use ping as RTT where known, otherwise the quickest response we've seen is the best estimate
+        Long lastPing = request.peer.getLastPing();
+        double rttSample = lastPing != null && lastPing > 0 ? lastPing : elapsed;
+
+        if (stats.throughput == 0) {
+            stats.throughput = throughputSample;
+            stats.rtt = rttSample;
+            return;
+        }
+
+        // If per-request throughput holds up with the extra concurrency, the peer has spare capacity
+        if (throughputSample >= stats.throughput * WINDOW_GROWTH_THRESHOLD) {
+            stats.window++;
+        } else {
+            stats.window--;
+        }
+
+        stats.throughput = EWMA_WEIGHT * throughputSample + (1 - EWMA_WEIGHT) * stats.throughput;
+        stats.rtt = lastPing != null && lastPing > 0
+                ? EWMA_WEIGHT * rttSample + (1 - EWMA_WEIGHT) * stats.rtt
+                : Math.min(stats.rtt, rttSample);
+
+        // Keep enough requests in flight to cover the round trip (bandwidth-delay product)
+        int minWindow = (int) Math.ceil(stats.throughput * stats.rtt / ArbitraryDataFile.CHUNK_SIZE) + 1;
+        stats.window = Math.min(MAX_WINDOW, Math.max(Math.max(MIN_WINDOW, minWindow), stats.window));
+    }
+
+    /**
+     * Releases request without affecting the peer's stats, e.g. because the chunk
+     * arrived from elsewhere, or the request was never sent.
+     */
+    public synchronized void onRequestCancelled(ScheduledRequest request) {
+        this.finishRequest(request, false);
+    }
+
+    /** Returns false if request was already finished. */
+    private boolean finishRequest(ScheduledRequest request, boolean isChunkReceived) {
+        if (request.isFinished) {
+            return false;
+        }
+        request.isFinished = true;
+
+        List<ScheduledRequest> requests = this.inFlightRequests.get(request.hash58);
+        if (requests != null) {
+            requests.remove(request);
+            if (requests.isEmpty() || isChunkReceived) {
+                // Once we have the chunk, any remaining endgame requests are just duplicates
+                this.inFlightRequests.remove(request.hash58);
+            }
+        }
+
+        PeerStats stats = this.getPeerStats(request.peer);
+        stats.inFlight = Math.max(0, stats.inFlight - 1);
+        return true;
+    }
+
+    /** Returns whether chunk is currently being requested from any peer. */
+    public synchronized boolean isRequesting(String hash58) {
+        return this.inFlightRequests.containsKey(hash58);
+    }
+
+    public synchronized PeerStats getPeerStats(Peer peer) {
+        return this.peerStats.computeIfAbsent(peer.toString(), k -> new PeerStats());
+    }
+
+    public synchronized void cleanup(long now) {
+        // Drop requests that have outlived their timeout, e.g. due to an exception in the requesting thread
+        final long requestMinimumTimestamp = now - ArbitraryDataManager.ARBITRARY_REQUEST_TIMEOUT * 2;
+        for (List<ScheduledRequest> requests : this.inFlightRequests.values()) {
+            Iterator<ScheduledRequest> iterator = requests.iterator();
+            while (iterator.hasNext()) {
+                ScheduledRequest request = iterator.next();
+                if (request.startTime < requestMinimumTimestamp) {
+                    PeerStats stats = this.getPeerStats(request.peer);
+                    stats.inFlight = Math.max(0, stats.inFlight - 1);
+                    request.isFinished = true;
+                    iterator.remove();
+                }
+            }
+        }
+        this.inFlightRequests.values().removeIf(List::isEmpty);
+
+        this.peerStats.values().removeIf(stats -> stats.inFlight == 0 && now - stats.lastUsed > PEER_STATS_TIMEOUT);
+    }
+
+    /** Returns peer's expected throughput, penalised for recent failures. */
+    private double getScore(Peer peer, double averageThroughput) {
+        PeerStats stats = this.getPeerStats(peer);
+        double throughput = stats.throughput > 0 ? stats.throughput : averageThroughput;
+        return throughput / (1 + stats.consecutiveFailures);
+    }
+
+}
@@ -3,6 +3,7 @@ package org.qortal.controller.arbitrary;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.qortal.arbitrary.ArbitraryDataChunkStore;
 import org.qortal.data.transaction.ArbitraryTransactionData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.repository.DataException;
@@ -16,11 +17,10 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Objects;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ArbitraryDataStorageManager extends Thread {
 
@@ -430,7 +430,7 @@ public class ArbitraryDataStorageManager extends Thread {
         LOGGER.trace("Calculating data directory size...");
         Path dataDirectoryPath = Paths.get(Settings.getInstance().getDataPath());
         if (dataDirectoryPath.toFile().exists()) {
-            totalSize += FileUtils.sizeOfDirectory(dataDirectoryPath.toFile());
+            totalSize += this.sizeOfDataDirectory(dataDirectoryPath);
         }
 
         // Add total size of temp directory, if it's not already inside the data directory
@@ -458,6 +458,40 @@ public class ArbitraryDataStorageManager extends Thread {
         LOGGER.info("Total used: {} bytes, Total capacity: {} bytes", this.totalDirectorySize, this.storageCapacity);
     }
 
+    /**
+     * Returns size of data directory, counting files shared via the chunk store only once
+     */
+    private long sizeOfDataDirectory(Path dataDirectoryPath) {
+        if (!ArbitraryDataChunkStore.isEnabled()) {
+            return FileUtils.sizeOfDirectory(dataDirectoryPath.toFile());
+        }
+
+        Set<Object> fileKeys = new HashSet<>();
+        long totalSize = 0;
+        try (Stream<Path> paths = Files.walk(dataDirectoryPath)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (!attributes.isRegularFile()) {
+                        continue;
+                    }
+                    // Hard links to the same file share a key, so only files with more than one link need remembering
+                    Object fileKey = attributes.fileKey();
+                    if (fileKey == null || (Integer) Files.getAttribute(path, "unix:nlink") <= 1 || fileKeys.add(fileKey)) {
+                        totalSize += attributes.size();
+                    }
+                } catch (IOException e) {
+                    // File deleted whilst walking, so don't count it
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.info("Unable to walk through data directory: {}", e.getMessage());
+            return FileUtils.sizeOfDirectory(dataDirectoryPath.toFile());
+        }
+
+        return totalSize;
+    }
+
     private long getRemainingUsableStorageCapacity() throws IOException {
         // Create data directory if it doesn't exist so that we can perform calculations on it
         Path dataDirectoryPath = Paths.get(Settings.getInstance().getDataPath());
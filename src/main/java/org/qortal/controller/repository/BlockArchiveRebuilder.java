@@ -58,9 +58,13 @@ public class BlockArchiveRebuilder {
                     if (startHeight >= maximumArchiveHeight) {
                         // We've finished.
                         // Delete existing archive and move the newly built one into its place
-                        FileUtils.deleteDirectory(originalArchivePath.toFile());
-                        FileUtils.moveDirectory(newArchivePath.toFile(), originalArchivePath.toFile());
-                        BlockArchiveReader.getInstance().invalidateFileListCache();
+                        BlockArchiveReader.getInstance().stop();
+                        try {
+                            FileUtils.deleteDirectory(originalArchivePath.toFile());
+                            FileUtils.moveDirectory(newArchivePath.toFile(), originalArchivePath.toFile());
+                        } finally {
+                            BlockArchiveReader.getInstance().start();
+                        }
                         LOGGER.info("Block archive successfully rebuilt");
                         return;
                     }
@@ -6,6 +6,7 @@ import org.apache.logging.log4j.Logger;
 import org.qortal.controller.Controller;
 
 import org.qortal.data.block.BlockData;
+import org.qortal.repository.BlockArchiveReader;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.settings.Settings;
@@ -118,7 +119,14 @@ public class PruneManager {
             Path archivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive");
             if (archivePath.toFile().exists()) {
                 LOGGER.info("Deleting block archive because we are in top-only mode...");
-                FileUtils.deleteDirectory(archivePath.toFile());
+
+                // Stop reader using its mappings of files we're deleting
+                BlockArchiveReader.getInstance().stop();
+                try {
+                    FileUtils.deleteDirectory(archivePath.toFile());
+                } finally {
+                    BlockArchiveReader.getInstance().start();
+                }
             }
 
         } catch (IOException e) {
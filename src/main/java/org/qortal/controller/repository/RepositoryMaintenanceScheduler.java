@@ -0,0 +1,294 @@
+package org.qortal.controller.repository;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.controller.Controller;
+import org.qortal.controller.Synchronizer;
+import org.qortal.globalization.Translator;
+import org.qortal.gui.SysTray;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import java.awt.TrayIcon;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Performs repository checkpoints and maintenance during quiet windows.
+ * <p>
+ * CHECKPOINT and CHECKPOINT DEFRAG stall all other repository sessions until they complete,
+ * so rather than running them at fixed times, we wait until blocks aren't being synchronized,
+ * minted or processed, and keep each step as short as possible:
+ * <ul>
+ * <li>quick checkpoints happen every <tt>repositoryCheckpointInterval</tt>, or earlier once
+ * <tt>repositoryCheckpointMaxPendingSize</tt> of changes are pending, so there is never much to write out</li>
+ * <li>requested maintenance first checkpoints, then only defrags if enough space is reclaimable</li>
+ * </ul>
+ * Each step holds the blockchain lock, so block processing waits for the step to finish
+ * instead of stalling mid-transaction. While blocks are being processed, we pause.
+ * How long each step and each pause took is recorded in {@link Stats}.
+ */
+public class RepositoryMaintenanceScheduler extends Thread {
+
+	private static final Logger LOGGER = LogManager.getLogger(RepositoryMaintenanceScheduler.class);
+
+	private static final long CHECK_INTERVAL = 1000L; // ms
+
+	private static RepositoryMaintenanceScheduler instance;
+
+	public enum MaintenanceResult {
+		NOTHING_DUE,
+		PAUSED,
+		CHECKPOINTED,
+		DEFRAGGED,
+		DEFRAG_SKIPPED;
+	}
+
+	@XmlAccessorType(XmlAccessType.FIELD)
+	public static class Stats {
+		public long checkpoints;
+		public long lastCheckpointMillis;
+		public long maxCheckpointMillis;
+		public long defrags;
+		public long defragsSkipped;
+		public long lastDefragMillis;
+		public long maxDefragMillis;
+		public long pauses;
+		public long lastPauseMillis;
+		public long maxPauseMillis;
+		public long totalPauseMillis;
+		public boolean isMaintenanceRequested;
+
+		public Stats() {
+		}
+
+		private Stats(Stats other) {
+			this.checkpoints = other.checkpoints;
+			this.lastCheckpointMillis = other.lastCheckpointMillis;
+			this.maxCheckpointMillis = other.maxCheckpointMillis;
+			this.defrags = other.defrags;
+			this.defragsSkipped = other.defragsSkipped;
+			this.lastDefragMillis = other.lastDefragMillis;
+			this.maxDefragMillis = other.maxDefragMillis;
+			this.pauses = other.pauses;
+			this.lastPauseMillis = other.lastPauseMillis;
+			this.maxPauseMillis = other.maxPauseMillis;
+			this.totalPauseMillis = other.totalPauseMillis;
+		}
+	}
+
+	private volatile boolean isStopping = false;
+
+	private volatile boolean isMaintenanceRequested = false;
+
+	/** When a block was last added to our chain (ms). */
+	private volatile long lastBlockTimestamp = 0L;
+
+	private long lastCheckpointTimestamp = System.currentTimeMillis();
+
+	/** When we started waiting for a quiet window, or null if not waiting. */
+	private Long pauseStartTimestamp = null;
+
+	private final Stats stats = new Stats();
+
+	private RepositoryMaintenanceScheduler() {
+	}
+
+	public static synchronized RepositoryMaintenanceScheduler getInstance() {
+		if (instance == null)
+			instance = new RepositoryMaintenanceScheduler();
+
+		return instance;
+	}
+
+	@Override
+	public void run() {
+		Thread.currentThread().setName("Repository maintenance scheduler");
+
+		try {
+			while (!isStopping) {
+				Thread.sleep(CHECK_INTERVAL);
+
+				try {
+					this.maybePerformMaintenance(System.currentTimeMillis());
+				} catch (DataException e) {
+					LOGGER.warn(String.format("Repository issue during scheduled maintenance: %s", e.getMessage()));
+				}
+			}
+		} catch (InterruptedException e) {
+			// Fall-through to exit thread
+		}
+	}
+
+	public void shutdown() {
+		isStopping = true;
+		this.interrupt();
+	}
+
+	/** Requests checkpoint and, if worthwhile, defrag of repository, at next quiet window. */
+	public void requestMaintenance() {
+		this.isMaintenanceRequested = true;
+	}
+
+	/** Called when a block is added to our chain, to delay maintenance until things have settled. */
+	public void onNewBlock() {
+		this.lastBlockTimestamp = System.currentTimeMillis();
+	}
+
+	/** Returns whether repository checkpoints/maintenance can run now without delaying blocks. */
+	public boolean isQuietWindow(long now) {
+		if (Synchronizer.getInstance().isSynchronizing() || Synchronizer.getInstance().isSyncRequested())
+			return false;
+
+		// Blocks being minted, processed or orphaned
+		if (Controller.getInstance().getBlockchainLock().isLocked())
+			return false;
+
+		return now >= this.lastBlockTimestamp + Settings.getInstance().getRepositoryMaintenanceQuietPeriod();
+	}
+
+	/**
+	 * Performs at most one maintenance step, if due and in a quiet window.
+	 *
+	 * @param now current time (ms)
+	 */
+	public MaintenanceResult maybePerformMaintenance(long now) throws DataException {
+		boolean isDefragDue = this.isMaintenanceRequested;
+		boolean isCheckpointDue = now >= this.lastCheckpointTimestamp + Settings.getInstance().getRepositoryCheckpointInterval();
+
+		if (!isCheckpointDue) {
+			long maxPendingSize = Settings.getInstance().getRepositoryCheckpointMaxPendingSize();
+
+			// If defrag is due, checkpoint any pending changes first, as separate step
+			if (isDefragDue || maxPendingSize > 0)
+				try (final Repository repository = RepositoryManager.getRepository()) {
+					long pendingSize = repository.getUncheckpointedSize();
+					isCheckpointDue = isDefragDue ? pendingSize > 0 : pendingSize >= maxPendingSize;
+				}
+		}
+
+		if (!isCheckpointDue && !isDefragDue)
+			return MaintenanceResult.NOTHING_DUE;
+
+		// Don't start anything new while blocks are being processed
+		ReentrantLock blockchainLock = Controller.getInstance().getBlockchainLock();
+		if (!this.isQuietWindow(now) || !blockchainLock.tryLock())
+			return this.pause(now);
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			if (isCheckpointDue)
+				return this.checkpoint(repository, now);
+
+			return this.defrag(repository, now);
+		} finally {
+			blockchainLock.unlock();
+		}
+	}
+
+	private MaintenanceResult checkpoint(Repository repository, long now) throws DataException {
+		long startTime = System.currentTimeMillis();
+
+		if (!repository.tryCheckpoint(true))
+			// Another session is mid-transaction
+			return this.pause(now);
+
+		long duration = System.currentTimeMillis() - startTime;
+		LOGGER.debug(() -> String.format("Repository checkpoint took %dms", duration));
+
+		this.lastCheckpointTimestamp = now;
+		this.endPause(now);
+
+		synchronized (this.stats) {
+			this.stats.checkpoints++;
+			this.stats.lastCheckpointMillis = duration;
+			this.stats.maxCheckpointMillis = Math.max(this.stats.maxCheckpointMillis, duration);
+		}
+
+		return MaintenanceResult.CHECKPOINTED;
+	}
+
+	private MaintenanceResult defrag(Repository repository, long now) throws DataException {
+		Double reclaimableRatio = repository.getReclaimableSpaceRatio();
+		double minReclaimableRatio = Settings.getInstance().getRepositoryDefragMinReclaimablePercent() / 100.0;
+
+		// If we can't tell how much is reclaimable, defrag anyway
+		if (reclaimableRatio != null && reclaimableRatio < minReclaimableRatio) {
+			LOGGER.info(String.format("Skipping repository defrag as only %.1f%% of data file is reclaimable", reclaimableRatio * 100.0));
+
+			this.isMaintenanceRequested = false;
+			this.endPause(now);
+
+			synchronized (this.stats) {
+				this.stats.defragsSkipped++;
+			}
+
+			return MaintenanceResult.DEFRAG_SKIPPED;
+		}
+
+		if (Settings.getInstance().getShowMaintenanceNotification())
+			SysTray.getInstance().showMessage(Translator.INSTANCE.translate("SysTray", "DB_MAINTENANCE"),
+					Translator.INSTANCE.translate("SysTray", "PERFORMING_DB_MAINTENANCE"),
+					TrayIcon.MessageType.INFO);
+
+		LOGGER.info("Performing scheduled repository maintenance. This can take a while...");
+		long startTime = System.currentTimeMillis();
+
+		if (!repository.tryCheckpoint(false))
+			// Another session is mid-transaction
+			return this.pause(now);
+
+		long duration = System.currentTimeMillis() - startTime;
+		LOGGER.info(String.format("Scheduled repository maintenance completed in %dms", duration));
+
+		this.isMaintenanceRequested = false;
+		this.lastCheckpointTimestamp = now;
+		this.endPause(now);
+
+		synchronized (this.stats) {
+			this.stats.defrags++;
+			this.stats.lastDefragMillis = duration;
+			this.stats.maxDefragMillis = Math.max(this.stats.maxDefragMillis, duration);
+		}
+
+		return MaintenanceResult.DEFRAGGED;
+	}
+
+	private MaintenanceResult pause(long now) {
+		if (this.pauseStartTimestamp == null)
+			this.pauseStartTimestamp = now;
+
+		return MaintenanceResult.PAUSED;
+	}
+
+	private void endPause(long now) {
+		if (this.pauseStartTimestamp == null)
+			return;
+
+		long duration = now - this.pauseStartTimestamp;
+		this.pauseStartTimestamp = null;
+
+		LOGGER.debug(() -> String.format("Repository maintenance paused for %dms", duration));
+
+		synchronized (this.stats) {
+			this.stats.pauses++;
+			this.stats.lastPauseMillis = duration;
+			this.stats.maxPauseMillis = Math.max(this.stats.maxPauseMillis, duration);
+			this.stats.totalPauseMillis += duration;
+		}
+	}
+
+	public Stats getStats() {
+		Stats stats;
+		synchronized (this.stats) {
+			stats = new Stats(this.stats);
+		}
+
+		stats.isMaintenanceRequested = this.isMaintenanceRequested;
+
+		return stats;
+	}
+
+}
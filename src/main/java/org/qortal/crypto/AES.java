@@ -27,6 +27,7 @@
 package org.qortal.crypto;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
@@ -41,6 +42,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -127,6 +129,25 @@ public class AES {
         outputStream.close();
     }
 
+    /**
+     * Returns stream that encrypts everything written to it into <tt>outputStream</tt>,
+     * in the same format as {@link #encryptFile}, i.e. prefixed with the 16 byte initialization vector.
+     * <p>
+     * Closing the returned stream writes the final block, and closes <tt>outputStream</tt>.
+     */
+    public static OutputStream encryptingOutputStream(String algorithm, SecretKey key, OutputStream outputStream)
+            throws IOException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
+
+        IvParameterSpec iv = AES.generateIv();
+        Cipher cipher = Cipher.getInstance(algorithm);
+        cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+
+        // Prepend the output stream with the 16 byte initialization vector
+        outputStream.write(iv.getIV());
+
+        return new CipherOutputStream(outputStream, cipher);
+    }
+
     public static void decryptFile(String algorithm, SecretKey key, String encryptedFilePath,
                                    String decryptedFilePath) throws IOException, NoSuchPaddingException,
             NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException,
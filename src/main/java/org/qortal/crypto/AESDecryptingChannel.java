@@ -0,0 +1,155 @@
+package org.qortal.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Read-only channel that decrypts AES/CBC/PKCS5Padding data, as written by {@link AES#encryptFile},
+ * i.e. a 16 byte IV followed by the ciphertext.
+ * <p>
+ * In CBC mode, each plaintext block only depends on its own ciphertext block and the one before it,
+ * so any position can be read without decrypting everything that comes before it.
+ */
+public class AESDecryptingChannel implements SeekableByteChannel {
+
+    private static final int BLOCK_SIZE = 16;
+    /** Maximum number of bytes decrypted per read, to bound buffer sizes. */
+    private static final int MAX_READ_LENGTH = 64 * 1024;
+
+    private final SeekableByteChannel source;
+    private final SecretKey key;
+    private final Cipher cipher;
+    private final long blockCount;
+    private final long size;
+
+    private long position = 0;
+
+    /**
+     * @throws IOException if source isn't valid ciphertext for <tt>key</tt>, e.g. due to invalid padding
+     */
+    public AESDecryptingChannel(SeekableByteChannel source, SecretKey key) throws IOException, GeneralSecurityException {
+        this.source = source;
+        this.key = key;
+        this.cipher = Cipher.getInstance("AES/CBC/NoPadding");
+
+        long cipherTextLength = source.size() - BLOCK_SIZE;
+        if (cipherTextLength < BLOCK_SIZE || cipherTextLength % BLOCK_SIZE != 0) {
+            throw new IOException(String.format("Invalid ciphertext length: %d", cipherTextLength));
+        }
+
+        this.blockCount = cipherTextLength / BLOCK_SIZE;
+
+        // Determine plaintext size from PKCS5 padding in final block
+        byte[] lastBlock = this.decryptBlocks(this.blockCount - 1, 1);
+        int paddingLength = lastBlock[BLOCK_SIZE - 1] & 0xff;
+        if (paddingLength < 1 || paddingLength > BLOCK_SIZE) {
+            throw new IOException("Invalid padding");
+        }
+        for (int i = BLOCK_SIZE - paddingLength; i < BLOCK_SIZE; ++i) {
+            if ((lastBlock[i] & 0xff) != paddingLength) {
+                throw new IOException("Invalid padding");
+            }
+        }
+
+        this.size = cipherTextLength - paddingLength;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!this.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (this.position >= this.size) {
+            return -1;
+        }
+
+        int length = (int) Math.min(Math.min(dst.remaining(), MAX_READ_LENGTH), this.size - this.position);
+        if (length == 0) {
+            return 0;
+        }
+
+        long firstBlock = this.position / BLOCK_SIZE;
+        long lastBlock = (this.position + length - 1) / BLOCK_SIZE;
+
+        byte[] plainText = this.decryptBlocks(firstBlock, (int) (lastBlock - firstBlock + 1));
+        int offset = (int) (this.position - firstBlock * BLOCK_SIZE);
+
+        dst.put(plainText, offset, length);
+        this.position += length;
+
+        return length;
+    }
+
+    /** Decrypts <tt>count</tt> blocks, starting with block <tt>firstBlock</tt> (zero-based, excluding IV). */
+    private byte[] decryptBlocks(long firstBlock, int count) throws IOException {
+        // Previous ciphertext block acts as IV, which for first block is the actual IV
+        byte[] data = new byte[(count + 1) * BLOCK_SIZE];
+        this.readFully(firstBlock * BLOCK_SIZE, data);
+
+        try {
+            this.cipher.init(Cipher.DECRYPT_MODE, this.key, new IvParameterSpec(data, 0, BLOCK_SIZE));
+            return this.cipher.doFinal(data, BLOCK_SIZE, count * BLOCK_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to decrypt data", e);
+        }
+    }
+
+    private void readFully(long sourcePosition, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        this.source.position(sourcePosition);
+        while (buffer.hasRemaining()) {
+            if (this.source.read(buffer) < 0) {
+                throw new IOException("Unexpected end of ciphertext");
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() {
+        return this.position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.source.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.source.close();
+    }
+
+}
@@ -82,23 +82,28 @@ public class BlockData implements Serializable {
 				null, 0, null, null);
 	}
 
+	/** Copy constructor. Byte arrays are copied too, so modifying either copy doesn't affect the other. */
 	public BlockData(BlockData other) {
 		this.version = other.version;
-		this.reference = other.reference;
+		this.reference = copyOf(other.reference);
 		this.transactionCount = other.transactionCount;
 		this.totalFees = other.totalFees;
-		this.transactionsSignature = other.transactionsSignature;
+		this.transactionsSignature = copyOf(other.transactionsSignature);
 		this.height = other.height;
 		this.timestamp = other.timestamp;
-		this.minterPublicKey = other.minterPublicKey;
-		this.minterSignature = other.minterSignature;
+		this.minterPublicKey = copyOf(other.minterPublicKey);
+		this.minterSignature = copyOf(other.minterSignature);
 		this.atCount = other.atCount;
 		this.atFees = other.atFees;
-		this.encodedOnlineAccounts = other.encodedOnlineAccounts;
+		this.encodedOnlineAccounts = copyOf(other.encodedOnlineAccounts);
 		this.onlineAccountsCount = other.onlineAccountsCount;
 		this.onlineAccountsTimestamp = other.onlineAccountsTimestamp;
-		this.onlineAccountsSignatures = other.onlineAccountsSignatures;
-		this.signature = other.signature;
+		this.onlineAccountsSignatures = copyOf(other.onlineAccountsSignatures);
+		this.signature = copyOf(other.signature);
+	}
+
+	private static byte[] copyOf(byte[] bytes) {
+		return bytes != null ? bytes.clone() : null;
 	}
 
 	// Getters/setters
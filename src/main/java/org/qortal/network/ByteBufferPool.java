@@ -0,0 +1,179 @@
+package org.qortal.network;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared pool of direct ByteBuffers, grouped into size classes.
+ * <p>
+ * Used by {@link Peer} for socket reads and writes, so that each peer doesn't need
+ * its own max-message-sized heap buffer, and so that outbound messages don't
+ * need a fresh byte array (plus the JDK's temporary direct buffer copy) per send.
+ * <p>
+ * Buffers are handed out cleared, i.e. position 0 and limit at capacity.
+ * Buffers that are never released (e.g. peer disconnected mid-transfer) are simply
+ * reclaimed by GC, so callers only need to release in the common, safe cases.
+ */
+public class ByteBufferPool {
+
+    /** Smallest size class. Covers the vast majority of network messages. (bytes) */
+    public static final int SMALL_BUFFER_SIZE = 64 * 1024;
+    /** Middle size class. Covers typical blocks and QDN data file chunks. (bytes) */
+    public static final int MEDIUM_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int MAX_POOLED_SMALL_BUFFERS = 256;
+    private static final int MAX_POOLED_MEDIUM_BUFFERS = 32;
+    private static final int MAX_POOLED_LARGE_BUFFERS = 8;
+
+    private static class SizeClass {
+        final int bufferSize;
+        final BlockingQueue<ByteBuffer> freeBuffers;
+
+        SizeClass(int bufferSize, int maxPooled) {
+            this.bufferSize = bufferSize;
+            this.freeBuffers = new ArrayBlockingQueue<>(maxPooled);
+        }
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class Stats {
+        public long hits;
+        public long misses;
+        public long releases;
+        public long discards;
+        public long oversized;
+        public int pooledBuffers;
+        public long pooledBytes;
+
+        public Stats() {
+        }
+    }
+
+    private final SizeClass[] sizeClasses;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+
+    public ByteBufferPool(int maxBufferSize) {
+        List<SizeClass> sizeClasses = new ArrayList<>();
+
+        if (maxBufferSize > SMALL_BUFFER_SIZE)
+            sizeClasses.add(new SizeClass(SMALL_BUFFER_SIZE, MAX_POOLED_SMALL_BUFFERS));
+
+        if (maxBufferSize > MEDIUM_BUFFER_SIZE)
+            sizeClasses.add(new SizeClass(MEDIUM_BUFFER_SIZE, MAX_POOLED_MEDIUM_BUFFERS));
+
+        sizeClasses.add(new SizeClass(maxBufferSize, MAX_POOLED_LARGE_BUFFERS));
+
+        this.sizeClasses = sizeClasses.toArray(new SizeClass[0]);
+    }
+
+    public int getMaxBufferSize() {
+        return this.sizeClasses[this.sizeClasses.length - 1].bufferSize;
+    }
+
+    /**
+     * Returns a cleared direct buffer with capacity of at least <tt>minCapacity</tt>.
+     * <p>
+     * Requests larger than the largest size class are served by a one-off, unpooled, heap buffer.
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        SizeClass sizeClass = this.getSizeClass(minCapacity);
+        if (sizeClass == null) {
+            this.oversized.increment();
+            return ByteBuffer.allocate(minCapacity);
+        }
+
+        ByteBuffer buffer = sizeClass.freeBuffers.poll();
+        if (buffer != null) {
+            this.hits.increment();
+            return buffer;
+        }
+
+        this.misses.increment();
+        return ByteBuffer.allocateDirect(sizeClass.bufferSize);
+    }
+
+    /**
+     * Returns buffer to pool, if it came from pool and there's room.
+     * <p>
+     * Caller must not use buffer after calling this method.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect())
+            return;
+
+        for (SizeClass sizeClass : this.sizeClasses) {
+            if (buffer.capacity() != sizeClass.bufferSize)
+                continue;
+
+            buffer.clear();
+
+            if (sizeClass.freeBuffers.offer(buffer))
+                this.releases.increment();
+            else
+                this.discards.increment();
+
+            return;
+        }
+
+        // Not one of ours
+        this.discards.increment();
+    }
+
+    /**
+     * Returns a larger buffer containing <tt>buffer</tt>'s contents, ready for further writing,
+     * releasing the original <tt>buffer</tt> back to pool.
+     * <p>
+     * If <tt>buffer</tt> is already the largest size class then it is returned unchanged.
+     */
+    public ByteBuffer grow(ByteBuffer buffer) {
+        if (buffer.capacity() >= this.getMaxBufferSize())
+            return buffer;
+
+        ByteBuffer newBuffer = this.acquire(buffer.capacity() + 1);
+
+        buffer.flip();
+        newBuffer.put(buffer);
+
+        this.release(buffer);
+
+        return newBuffer;
+    }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+
+        stats.hits = this.hits.sum();
+        stats.misses = this.misses.sum();
+        stats.releases = this.releases.sum();
+        stats.discards = this.discards.sum();
+        stats.oversized = this.oversized.sum();
+
+        for (SizeClass sizeClass : this.sizeClasses) {
+            int pooledCount = sizeClass.freeBuffers.size();
+            stats.pooledBuffers += pooledCount;
+            stats.pooledBytes += (long) pooledCount * sizeClass.bufferSize;
+        }
+
+        return stats;
+    }
+
+    private SizeClass getSizeClass(int minCapacity) {
+        for (SizeClass sizeClass : this.sizeClasses)
+            if (minCapacity <= sizeClass.bufferSize)
+                return sizeClass;
+
+        return null;
+    }
+
+}
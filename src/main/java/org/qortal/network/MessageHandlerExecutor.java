@@ -0,0 +1,149 @@
+package org.qortal.network;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.network.message.MessageType;
+import org.qortal.utils.NamedThreadFactory;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Executor for network message handlers (and broadcasts) that runs them off the networking EPC threads.
+ * <p>
+ * Handlers often block on repository I/O or on {@link Peer#getResponse(org.qortal.network.message.Message)},
+ * so rather than tying up a bounded EPC thread for each, they're run on virtual threads where the JVM supports them
+ * (Java 21+), otherwise on a pool of platform threads, bounded by <tt>maxPlatformThreads</tt>,
+ * with further handlers queued until a thread is free.
+ * <p>
+ * As threads are no longer the limiting resource, per-message-type concurrency is capped using semaphores,
+ * sized by {@link org.qortal.settings.Settings#getMaxThreadsForMessageType(MessageType)}. Slots are reserved
+ * before handlers are queued, so a flood of messages is discarded, rather than queued and handled late.
+ */
+public class MessageHandlerExecutor {
+
+    private static final Logger LOGGER = LogManager.getLogger(MessageHandlerExecutor.class);
+
+    private static final long PLATFORM_THREAD_KEEPALIVE = 10L; // seconds
+
+    private final ExecutorService executor;
+    private final boolean isUsingVirtualThreads;
+    private final Function<MessageType, Integer> limitForMessageType;
+    private final Map<MessageType, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+    public MessageHandlerExecutor(String threadNamePrefix, int maxPlatformThreads, Function<MessageType, Integer> limitForMessageType) {
+        ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+
+        if (virtualThreadExecutor != null) {
+            this.executor = virtualThreadExecutor;
+            this.isUsingVirtualThreads = true;
+        } else {
+            LOGGER.info("Virtual threads not supported by this JVM - using platform threads for network message handling");
+            ThreadPoolExecutor platformThreadExecutor = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads,
+                    PLATFORM_THREAD_KEEPALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new NamedThreadFactory(threadNamePrefix));
+            // Don't keep idle threads around
+            platformThreadExecutor.allowCoreThreadTimeOut(true);
+
+            this.executor = platformThreadExecutor;
+            this.isUsingVirtualThreads = false;
+        }
+
+        this.limitForMessageType = limitForMessageType;
+    }
+
+    /**
+     * Returns executor that starts a new virtual thread per task, or null if not supported by this JVM.
+     * <p>
+     * We use reflection as we still compile for a Java release that predates virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // Not supported, or still a preview feature on this JVM
+            return null;
+        }
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return this.isUsingVirtualThreads;
+    }
+
+    /**
+     * Attempts to reserve a handler slot for <tt>messageType</tt>.
+     *
+     * @return true if handler can proceed, false if there are already too many handlers for this message type
+     */
+    public boolean tryAcquire(MessageType messageType) {
+        Semaphore semaphore = this.getSemaphore(messageType);
+        return semaphore == null || semaphore.tryAcquire();
+    }
+
+    /** Releases handler slot previously reserved via {@link #tryAcquire(MessageType)}. */
+    public void release(MessageType messageType) {
+        Semaphore semaphore = this.getSemaphore(messageType);
+        if (semaphore != null)
+            semaphore.release();
+    }
+
+    private Semaphore getSemaphore(MessageType messageType) {
+        Semaphore semaphore = this.semaphores.get(messageType);
+        if (semaphore != null)
+            return semaphore;
+
+        Integer limit = this.limitForMessageType.apply(messageType);
+        if (limit == null)
+            // Unlimited
+            return null;
+
+        return this.semaphores.computeIfAbsent(messageType, k -> new Semaphore(limit));
+    }
+
+    /**
+     * Runs <tt>handler</tt> for message of <tt>messageType</tt>, unless there are already too many handlers,
+     * running or queued, for that message type.
+     *
+     * @return true if handler was accepted, false if discarded
+     */
+    public boolean executeHandler(MessageType messageType, Runnable handler) {
+        if (!this.tryAcquire(messageType))
+            return false;
+
+        try {
+            this.executor.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    this.release(messageType);
+                }
+            });
+
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Shutdown situation
+            this.release(messageType);
+            LOGGER.trace("Discarding network message handler during shutdown");
+            return false;
+        }
+    }
+
+    public void execute(Runnable runnable) {
+        try {
+            this.executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            // Shutdown situation
+            LOGGER.trace("Discarding network message handler during shutdown");
+        }
+    }
+
+    public boolean shutdown(long timeout) throws InterruptedException {
+        this.executor.shutdownNow();
+        return this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -98,6 +98,7 @@ public class Network {
     private final String ourNodeId = Crypto.toNodeAddress(edPublicKeyParams.getEncoded());
 
     private final int maxMessageSize;
+    private final ByteBufferPool byteBufferPool;
     private final int minOutboundPeers;
     private final int maxPeers;
 
@@ -141,11 +142,16 @@ public class Network {
 
     private String bindAddress = null;
 
-    private final ExecuteProduceConsume networkEPC;
-    private Selector channelSelector;
+    /**
+     * One processor per channel selector. Peers' channels are hashed to a processor, which then
+     * produces all channel and message tasks for that peer. Processor 0 also handles the listen socket
+     * plus periodic peer-wide tasks, like pings, connecting new peers and broadcasts.
+     */
+    private final NetworkProcessor[] networkProcessors;
+    /** Executor for message handlers and broadcasts, if not running them on networking EPC threads. */
+    private final MessageHandlerExecutor messageHandlerExecutor;
     private ServerSocketChannel serverChannel;
     private SelectionKey serverSelectionKey;
-    private final Set<SelectableChannel> channelsPendingWrite = ConcurrentHashMap.newKeySet();
 
     private final Lock mergePeersLock = new ReentrantLock();
 
@@ -159,6 +165,7 @@ public class Network {
 
     private Network() {
         maxMessageSize = 4 + 1 + 4 + BlockChain.getInstance().getMaxBlockSize();
+        byteBufferPool = new ByteBufferPool(maxMessageSize);
 
         minOutboundPeers = Settings.getInstance().getMinOutboundPeers();
         maxPeers = Settings.getInstance().getMaxPeers();
@@ -169,7 +176,20 @@ public class Network {
                 NETWORK_EPC_KEEPALIVE, TimeUnit.SECONDS,
                 new SynchronousQueue<Runnable>(),
                 new NamedThreadFactory("Network-EPC"));
-        networkEPC = new NetworkProcessor(networkExecutor);
+
+        // All processors share the same executor, and hence maxNetworkThreadPoolSize cap
+        int selectorCount = Math.max(1, Settings.getInstance().getNetworkSelectorCount());
+        networkProcessors = new NetworkProcessor[selectorCount];
+        for (int shardIndex = 0; shardIndex < selectorCount; ++shardIndex)
+            networkProcessors[shardIndex] = new NetworkProcessor(networkExecutor, shardIndex);
+
+        if (Settings.getInstance().isNetworkVirtualThreadsEnabled()) {
+            messageHandlerExecutor = new MessageHandlerExecutor("Network-Message",
+                    Settings.getInstance().getMaxNetworkThreadPoolSize(),
+                    messageType -> Settings.getInstance().getMaxThreadsForMessageType(messageType));
+        } else {
+            messageHandlerExecutor = null;
+        }
     }
 
     public void start() throws IOException, DataException {
@@ -185,20 +205,22 @@ public class Network {
             bindAddresses.add(Settings.getInstance().getBindAddressFallback());
         }
 
+        for (NetworkProcessor networkProcessor : networkProcessors) {
+            networkProcessor.channelSelector = Selector.open();
+        }
+
         for (int i=0; i<bindAddresses.size(); i++) {
             try {
                 String bindAddress = bindAddresses.get(i);
                 InetAddress bindAddr = InetAddress.getByName(bindAddress);
                 InetSocketAddress endpoint = new InetSocketAddress(bindAddr, listenPort);
 
-                channelSelector = Selector.open();
-
                 // Set up listen socket
                 serverChannel = ServerSocketChannel.open();
                 serverChannel.configureBlocking(false);
                 serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
                 serverChannel.bind(endpoint, LISTEN_BACKLOG);
-                serverSelectionKey = serverChannel.register(channelSelector, SelectionKey.OP_ACCEPT);
+                serverSelectionKey = serverChannel.register(networkProcessors[0].channelSelector, SelectionKey.OP_ACCEPT);
 
                 this.bindAddress = bindAddress; // Store the selected address, so that it can be used by other parts of the app
                 break; // We don't want to bind to more than one address
@@ -245,8 +267,10 @@ public class Network {
             UPnP.closePortTCP(Settings.getInstance().getListenPort());
         }
 
-        // Start up first networking thread
-        networkEPC.start();
+        // Start up first networking thread for each selector
+        for (NetworkProcessor networkProcessor : networkProcessors) {
+            networkProcessor.start();
+        }
     }
 
     // Getters / setters
@@ -296,8 +320,49 @@ public class Network {
         return this.maxMessageSize;
     }
 
+    /**
+     * Shared pool of direct buffers used for peer socket reads and writes.
+     */
+    public ByteBufferPool getByteBufferPool() {
+        return this.byteBufferPool;
+    }
+
+    /**
+     * Returns executor for message handlers and broadcasts, or null if these run directly on networking EPC threads.
+     */
+    public MessageHandlerExecutor getMessageHandlerExecutor() {
+        return this.messageHandlerExecutor;
+    }
+
+    /**
+     * Returns networking engine stats, summed across all channel selector shards.
+     */
     public StatsSnapshot getStatsSnapshot() {
-        return this.networkEPC.getStatsSnapshot();
+        if (this.networkProcessors.length == 1) {
+            return this.networkProcessors[0].getStatsSnapshot();
+        }
+
+        StatsSnapshot totalStats = new StatsSnapshot();
+
+        for (StatsSnapshot shardStats : this.getShardStatsSnapshots()) {
+            totalStats.activeThreadCount += shardStats.activeThreadCount;
+            totalStats.greatestActiveThreadCount += shardStats.greatestActiveThreadCount;
+            totalStats.consumerCount += shardStats.consumerCount;
+            totalStats.tasksProduced += shardStats.tasksProduced;
+            totalStats.tasksConsumed += shardStats.tasksConsumed;
+            totalStats.spawnFailures += shardStats.spawnFailures;
+        }
+
+        return totalStats;
+    }
+
+    /**
+     * Returns networking engine stats for each channel selector shard, in shard order.
+     */
+    public List<StatsSnapshot> getShardStatsSnapshots() {
+        return Arrays.stream(this.networkProcessors)
+                .map(ExecuteProduceConsume::getStatsSnapshot)
+                .collect(Collectors.toList());
     }
 
     // Peer lists
@@ -526,10 +591,16 @@ public class Network {
         private final AtomicLong nextConnectTaskTimestamp = new AtomicLong(0L); // ms - try first connect once NTP syncs
         private final AtomicLong nextBroadcastTimestamp = new AtomicLong(0L); // ms - try first broadcast once NTP syncs
 
+        private final int shardIndex;
+        private Selector channelSelector;
+        private final Set<SelectableChannel> channelsPendingWrite = ConcurrentHashMap.newKeySet();
+
         private Iterator<SelectionKey> channelIterator = null;
 
-        NetworkProcessor(ExecutorService executor) {
+        NetworkProcessor(ExecutorService executor, int shardIndex) {
             super(executor);
+
+            this.shardIndex = shardIndex;
         }
 
         @Override
@@ -547,6 +618,11 @@ public class Network {
                 return task;
             }
 
+            // Only the primary shard produces peer-wide periodic tasks
+            if (this.shardIndex != 0) {
+                return maybeProduceChannelTask(canBlock);
+            }
+
             final Long now = NTP.getTime();
 
             task = maybeProducePeerPingTask(now);
@@ -570,6 +646,7 @@ public class Network {
 
         private Task maybeProducePeerMessageTask() {
             return getImmutableConnectedPeers().stream()
+                    .filter(peer -> getNetworkProcessor(peer.getSocketChannel()) == this)
                     .map(Peer::getMessageTask)
                     .filter(Objects::nonNull)
                     .findFirst()
@@ -838,8 +915,19 @@ public class Network {
         }
     }
 
+    /**
+     * Returns processor, and hence channel selector, responsible for <tt>channel</tt>.
+     */
+    private NetworkProcessor getNetworkProcessor(SelectableChannel channel) {
+        if (this.networkProcessors.length == 1 || channel == null || channel instanceof ServerSocketChannel) {
+            return this.networkProcessors[0];
+        }
+
+        return this.networkProcessors[Math.floorMod(System.identityHashCode(channel), this.networkProcessors.length)];
+    }
+
     public void clearInterestOps(SelectableChannel socketChannel, int interestOps) {
-        SelectionKey selectionKey = socketChannel.keyFor(channelSelector);
+        SelectionKey selectionKey = socketChannel.keyFor(getNetworkProcessor(socketChannel).channelSelector);
         if (selectionKey == null)
             return;
 
@@ -859,10 +947,11 @@ public class Network {
     }
 
     public void setInterestOps(SelectableChannel socketChannel, int interestOps) {
+        Selector channelSelector = getNetworkProcessor(socketChannel).channelSelector;
         SelectionKey selectionKey = socketChannel.keyFor(channelSelector);
         if (selectionKey == null) {
             try {
-                selectionKey = socketChannel.register(this.channelSelector, interestOps);
+                selectionKey = socketChannel.register(channelSelector, interestOps);
             } catch (ClosedChannelException e) {
                 // Channel already closed so ignore
                 return;
@@ -888,11 +977,11 @@ public class Network {
     // Peer / Task callbacks
 
     public void notifyChannelNotWriting(SelectableChannel socketChannel) {
-        this.channelsPendingWrite.remove(socketChannel);
+        getNetworkProcessor(socketChannel).channelsPendingWrite.remove(socketChannel);
     }
 
-    protected void wakeupChannelSelector() {
-        this.channelSelector.wakeup();
+    protected void wakeupChannelSelector(SelectableChannel socketChannel) {
+        getNetworkProcessor(socketChannel).channelSelector.wakeup();
     }
 
     protected boolean verify(byte[] signature, byte[] message) {
@@ -922,7 +1011,7 @@ public class Network {
         }
 
         this.removeConnectedPeer(peer);
-        this.channelsPendingWrite.remove(peer.getSocketChannel());
+        this.notifyChannelNotWriting(peer.getSocketChannel());
 
         if (this.isShuttingDown)
             // No need to do any further processing, like re-enabling listen socket or notifying Controller
@@ -977,6 +1066,13 @@ public class Network {
 
         // Should be non-handshaking messages from now on
 
+        if (this.messageHandlerExecutor != null) {
+            // Handlers aren't using up EPC threads, so concurrent handlers per message type
+            // were already limited, using semaphores, when this handler was queued (see MessageTask)
+            this.onHandshakedMessage(peer, message);
+            return;
+        }
+
         // Limit threads per message type and discard if there are already too many
         Integer maxThreadsForMessageType = Settings.getInstance().getMaxThreadsForMessageType(message.getType());
         if (maxThreadsForMessageType != null) {
@@ -987,6 +1083,11 @@ public class Network {
             }
         }
 
+        this.onHandshakedMessage(peer, message);
+    }
+
+    private void onHandshakedMessage(Peer peer, Message message) {
+
         // Warn if necessary
         if (threadCountPerMessageTypeWarningThreshold != null) {
             Integer threadCount = threadsPerMessageType.get(message.getType());
@@ -1653,10 +1754,17 @@ public class Network {
             }
         }
 
-        // Stop processing threads
+        // Stop processing threads (all processors share the same executor)
         try {
-            if (!this.networkEPC.shutdown(5000)) {
-                LOGGER.warn("Network threads failed to terminate");
+            if (this.messageHandlerExecutor != null && !this.messageHandlerExecutor.shutdown(5000)) {
+                LOGGER.warn("Network message handler threads failed to terminate");
+            }
+
+            for (NetworkProcessor networkProcessor : this.networkProcessors) {
+                if (!networkProcessor.shutdown(5000)) {
+                    LOGGER.warn("Network threads failed to terminate");
+                    break;
+                }
             }
         } catch (InterruptedException e) {
             LOGGER.warn("Interrupted while waiting for networking threads to terminate");
@@ -75,11 +75,13 @@ public class Peer {
     private final UUID peerConnectionId = UUID.randomUUID();
     private final Object byteBufferLock = new Object();
     private ByteBuffer byteBuffer;
-    private Map<Integer, BlockingQueue<Message>> replyQueues;
+    private final ReplyTable replyTable = new ReplyTable();
     private LinkedBlockingQueue<Message> pendingMessages;
 
     private TransferQueue<Message> sendQueue;
-    private ByteBuffer outputBuffer;
+    private ByteBuffer[] outputBuffers;
+    private long outputBytesRemaining;
+    private int outputMessageLength;
     private String outputMessageType;
     private int outputMessageId;
 
@@ -445,9 +447,8 @@ public class Peer {
         this.socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
         this.socketChannel.configureBlocking(false);
         Network.getInstance().setInterestOps(this.socketChannel, SelectionKey.OP_READ);
-        this.byteBuffer = null; // Defer allocation to when we need it, to save memory. Sorry GC!
+        this.byteBuffer = null; // Defer acquiring from pool until we need it, to save memory
         this.sendQueue = new LinkedTransferQueue<>();
-        this.replyQueues = new ConcurrentHashMap<>();
         this.pendingMessages = new LinkedBlockingQueue<>();
 
         Random random = new SecureRandom();
@@ -498,15 +499,28 @@ public class Peer {
      * @throws IOException If this channel is not yet connected
      */
     public void readChannel() throws IOException {
+        final ByteBufferPool byteBufferPool = Network.getInstance().getByteBufferPool();
+
         synchronized (this.byteBufferLock) {
             while (true) {
                 if (!this.socketChannel.isOpen() || this.socketChannel.socket().isClosed()) {
+                    this.releaseByteBuffer();
                     return;
                 }
 
-                // Do we need to allocate byteBuffer?
+                // Do we need to acquire byteBuffer?
                 if (this.byteBuffer == null) {
-                    this.byteBuffer = ByteBuffer.allocate(Network.getInstance().getMaxMessageSize());
+                    this.byteBuffer = byteBufferPool.acquire(ByteBufferPool.SMALL_BUFFER_SIZE);
+                } else if (!this.byteBuffer.hasRemaining()) {
+                    // Buffer full but still no complete message, so move up to next size class (if any)
+                    this.byteBuffer = byteBufferPool.grow(this.byteBuffer);
+
+                    if (!this.byteBuffer.hasRemaining()) {
+                        // Already largest size class, so peer is sending something bigger than we allow
+                        this.disconnect("Message too large for buffer");
+                        this.releaseByteBuffer();
+                        return;
+                    }
                 }
 
                 final int priorPosition = this.byteBuffer.position();
@@ -517,6 +531,7 @@ public class Peer {
                     } else {
                         this.disconnect("EOF - failed to read any data");
                     }
+                    this.releaseByteBuffer();
                     return;
                 }
 
@@ -545,6 +560,7 @@ public class Peer {
                     } catch (MessageException e) {
                         LOGGER.debug("[{}] {}, from peer {}", this.peerConnectionId, e.getMessage(), this);
                         this.disconnect(e.getMessage());
+                        this.releaseByteBuffer();
                         return;
                     }
 
@@ -552,12 +568,10 @@ public class Peer {
                         // No complete message in buffer, no more bytes to read from socket
                         // even though there was room to read bytes
 
-                        /* DISABLED
-                        // If byteBuffer is empty then we can deallocate it, to save memory, albeit costing GC
-                        if (this.byteBuffer.remaining() == this.byteBuffer.capacity()) {
-                            this.byteBuffer = null;
+                        // If byteBuffer is empty then we can return it to pool, for use by other peers
+                        if (this.byteBuffer.position() == 0) {
+                            this.releaseByteBuffer();
                         }
-                        */
 
                         return;
                     }
@@ -589,10 +603,8 @@ public class Peer {
                     if (message.getType() == MessageType.UNSUPPORTED)
                         continue;
 
-                    BlockingQueue<Message> queue = this.replyQueues.get(message.getId());
-                    if (queue != null) {
-                        // Adding message to queue will unblock thread waiting for response
-                        this.replyQueues.get(message.getId()).add(message);
+                    if (message.hasId() && this.replyTable.complete(message)) {
+                        // Completing pending reply will notify whoever is waiting for response
                         // Consumed elsewhere
                         continue;
                     }
@@ -608,7 +620,7 @@ public class Peer {
 
                     // Prematurely end any blocking channel select so that new messages can be processed.
                     // This might cause this.socketChannel.read() above to return zero into bytesRead.
-                    Network.getInstance().wakeupChannelSelector();
+                    Network.getInstance().wakeupChannelSelector(this.socketChannel);
                 }
             }
         }
@@ -622,8 +634,8 @@ public class Peer {
         // It is the responsibility of ChannelWriteTask's producer to produce only one call to writeChannel() at a time
 
         while (true) {
-            // If output byte buffer is null, fetch next message from queue (if any)
-            while (this.outputBuffer == null) {
+            // If output byte buffers are null, fetch next message from queue (if any)
+            while (this.outputBuffers == null) {
                 Message message;
 
                 try {
@@ -641,7 +653,22 @@ public class Peer {
                     return false;
 
                 try {
-                    this.outputBuffer = ByteBuffer.wrap(message.toBytes());
+                    final int messageLength = message.getFramedLength();
+
+                    if (messageLength <= ByteBufferPool.SMALL_BUFFER_SIZE) {
+                        // Small message: copy into a single pooled, direct buffer
+                        ByteBuffer messageBuffer = Network.getInstance().getByteBufferPool().acquire(messageLength);
+                        message.writeTo(messageBuffer);
+                        messageBuffer.flip();
+
+                        this.outputBuffers = new ByteBuffer[] { messageBuffer };
+                    } else {
+                        // Large message: header buffer plus payload sent in place via gathering write
+                        this.outputBuffers = message.toByteBuffers();
+                    }
+
+                    this.outputBytesRemaining = messageLength;
+                    this.outputMessageLength = messageLength;
                     this.outputMessageType = message.getType().name();
                     this.outputMessageId = message.getId();
 
@@ -652,7 +679,7 @@ public class Peer {
                     MessageStats messageStats = this.sentMessageStats.computeIfAbsent(message.getType(), k -> new MessageStats());
                     // Ideally these two operations would be atomic, we could pack 'count' in top X bits of the 64-bit long, but meh
                     messageStats.count.increment();
-                    messageStats.totalBytes.add(this.outputBuffer.limit());
+                    messageStats.totalBytes.add(messageLength);
                 } catch (MessageException e) {
                     // Something went wrong converting message to bytes, so discard but allow another round
                     LOGGER.warn("[{}] Failed to send {} message with ID {} to peer {}: {}", this.peerConnectionId,
@@ -660,26 +687,55 @@ public class Peer {
                 }
             }
 
-            // If output byte buffer is not null, send from that
-            int bytesWritten = this.socketChannel.write(outputBuffer);
+            // If output byte buffers are not null, send from those
+            long bytesWritten = this.socketChannel.write(this.outputBuffers);
 
             LOGGER.trace("[{}] Sent {} bytes of {} message with ID {} to peer {} ({} total)", this.peerConnectionId,
-                    bytesWritten, this.outputMessageType, this.outputMessageId, this, outputBuffer.limit());
+                    bytesWritten, this.outputMessageType, this.outputMessageId, this, this.outputMessageLength);
 
             // If we've sent 0 bytes then socket buffer is full so we need to wait until it's empty again
             if (bytesWritten == 0) {
                 return true;
             }
 
-            // If we then exhaust the byte buffer, set it to null (otherwise loop and try to send more)
-            if (!this.outputBuffer.hasRemaining()) {
+            this.outputBytesRemaining -= bytesWritten;
+
+            // If we then exhaust the byte buffers, return them to pool (otherwise loop and try to send more)
+            if (this.outputBytesRemaining <= 0) {
                 this.outputMessageType = null;
                 this.outputMessageId = 0;
-                this.outputBuffer = null;
+                this.releaseOutputBuffer();
             }
         }
     }
 
+    /**
+     * Returns partially-sent output buffer, if any, to shared pool.
+     * <p>
+     * Only to be called by the thread performing {@link #writeChannel()},
+     * e.g. by ChannelWriteTask after an I/O error.
+     */
+    public void releaseOutputBuffer() {
+        ByteBuffer[] buffers = this.outputBuffers;
+        this.outputBuffers = null;
+        this.outputBytesRemaining = 0;
+
+        if (buffers == null)
+            return;
+
+        // Pool ignores heap buffers, such as header/payload buffers from Message.toByteBuffers()
+        for (ByteBuffer buffer : buffers)
+            Network.getInstance().getByteBufferPool().release(buffer);
+    }
+
+    /** Returns read buffer to shared pool. Caller must hold byteBufferLock. */
+    private void releaseByteBuffer() {
+        ByteBuffer buffer = this.byteBuffer;
+        this.byteBuffer = null;
+
+        Network.getInstance().getByteBufferPool().release(buffer);
+    }
+
     protected Task getMessageTask() {
         /*
          * If we are still handshaking and there is a message yet to be processed then
@@ -753,7 +809,7 @@ public class Peer {
     /**
      * Send message to peer and await response, using default RESPONSE_TIMEOUT.
      * <p>
-     * Message is assigned a random ID and sent.
+     * Message is assigned an ID from this peer's reply table and sent.
      * If a response with matching ID is received then it is returned to caller.
      * <p>
      * If no response with matching ID within timeout, or some other error/exception occurs,
@@ -771,7 +827,7 @@ public class Peer {
     /**
      * Send message to peer and await response.
      * <p>
-     * Message is assigned a random ID and sent.
+     * Message is assigned an ID from this peer's reply table and sent.
      * If a response with matching ID is received then it is returned to caller.
      * <p>
      * If no response with matching ID within timeout, or some other error/exception occurs,
@@ -783,30 +839,54 @@ public class Peer {
      * @throws InterruptedException if interrupted while waiting
      */
     public Message getResponseWithTimeout(Message message, int timeout) throws InterruptedException {
-        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<>(1);
+        try {
+            return this.sendRequest(message, timeout).get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
 
-        // Assign random ID to this message
-        Random random = new Random();
-        int id;
-        do {
-            id = random.nextInt(Integer.MAX_VALUE - 1) + 1;
+    /**
+     * Send message to peer, returning a future for the response, using default RESPONSE_TIMEOUT.
+     *
+     * @see #sendRequest(Message, int)
+     */
+    public CompletableFuture<Message> sendRequest(Message message) {
+        return this.sendRequest(message, RESPONSE_TIMEOUT);
+    }
 
-            // Put queue into map (keyed by message ID) so we can poll for a response
-            // If putIfAbsent() doesn't return null, then this ID is already taken
-        } while (this.replyQueues.putIfAbsent(id, blockingQueue) != null);
-        message.setId(id);
+    /**
+     * Send message to peer, returning a future for the response.
+     * <p>
+     * Message is assigned an ID from this peer's reply table and sent.
+     * Sending still waits (up to <tt>timeout</tt>) for the message to be accepted by the network writer,
+     * but no thread is tied up while waiting for the response, so callers can have many requests in flight.
+     * <p>
+     * Future completes with the response, or with <code>null</code> if message couldn't be sent,
+     * no response with matching ID arrives within <tt>timeout</tt>, or the peer disconnects.
+     *
+     * @param message message to send
+     * @return future that completes with <code>Message</code> if valid response received, <code>null</code> otherwise
+     */
+    public CompletableFuture<Message> sendRequest(Message message, int timeout) {
+        ReplyTable.PendingReply pendingReply = this.replyTable.allocate();
+        if (pendingReply == null) {
+            LOGGER.debug("[{}] Too many outstanding requests to peer {}", this.peerConnectionId, this);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        message.setId(pendingReply.getId());
+
+        CompletableFuture<Message> future = pendingReply.getFuture();
+        future.whenComplete((response, e) -> this.replyTable.release(pendingReply));
 
         // Try to send message
         if (!this.sendMessageWithTimeout(message, timeout)) {
-            this.replyQueues.remove(id);
-            return null;
+            future.complete(null);
+            return future;
         }
 
-        try {
-            return blockingQueue.poll(timeout, TimeUnit.MILLISECONDS);
-        } finally {
-            this.replyQueues.remove(id);
-        }
+        return future.completeOnTimeout(null, timeout, TimeUnit.MILLISECONDS);
     }
 
     protected void startPings() {
@@ -851,6 +931,9 @@ public class Peer {
         }
         isStopping = true;
 
+        // No more replies will arrive, so don't keep callers waiting until timeout
+        this.replyTable.cancelAll();
+
         if (this.socketChannel.isOpen()) {
             try {
                 this.socketChannel.shutdownOutput();
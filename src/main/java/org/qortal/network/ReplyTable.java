@@ -0,0 +1,111 @@
+package org.qortal.network;
+
+import org.qortal.network.message.Message;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Preallocated, lock-free table correlating outgoing request message IDs with their pending replies.
+ * <p>
+ * Message IDs encode the table slot in their low bits, so an incoming reply can be matched
+ * with a single array lookup, and a rolling sequence number in the higher bits,
+ * so a late reply for an expired request can't be mistaken for a reply to a later request reusing the same slot.
+ * <p>
+ * Replies are delivered by completing a {@link CompletableFuture}, so callers don't need to
+ * park a thread per request while waiting.
+ */
+public class ReplyTable {
+
+    private static final int SLOT_BITS = 10;
+    /** Maximum number of outstanding requests per peer. */
+    public static final int SLOT_COUNT = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+    /** Sequence occupies the remaining bits of a positive int. */
+    private static final int SEQUENCE_MASK = Integer.MAX_VALUE >>> SLOT_BITS;
+
+    public static class PendingReply {
+        private final int id;
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+
+        private PendingReply(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        public CompletableFuture<Message> getFuture() {
+            return this.future;
+        }
+    }
+
+    private final AtomicReferenceArray<PendingReply> slots = new AtomicReferenceArray<>(SLOT_COUNT);
+    private final AtomicInteger nextSlot = new AtomicInteger(ThreadLocalRandom.current().nextInt(SLOT_COUNT));
+    private final AtomicInteger sequence = new AtomicInteger(ThreadLocalRandom.current().nextInt(SEQUENCE_MASK));
+
+    /**
+     * Reserves a slot for a new request, returning pending reply containing message ID to use.
+     *
+     * @return pending reply, or null if all slots are in use
+     */
+    public PendingReply allocate() {
+        for (int attempt = 0; attempt < SLOT_COUNT; ++attempt) {
+            int slot = this.nextSlot.getAndIncrement() & SLOT_MASK;
+
+            if (this.slots.get(slot) != null)
+                continue;
+
+            int sequenceNumber = this.sequence.incrementAndGet() & SEQUENCE_MASK;
+            if (sequenceNumber == 0)
+                // Message IDs must be positive
+                sequenceNumber = 1;
+
+            PendingReply pendingReply = new PendingReply((sequenceNumber << SLOT_BITS) | slot);
+
+            if (this.slots.compareAndSet(slot, null, pendingReply))
+                return pendingReply;
+        }
+
+        return null;
+    }
+
+    /**
+     * Completes pending reply matching <tt>message</tt>'s ID, if any.
+     *
+     * @return true if message was a reply to a pending request, false otherwise
+     */
+    public boolean complete(Message message) {
+        int id = message.getId();
+        if (id <= 0)
+            return false;
+
+        PendingReply pendingReply = this.slots.get(id & SLOT_MASK);
+        if (pendingReply == null || pendingReply.id != id)
+            return false;
+
+        return pendingReply.future.complete(message);
+    }
+
+    /**
+     * Frees slot used by <tt>pendingReply</tt>. Any later reply with the same ID will no longer be matched.
+     */
+    public void release(PendingReply pendingReply) {
+        this.slots.compareAndSet(pendingReply.id & SLOT_MASK, pendingReply, null);
+    }
+
+    /**
+     * Completes all pending replies with null, e.g. on peer disconnection, so waiting callers can move on.
+     */
+    public void cancelAll() {
+        for (int slot = 0; slot < SLOT_COUNT; ++slot) {
+            PendingReply pendingReply = this.slots.getAndSet(slot, null);
+            if (pendingReply != null)
+                pendingReply.future.complete(null);
+        }
+    }
+
+}
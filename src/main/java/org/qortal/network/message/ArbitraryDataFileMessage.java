@@ -7,8 +7,6 @@ import org.qortal.arbitrary.ArbitraryDataFile;
 import org.qortal.repository.DataException;
 import org.qortal.transform.Transformer;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
@@ -24,20 +22,8 @@ public class ArbitraryDataFileMessage extends Message {
 
 		byte[] data = arbitraryDataFile.getBytes();
 
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-
-		try {
-			bytes.write(signature);
-
-			bytes.write(Ints.toByteArray(data.length));
-
-			bytes.write(data);
-		} catch (IOException e) {
-			throw new AssertionError("IOException shouldn't occur with ByteArrayOutputStream");
-		}
-
-		this.dataBytes = bytes.toByteArray();
-		this.checksumBytes = Message.generateChecksum(this.dataBytes);
+		// Chunk data is sent as-is, rather than copied into combined dataBytes
+		this.setDataSegments(signature, Ints.toByteArray(data.length), data);
 	}
 
 	private ArbitraryDataFileMessage(int id, byte[] signature, ArbitraryDataFile arbitraryDataFile) {
@@ -13,7 +13,7 @@ import org.qortal.transform.block.BlockTransformer;
 
 import com.google.common.primitives.Ints;
 
-public class BlockSummariesMessage extends Message {
+public class BlockSummariesMessage extends Message implements Cloneable {
 
 	private static final int BLOCK_SUMMARY_LENGTH = BlockTransformer.BLOCK_SIGNATURE_LENGTH + Transformer.INT_LENGTH + Transformer.PUBLIC_KEY_LENGTH + Transformer.INT_LENGTH;
 
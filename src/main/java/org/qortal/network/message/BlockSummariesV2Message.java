@@ -13,7 +13,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-public class BlockSummariesV2Message extends Message {
+public class BlockSummariesV2Message extends Message implements Cloneable {
 
 	public static final long MINIMUM_PEER_VERSION = 0x0300060001L;
 
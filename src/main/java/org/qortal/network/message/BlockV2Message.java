@@ -10,8 +10,6 @@ import org.qortal.transform.TransformationException;
 import org.qortal.transform.block.BlockTransformation;
 import org.qortal.transform.block.BlockTransformer;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
 
@@ -27,18 +25,8 @@ public class BlockV2Message extends Message {
 	public BlockV2Message(Block block) throws TransformationException {
 		super(MessageType.BLOCK_V2);
 
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-
-		try {
-			bytes.write(Ints.toByteArray(block.getBlockData().getHeight()));
-
-			bytes.write(BlockTransformer.toBytesV2(block));
-		} catch (IOException e) {
-			throw new AssertionError("IOException shouldn't occur with ByteArrayOutputStream");
-		}
-
-		this.dataBytes = bytes.toByteArray();
-		this.checksumBytes = Message.generateChecksum(this.dataBytes);
+		// Serialized block is sent as-is, rather than copied into combined dataBytes
+		this.setDataSegments(Ints.toByteArray(block.getBlockData().getHeight()), BlockTransformer.toBytesV2(block));
 	}
 
 	public BlockV2Message(byte[] cachedBytes) {
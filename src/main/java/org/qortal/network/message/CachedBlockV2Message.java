@@ -5,8 +5,6 @@ import org.qortal.block.Block;
 import org.qortal.transform.TransformationException;
 import org.qortal.transform.block.BlockTransformer;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 
 // This is an OUTGOING-only Message which more readily lends itself to being cached
@@ -15,18 +13,8 @@ public class CachedBlockV2Message extends Message implements Cloneable {
 	public CachedBlockV2Message(Block block) throws TransformationException {
 		super(MessageType.BLOCK_V2);
 
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-
-		try {
-			bytes.write(Ints.toByteArray(block.getBlockData().getHeight()));
-
-			bytes.write(BlockTransformer.toBytes(block));
-		} catch (IOException e) {
-			throw new AssertionError("IOException shouldn't occur with ByteArrayOutputStream");
-		}
-
-		this.dataBytes = bytes.toByteArray();
-		this.checksumBytes = Message.generateChecksum(this.dataBytes);
+		// Serialized block is sent as-is, rather than copied into combined dataBytes
+		this.setDataSegments(Ints.toByteArray(block.getBlockData().getHeight()), BlockTransformer.toBytesV2(block));
 	}
 
 	public CachedBlockV2Message(byte[] cachedBytes) {
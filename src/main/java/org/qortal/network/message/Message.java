@@ -3,12 +3,10 @@ package org.qortal.network.message;
 import org.qortal.crypto.Crypto;
 import org.qortal.network.Network;
 
-import com.google.common.primitives.Ints;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 /**
@@ -23,8 +21,8 @@ import java.util.Arrays;
  * <p>
  * Each subclass's <b>public</b> constructor is for building a message to send <b>only</b>.
  * The constructor will serialize into byte form but <b>not</b> store the passed args.
- * Serialized bytes are saved into superclass (Message) {@code dataBytes} and, if not empty,
- * a checksum is created and saved into {@code checksumBytes}.
+ * Serialized bytes are saved into superclass (Message) {@code dataBytes} (or, for large payloads,
+ * {@code dataSegments}) and, if not empty, a checksum is created and saved into {@code checksumBytes}.
  * Therefore: <i>do not use subclass's getters after using constructor!</i>
  * </p>
  * <p></p>
@@ -53,6 +51,12 @@ public abstract class Message {
 
 	/** Serialized outgoing message data. Expected to be written to by subclass. */
 	protected byte[] dataBytes;
+	/**
+	 * Alternative to {@code dataBytes}: serialized outgoing message data as consecutive segments.
+	 * Segments are sent back-to-back, via gathering write, without being concatenated first.
+	 * Expected to be written to by subclass, via {@link #setDataSegments(byte[]...)}.
+	 */
+	protected byte[][] dataSegments;
 	/** Serialized outgoing message checksum. Expected to be written to by subclass. */
 	protected byte[] checksumBytes;
 
@@ -85,6 +89,9 @@ public abstract class Message {
 
 	/**
 	 * Attempt to read a message from byte buffer.
+	 * <p>
+	 * Buffer is typically a pooled, direct buffer that will be reused once this call returns,
+	 * so subclasses' {@code fromByteBuffer()} must copy out any data they need and not retain the passed slice.
 	 * 
 	 * @param readOnlyBuffer ByteBuffer containing bytes read from network
 	 * @return null if no complete message can be read
@@ -93,12 +100,11 @@ public abstract class Message {
 	public static Message fromByteBuffer(ByteBuffer readOnlyBuffer) throws MessageException {
 		try {
 			// Read only enough bytes to cover Message "magic" preamble
-			byte[] messageMagic = new byte[MAGIC_LENGTH];
-			readOnlyBuffer.get(messageMagic);
-
-			if (!Arrays.equals(messageMagic, Network.getInstance().getMessageMagic()))
-				// Didn't receive correct Message "magic"
-				throw new MessageException("Received incorrect message 'magic'");
+			byte[] expectedMagic = Network.getInstance().getMessageMagic();
+			for (int i = 0; i < MAGIC_LENGTH; ++i)
+				if (readOnlyBuffer.get() != expectedMagic[i])
+					// Didn't receive correct Message "magic"
+					throw new MessageException("Received incorrect message 'magic'");
 
 			// Find supporting object
 			int typeValue = readOnlyBuffer.getInt();
@@ -162,54 +168,150 @@ public abstract class Message {
 		return Arrays.copyOfRange(Crypto.digest(dataBuffer), 0, CHECKSUM_LENGTH);
 	}
 
+	protected static byte[] generateChecksum(byte[][] dataSegments) {
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+
+			for (byte[] dataSegment : dataSegments)
+				sha256.update(dataSegment);
+
+			return Arrays.copyOfRange(sha256.digest(), 0, CHECKSUM_LENGTH);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 message digest not available");
+		}
+	}
+
+	/**
+	 * Sets outgoing message data as consecutive segments, along with matching checksum.
+	 * <p>
+	 * Use instead of {@code dataBytes} when payload contains a large byte array (e.g. data file chunk, block body)
+	 * so that it doesn't need copying into a combined array, then copying again into the network buffer.
+	 */
+	protected void setDataSegments(byte[]... dataSegments) {
+		this.dataSegments = dataSegments;
+		this.checksumBytes = generateChecksum(dataSegments);
+	}
+
 	public void checkValidOutgoing() throws MessageException {
 		// We expect subclass to have initialized these
-		if (this.dataBytes == null)
+		if (this.dataBytes == null && this.dataSegments == null)
 			throw new MessageException("Missing data payload");
-		if (this.dataBytes.length > 0 && this.checksumBytes == null)
+		if (this.getDataLength() > 0 && this.checksumBytes == null)
 			throw new MessageException("Missing data checksum");
 	}
 
-	public byte[] toBytes() throws MessageException {
+	private int getDataLength() {
+		if (this.dataSegments == null)
+			return this.dataBytes.length;
+
+		int dataLength = 0;
+		for (byte[] dataSegment : this.dataSegments)
+			dataLength += dataSegment.length;
+
+		return dataLength;
+	}
+
+	private int getHeaderLength(int dataLength) {
+		int headerLength = MAGIC_LENGTH + TYPE_LENGTH + HAS_ID_LENGTH;
+		headerLength += this.hasId() ? ID_LENGTH : 0;
+		headerLength += DATA_SIZE_LENGTH;
+		headerLength += dataLength > 0 ? CHECKSUM_LENGTH : 0;
+
+		return headerLength;
+	}
+
+	/**
+	 * Returns total serialized length of this message, including header and checksum.
+	 */
+	public int getFramedLength() throws MessageException {
 		checkValidOutgoing();
 
-		// We can calculate exact length
-		int messageLength = MAGIC_LENGTH + TYPE_LENGTH + HAS_ID_LENGTH;
-		messageLength += this.hasId() ? ID_LENGTH : 0;
-		messageLength += DATA_SIZE_LENGTH + this.dataBytes.length > 0 ? CHECKSUM_LENGTH + this.dataBytes.length : 0;
+		int dataLength = this.getDataLength();
+		int messageLength = this.getHeaderLength(dataLength) + dataLength;
 
 		if (messageLength > MAX_DATA_SIZE)
 			throw new MessageException(String.format("About to send message with length %d larger than allowed %d", messageLength, MAX_DATA_SIZE));
 
-		try {
-			ByteArrayOutputStream bytes = new ByteArrayOutputStream(messageLength);
+		return messageLength;
+	}
 
-			// Magic
-			bytes.write(Network.getInstance().getMessageMagic());
+	private void writeHeader(ByteBuffer buffer, int dataLength) {
+		// Magic
+		buffer.put(Network.getInstance().getMessageMagic());
 
-			bytes.write(Ints.toByteArray(this.type.value));
+		buffer.putInt(this.type.value);
 
-			if (this.hasId()) {
-				bytes.write(1);
+		if (this.hasId()) {
+			buffer.put((byte) 1);
 
-				bytes.write(Ints.toByteArray(this.id));
-			} else {
-				bytes.write(0);
-			}
+			buffer.putInt(this.id);
+		} else {
+			buffer.put((byte) 0);
+		}
 
-			bytes.write(Ints.toByteArray(this.dataBytes.length));
+		buffer.putInt(dataLength);
 
-			if (this.dataBytes.length > 0) {
-				bytes.write(this.checksumBytes);
-				bytes.write(this.dataBytes);
-			}
+		if (dataLength > 0)
+			buffer.put(this.checksumBytes);
+	}
+
+	/**
+	 * Serializes message into <tt>buffer</tt>, starting at buffer's current position.
+	 * <p>
+	 * Buffer must have at least {@link #getFramedLength()} bytes remaining.
+	 * Typically used with pooled, direct buffers to avoid intermediate byte arrays.
+	 */
+	public void writeTo(ByteBuffer buffer) throws MessageException {
+		int messageLength = getFramedLength();
 
-			return bytes.toByteArray();
-		} catch (IOException e) {
-			throw new MessageException("Failed to serialize message", e);
+		if (buffer.remaining() < messageLength)
+			throw new MessageException(String.format("Buffer too small for message with length %d", messageLength));
+
+		int dataLength = this.getDataLength();
+		this.writeHeader(buffer, dataLength);
+
+		if (this.dataSegments == null) {
+			buffer.put(this.dataBytes);
+		} else {
+			for (byte[] dataSegment : this.dataSegments)
+				buffer.put(dataSegment);
 		}
 	}
 
+	/**
+	 * Returns message as a small header buffer followed by buffers wrapping payload data, without copying payload.
+	 * <p>
+	 * Suitable for passing to {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}.
+	 */
+	public ByteBuffer[] toByteBuffers() throws MessageException {
+		checkValidOutgoing();
+
+		int dataLength = this.getDataLength();
+
+		ByteBuffer headerBuffer = ByteBuffer.allocate(this.getHeaderLength(dataLength));
+		this.writeHeader(headerBuffer, dataLength);
+		headerBuffer.flip();
+
+		if (this.dataSegments == null)
+			return new ByteBuffer[] { headerBuffer, ByteBuffer.wrap(this.dataBytes) };
+
+		ByteBuffer[] buffers = new ByteBuffer[1 + this.dataSegments.length];
+		buffers[0] = headerBuffer;
+
+		for (int i = 0; i < this.dataSegments.length; ++i)
+			buffers[1 + i] = ByteBuffer.wrap(this.dataSegments[i]);
+
+		return buffers;
+	}
+
+	public byte[] toBytes() throws MessageException {
+		byte[] bytes = new byte[getFramedLength()];
+
+		writeTo(ByteBuffer.wrap(bytes));
+
+		return bytes;
+	}
+
 	public static <M extends Message> M cloneWithNewId(M message, int newId) {
 		M clone;
 
@@ -11,7 +11,7 @@ import org.qortal.transform.block.BlockTransformer;
 
 import com.google.common.primitives.Ints;
 
-public class SignaturesMessage extends Message {
+public class SignaturesMessage extends Message implements Cloneable {
 
 	private List<byte[]> signatures;
 
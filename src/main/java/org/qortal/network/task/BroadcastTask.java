@@ -1,6 +1,7 @@
 package org.qortal.network.task;
 
 import org.qortal.controller.Controller;
+import org.qortal.network.MessageHandlerExecutor;
 import org.qortal.network.Network;
 import org.qortal.network.Peer;
 import org.qortal.network.message.Message;
@@ -17,6 +18,13 @@ public class BroadcastTask implements Task {
 
     @Override
     public void perform() throws InterruptedException {
-        Controller.getInstance().doNetworkBroadcast();
+        MessageHandlerExecutor messageHandlerExecutor = Network.getInstance().getMessageHandlerExecutor();
+        if (messageHandlerExecutor == null) {
+            Controller.getInstance().doNetworkBroadcast();
+            return;
+        }
+
+        // Hand off to message executor, freeing up this EPC thread
+        messageHandlerExecutor.execute(() -> Controller.getInstance().doNetworkBroadcast());
     }
 }
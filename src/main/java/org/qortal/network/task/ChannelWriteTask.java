@@ -39,6 +39,9 @@ public class ChannelWriteTask implements Task {
             if (isSocketClogged)
                 Network.getInstance().setInterestOps(this.socketChannel, SelectionKey.OP_WRITE);
         } catch (IOException e) {
+            // Socket is unusable so return any partially-sent buffer to pool
+            peer.releaseOutputBuffer();
+
             if (e.getMessage() != null && e.getMessage().toLowerCase().contains("connection reset")) {
                 peer.disconnect("Connection reset");
                 return;
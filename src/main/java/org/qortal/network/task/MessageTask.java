@@ -1,11 +1,16 @@
 package org.qortal.network.task;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.network.MessageHandlerExecutor;
 import org.qortal.network.Network;
 import org.qortal.network.Peer;
 import org.qortal.network.message.Message;
 import org.qortal.utils.ExecuteProduceConsume.Task;
 
 public class MessageTask implements Task {
+    private static final Logger LOGGER = LogManager.getLogger(MessageTask.class);
+
     private final Peer peer;
     private final Message nextMessage;
     private final String name;
@@ -23,6 +28,14 @@ public class MessageTask implements Task {
 
     @Override
     public void perform() throws InterruptedException {
-        Network.getInstance().onMessage(peer, nextMessage);
+        MessageHandlerExecutor messageHandlerExecutor = Network.getInstance().getMessageHandlerExecutor();
+        if (messageHandlerExecutor == null) {
+            Network.getInstance().onMessage(peer, nextMessage);
+            return;
+        }
+
+        // Hand off to message executor, freeing up this EPC thread, unless there are already too many handlers for this message type
+        if (!messageHandlerExecutor.executeHandler(nextMessage.getType(), () -> Network.getInstance().onMessage(peer, nextMessage)))
+            LOGGER.trace("Discarding {} message as there are already too many handlers", nextMessage.getType().name());
     }
 }
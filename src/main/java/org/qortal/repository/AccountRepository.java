@@ -117,6 +117,24 @@ public interface AccountRepository {
 	/** Generic opportunistic tidy. */
 	public void tidy() throws DataException;
 
+	// Account state caching
+
+	/**
+	 * Starts holding account balance, level, minted block count and last reference changes in memory,
+	 * until {@link #commitAccountStateCache()} or {@link #discardAccountStateCache()} is called.
+	 * <p>
+	 * Reads via this repository session still return latest values.
+	 *
+	 * @throws IllegalStateException if account state cache already active
+	 */
+	public void startAccountStateCache() throws DataException;
+
+	/** Writes cached account state changes to repository, in batches, and stops caching. */
+	public void commitAccountStateCache() throws DataException;
+
+	/** Stops caching, discarding any account state changes not yet written to repository. */
+	public void discardAccountStateCache();
+
 	// Account balances
 
 	/**
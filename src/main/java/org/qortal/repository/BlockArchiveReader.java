@@ -1,6 +1,7 @@
 package org.qortal.repository;
 
 import com.google.common.primitives.Ints;
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorInputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.qortal.data.block.BlockArchiveData;
@@ -14,14 +15,189 @@ import static org.qortal.transform.Transformer.INT_LENGTH;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 public class BlockArchiveReader {
 
+    /** Read access to an archive file, or decompressed frame, using absolute positions. */
+    private interface ArchiveFile extends Closeable {
+        int getInt(int position) throws IOException;
+
+        /** Returns read-only buffer of <tt>length</tt> bytes starting at <tt>position</tt>. */
+        ByteBuffer getBytes(int position, int length) throws IOException;
+
+        @Override
+        default void close() throws IOException {
+            // Nothing to release by default
+        }
+    }
+
+    /** Archive file contents held in a buffer, e.g. memory-mapped file or decompressed frame, so bytes are sliced, not copied. */
+    private static class BufferArchiveFile implements ArchiveFile {
+        private final ByteBuffer buffer;
+
+        private BufferArchiveFile(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int getInt(int position) {
+            // Absolute gets only, as buffer is shared between threads
+            return this.buffer.getInt(position);
+        }
+
+        @Override
+        public ByteBuffer getBytes(int position, int length) {
+            ByteBuffer slice = this.buffer.asReadOnlyBuffer();
+            slice.position(position);
+            slice.limit(position + length);
+
+            return slice.slice();
+        }
+    }
+
+    /** Archive file read using positional reads, so the file is never mapped, and is closed once lookup finishes. */
+    private static class ChannelArchiveFile implements ArchiveFile {
+        private final FileChannel fileChannel;
+
+        private ChannelArchiveFile(Path filePath) throws IOException {
+            this.fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
+        }
+
+        @Override
+        public int getInt(int position) throws IOException {
+            return this.getBytes(position, INT_LENGTH).getInt(0);
+        }
+
+        @Override
+        public ByteBuffer getBytes(int position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+
+            while (buffer.hasRemaining())
+                if (this.fileChannel.read(buffer, (long) position + buffer.position()) < 0)
+                    throw new EOFException(String.format("Unexpected end of archive file at %d", position + buffer.position()));
+
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.fileChannel.close();
+        }
+    }
+
+    /**
+     * Sorted index of archive files, by height range, with lazily memory-mapped file contents (where used).
+     * <p>
+     * Replaced wholesale on invalidation, so readers holding a reference to an old index
+     * can finish their lookups against old (still valid) mappings.
+     */
+    private static class ArchiveIndex {
+        private final Path archivePath;
+        private final String[] filenames;
+        private final int[] startHeights;
+        private final int[] endHeights;
+        private final AtomicReferenceArray<ArchiveFile> mappedFiles;
+        /** Recently decompressed V3 frames, keyed by file index and frame index, so sequential reads decompress each frame once. */
+        private final Map<Long, byte[]> decompressedFrames = new LinkedHashMap<>(DECOMPRESSED_FRAME_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return this.size() > DECOMPRESSED_FRAME_CACHE_SIZE;
+            }
+        };
+
+        private ArchiveIndex(Path archivePath, String[] filenames, int[] startHeights, int[] endHeights) {
+            this.archivePath = archivePath;
+            this.filenames = filenames;
+            this.startHeights = startHeights;
+            this.endHeights = endHeights;
+            this.mappedFiles = new AtomicReferenceArray<>(filenames.length);
+        }
+
+        /** Returns index of file containing <tt>height</tt>, or -1 if not archived. */
+        private int indexOf(int height) {
+            int index = Arrays.binarySearch(this.startHeights, height);
+            if (index < 0)
+                // Insertion point is one beyond the last file starting below height
+                index = -index - 2;
+
+            if (index < 0 || height > this.endHeights[index])
+                return -1;
+
+            return index;
+        }
+
+        /** Returns archive file for reading, which caller must close. Mapped files are shared, so closing them does nothing. */
+        private ArchiveFile openFile(int index) throws IOException {
+            Path filePath = this.archivePath.resolve(this.filenames[index]);
+
+            if (!USE_MAPPED_FILES)
+                return new ChannelArchiveFile(filePath);
+
+            ArchiveFile mappedFile = this.mappedFiles.get(index);
+            if (mappedFile != null)
+                return mappedFile;
+
+            try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                // Mapping remains valid after the channel is closed
+                mappedFile = new BufferArchiveFile(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+            }
+
+            // Another thread might have beaten us to it, in which case use theirs
+            if (!this.mappedFiles.compareAndSet(index, null, mappedFile))
+                mappedFile = this.mappedFiles.get(index);
+
+            return mappedFile;
+        }
+
+        private byte[] getDecompressedFrame(int index, int frameIndex) {
+            synchronized (this.decompressedFrames) {
+                return this.decompressedFrames.get(((long) index << 32) | frameIndex);
+            }
+        }
+
+        private void putDecompressedFrame(int index, int frameIndex, byte[] frame) {
+            synchronized (this.decompressedFrames) {
+                this.decompressedFrames.put(((long) index << 32) | frameIndex, frame);
+            }
+        }
+
+        private int getLastEndHeight() {
+            int maxEndHeight = 0;
+            for (int endHeight : this.endHeights)
+                maxEndHeight = Math.max(maxEndHeight, endHeight);
+
+            return maxEndHeight;
+        }
+    }
+
+    private static final int DECOMPRESSED_FRAME_CACHE_SIZE = 16;
+    private static final long FILE_LIST_REFRESH_INTERVAL = 10 * 1000L; // ms
+    /**
+     * Windows can't delete or replace files while they're mapped, and Java only unmaps files when garbage collected,
+     * so we use positional reads there instead.
+     */
+    private static final boolean USE_MAPPED_FILES = !System.getProperty("os.name").toLowerCase().contains("win");
+
     private static BlockArchiveReader instance;
-    private Map<String, Triple<Integer, Integer, Integer>> fileListCache;
+    private volatile ArchiveIndex archiveIndex;
+    /** Held shared by lookups while they read archive files, and exclusively to stop/start reading. */
+    private final ReadWriteLock archiveLock = new ReentrantReadWriteLock();
+    /** Whether archive files are being deleted or replaced, so mustn't be read. Guarded by {@link #archiveLock}. */
+    private boolean isStopped = false;
+    /** When archive directory was last re-listed due to a lookup beyond our newest archive file. */
+    private final AtomicLong lastFileListRefresh = new AtomicLong(0);
 
     private static final Logger LOGGER = LogManager.getLogger(BlockArchiveReader.class);
 
@@ -37,11 +213,16 @@ public class BlockArchiveReader {
         return instance;
     }
 
-    private void fetchFileList() {
+    private ArchiveIndex fetchFileList() {
+        ArchiveIndex archiveIndex = this.archiveIndex;
+        if (archiveIndex != null) {
+            return archiveIndex;
+        }
+
         Path archivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive").toAbsolutePath();
         File archiveDirFile = archivePath.toFile();
         String[] files = archiveDirFile.list();
-        Map<String, Triple<Integer, Integer, Integer>> map = new HashMap<>();
+        List<Triple<String, Integer, Integer>> fileList = new ArrayList<>();
 
         if (files != null) {
             for (String file : files) {
@@ -55,44 +236,57 @@ public class BlockArchiveReader {
                 }
                 // Remove the extension and split into two parts
                 String[] parts = filename.substring(0, filename.lastIndexOf('.')).split("-");
-                Integer startHeight = Integer.parseInt(parts[0]);
-                Integer endHeight = Integer.parseInt(parts[1]);
-                Integer range = endHeight - startHeight;
-                map.put(filename, new Triple(startHeight, endHeight, range));
+                try {
+                    Integer startHeight = Integer.parseInt(parts[0]);
+                    Integer endHeight = Integer.parseInt(parts[1]);
+                    fileList.add(new Triple<>(filename, startHeight, endHeight));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    // Not a usable file
+                }
             }
         }
-        this.fileListCache = Map.copyOf(map);
-    }
 
-    public Integer fetchSerializationVersionForHeight(int height) {
-        if (this.fileListCache == null) {
-            this.fetchFileList();
+        // Sort by start height so that we can binary search
+        fileList.sort((a, b) -> Integer.compare(a.getB(), b.getB()));
+
+        final int fileCount = fileList.size();
+        String[] filenames = new String[fileCount];
+        int[] startHeights = new int[fileCount];
+        int[] endHeights = new int[fileCount];
+        for (int i = 0; i < fileCount; ++i) {
+            Triple<String, Integer, Integer> fileInfo = fileList.get(i);
+            filenames[i] = fileInfo.getA();
+            startHeights[i] = fileInfo.getB();
+            endHeights[i] = fileInfo.getC();
         }
 
-        Triple<byte[], Integer, Integer> serializedBlock = this.fetchSerializedBlockBytesForHeight(height);
-        if (serializedBlock == null) {
-            return null;
-        }
-        Integer serializationVersion = serializedBlock.getB();
-        return serializationVersion;
+        archiveIndex = new ArchiveIndex(archivePath, filenames, startHeights, endHeights);
+        this.archiveIndex = archiveIndex;
+        return archiveIndex;
+    }
+
+    /**
+     * Returns version of archive file containing block at <tt>height</tt>.
+     * <p>
+     * Note that this is the archive file format version, so can differ from the block serialization
+     * version returned by other methods, e.g. V3 archive files contain V2 serialized blocks.
+     */
+    public Integer fetchSerializationVersionForHeight(int height) {
+        return this.readBlockSlice(height, Triple::getC);
     }
 
     public BlockTransformation fetchBlockAtHeight(int height) {
-        if (this.fileListCache == null) {
-            this.fetchFileList();
-        }
+        // Parse directly from the mapped archive file, avoiding an intermediate copy
+        return this.readBlockSlice(height, blockSlice -> parseBlock(blockSlice, height));
+    }
 
-        Triple<byte[], Integer, Integer> serializedBlock = this.fetchSerializedBlockBytesForHeight(height);
-        if (serializedBlock == null) {
-            return null;
-        }
-        byte[] serializedBytes = serializedBlock.getA();
-        Integer serializationVersion = serializedBlock.getB();
-        if (serializedBytes == null || serializationVersion == null) {
+    private static BlockTransformation parseBlock(Triple<ByteBuffer, Integer, Integer> blockSlice, int height) {
+        ByteBuffer byteBuffer = blockSlice.getA();
+        Integer serializationVersion = blockSlice.getB();
+        if (byteBuffer == null || serializationVersion == null) {
             return null;
         }
 
-        ByteBuffer byteBuffer = ByteBuffer.wrap(serializedBytes);
         BlockTransformation blockInfo = null;
         try {
             switch (serializationVersion) {
@@ -121,11 +315,6 @@ public class BlockArchiveReader {
     }
 
     public BlockTransformation fetchBlockWithSignature(byte[] signature, Repository repository) {
-
-        if (this.fileListCache == null) {
-            this.fetchFileList();
-        }
-
         Integer height = this.fetchHeightForSignature(signature, repository);
         if (height != null) {
             return this.fetchBlockAtHeight(height);
@@ -171,90 +360,116 @@ public class BlockArchiveReader {
         }
     }
 
-    private String getFilenameForHeight(int height) {
-        if (this.fileListCache == null) {
-            this.fetchFileList();
-        }
+    public Triple<byte[], Integer, Integer> fetchSerializedBlockBytesForSignature(byte[] signature, boolean includeHeightPrefix, Repository repository) {
+        Integer height = this.fetchHeightForSignature(signature, repository);
+        if (height != null) {
+            return this.readBlockSlice(height, blockSlice -> {
+                ByteBuffer blockBuffer = blockSlice.getA();
+                Integer version = blockSlice.getB();
+                if (blockBuffer == null || version == null) {
+                    return null;
+                }
 
-        Iterator it = this.fileListCache.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pair = (Map.Entry) it.next();
-            if (pair == null && pair.getKey() == null && pair.getValue() == null) {
-                continue;
-            }
-            Triple<Integer, Integer, Integer> heightInfo = (Triple<Integer, Integer, Integer>) pair.getValue();
-            Integer startHeight = heightInfo.getA();
-            Integer endHeight = heightInfo.getB();
-
-            if (height >= startHeight && height <= endHeight) {
-                // Found the correct file
-                String filename = (String) pair.getKey();
-                return filename;
-            }
-        }
+                // When responding to a peer with a BLOCK message, we must prefix the byte array with the block height
+                // This mimics the toData() method in BlockMessage and CachedBlockMessage
+                // Copy straight from the mapped file into the final array
+                final int prefixLength = includeHeightPrefix ? INT_LENGTH : 0;
+                byte[] blockBytes = new byte[prefixLength + blockBuffer.remaining()];
+                if (includeHeightPrefix) {
+                    System.arraycopy(Ints.toByteArray(height), 0, blockBytes, 0, INT_LENGTH);
+                }
+                blockBuffer.get(blockBytes, prefixLength, blockBytes.length - prefixLength);
 
+                return new Triple<>(blockBytes, version, height);
+            });
+        }
         return null;
     }
 
-    public Triple<byte[], Integer, Integer> fetchSerializedBlockBytesForSignature(byte[] signature, boolean includeHeightPrefix, Repository repository) {
-        if (this.fileListCache == null) {
-            this.fetchFileList();
-        }
+    public Triple<byte[], Integer, Integer> fetchSerializedBlockBytesForHeight(int height) {
+        return this.readBlockSlice(height, blockSlice -> {
+            // Copy the block's serialized bytes out of the mapped file
+            ByteBuffer blockBuffer = blockSlice.getA();
+            byte[] blockBytes = new byte[blockBuffer.remaining()];
+            blockBuffer.get(blockBytes);
+
+            return new Triple<>(blockBytes, blockSlice.getB(), height);
+        });
+    }
 
-        Integer height = this.fetchHeightForSignature(signature, repository);
-        if (height != null) {
-            Triple<byte[], Integer, Integer> serializedBlock = this.fetchSerializedBlockBytesForHeight(height);
-            if (serializedBlock == null) {
+    /**
+     * Returns serialized bytes of block at <tt>height</tt>, as a read-only slice of the memory-mapped archive file,
+     * or of the decompressed frame for compressed (V3) archive files.
+     * <p>
+     * No copy is made, so this is the cheapest way to access archived block bytes, e.g. for hashing or sending to peers.
+     * As the buffer can be a slice of a memory-mapped file, it must not be used once archive files could be deleted or replaced.
+     *
+     * @param height
+     * @return read-only buffer of serialized block bytes, or null if not archived
+     */
+    public ByteBuffer fetchBlockBufferForHeight(int height) {
+        return this.readBlockSlice(height, Triple::getA);
+    }
+
+    /**
+     * Returns result of passing block slice (see {@link #fetchBlockSliceForHeight(int)}) to <tt>sliceReader</tt>,
+     * or null if block not archived, or reader is stopped.
+     * <p>
+     * Archive files can't be deleted or replaced (see {@link #stop()}) until <tt>sliceReader</tt> returns.
+     */
+    private <T> T readBlockSlice(int height, Function<Triple<ByteBuffer, Integer, Integer>, T> sliceReader) {
+        this.archiveLock.readLock().lock();
+        try {
+            if (this.isStopped) {
                 return null;
             }
-            byte[] blockBytes = serializedBlock.getA();
-            Integer version = serializedBlock.getB();
-            if (blockBytes == null || version == null) {
+
+            Triple<ByteBuffer, Integer, Integer> blockSlice = this.fetchBlockSliceForHeight(height);
+            if (blockSlice == null) {
                 return null;
             }
 
-            // When responding to a peer with a BLOCK message, we must prefix the byte array with the block height
-            // This mimics the toData() method in BlockMessage and CachedBlockMessage
-            if (includeHeightPrefix) {
-                ByteArrayOutputStream bytes = new ByteArrayOutputStream(blockBytes.length + INT_LENGTH);
-                try {
-                    bytes.write(Ints.toByteArray(height));
-                    bytes.write(blockBytes);
-                    return new Triple<>(bytes.toByteArray(), version, height);
-
-                } catch (IOException e) {
-                    return null;
-                }
-            }
-            return new Triple<>(blockBytes, version, height);
+            return sliceReader.apply(blockSlice);
+        } catch (InternalError e) {
+            // Mapped archive file was truncated or replaced without stopping reader first
+            LOGGER.info("Unable to read block {} from changed archive file: {}", height, e.getMessage());
+            this.invalidateFileListCache();
+            return null;
+        } finally {
+            this.archiveLock.readLock().unlock();
         }
-        return null;
     }
 
-    public Triple<byte[], Integer, Integer> fetchSerializedBlockBytesForHeight(int height) {
-        String filename = this.getFilenameForHeight(height);
-        if (filename == null) {
+    /** Returns read-only slice of block's serialized bytes, block serialization version and archive version, or null if not archived. */
+    private Triple<ByteBuffer, Integer, Integer> fetchBlockSliceForHeight(int height) {
+        ArchiveIndex archiveIndex = this.fetchFileList();
+
+        int index = archiveIndex.indexOf(height);
+        if (index < 0 && height > archiveIndex.getLastEndHeight()) {
+            // Beyond our newest archive file, so the file list cache might be out of date
+            archiveIndex = this.refreshFileList(archiveIndex);
+            index = archiveIndex.indexOf(height);
+        }
+
+        if (index < 0) {
             // We don't have this block in the archive
-            // Invalidate the file list cache in case it is out of date
-            this.invalidateFileListCache();
             return null;
         }
 
-        Path filePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive", filename).toAbsolutePath();
-        RandomAccessFile file = null;
-        try {
-            file = new RandomAccessFile(filePath.toString(), "r");
+        String filename = archiveIndex.filenames[index];
+        try (ArchiveFile file = archiveIndex.openFile(index)) {
             // Get info about this file (the "fixed length header")
-            final int version = file.readInt(); // Do not remove or comment out, as it is moving the file pointer
-            final int startHeight = file.readInt(); // Do not remove or comment out, as it is moving the file pointer
-            final int endHeight = file.readInt(); // Do not remove or comment out, as it is moving the file pointer
-            file.readInt(); // Block count (unused) // Do not remove or comment out, as it is moving the file pointer
-            final int variableHeaderLength = file.readInt(); // Do not remove or comment out, as it is moving the file pointer
-            final int fixedHeaderLength = (int)file.getFilePointer();
+            final int fixedHeaderLength = 5 * INT_LENGTH;
+            ByteBuffer fixedHeader = file.getBytes(0, fixedHeaderLength);
+            final int version = fixedHeader.getInt(0);
+            final int startHeight = fixedHeader.getInt(INT_LENGTH);
+            final int endHeight = fixedHeader.getInt(2 * INT_LENGTH);
+            // Block count (unused) is at 3 * INT_LENGTH
+            final int variableHeaderLength = fixedHeader.getInt(4 * INT_LENGTH);
             // End of fixed length header
 
             // Make sure the version is one we recognize
-            if (version != 1 && version != 2) {
+            if (version != 1 && version != 2 && version != 3) {
                 LOGGER.info("Error: unknown version in file {}: {}", filename, version);
                 return null;
             }
@@ -266,78 +481,165 @@ public class BlockArchiveReader {
                 return null;
             }
 
-            // Seek to the location of the block index in the variable length header
-            final int locationOfBlockIndexInVariableHeaderSegment = (height - startHeight) * INT_LENGTH;
-            file.seek(fixedHeaderLength + locationOfBlockIndexInVariableHeaderSegment);
+            int dataSegmentStartIndex = fixedHeaderLength + variableHeaderLength + INT_LENGTH; // Confirmed correct
 
-            // Read the value to obtain the index of this block in the data segment
-            int locationOfBlockInDataSegment = file.readInt();
+            if (version == 3) {
+                return this.fetchBlockSliceFromFrame(archiveIndex, index, file, height, startHeight, fixedHeaderLength, dataSegmentStartIndex);
+            }
 
-            // Now seek to the block data itself
-            int dataSegmentStartIndex = fixedHeaderLength + variableHeaderLength + INT_LENGTH; // Confirmed correct
-            file.seek(dataSegmentStartIndex + locationOfBlockInDataSegment);
+            // Read the block index from the variable length header to obtain the location of this block in the data segment
+            final int locationOfBlockIndexInVariableHeaderSegment = (height - startHeight) * INT_LENGTH;
+            int locationOfBlockInDataSegment = file.getInt(fixedHeaderLength + locationOfBlockIndexInVariableHeaderSegment);
 
-            // Read the block metadata
-            int blockHeight = file.readInt(); // Do not remove or comment out, as it is moving the file pointer
-            int blockLength = file.readInt(); // Do not remove or comment out, as it is moving the file pointer
+            // Now find the block data itself
+            int blockPosition = dataSegmentStartIndex + locationOfBlockInDataSegment;
 
-            // Ensure the block height matches the one requested
-            if (blockHeight != height) {
-                LOGGER.info("Error: height {} does not match requested: {}", blockHeight, height);
+            ByteBuffer blockBuffer = sliceBlock(file, blockPosition, height);
+            if (blockBuffer == null) {
                 return null;
             }
 
-            // Now retrieve the block's serialized bytes
-            byte[] blockBytes = new byte[blockLength];
-            file.read(blockBytes);
+            return new Triple<>(blockBuffer, version, version);
 
-            return new Triple<>(blockBytes, version, height);
-
-        } catch (FileNotFoundException e) {
+        } catch (NoSuchFileException e) {
             LOGGER.info("File {} not found: {}", filename, e.getMessage());
+            // File list cache is out of date
+            this.invalidateFileListCache();
             return null;
-        } catch (IOException e) {
+        } catch (IOException | IndexOutOfBoundsException | IllegalArgumentException e) {
             LOGGER.info("Unable to read block {} from archive: {}", height, e.getMessage());
             return null;
         }
-        finally {
-            // Close the file
-            if (file != null) {
-                try {
-                    file.close();
-                } catch (IOException e) {
-                    // Failed to close, but no need to handle this
-                }
+    }
+
+    /**
+     * Returns read-only slice of block's serialized bytes from within its compressed frame, in a V3 archive file.
+     * <p>
+     * The variable length header holds the number of blocks per frame, followed by
+     * the offset (in the data segment), compressed length and uncompressed length of each frame.
+     * Each decompressed frame holds the same height/length/bytes block records as the V1/V2 data segment.
+     */
+    private Triple<ByteBuffer, Integer, Integer> fetchBlockSliceFromFrame(ArchiveIndex archiveIndex, int index, ArchiveFile file,
+            int height, int startHeight, int fixedHeaderLength, int dataSegmentStartIndex) throws IOException {
+        final int blocksPerFrame = file.getInt(fixedHeaderLength);
+        final int frameIndex = (height - startHeight) / blocksPerFrame;
+
+        byte[] frame = archiveIndex.getDecompressedFrame(index, frameIndex);
+        if (frame == null) {
+            // Read frame's entry in the variable length header
+            final int frameEntryPosition = fixedHeaderLength + INT_LENGTH + frameIndex * 3 * INT_LENGTH;
+            ByteBuffer frameEntry = file.getBytes(frameEntryPosition, 3 * INT_LENGTH);
+            int locationOfFrameInDataSegment = frameEntry.getInt(0);
+            int compressedLength = frameEntry.getInt(INT_LENGTH);
+            int uncompressedLength = frameEntry.getInt(2 * INT_LENGTH);
+
+            byte[] compressedFrame = new byte[compressedLength];
+            file.getBytes(dataSegmentStartIndex + locationOfFrameInDataSegment, compressedLength).get(compressedFrame);
+
+            frame = new byte[uncompressedLength];
+            try (DataInputStream frameInputStream = new DataInputStream(new BlockLZ4CompressorInputStream(new ByteArrayInputStream(compressedFrame)))) {
+                frameInputStream.readFully(frame);
             }
+
+            archiveIndex.putDecompressedFrame(index, frameIndex, frame);
+        }
+
+        // Skip preceding blocks' records in this frame
+        ArchiveFile frameFile = new BufferArchiveFile(ByteBuffer.wrap(frame));
+        int blockPosition = 0;
+        for (int frameHeight = startHeight + frameIndex * blocksPerFrame; frameHeight < height; ++frameHeight) {
+            blockPosition += 2 * INT_LENGTH + frameFile.getInt(blockPosition + INT_LENGTH);
         }
+
+        ByteBuffer blockBuffer = sliceBlock(frameFile, blockPosition, height);
+        if (blockBuffer == null) {
+            return null;
+        }
+
+        // V3 archives contain V2 serialized blocks
+        return new Triple<>(blockBuffer, 2, 3);
     }
 
-    public int getHeightOfLastArchivedBlock() {
-        if (this.fileListCache == null) {
-            this.fetchFileList();
+    /** Returns read-only slice of block's serialized bytes, from block record (height, length, bytes) at <tt>blockPosition</tt>. */
+    private static ByteBuffer sliceBlock(ArchiveFile file, int blockPosition, int height) throws IOException {
+        // Read the block metadata
+        int blockHeight = file.getInt(blockPosition);
+        int blockLength = file.getInt(blockPosition + INT_LENGTH);
+
+        // Ensure the block height matches the one requested
+        if (blockHeight != height) {
+            LOGGER.info("Error: height {} does not match requested: {}", blockHeight, height);
+            return null;
         }
 
-        int maxEndHeight = 0;
+        // Now slice out the block's serialized bytes
+        return file.getBytes(blockPosition + 2 * INT_LENGTH, blockLength);
+    }
 
-        Iterator it = this.fileListCache.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pair = (Map.Entry) it.next();
-            if (pair == null && pair.getKey() == null && pair.getValue() == null) {
-                continue;
-            }
-            Triple<Integer, Integer, Integer> heightInfo = (Triple<Integer, Integer, Integer>) pair.getValue();
-            Integer endHeight = heightInfo.getB();
+    /**
+     * Re-lists archive directory, unless done within the last {@link #FILE_LIST_REFRESH_INTERVAL},
+     * as peers can repeatedly ask for blocks we don't have, and re-listing discards all mappings.
+     */
+    private ArchiveIndex refreshFileList(ArchiveIndex archiveIndex) {
+        long now = System.currentTimeMillis();
+        long lastRefresh = this.lastFileListRefresh.get();
+
+        if (now - lastRefresh < FILE_LIST_REFRESH_INTERVAL || !this.lastFileListRefresh.compareAndSet(lastRefresh, now)) {
+            // Refreshed recently, or another thread is refreshing
+            return archiveIndex;
+        }
 
-            if (endHeight != null && endHeight > maxEndHeight) {
-                maxEndHeight = endHeight;
+        this.invalidateFileListCache();
+        return this.fetchFileList();
+    }
+
+    public int getHeightOfLastArchivedBlock() {
+        this.archiveLock.readLock().lock();
+        try {
+            if (this.isStopped) {
+                return 0;
             }
-        }
 
-        return maxEndHeight;
+            return this.fetchFileList().getLastEndHeight();
+        } finally {
+            this.archiveLock.readLock().unlock();
+        }
     }
 
+    /**
+     * Discards the archive file index, and mappings, so that the next lookup picks up changes to the archive directory.
+     * <p>
+     * Mappings are released by the garbage collector once any outstanding slices are no longer referenced.
+     */
     public void invalidateFileListCache() {
-        this.fileListCache = null;
+        this.archiveIndex = null;
+    }
+
+    /**
+     * Stops reading archive files, so they can be deleted or replaced, waiting for in-progress lookups to finish.
+     * <p>
+     * Lookups return nothing until {@link #start()} is called. Old mappings are only released by the garbage collector,
+     * but are never read again, so can't fault if their files are truncated or replaced.
+     */
+    public void stop() {
+        this.archiveLock.writeLock().lock();
+        try {
+            this.isStopped = true;
+            this.archiveIndex = null;
+        } finally {
+            this.archiveLock.writeLock().unlock();
+        }
+    }
+
+    /** Resumes reading archive files, after {@link #stop()}, picking up any changes to the archive directory. */
+    public void start() {
+        this.archiveLock.writeLock().lock();
+        try {
+            this.isStopped = false;
+            this.archiveIndex = null;
+        } finally {
+            this.archiveLock.writeLock().unlock();
+        }
     }
 
 }
@@ -1,6 +1,7 @@
 package org.qortal.repository;
 
 import com.google.common.primitives.Ints;
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.qortal.block.Block;
@@ -14,6 +15,7 @@ import org.qortal.settings.Settings;
 import org.qortal.transform.TransformationException;
 import org.qortal.transform.block.BlockTransformation;
 import org.qortal.transform.block.BlockTransformer;
+import org.qortal.utils.DaemonThreadFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
@@ -21,7 +23,12 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class BlockArchiveWriter {
 
@@ -41,6 +48,17 @@ public class BlockArchiveWriter {
 
     public static final long DEFAULT_FILE_SIZE_TARGET_V1 = 100 * 1024 * 1024; // 100MiB
     public static final long DEFAULT_FILE_SIZE_TARGET_V2 = 10 * 1024 * 1024; // 10MiB
+    public static final long DEFAULT_FILE_SIZE_TARGET_V3 = 10 * 1024 * 1024; // 10MiB, before compression
+
+    /**
+     * Number of blocks in each independently compressed frame of a V3 archive file.
+     * <p>
+     * Reading a block means decompressing its whole frame, so this trades compression ratio against random access cost.
+     */
+    public static final int BLOCKS_PER_FRAME_V3 = 64;
+
+    /** Compresses V3 frames, so that compression overlaps fetching and serializing further blocks. */
+    private static ExecutorService compressionExecutor;
 
     private int startHeight;
     private final int endHeight;
@@ -81,6 +99,10 @@ public class BlockArchiveWriter {
         if (serializationVersion == 2) {
             this.setFileSizeTarget(DEFAULT_FILE_SIZE_TARGET_V2);
         }
+        // V3 uses V2 block serialization, compressed
+        if (serializationVersion == 3) {
+            this.setFileSizeTarget(DEFAULT_FILE_SIZE_TARGET_V3);
+        }
 
         this.serializationVersion = serializationVersion;
     }
@@ -149,9 +171,15 @@ public class BlockArchiveWriter {
         // Bytes will store the actual block data
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 
+        // V3 groups blocks into frames, which are compressed in parallel then written out in order
+        final boolean isCompressed = serializationVersion == 3;
+        List<Future<byte[]>> compressedFrames = new ArrayList<>();
+        List<Integer> uncompressedFrameLengths = new ArrayList<>();
+        long uncompressedLength = 0;
+
         LOGGER.info(String.format("Fetching blocks from height %d...", startHeight));
         int i = 0;
-        while (headerBytes.size() + bytes.size() < this.fileSizeTarget) {
+        while (uncompressedLength < this.fileSizeTarget) {
 
             if (Controller.isStopping()) {
                 return BlockArchiveWriteResult.STOPPING;
@@ -211,13 +239,6 @@ public class BlockArchiveWriter {
                 block = new Block(repository, blockData);
             }
 
-            // Write the block data to some byte buffers
-            int blockIndex = bytes.size();
-            // Write block index to header
-            headerBytes.write(Ints.toByteArray(blockIndex));
-            // Write block height
-            bytes.write(Ints.toByteArray(block.getBlockData().getHeight()));
-
             // Get serialized block bytes
             byte[] blockBytes;
             switch (serializationVersion) {
@@ -226,6 +247,7 @@ public class BlockArchiveWriter {
                     break;
 
                 case 2:
+                case 3:
                     blockBytes = BlockTransformer.toBytesV2(block);
                     break;
 
@@ -233,11 +255,30 @@ public class BlockArchiveWriter {
                     throw new DataException("Invalid serialization version");
             }
 
+            // Write the block data to some byte buffers
+            if (!isCompressed) {
+                int blockIndex = bytes.size();
+                // Write block index to header
+                headerBytes.write(Ints.toByteArray(blockIndex));
+            }
+            // Write block height
+            bytes.write(Ints.toByteArray(block.getBlockData().getHeight()));
             // Write block length
             bytes.write(Ints.toByteArray(blockBytes.length));
             // Write block bytes
             bytes.write(blockBytes);
 
+            if (isCompressed) {
+                uncompressedLength += 2 * Ints.BYTES + blockBytes.length;
+
+                // Hand off full frame for compression
+                if ((i + 1) % BLOCKS_PER_FRAME_V3 == 0) {
+                    submitFrame(bytes, compressedFrames, uncompressedFrameLengths);
+                }
+            } else {
+                uncompressedLength = headerBytes.size() + bytes.size();
+            }
+
             // Log every 1000 blocks
             if (this.shouldLogProgress && i % 1000 == 0) {
                 LOGGER.info("Archived up to block height {}. Size of current file: {} bytes", currentHeight, (headerBytes.size() + bytes.size()));
@@ -246,7 +287,7 @@ public class BlockArchiveWriter {
             i++;
 
         }
-        int totalLength = headerBytes.size() + bytes.size();
+        long totalLength = uncompressedLength;
         LOGGER.info(String.format("Total length of %d blocks is %d bytes", i, totalLength));
 
         // Validate file size, in case something went wrong
@@ -254,6 +295,33 @@ public class BlockArchiveWriter {
             return BlockArchiveWriteResult.NOT_ENOUGH_BLOCKS;
         }
 
+        if (isCompressed) {
+            // Hand off final, partial frame for compression
+            if (bytes.size() > 0) {
+                submitFrame(bytes, compressedFrames, uncompressedFrameLengths);
+            }
+
+            // Collect compressed frames, in order, into the data segment,
+            // with the frame index (block count per frame, then offset, compressed length
+            // and uncompressed length of each frame) as the variable length header
+            headerBytes.write(Ints.toByteArray(BLOCKS_PER_FRAME_V3));
+            for (int frameIndex = 0; frameIndex < compressedFrames.size(); ++frameIndex) {
+                byte[] compressedFrame;
+                try {
+                    compressedFrame = compressedFrames.get(frameIndex).get();
+                } catch (ExecutionException e) {
+                    throw new DataException("Unable to compress archive frame", e.getCause());
+                }
+
+                headerBytes.write(Ints.toByteArray(bytes.size()));
+                headerBytes.write(Ints.toByteArray(compressedFrame.length));
+                headerBytes.write(Ints.toByteArray(uncompressedFrameLengths.get(frameIndex)));
+                bytes.write(compressedFrame);
+            }
+
+            LOGGER.info(String.format("Compressed %d blocks into %d frames, totalling %d bytes", i, compressedFrames.size(), bytes.size()));
+        }
+
         // We have enough blocks to create a new file
         int endHeight = startHeight + i - 1;
         String filePath = String.format("%s/%d-%d.dat", archivePath.toString(), startHeight, endHeight);
@@ -286,6 +354,32 @@ public class BlockArchiveWriter {
         return BlockArchiveWriteResult.OK;
     }
 
+    /** Submits serialized blocks in <tt>frameBytes</tt> for compression, then resets <tt>frameBytes</tt> ready for the next frame. */
+    private static void submitFrame(ByteArrayOutputStream frameBytes, List<Future<byte[]>> compressedFrames, List<Integer> uncompressedFrameLengths) {
+        final byte[] uncompressedFrame = frameBytes.toByteArray();
+        frameBytes.reset();
+
+        uncompressedFrameLengths.add(uncompressedFrame.length);
+        compressedFrames.add(getCompressionExecutor().submit(() -> compressFrame(uncompressedFrame)));
+    }
+
+    private static byte[] compressFrame(byte[] uncompressedFrame) throws IOException {
+        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream(uncompressedFrame.length / 2);
+        try (BlockLZ4CompressorOutputStream compressorOutputStream = new BlockLZ4CompressorOutputStream(compressedBytes)) {
+            compressorOutputStream.write(uncompressedFrame);
+        }
+        return compressedBytes.toByteArray();
+    }
+
+    private static synchronized ExecutorService getCompressionExecutor() {
+        if (compressionExecutor == null) {
+            // Leave a core for the thread fetching and serializing blocks
+            int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            compressionExecutor = Executors.newFixedThreadPool(threadCount, new DaemonThreadFactory("Archive-compressor"));
+        }
+        return compressionExecutor;
+    }
+
     public int getWrittenCount() {
         return this.writtenCount;
     }
@@ -3,6 +3,7 @@ package org.qortal.repository;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
 import org.qortal.block.BlockChain;
 import org.qortal.controller.Controller;
 import org.qortal.crypto.Crypto;
@@ -248,6 +249,11 @@ public class Bootstrap {
             LOGGER.info("Creating bootstrap...");
             // Timeout if the database isn't ready for backing up after 10 seconds
             long timeout = 10 * 1000L;
+
+            if (Settings.getInstance().isSegmentedBootstrapEnabled()) {
+                return this.createSegment(timeout);
+            }
+
             repository.backup(false, "bootstrap", timeout);
 
             LOGGER.info("Moving files to output directory...");
@@ -314,6 +320,36 @@ public class Bootstrap {
         }
     }
 
+    /**
+     * Creates next bootstrap segment, either a new base or a delta on top of previous segments.
+     *
+     * @return path to manifest listing all current segments
+     */
+    private String createSegment(long timeout) throws DataException, IOException, InterruptedException, TimeoutException {
+        BootstrapSegments bootstrapSegments = new BootstrapSegments(this.getBootstrapName());
+        Path outputDirectory = this.getBootstrapOutputPath().getParent();
+        final int maxDeltaSegments = Settings.getInstance().getMaxBootstrapDeltaSegments();
+
+        // Defragmenting rewrites most of the data file, so is only worth doing before creating a new base segment
+        boolean isBase = bootstrapSegments.isNextSegmentBase(outputDirectory, maxDeltaSegments);
+        repository.backup(!isBase, "bootstrap", timeout);
+
+        Path backupPath = Paths.get(Settings.getInstance().getRepositoryPath(), "bootstrap");
+        Path archivePath = null;
+        if (!Settings.getInstance().isTopOnly() && Settings.getInstance().isArchiveEnabled()) {
+            archivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive");
+        }
+
+        try {
+            Path manifestPath = bootstrapSegments.createSegment(outputDirectory, backupPath, archivePath, maxDeltaSegments);
+
+            LOGGER.info("Bootstrap segment creation complete. Manifest: {}", manifestPath.toAbsolutePath().toString());
+            return manifestPath.toAbsolutePath().toString();
+        } finally {
+            FileUtils.deleteDirectory(backupPath.toFile());
+        }
+    }
+
     public void startImport() throws InterruptedException {
         while (!Controller.isStopping()) {
             try (final Repository repository = RepositoryManager.getRepository()) {
@@ -337,6 +373,12 @@ public class Bootstrap {
         Path path = null;
         try {
             Path tempDir = this.createTempDirectory();
+
+            // Prefer segmented bootstrap, if the host provides one
+            if (this.maybeImportFromSegments(this.getRandomHost(), tempDir)) {
+                return;
+            }
+
             String filename = String.format("%s%s", Settings.getInstance().getBootstrapFilenamePrefix(), this.getFilename());
             path = Paths.get(tempDir.toString(), filename);
 
@@ -359,6 +401,76 @@ public class Bootstrap {
         }
     }
 
+    private boolean maybeImportFromSegments(String bootstrapHost, Path tempDir) throws InterruptedException, DataException, IOException {
+        URL baseUrl = new URL(String.format("%s/", bootstrapHost));
+        BootstrapSegments bootstrapSegments = new BootstrapSegments(this.getBootstrapName());
+
+        JSONObject manifest;
+        try {
+            manifest = bootstrapSegments.fetchManifest(baseUrl);
+        } catch (IOException e) {
+            LOGGER.info("Unable to fetch bootstrap manifest from {}: {}", bootstrapHost, e.getMessage());
+            return false;
+        }
+
+        if (manifest == null) {
+            // Host only has single-file bootstrap
+            return false;
+        }
+
+        this.importFromSegments(baseUrl, manifest, tempDir);
+        return true;
+    }
+
+    /**
+     * Replaces repository with segmented bootstrap, described by <tt>manifest</tt> at <tt>baseUrl</tt>.
+     * <p>
+     * Segments are downloaded, verified and applied in <tt>tempDir</tt> first, so the existing
+     * repository is only replaced once the new one is complete.
+     */
+    public void importFromSegments(URL baseUrl, JSONObject manifest, Path tempDir) throws InterruptedException, DataException, IOException {
+        Path stagingPath = Paths.get(tempDir.toString(), "bootstrap");
+
+        BootstrapSegments bootstrapSegments = new BootstrapSegments(this.getBootstrapName());
+        bootstrapSegments.importSegments(baseUrl, manifest, stagingPath, tempDir,
+                Settings.getInstance().getBootstrapSegmentDownloadThreads());
+
+        ReentrantLock blockchainLock = Controller.getInstance().getBlockchainLock();
+        blockchainLock.lockInterruptibly();
+
+        try {
+            this.updateStatus("Stopping repository...");
+            // Close the repository while we are still able to
+            // Otherwise, the caller will run into difficulties when it tries to close it
+            repository.discardChanges();
+            repository.close();
+            // Now close the repository factory so that we can swap out the database files
+            RepositoryManager.closeRepositoryFactory();
+
+            this.updateStatus("Deleting existing repository...");
+            Path repositoryPath = Paths.get(Settings.getInstance().getRepositoryPath());
+            FileUtils.deleteDirectory(repositoryPath.toFile());
+
+            // Move the staged repository in place of the "db" folder
+            this.updateStatus("Moving files to output directory...");
+            Files.move(stagingPath, repositoryPath);
+
+            this.updateStatus("Starting repository from bootstrap...");
+        }
+        finally {
+            RepositoryFactory repositoryFactory = new HSQLDBRepositoryFactory(Controller.getRepositoryUrl());
+            RepositoryManager.setRepositoryFactory(repositoryFactory);
+
+            blockchainLock.unlock();
+        }
+    }
+
+    /** Returns bootstrap filename, including prefix but without extension, e.g. "bootstrap-archive" */
+    public String getBootstrapName() {
+        String filename = String.format("%s%s", Settings.getInstance().getBootstrapFilenamePrefix(), this.getFilename());
+        return filename.substring(0, filename.lastIndexOf('.'));
+    }
+
     private String getFilename() {
         boolean isTopOnly = Settings.getInstance().isTopOnly();
         boolean archiveEnabled = Settings.getInstance().isArchiveEnabled();
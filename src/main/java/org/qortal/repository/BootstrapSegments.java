@@ -0,0 +1,558 @@
+package org.qortal.repository;
+
+import com.google.common.hash.HashCode;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.qortal.crypto.Crypto;
+import org.qortal.gui.SplashFrame;
+import org.qortal.utils.DaemonThreadFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Bootstrap made of an immutable base segment plus delta segments.
+ * <p>
+ * Each segment is an xz-compressed tar containing:
+ * <ul>
+ *     <li><tt>segment.json</tt> - segment type, lengths of chunked files and any files to delete</li>
+ *     <li><tt>db/&lt;file&gt;</tt> - whole repository files, e.g. new files or those in a base segment</li>
+ *     <li><tt>chunks/&lt;file&gt;/&lt;index&gt;</tt> - changed {@link #CHUNK_SIZE} chunks of existing repository files</li>
+ *     <li><tt>archive/&lt;file&gt;</tt> - new block archive files, which are immutable once written</li>
+ * </ul>
+ * Segments are listed, with their SHA-256 digests, in a published manifest.
+ * Applying the base segment, then each delta segment in order, reproduces the latest repository.
+ * <p>
+ * Creating a segment only needs to write what changed since the previous segment, with previous
+ * per-chunk digests kept in a local state file alongside the manifest.
+ */
+public class BootstrapSegments {
+
+    private static final Logger LOGGER = LogManager.getLogger(BootstrapSegments.class);
+
+    /** Size of chunks that repository files are compared in, when creating delta segments */
+    public static final int CHUNK_SIZE = 1024 * 1024; // 1MiB
+
+    public enum SegmentType {
+        BASE,
+        DELTA
+    }
+
+    private static final int MANIFEST_VERSION = 1;
+
+    private static final String SEGMENT_DESCRIPTOR_ENTRY = "segment.json";
+    private static final String DATABASE_DIR = "db";
+    private static final String CHUNKS_DIR = "chunks";
+    private static final String ARCHIVE_DIR = "archive";
+
+    private static final ThreadLocal<ByteBuffer> CHUNK_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(CHUNK_SIZE));
+
+    /** Name of bootstrap, e.g. "bootstrap-archive", used to build segment, manifest and state filenames */
+    private final String name;
+
+    public BootstrapSegments(String name) {
+        this.name = name;
+    }
+
+    public String getManifestFilename() {
+        return String.format("%s.manifest.json", this.name);
+    }
+
+    private String getStateFilename() {
+        return String.format("%s.state.json", this.name);
+    }
+
+
+    // Creation
+
+    /**
+     * Returns whether the next segment created in <tt>outputDirectory</tt> will be a base segment.
+     * <p>
+     * Useful to decide whether the repository backup is worth defragmenting first,
+     * as defragmenting rewrites most of the repository's data file.
+     */
+    public boolean isNextSegmentBase(Path outputDirectory, int maxDeltaSegments) throws IOException {
+        JSONObject state = this.loadState(outputDirectory);
+        return state == null || state.getJSONArray("segments").length() > maxDeltaSegments;
+    }
+
+    /**
+     * Creates next segment, from repository backup in <tt>databasePath</tt> and block archive in <tt>archivePath</tt>.
+     *
+     * @param outputDirectory where segments, manifest and state are written
+     * @param databasePath directory containing repository backup
+     * @param archivePath block archive directory, or null if not archiving
+     * @param maxDeltaSegments maximum delta segments before creating a new base segment
+     * @return path to updated manifest
+     */
+    public Path createSegment(Path outputDirectory, Path databasePath, Path archivePath, int maxDeltaSegments) throws DataException, IOException, InterruptedException {
+        JSONObject state = this.loadState(outputDirectory);
+
+        final boolean isBase = state == null || state.getJSONArray("segments").length() > maxDeltaSegments;
+        if (isBase) {
+            if (state != null) {
+                // Old segments are superseded by new base
+                this.deleteSegments(outputDirectory, state.getJSONArray("segments"));
+            }
+
+            state = new JSONObject();
+            state.put("baseId", System.currentTimeMillis());
+            state.put("segments", new JSONArray());
+            state.put("files", new JSONObject());
+            state.put("archiveFiles", new JSONArray());
+        }
+
+        JSONArray segments = state.getJSONArray("segments");
+        JSONObject previousFiles = state.getJSONObject("files");
+        Set<String> previousArchiveFiles = new HashSet<>();
+        state.getJSONArray("archiveFiles").forEach(archiveFile -> previousArchiveFiles.add((String) archiveFile));
+
+        // Digest repository files, chunk by chunk
+        List<Path> databaseFiles = listFiles(databasePath);
+        Map<String, List<String>> chunkDigests = new LinkedHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("Bootstrap-digest"));
+        try {
+            for (Path databaseFile : databaseFiles) {
+                LOGGER.info("Calculating chunk digests for {}...", databaseFile.getFileName());
+                chunkDigests.put(databaseFile.getFileName().toString(), digestChunks(databaseFile, executor));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Path> archiveFiles = archivePath != null ? listFiles(archivePath) : Collections.emptyList();
+
+        // Build segment descriptor
+        JSONObject fileLengths = new JSONObject();
+        for (Path databaseFile : databaseFiles) {
+            fileLengths.put(databaseFile.getFileName().toString(), Files.size(databaseFile));
+        }
+
+        JSONArray deletedFiles = new JSONArray();
+        for (String previousFilename : previousFiles.keySet()) {
+            if (!chunkDigests.containsKey(previousFilename)) {
+                deletedFiles.put(previousFilename);
+            }
+        }
+
+        Set<String> archiveFilenames = new HashSet<>();
+        archiveFiles.forEach(archiveFile -> archiveFilenames.add(archiveFile.getFileName().toString()));
+
+        JSONArray deletedArchiveFiles = new JSONArray();
+        for (String previousArchiveFilename : previousArchiveFiles) {
+            if (!archiveFilenames.contains(previousArchiveFilename)) {
+                deletedArchiveFiles.put(previousArchiveFilename);
+            }
+        }
+
+        SegmentType segmentType = isBase ? SegmentType.BASE : SegmentType.DELTA;
+        JSONObject descriptor = new JSONObject();
+        descriptor.put("type", segmentType.name());
+        descriptor.put("fileLengths", fileLengths);
+        descriptor.put("deletedFiles", deletedFiles);
+        descriptor.put("deletedArchiveFiles", deletedArchiveFiles);
+
+        // Write segment
+        final int segmentIndex = segments.length();
+        String segmentFilename = String.format("%s-%d-%d.tar.xz", this.name, state.getLong("baseId"), segmentIndex);
+        Path segmentPath = outputDirectory.resolve(segmentFilename);
+        LOGGER.info("Writing {} bootstrap segment {}...", segmentType, segmentFilename);
+
+        int changedChunkCount = 0;
+        int newArchiveFileCount = 0;
+        try (TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(new XZCompressorOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(segmentPath))))) {
+            tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+            byte[] descriptorBytes = descriptor.toString().getBytes(StandardCharsets.UTF_8);
+            putEntry(tarOutputStream, SEGMENT_DESCRIPTOR_ENTRY, descriptorBytes.length);
+            tarOutputStream.write(descriptorBytes);
+            tarOutputStream.closeArchiveEntry();
+
+            for (Path databaseFile : databaseFiles) {
+                String filename = databaseFile.getFileName().toString();
+
+                if (!previousFiles.has(filename)) {
+                    // New file, so include it whole
+                    putEntry(tarOutputStream, String.format("%s/%s", DATABASE_DIR, filename), Files.size(databaseFile));
+                    Files.copy(databaseFile, tarOutputStream);
+                    tarOutputStream.closeArchiveEntry();
+                    continue;
+                }
+
+                // Include only chunks that differ from previous segments
+                JSONArray previousDigests = previousFiles.getJSONArray(filename);
+                List<String> digests = chunkDigests.get(filename);
+                try (FileChannel fileChannel = FileChannel.open(databaseFile, StandardOpenOption.READ)) {
+                    for (int chunkIndex = 0; chunkIndex < digests.size(); ++chunkIndex) {
+                        if (chunkIndex < previousDigests.length() && previousDigests.getString(chunkIndex).equals(digests.get(chunkIndex))) {
+                            continue;
+                        }
+
+                        ByteBuffer chunk = readChunk(fileChannel, (long) chunkIndex * CHUNK_SIZE);
+                        putEntry(tarOutputStream, String.format("%s/%s/%d", CHUNKS_DIR, filename, chunkIndex), chunk.remaining());
+                        tarOutputStream.write(chunk.array(), 0, chunk.remaining());
+                        tarOutputStream.closeArchiveEntry();
+                        ++changedChunkCount;
+                    }
+                }
+            }
+
+            // Archive files are immutable once written, so only new files need including
+            for (Path archiveFile : archiveFiles) {
+                String filename = archiveFile.getFileName().toString();
+                if (previousArchiveFiles.contains(filename)) {
+                    continue;
+                }
+
+                putEntry(tarOutputStream, String.format("%s/%s", ARCHIVE_DIR, filename), Files.size(archiveFile));
+                Files.copy(archiveFile, tarOutputStream);
+                tarOutputStream.closeArchiveEntry();
+                ++newArchiveFileCount;
+            }
+        }
+
+        LOGGER.info("Bootstrap segment {} contains {} changed chunks and {} new archive files",
+                segmentFilename, changedChunkCount, newArchiveFileCount);
+
+        // Update manifest and state
+        JSONObject segment = new JSONObject();
+        segment.put("filename", segmentFilename);
+        segment.put("type", segmentType.name());
+        segment.put("size", Files.size(segmentPath));
+        segment.put("sha256", Crypto.digestHexString(segmentPath.toFile(), 1024 * 1024));
+        segments.put(segment);
+
+        JSONObject files = new JSONObject();
+        chunkDigests.forEach((filename, digests) -> files.put(filename, new JSONArray(digests)));
+        state.put("files", files);
+        state.put("archiveFiles", new JSONArray(archiveFilenames));
+
+        Files.writeString(outputDirectory.resolve(this.getStateFilename()), state.toString());
+
+        JSONObject manifest = new JSONObject();
+        manifest.put("version", MANIFEST_VERSION);
+        manifest.put("segments", segments);
+
+        Path manifestPath = outputDirectory.resolve(this.getManifestFilename());
+        Files.writeString(manifestPath, manifest.toString(2));
+
+        return manifestPath;
+    }
+
+    /** Deletes manifest, state and all segments from <tt>outputDirectory</tt>. */
+    public void deleteAll(Path outputDirectory) throws IOException {
+        JSONObject state = this.loadState(outputDirectory);
+        if (state != null) {
+            this.deleteSegments(outputDirectory, state.getJSONArray("segments"));
+        }
+
+        Files.deleteIfExists(outputDirectory.resolve(this.getStateFilename()));
+        Files.deleteIfExists(outputDirectory.resolve(this.getManifestFilename()));
+    }
+
+    private JSONObject loadState(Path outputDirectory) throws IOException {
+        try {
+            return new JSONObject(Files.readString(outputDirectory.resolve(this.getStateFilename())));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void deleteSegments(Path outputDirectory, JSONArray segments) throws IOException {
+        for (int i = 0; i < segments.length(); ++i) {
+            Files.deleteIfExists(outputDirectory.resolve(segments.getJSONObject(i).getString("filename")));
+        }
+    }
+
+    private static List<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            List<Path> files = new ArrayList<>();
+            paths.filter(Files::isRegularFile).sorted().forEach(files::add);
+            return files;
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /** Returns hex SHA-256 digest of each {@link #CHUNK_SIZE} chunk of <tt>path</tt>, calculated in parallel. */
+    private static List<String> digestChunks(Path path, ExecutorService executor) throws IOException, InterruptedException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long length = fileChannel.size();
+            final int chunkCount = (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+            // FileChannel positional reads are safe to use concurrently
+            List<Future<String>> futures = new ArrayList<>(chunkCount);
+            for (int chunkIndex = 0; chunkIndex < chunkCount; ++chunkIndex) {
+                final long position = (long) chunkIndex * CHUNK_SIZE;
+                futures.add(executor.submit(() -> HashCode.fromBytes(Crypto.digest(readChunk(fileChannel, position))).toString()));
+            }
+
+            List<String> digests = new ArrayList<>(chunkCount);
+            for (Future<String> future : futures) {
+                try {
+                    digests.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IOException(String.format("Unable to digest %s", path), e.getCause());
+                }
+            }
+            return digests;
+        }
+    }
+
+    /** Reads chunk at <tt>position</tt> into a per-thread buffer, returned ready for reading. */
+    private static ByteBuffer readChunk(FileChannel fileChannel, long position) throws IOException {
+        ByteBuffer buffer = CHUNK_BUFFER.get();
+        buffer.clear();
+
+        while (buffer.hasRemaining()) {
+            int bytesRead = fileChannel.read(buffer, position + buffer.position());
+            if (bytesRead < 0) {
+                break;
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void putEntry(TarArchiveOutputStream tarOutputStream, String entryName, long size) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(entryName);
+        entry.setSize(size);
+        tarOutputStream.putArchiveEntry(entry);
+    }
+
+
+    // Import
+
+    /**
+     * Fetches manifest from <tt>baseUrl</tt>.
+     *
+     * @return manifest, or null if there isn't one, e.g. host only has 7z bootstraps
+     */
+    public JSONObject fetchManifest(URL baseUrl) throws IOException {
+        URL manifestUrl = new URL(baseUrl, this.getManifestFilename());
+        try (InputStream in = manifestUrl.openStream()) {
+            JSONObject manifest = new JSONObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+
+            if (manifest.getInt("version") != MANIFEST_VERSION) {
+                LOGGER.info("Unsupported bootstrap manifest version at {}", manifestUrl);
+                return null;
+            }
+
+            return manifest;
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Imports segments listed in <tt>manifest</tt> into (empty) <tt>outputPath</tt>.
+     * <p>
+     * Every segment is downloaded and verified, in parallel, before any are applied, so that a failed
+     * download never leaves <tt>outputPath</tt> part-way through. Segments are then applied in order.
+     */
+    public void importSegments(URL baseUrl, JSONObject manifest, Path outputPath, Path tempDirectory, int downloadThreadCount)
+            throws DataException, IOException, InterruptedException {
+        JSONArray segments = manifest.getJSONArray("segments");
+        if (segments.length() == 0 || !SegmentType.BASE.name().equals(segments.getJSONObject(0).getString("type"))) {
+            throw new DataException("Bootstrap manifest doesn't start with a base segment");
+        }
+
+        long totalSize = 0;
+        for (int i = 0; i < segments.length(); ++i) {
+            totalSize += segments.getJSONObject(i).getLong("size");
+        }
+        updateStatus(String.format("Downloading %d bootstrap segments (%d MiB)...", segments.length(), totalSize / 1024 / 1024));
+
+        List<Path> segmentPaths = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(downloadThreadCount, new DaemonThreadFactory("Bootstrap-segment"));
+        try {
+            List<Future<Path>> futures = new ArrayList<>();
+            for (int i = 0; i < segments.length(); ++i) {
+                JSONObject segment = segments.getJSONObject(i);
+                futures.add(executor.submit(() -> downloadSegment(baseUrl, segment, tempDirectory)));
+            }
+
+            for (Future<Path> future : futures) {
+                try {
+                    segmentPaths.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new DataException(String.format("Unable to fetch bootstrap segment: %s", e.getCause().getMessage()), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // All segments verified, so apply them in order
+        Files.createDirectories(outputPath);
+        for (int i = 0; i < segmentPaths.size(); ++i) {
+            if (i == 0) {
+                updateStatus("Extracting bootstrap base segment...");
+            } else {
+                updateStatus(String.format("Applying bootstrap delta segment %d of %d...", i, segmentPaths.size() - 1));
+            }
+
+            Path segmentPath = segmentPaths.get(i);
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(segmentPath))) {
+                applySegment(in, outputPath);
+            }
+            Files.delete(segmentPath);
+        }
+    }
+
+    private static Path downloadSegment(URL baseUrl, JSONObject segment, Path tempDirectory) throws IOException {
+        String filename = segment.getString("filename");
+        Path segmentPath = resolveSafely(tempDirectory, filename);
+
+        MessageDigest sha256 = newDigest();
+        try (DigestInputStream digestInputStream = new DigestInputStream(new URL(baseUrl, filename).openStream(), sha256)) {
+            Files.copy(digestInputStream, segmentPath, REPLACE_EXISTING);
+        }
+        verifyDigest(segment, sha256);
+
+        return segmentPath;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 message digest not available");
+        }
+    }
+
+    private static void verifyDigest(JSONObject segment, MessageDigest sha256) throws IOException {
+        String digest = HashCode.fromBytes(sha256.digest()).toString();
+        if (!digest.equalsIgnoreCase(segment.getString("sha256"))) {
+            throw new IOException(String.format("Bootstrap segment %s failed verification", segment.getString("filename")));
+        }
+    }
+
+    /** Applies segment from <tt>in</tt> to <tt>repositoryPath</tt>. */
+    private static void applySegment(InputStream in, Path repositoryPath) throws IOException {
+        TarArchiveInputStream tarInputStream = new TarArchiveInputStream(new XZCompressorInputStream(in));
+        Path archivePath = repositoryPath.resolve(ARCHIVE_DIR);
+
+        JSONObject descriptor = null;
+        Map<String, RandomAccessFile> chunkedFiles = new HashMap<>();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try {
+            TarArchiveEntry entry;
+            while ((entry = tarInputStream.getNextTarEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+
+                String entryName = entry.getName();
+                if (entryName.equals(SEGMENT_DESCRIPTOR_ENTRY)) {
+                    descriptor = new JSONObject(new String(tarInputStream.readAllBytes(), StandardCharsets.UTF_8));
+                    continue;
+                }
+
+                String[] parts = entryName.split("/");
+                if (parts.length == 2 && parts[0].equals(DATABASE_DIR)) {
+                    Files.copy(tarInputStream, resolveSafely(repositoryPath, parts[1]), REPLACE_EXISTING);
+
+                } else if (parts.length == 2 && parts[0].equals(ARCHIVE_DIR)) {
+                    Files.createDirectories(archivePath);
+                    Files.copy(tarInputStream, resolveSafely(archivePath, parts[1]), REPLACE_EXISTING);
+
+                } else if (parts.length == 3 && parts[0].equals(CHUNKS_DIR)) {
+                    RandomAccessFile file = chunkedFiles.get(parts[1]);
+                    if (file == null) {
+                        file = new RandomAccessFile(resolveSafely(repositoryPath, parts[1]).toFile(), "rw");
+                        chunkedFiles.put(parts[1], file);
+                    }
+
+                    file.seek(Long.parseLong(parts[2]) * CHUNK_SIZE);
+                    int bytesRead;
+                    while ((bytesRead = tarInputStream.read(buffer)) != -1) {
+                        file.write(buffer, 0, bytesRead);
+                    }
+
+                } else {
+                    throw new IOException(String.format("Unexpected entry in bootstrap segment: %s", entryName));
+                }
+            }
+
+            if (descriptor == null) {
+                throw new IOException("Bootstrap segment is missing its descriptor");
+            }
+
+            // Files might have shrunk, even without any changed chunks
+            JSONObject fileLengths = descriptor.getJSONObject("fileLengths");
+            for (String filename : fileLengths.keySet()) {
+                RandomAccessFile file = chunkedFiles.get(filename);
+                if (file == null) {
+                    Path filePath = resolveSafely(repositoryPath, filename);
+                    if (!Files.exists(filePath)) {
+                        throw new IOException(String.format("Bootstrap segment refers to missing file %s", filename));
+                    }
+
+                    file = new RandomAccessFile(filePath.toFile(), "rw");
+                    chunkedFiles.put(filename, file);
+                }
+
+                file.setLength(fileLengths.getLong(filename));
+            }
+
+            JSONArray deletedFiles = descriptor.getJSONArray("deletedFiles");
+            for (int i = 0; i < deletedFiles.length(); ++i) {
+                Files.deleteIfExists(resolveSafely(repositoryPath, deletedFiles.getString(i)));
+            }
+
+            JSONArray deletedArchiveFiles = descriptor.getJSONArray("deletedArchiveFiles");
+            for (int i = 0; i < deletedArchiveFiles.length(); ++i) {
+                Files.deleteIfExists(resolveSafely(archivePath, deletedArchiveFiles.getString(i)));
+            }
+        } finally {
+            for (RandomAccessFile file : chunkedFiles.values()) {
+                file.close();
+            }
+        }
+    }
+
+    /** Resolves <tt>filename</tt>, from an untrusted segment, within <tt>directory</tt>. */
+    private static Path resolveSafely(Path directory, String filename) throws IOException {
+        if (filename.isEmpty() || filename.contains("..") || filename.contains("/") || filename.contains("\\")) {
+            throw new IOException(String.format("Invalid filename in bootstrap segment: %s", filename));
+        }
+
+        return directory.resolve(filename);
+    }
+
+    private static void updateStatus(String text) {
+        LOGGER.info(text);
+        SplashFrame.getInstance().updateStatus(text);
+    }
+
+}
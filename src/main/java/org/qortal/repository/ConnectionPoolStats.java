@@ -0,0 +1,72 @@
+package org.qortal.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+/** Snapshot of repository connection pool usage, e.g. for diagnosing pool starvation. */
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ConnectionPoolStats {
+
+	@XmlAccessorType(XmlAccessType.FIELD)
+	public static class WaitBucket {
+		/** Upper bound of acquire latency for this bucket (milliseconds, exclusive), or null for unbounded. */
+		public Long lessThan;
+		public long count;
+
+		protected WaitBucket() {
+		}
+
+		public WaitBucket(Long lessThan, long count) {
+			this.lessThan = lessThan;
+			this.count = count;
+		}
+	}
+
+	@XmlAccessorType(XmlAccessType.FIELD)
+	public static class Holder {
+		public String threadName;
+		public long heldMillis;
+		public boolean isLeakSuspect;
+
+		protected Holder() {
+		}
+
+		public Holder(String threadName, long heldMillis, boolean isLeakSuspect) {
+			this.threadName = threadName;
+			this.heldMillis = heldMillis;
+			this.isLeakSuspect = isLeakSuspect;
+		}
+	}
+
+	public String name;
+
+	public int minSize;
+	public int maxSize;
+	/** Number of connections pool is currently allowed to hand out. */
+	public int currentSize;
+	public int inUse;
+	public int idle;
+
+	public long acquisitions;
+	/** Number of times a connection was requested without waiting, but none were available. */
+	public long tryFailures;
+	public long timeouts;
+	public long totalWaitMillis;
+	public long maxWaitMillis;
+	public List<WaitBucket> waitHistogram = new ArrayList<>();
+
+	public long maxHeldMillis;
+	public long leaksFlagged;
+
+	public long growths;
+	public long shrinks;
+
+	public List<Holder> holders = new ArrayList<>();
+
+	public ConnectionPoolStats() {
+	}
+
+}
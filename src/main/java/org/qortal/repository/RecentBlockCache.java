@@ -0,0 +1,466 @@
+package org.qortal.repository;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import org.qortal.data.block.BlockData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.utils.ByteArray;
+
+/**
+ * Read-through cache of the most recent blocks, and their transactions, shared by all repository sessions.
+ * <p>
+ * Sync, minting and API repeatedly fetch the same few hundred blocks near the blockchain tip,
+ * and their transactions, by height or signature. Serving these from memory avoids SQL round-trips.
+ * <p>
+ * Data is deep-copied into, and out of, the cache so callers are free to modify whatever they are given,
+ * including byte arrays and lists such as payments.
+ * <p>
+ * Read-only sessions run with READ COMMITTED isolation, so each statement sees the latest committed data anyway,
+ * and can use any cached entry. Read-write sessions run with SERIALIZABLE isolation, so they only use entries
+ * cached at, or before, the generation when their repository transaction started. Newer entries might hold data
+ * committed after their snapshot was taken.
+ * <p>
+ * To keep cached data consistent with committed repository data:
+ * <ul>
+ * <li>read-write sessions with uncommitted block or transaction changes collect {@link Invalidations}, which are applied once their changes are committed</li>
+ * <li>applying (relevant) invalidations advances the cache's <i>generation</i>, and sessions only add entries if the generation
+ * hasn't changed since their current repository transaction started, so data read before a commit can't be cached after it</li>
+ * <li>entries remember the generation they were added at, so an entry no newer than a session's generation
+ * holds data that was committed, and unchanged since, before that session's transaction started</li>
+ * </ul>
+ *
+ * @see RepositoryManager#getRecentBlockCache()
+ */
+public class RecentBlockCache {
+
+	/** Changes to blocks/transactions, made by one repository session, that need removing from cache once committed. */
+	public static class Invalidations {
+		private final Set<Integer> heights = new HashSet<>();
+		private final Set<ByteArray> blockSignatures = new HashSet<>();
+		private final Set<ByteArray> transactionSignatures = new HashSet<>();
+		/** Highest block height of invalidated transactions, where known. */
+		private int maxTransactionHeight = Integer.MIN_VALUE;
+		private int minHeight = Integer.MAX_VALUE;
+		private int maxHeight = Integer.MIN_VALUE;
+
+		public void invalidateBlock(Integer height, byte[] signature) {
+			if (height != null)
+				this.heights.add(height);
+
+			if (signature != null)
+				this.blockSignatures.add(ByteArray.wrap(signature));
+		}
+
+		public void invalidateBlocks(int minHeight, int maxHeight) {
+			this.minHeight = Math.min(this.minHeight, minHeight);
+			this.maxHeight = Math.max(this.maxHeight, maxHeight);
+		}
+
+		/**
+		 * Records change to transaction with <tt>signature</tt>.
+		 *
+		 * @param blockHeight transaction's block height, if known, or null if unknown or unconfirmed
+		 */
+		public void invalidateTransaction(byte[] signature, Integer blockHeight) {
+			this.transactionSignatures.add(ByteArray.wrap(signature));
+
+			if (blockHeight != null)
+				this.maxTransactionHeight = Math.max(this.maxTransactionHeight, blockHeight);
+		}
+	}
+
+	@XmlAccessorType(XmlAccessType.FIELD)
+	public static class Stats {
+		public long hits;
+		public long misses;
+		public long invalidations;
+		public int blocks;
+		public int transactions;
+		public int tipHeight;
+		public int maxBlocks;
+
+		public Stats() {
+		}
+	}
+
+	/** Cached data, with cache generation when it was added. */
+	private static class Entry<T> {
+		private final T data;
+		private final long generation;
+
+		private Entry(T data, long generation) {
+			this.data = data;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * Reflection-based copier, as TransactionData subclasses (and their payments, etc.) don't have copy constructors.
+	 * <p>
+	 * Fields are sorted once, per class, into those whose values can be shared, e.g. primitives, strings, enums,
+	 * and those that need copying, e.g. byte arrays, lists, so each copy only needs to get/set fields.
+	 */
+	private static class DataCopier {
+		private final Constructor<?> constructor;
+		private final List<Field> sharedFields = new ArrayList<>();
+		private final List<Field> copiedFields = new ArrayList<>();
+
+		private DataCopier(Class<?> dataClass) throws ReflectiveOperationException {
+			this.constructor = dataClass.getDeclaredConstructor();
+			this.constructor.setAccessible(true);
+
+			for (Class<?> clazz = dataClass; clazz != Object.class; clazz = clazz.getSuperclass())
+				for (Field field : clazz.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()))
+						continue;
+
+					field.setAccessible(true);
+
+					if (isImmutableType(field.getType()))
+						this.sharedFields.add(field);
+					else
+						this.copiedFields.add(field);
+				}
+		}
+
+		private Object copy(Object data) throws ReflectiveOperationException {
+			Object copy = this.constructor.newInstance();
+
+			for (Field field : this.sharedFields)
+				field.set(copy, field.get(data));
+
+			for (Field field : this.copiedFields)
+				field.set(copy, deepCopy(field.get(data)));
+
+			return copy;
+		}
+	}
+
+	private static final Map<Class<?>, DataCopier> COPIERS = new ConcurrentHashMap<>();
+
+	private final int maxBlocks;
+
+	private final Map<Integer, Entry<BlockData>> blocksByHeight = new ConcurrentHashMap<>();
+	private final Map<ByteArray, Entry<BlockData>> blocksBySignature = new ConcurrentHashMap<>();
+	private final Map<ByteArray, Entry<TransactionData>> transactionsBySignature = new ConcurrentHashMap<>();
+	/** Signatures of cached transactions, by block height, for eviction. Guarded by <tt>updateLock</tt>. */
+	private final Map<Integer, Set<ByteArray>> transactionSignaturesByHeight = new ConcurrentHashMap<>();
+
+	/** Serializes additions/removals, so they can't interleave with invalidations. */
+	private final Object updateLock = new Object();
+	/** Highest block height seen. Only data within <tt>maxBlocks</tt> of this height is cached. Guarded by <tt>updateLock</tt>. */
+	private int tipHeight = 0;
+	/** Advanced each time invalidations are applied. */
+	private volatile long generation = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	public RecentBlockCache(int maxBlocks) {
+		this.maxBlocks = maxBlocks;
+	}
+
+	/** Returns current generation, to be noted by repository sessions at the start of each repository transaction. */
+	public long getGeneration() {
+		return this.generation;
+	}
+
+	// Lookups
+
+	/**
+	 * Returns copy of cached block at <tt>height</tt>, or null if not cached.
+	 *
+	 * @param maxGeneration only return block if cached at, or before, this generation
+	 */
+	public BlockData getBlock(int height, long maxGeneration) {
+		return copyOf(lookup(this.blocksByHeight.get(height), maxGeneration));
+	}
+
+	/**
+	 * Returns copy of cached block with <tt>signature</tt>, or null if not cached.
+	 *
+	 * @param maxGeneration only return block if cached at, or before, this generation
+	 */
+	public BlockData getBlock(byte[] signature, long maxGeneration) {
+		return copyOf(lookup(this.blocksBySignature.get(ByteArray.wrap(signature)), maxGeneration));
+	}
+
+	/**
+	 * Returns copy of cached transaction with <tt>signature</tt>, or null if not cached.
+	 *
+	 * @param maxGeneration only return transaction if cached at, or before, this generation
+	 */
+	public TransactionData getTransaction(byte[] signature, long maxGeneration) {
+		return copyOf(lookup(this.transactionsBySignature.get(ByteArray.wrap(signature)), maxGeneration));
+	}
+
+	private <T> T lookup(Entry<T> entry, long maxGeneration) {
+		if (entry == null || entry.generation > maxGeneration) {
+			this.misses.increment();
+			return null;
+		}
+
+		this.hits.increment();
+		return entry.data;
+	}
+
+	// Additions
+
+	/**
+	 * Caches copy of <tt>blockData</tt>, freshly read from repository, if it is recent enough.
+	 *
+	 * @param generation cache generation when caller's repository transaction started
+	 */
+	public void putBlock(BlockData blockData, long generation) {
+		Integer height = blockData.getHeight();
+		if (height == null || blockData.getSignature() == null)
+			return;
+
+		BlockData copy = copyOf(blockData);
+
+		synchronized (this.updateLock) {
+			if (!this.isCacheable(height, generation))
+				return;
+
+			Entry<BlockData> entry = new Entry<>(copy, generation);
+			this.blocksByHeight.put(height, entry);
+			this.blocksBySignature.put(ByteArray.wrap(copy.getSignature()), entry);
+		}
+	}
+
+	/**
+	 * Caches copy of confirmed <tt>transactionData</tt>, freshly read from repository, if it is recent enough.
+	 *
+	 * @param generation cache generation when caller's repository transaction started
+	 */
+	public void putTransaction(TransactionData transactionData, long generation) {
+		Integer height = transactionData.getBlockHeight();
+		if (height == null || transactionData.getSignature() == null)
+			// Unconfirmed transactions change too often to be worth caching
+			return;
+
+		TransactionData copy = copyOf(transactionData);
+		if (copy == null)
+			return;
+
+		synchronized (this.updateLock) {
+			if (!this.isCacheable(height, generation))
+				return;
+
+			ByteArray signature = ByteArray.wrap(copy.getSignature());
+			this.transactionsBySignature.put(signature, new Entry<>(copy, generation));
+			this.transactionSignaturesByHeight.computeIfAbsent(height, h -> new HashSet<>()).add(signature);
+		}
+	}
+
+	/** Returns whether data at <tt>height</tt> can be cached, advancing tip (and evicting older data) if necessary. Call while holding <tt>updateLock</tt>. */
+	private boolean isCacheable(int height, long generation) {
+		if (generation != this.generation)
+			// Data might have been read before an invalidation
+			return false;
+
+		if (height <= this.tipHeight - this.maxBlocks)
+			// Too old
+			return false;
+
+		if (height > this.tipHeight) {
+			int oldFloor = this.tipHeight - this.maxBlocks;
+			this.tipHeight = height;
+			int newFloor = this.tipHeight - this.maxBlocks;
+
+			if (newFloor - oldFloor > this.maxBlocks) {
+				// Big jump, so cheaper to check what we have
+				List<Integer> cachedHeights = new ArrayList<>(this.blocksByHeight.keySet());
+				cachedHeights.addAll(this.transactionSignaturesByHeight.keySet());
+
+				for (Integer cachedHeight : cachedHeights)
+					if (cachedHeight <= newFloor)
+						this.removeHeight(cachedHeight);
+			} else {
+				for (int oldHeight = Math.max(oldFloor + 1, 1); oldHeight <= newFloor; ++oldHeight)
+					this.removeHeight(oldHeight);
+			}
+		}
+
+		return true;
+	}
+
+	// Removals
+
+	/**
+	 * Removes all cached data affected by committed changes.
+	 * <p>
+	 * Also advances cache generation, unless changes couldn't have affected cacheable data,
+	 * e.g. new unconfirmed transactions or trimming of old blocks, which are frequent.
+	 */
+	public void invalidate(Invalidations invalidations) {
+		synchronized (this.updateLock) {
+			final int floorHeight = this.tipHeight - this.maxBlocks;
+
+			boolean isRelevant = invalidations.maxHeight > floorHeight || invalidations.maxTransactionHeight > floorHeight;
+
+			for (Integer height : invalidations.heights) {
+				isRelevant |= height > floorHeight;
+				this.removeHeight(height);
+			}
+
+			for (ByteArray signature : invalidations.blockSignatures) {
+				Entry<BlockData> entry = this.blocksBySignature.remove(signature);
+				if (entry != null) {
+					isRelevant = true;
+					this.removeHeight(entry.data.getHeight());
+				}
+			}
+
+			if (invalidations.minHeight <= invalidations.maxHeight) {
+				List<Integer> cachedHeights = new ArrayList<>(this.blocksByHeight.keySet());
+				cachedHeights.addAll(this.transactionSignaturesByHeight.keySet());
+
+				for (Integer cachedHeight : cachedHeights)
+					if (cachedHeight >= invalidations.minHeight && cachedHeight <= invalidations.maxHeight)
+						this.removeHeight(cachedHeight);
+			}
+
+			for (ByteArray signature : invalidations.transactionSignatures) {
+				Entry<TransactionData> entry = this.transactionsBySignature.remove(signature);
+				if (entry == null)
+					continue;
+
+				isRelevant = true;
+
+				Set<ByteArray> signatures = this.transactionSignaturesByHeight.get(entry.data.getBlockHeight());
+				if (signatures != null)
+					signatures.remove(signature);
+			}
+
+			if (!isRelevant)
+				return;
+
+			this.invalidations.increment();
+			++this.generation;
+		}
+	}
+
+	/** Removes cached block, and transactions, at <tt>height</tt>. Call while holding <tt>updateLock</tt>. */
+	private void removeHeight(int height) {
+		Entry<BlockData> entry = this.blocksByHeight.remove(height);
+		if (entry != null)
+			this.blocksBySignature.remove(ByteArray.wrap(entry.data.getSignature()));
+
+		Set<ByteArray> signatures = this.transactionSignaturesByHeight.remove(height);
+		if (signatures != null)
+			for (ByteArray signature : signatures)
+				this.transactionsBySignature.remove(signature);
+	}
+
+	public void clear() {
+		synchronized (this.updateLock) {
+			this.blocksByHeight.clear();
+			this.blocksBySignature.clear();
+			this.transactionsBySignature.clear();
+			this.transactionSignaturesByHeight.clear();
+
+			++this.generation;
+		}
+	}
+
+	public Stats getStats() {
+		Stats stats = new Stats();
+
+		stats.hits = this.hits.sum();
+		stats.misses = this.misses.sum();
+		stats.invalidations = this.invalidations.sum();
+		stats.blocks = this.blocksByHeight.size();
+		stats.transactions = this.transactionsBySignature.size();
+		stats.maxBlocks = this.maxBlocks;
+
+		synchronized (this.updateLock) {
+			stats.tipHeight = this.tipHeight;
+		}
+
+		return stats;
+	}
+
+	// Copying
+
+	private static BlockData copyOf(BlockData blockData) {
+		return blockData != null ? new BlockData(blockData) : null;
+	}
+
+	/** Returns deep copy of <tt>transactionData</tt>, or null if <tt>transactionData</tt> is null or can't be copied. */
+	private static TransactionData copyOf(TransactionData transactionData) {
+		try {
+			return (TransactionData) deepCopy(transactionData);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Treat as uncached
+			return null;
+		}
+	}
+
+	/** Returns copy of <tt>value</tt> that shares nothing mutable with it, e.g. byte arrays, lists of payments, nested data objects. */
+	private static Object deepCopy(Object value) throws ReflectiveOperationException {
+		if (value == null || isImmutable(value))
+			return value;
+
+		if (value instanceof byte[])
+			return ((byte[]) value).clone();
+
+		if (value.getClass().isArray()) {
+			int length = Array.getLength(value);
+			Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+
+			for (int i = 0; i < length; ++i)
+				Array.set(copy, i, deepCopy(Array.get(value, i)));
+
+			return copy;
+		}
+
+		if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			List<Object> copy = new ArrayList<>(list.size());
+
+			for (Object element : list)
+				copy.add(deepCopy(element));
+
+			return copy;
+		}
+
+		DataCopier copier = COPIERS.get(value.getClass());
+
+		if (copier == null) {
+			copier = new DataCopier(value.getClass());
+			COPIERS.put(value.getClass(), copier);
+		}
+
+		return copier.copy(value);
+	}
+
+	private static boolean isImmutable(Object value) {
+		// Enum constants with bodies are subclasses, which aren't enum types themselves
+		return value instanceof Enum || isImmutableType(value.getClass());
+	}
+
+	private static boolean isImmutableType(Class<?> type) {
+		return type.isPrimitive() || type.isEnum() || type == String.class
+				|| type == Integer.class || type == Long.class || type == Short.class || type == Byte.class
+				|| type == Boolean.class || type == Character.class || type == Double.class || type == Float.class
+				|| type == BigInteger.class || type == BigDecimal.class;
+	}
+
+}
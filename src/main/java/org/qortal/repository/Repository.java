@@ -41,6 +41,19 @@ public interface Repository extends AutoCloseable {
 
 	public void rollbackToSavepoint() throws DataException;
 
+	/**
+	 * Queues subsequent simple saves, sending them to the database in batches, instead of one at a time.
+	 * <p>
+	 * Queued saves are executed before any other query, savepoint or commit, so queries always see them.
+	 * Queued saves are discarded on rollback.
+	 * <p>
+	 * Errors caused by queued saves may only be reported when they are executed.
+	 */
+	public void startBatchedUpdates();
+
+	/** Executes any queued saves, and stops batching. */
+	public void executeBatchedUpdates() throws DataException;
+
 	@Override
 	public void close() throws DataException;
 
@@ -54,6 +67,22 @@ public interface Repository extends AutoCloseable {
 
 	public void performPeriodicMaintenance(Long timeout) throws DataException, TimeoutException;
 
+	/**
+	 * Performs CHECKPOINT, or CHECKPOINT DEFRAG if not <tt>quick</tt>, but only if no other session is mid-transaction.
+	 * <p>
+	 * Unlike {@link #performPeriodicMaintenance(Long)}, this doesn't wait for other sessions,
+	 * so callers can try again later instead of stalling every other session in the meantime.
+	 *
+	 * @return true if checkpoint was performed, false if other sessions were mid-transaction
+	 */
+	public boolean tryCheckpoint(boolean quick) throws DataException;
+
+	/** Returns size of changes not yet checkpointed (bytes), or 0 if not applicable. */
+	public long getUncheckpointedSize() throws DataException;
+
+	/** Returns fraction of repository's data file that defragmenting would reclaim, or null if unknown. */
+	public Double getReclaimableSpaceRatio() throws DataException;
+
 	public void exportNodeLocalData() throws DataException;
 
 	public void importDataFromFile(String filename) throws DataException, IOException;
@@ -1,6 +1,7 @@
 package org.qortal.repository;
 
 import java.sql.SQLException;
+import java.util.List;
 
 public interface RepositoryFactory {
 
@@ -12,6 +13,17 @@ public interface RepositoryFactory {
 
 	public Repository tryRepository() throws DataException;
 
+	/**
+	 * Returns read-only repository session, e.g. for API queries, that doesn't compete with read-write sessions.
+	 * <p>
+	 * Waits for a limited time if too many read-only sessions are already in use.
+	 * 
+	 * @throws DataException if no read-only session became available in time
+	 */
+	public Repository getReadOnlyRepository() throws DataException;
+
+	public List<ConnectionPoolStats> getConnectionPoolStats();
+
 	public void close() throws DataException;
 
 	// Not ideal place for this but implementating class will know the answer without having to open a new DB session
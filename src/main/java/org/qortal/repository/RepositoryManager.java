@@ -24,6 +24,8 @@ public abstract class RepositoryManager {
 	private static final Logger LOGGER = LogManager.getLogger(RepositoryManager.class);
 
 	private static RepositoryFactory repositoryFactory = null;
+	/** Shared by all sessions from current repository factory. Null if disabled. */
+	private static RecentBlockCache recentBlockCache = null;
 
 	/** null if no checkpoint requested, TRUE for quick checkpoint, false for slow/full checkpoint. */
 	private static Boolean quickCheckpointRequested = null;
@@ -34,6 +36,18 @@ public abstract class RepositoryManager {
 
 	public static void setRepositoryFactory(RepositoryFactory newRepositoryFactory) {
 		repositoryFactory = newRepositoryFactory;
+
+		// Resume reading archive files, in case they were stopped along with previous factory
+		BlockArchiveReader.getInstance().start();
+
+		// New factory could mean different repository, so start with fresh cache
+		int recentBlockCacheSize = Settings.getInstance().getRecentBlockCacheSize();
+		recentBlockCache = recentBlockCacheSize > 0 ? new RecentBlockCache(recentBlockCacheSize) : null;
+	}
+
+	/** Returns cache of recent blocks and transactions shared by all repository sessions, or null if disabled. */
+	public static RecentBlockCache getRecentBlockCache() {
+		return recentBlockCache;
 	}
 
 	public static boolean wasPristineAtOpen() throws DataException {
@@ -57,9 +71,28 @@ public abstract class RepositoryManager {
 		return repositoryFactory.tryRepository();
 	}
 
+	public static Repository getReadOnlyRepository() throws DataException {
+		if (repositoryFactory == null)
+			throw new DataException("No repository available");
+
+		return repositoryFactory.getReadOnlyRepository();
+	}
+
+	public static List<ConnectionPoolStats> getConnectionPoolStats() throws DataException {
+		if (repositoryFactory == null)
+			throw new DataException("No repository available");
+
+		return repositoryFactory.getConnectionPoolStats();
+	}
+
 	public static void closeRepositoryFactory() throws DataException {
 		repositoryFactory.close();
 		repositoryFactory = null;
+		recentBlockCache = null;
+
+		// Archive files might be deleted or replaced along with repository, e.g. when importing bootstrap,
+		// so stop reading them until we have a new factory
+		BlockArchiveReader.getInstance().stop();
 	}
 
 	public static void backup(boolean quick, String name, Long timeout) throws TimeoutException {
@@ -245,7 +278,8 @@ public abstract class RepositoryManager {
 		// Use old repository reference to perform rebuild
 		oldRepository.rebuild();
 
-		repositoryFactory = oldRepositoryFactory.reopen();
+		// Rebuild closed repository factory, so set up reopened factory as new
+		setRepositoryFactory(oldRepositoryFactory.reopen());
 	}
 
 	public static boolean isDeadlockRelated(Throwable e) {
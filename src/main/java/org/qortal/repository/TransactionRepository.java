@@ -340,6 +340,9 @@ public interface TransactionRepository {
 
 	public void save(TransactionData transactionData) throws DataException;
 
+	/** Saves transactions, e.g. those attached to a new block, using batched updates. */
+	public void save(List<TransactionData> transactions) throws DataException;
+
 	public void delete(TransactionData transactionData) throws DataException;
 
 }
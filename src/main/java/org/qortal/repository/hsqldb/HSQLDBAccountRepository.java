@@ -109,6 +109,10 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public byte[] getLastReference(String address) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null)
+			return accountStateCache.getLastReference(address);
+
 		String sql = "SELECT reference FROM Accounts WHERE account = ?";
 
 		try (ResultSet resultSet = this.repository.checkedExecute(sql, address)) {
@@ -185,6 +189,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setLastReference(AccountData accountData) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.setLastReference(accountData);
+			return;
+		}
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
 
 		saveHelper.bind("account", accountData.getAddress()).bind("reference", accountData.getReference());
@@ -236,6 +246,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setLevel(AccountData accountData) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.setLevel(accountData);
+			return;
+		}
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
 
 		saveHelper.bind("account", accountData.getAddress()).bind("level", accountData.getLevel());
@@ -314,6 +330,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void modifyMintedBlockCounts(List<String> addresses, int delta) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.modifyMintedBlockCounts(addresses, delta);
+			return;
+		}
+
 		String sql = "INSERT INTO Accounts (account, blocks_minted) VALUES (?, ?) " +
 				"ON DUPLICATE KEY UPDATE blocks_minted = blocks_minted + ?";
 
@@ -379,10 +401,49 @@ public class HSQLDBAccountRepository implements AccountRepository {
 		}
 	}
 
+	// Account state caching
+
+	@Override
+	public void startAccountStateCache() throws DataException {
+		if (this.repository.getAccountStateCache() != null)
+			throw new IllegalStateException("Account state cache already active");
+
+		this.repository.setAccountStateCache(new HSQLDBAccountStateCache(this.repository));
+	}
+
+	@Override
+	public void commitAccountStateCache() throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache == null)
+			throw new IllegalStateException("Tried to commit non-existent account state cache");
+
+		try {
+			accountStateCache.flush();
+		} catch (SQLException e) {
+			throw new DataException("Unable to save cached account state into repository", e);
+		} finally {
+			this.repository.setAccountStateCache(null);
+		}
+	}
+
+	@Override
+	public void discardAccountStateCache() {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache == null)
+			return;
+
+		accountStateCache.clear();
+		this.repository.setAccountStateCache(null);
+	}
+
 	// Account balances
 
 	@Override
 	public AccountBalanceData getBalance(String address, long assetId) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null)
+			return accountStateCache.getBalance(address, assetId);
+
 		String sql = "SELECT balance FROM AccountBalances WHERE account = ? AND asset_id = ? LIMIT 1";
 
 		try (ResultSet resultSet = this.repository.checkedExecute(sql, address, assetId)) {
@@ -535,6 +596,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 		if (deltaBalance == 0)
 			return;
 
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.modifyAssetBalance(address, assetId, deltaBalance);
+			return;
+		}
+
 		// If deltaBalance is negative then we assume AccountBalances & parent Accounts rows exist
 		if (deltaBalance < 0) {
 			// Perform actual balance change
@@ -569,6 +636,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 		if (accountBalanceDeltas == null || accountBalanceDeltas.isEmpty())
 			return;
 
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.modifyAssetBalances(accountBalanceDeltas);
+			return;
+		}
+
 		// Map balance changes into SQL bind params, filtering out no-op changes
 		List<Object[]> modifyBalanceParams = accountBalanceDeltas.stream()
 				.filter(accountBalance -> accountBalance.getBalance() != 0L)
@@ -648,6 +721,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void save(AccountBalanceData accountBalanceData) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.save(accountBalanceData);
+			return;
+		}
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("AccountBalances");
 
 		saveHelper.bind("account", accountBalanceData.getAddress()).bind("asset_id", accountBalanceData.getAssetId())
@@ -662,6 +741,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void delete(String address, long assetId) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.delete(address, assetId);
+			return;
+		}
+
 		try {
 			this.repository.delete("AccountBalances", "account = ? AND asset_id = ?", address, assetId);
 		} catch (SQLException e) {
@@ -0,0 +1,401 @@
+package org.qortal.repository.hsqldb;
+
+import static org.qortal.utils.Amounts.prettyAmount;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.qortal.data.account.AccountBalanceData;
+import org.qortal.data.account.AccountData;
+import org.qortal.repository.DataException;
+
+/**
+ * Write-back cache of account state, for one repository session, typically while processing or orphaning a block.
+ * <p>
+ * Balance changes, levels, minted block counts and last references are held in Java
+ * and written to HSQLDB in batches when the cache is flushed, instead of one SQL statement per change.
+ * <p>
+ * Reads of balances and last references are answered from the cache, so callers see their own writes.
+ * Any other SQL that mentions account tables causes the cache to be flushed beforehand
+ * (see {@link HSQLDBRepository#prepareStatement(String)}), so the repository never returns stale account data.
+ * <p>
+ * Savepoints flush the cache, and rolling back discards it, so transaction semantics are unchanged.
+ *
+ * @see org.qortal.account.AccountStateCache
+ */
+public class HSQLDBAccountStateCache {
+
+	private static class BalanceKey {
+		private final String address;
+		private final long assetId;
+
+		private BalanceKey(String address, long assetId) {
+			this.address = address;
+			this.assetId = assetId;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this)
+				return true;
+
+			if (!(other instanceof BalanceKey))
+				return false;
+
+			BalanceKey otherKey = (BalanceKey) other;
+
+			return this.assetId == otherKey.assetId && this.address.equals(otherKey.address);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.address, this.assetId);
+		}
+	}
+
+	private static class BalanceEntry {
+		/**
+		 * Whether balance is known, i.e. fetched from repository or set outright.
+		 * <p>
+		 * If not known, then <tt>balance</tt> is a pending delta, to be added to whatever is in the repository.
+		 */
+		private boolean isKnown;
+		/** Whether AccountBalances row exists. Only valid if <tt>isKnown</tt>. */
+		private boolean exists;
+		private long balance;
+		/** Whether entry needs writing to repository. */
+		private boolean isModified;
+	}
+
+	private final HSQLDBRepository repository;
+
+	// Linked maps so that rows are always written in the same order
+	private final Map<BalanceKey, BalanceEntry> balances = new LinkedHashMap<>();
+	private final Map<String, AccountData> levels = new LinkedHashMap<>();
+	private final Map<String, Integer> mintedBlockCountDeltas = new LinkedHashMap<>();
+	private final Map<String, AccountData> lastReferences = new LinkedHashMap<>();
+
+	/** Set while we're executing our own SQL, to prevent recursive flushing. */
+	private boolean isBypassing = false;
+
+	/* package */ HSQLDBAccountStateCache(HSQLDBRepository repository) {
+		this.repository = repository;
+	}
+
+	/* package */ boolean isBypassing() {
+		return this.isBypassing;
+	}
+
+	// Balances
+
+	public AccountBalanceData getBalance(String address, long assetId) throws DataException {
+		BalanceKey key = new BalanceKey(address, assetId);
+		BalanceEntry entry = this.getKnownBalance(key);
+
+		if (!entry.exists)
+			return null;
+
+		return new AccountBalanceData(address, assetId, entry.balance);
+	}
+
+	/** Equivalent to {@link HSQLDBAccountRepository#modifyAssetBalance(String, long, long)}. */
+	public void modifyAssetBalance(String address, long assetId, long deltaBalance) throws DataException {
+		if (deltaBalance == 0)
+			return;
+
+		BalanceKey key = new BalanceKey(address, assetId);
+
+		if (deltaBalance > 0) {
+			// Increases are upserts, so don't need current balance
+			this.addToBalance(key, deltaBalance);
+			return;
+		}
+
+		BalanceEntry entry = this.balances.get(key);
+		if (entry == null)
+			entry = this.getKnownBalance(key);
+
+		if (!entry.isKnown) {
+			// Row will exist once pending delta is written
+			entry.balance += deltaBalance;
+			return;
+		}
+
+		// Reductions are plain UPDATEs, so have no effect if there is no row
+		if (!entry.exists)
+			return;
+
+		this.setKnownBalance(key, entry, entry.balance + deltaBalance);
+	}
+
+	/** Equivalent to {@link HSQLDBAccountRepository#modifyAssetBalances(List)}. */
+	public void modifyAssetBalances(List<AccountBalanceData> accountBalanceDeltas) throws DataException {
+		for (AccountBalanceData accountBalanceDelta : accountBalanceDeltas)
+			if (accountBalanceDelta.getBalance() != 0L)
+				this.addToBalance(new BalanceKey(accountBalanceDelta.getAddress(), accountBalanceDelta.getAssetId()), accountBalanceDelta.getBalance());
+	}
+
+	/** Equivalent to {@link HSQLDBAccountRepository#save(AccountBalanceData)}. */
+	public void save(AccountBalanceData accountBalanceData) {
+		BalanceEntry entry = this.balances.computeIfAbsent(new BalanceKey(accountBalanceData.getAddress(), accountBalanceData.getAssetId()), key -> new BalanceEntry());
+
+		entry.isKnown = true;
+		entry.exists = true;
+		entry.balance = accountBalanceData.getBalance();
+		entry.isModified = true;
+	}
+
+	/** Equivalent to {@link HSQLDBAccountRepository#delete(String, long)}. */
+	public void delete(String address, long assetId) {
+		BalanceEntry entry = this.balances.computeIfAbsent(new BalanceKey(address, assetId), key -> new BalanceEntry());
+
+		entry.isKnown = true;
+		entry.exists = false;
+		entry.balance = 0;
+		entry.isModified = true;
+	}
+
+	/** Adds <tt>deltaBalance</tt> to balance, creating balance if necessary, i.e. an upsert. */
+	private void addToBalance(BalanceKey key, long deltaBalance) throws DataException {
+		BalanceEntry entry = this.balances.get(key);
+
+		if (entry == null) {
+			// No need to fetch current balance, we'll just write delta later
+			entry = new BalanceEntry();
+			entry.balance = deltaBalance;
+			this.balances.put(key, entry);
+			return;
+		}
+
+		if (!entry.isKnown) {
+			entry.balance += deltaBalance;
+			return;
+		}
+
+		long balance = entry.exists ? entry.balance : 0L;
+		this.setKnownBalance(key, entry, balance + deltaBalance);
+	}
+
+	private void setKnownBalance(BalanceKey key, BalanceEntry entry, long balance) throws DataException {
+		// Repository would refuse this via CHECK constraint, so we refuse too
+		if (balance < 0)
+			throw new DataException(String.format("Refusing to set negative balance %s [assetId %d] for %s",
+					prettyAmount(balance), key.assetId, key.address));
+
+		entry.exists = true;
+		entry.balance = balance;
+		entry.isModified = true;
+	}
+
+	/** Returns entry with known balance, fetching from repository, and applying any pending delta, if necessary. */
+	private BalanceEntry getKnownBalance(BalanceKey key) throws DataException {
+		BalanceEntry entry = this.balances.get(key);
+		if (entry != null && entry.isKnown)
+			return entry;
+
+		String sql = "SELECT balance FROM AccountBalances WHERE account = ? AND asset_id = ? LIMIT 1";
+
+		Long repositoryBalance;
+		this.isBypassing = true;
+		try (ResultSet resultSet = this.repository.checkedExecute(sql, key.address, key.assetId)) {
+			repositoryBalance = resultSet != null ? resultSet.getLong(1) : null;
+		} catch (SQLException e) {
+			throw new DataException("Unable to fetch account balance from repository", e);
+		} finally {
+			this.isBypassing = false;
+		}
+
+		if (entry == null) {
+			entry = new BalanceEntry();
+			entry.isKnown = true;
+			entry.exists = repositoryBalance != null;
+			entry.balance = entry.exists ? repositoryBalance : 0L;
+			this.balances.put(key, entry);
+			return entry;
+		}
+
+		// Apply pending delta to repository balance
+		long deltaBalance = entry.balance;
+		entry.isKnown = true;
+		this.setKnownBalance(key, entry, (repositoryBalance != null ? repositoryBalance : 0L) + deltaBalance);
+
+		return entry;
+	}
+
+	// Accounts
+
+	/** Equivalent to {@link HSQLDBAccountRepository#getLastReference(String)}. */
+	public byte[] getLastReference(String address) throws DataException {
+		AccountData accountData = this.lastReferences.get(address);
+		if (accountData != null)
+			return accountData.getReference();
+
+		// Our other pending changes might create an Accounts row, but that would have a null reference anyway
+		String sql = "SELECT reference FROM Accounts WHERE account = ?";
+
+		this.isBypassing = true;
+		try (ResultSet resultSet = this.repository.checkedExecute(sql, address)) {
+			if (resultSet == null)
+				return null;
+
+			return resultSet.getBytes(1);
+		} catch (SQLException e) {
+			throw new DataException("Unable to fetch account's last reference from repository", e);
+		} finally {
+			this.isBypassing = false;
+		}
+	}
+
+	/** Equivalent to {@link HSQLDBAccountRepository#setLastReference(AccountData)}. */
+	public void setLastReference(AccountData accountData) {
+		AccountData cachedAccountData = this.getCachedAccountData(this.lastReferences, accountData);
+		cachedAccountData.setReference(accountData.getReference());
+	}
+
+	/** Equivalent to {@link HSQLDBAccountRepository#setLevel(AccountData)}. */
+	public void setLevel(AccountData accountData) {
+		AccountData cachedAccountData = this.getCachedAccountData(this.levels, accountData);
+		cachedAccountData.setLevel(accountData.getLevel());
+	}
+
+	/** Equivalent to {@link HSQLDBAccountRepository#modifyMintedBlockCounts(List, int)}. */
+	public void modifyMintedBlockCounts(List<String> addresses, int delta) {
+		for (String address : addresses)
+			this.mintedBlockCountDeltas.merge(address, delta, Integer::sum);
+	}
+
+	/** Returns our copy of account data, with public key updated from <tt>accountData</tt> if present. */
+	private AccountData getCachedAccountData(Map<String, AccountData> cache, AccountData accountData) {
+		AccountData cachedAccountData = cache.computeIfAbsent(accountData.getAddress(), AccountData::new);
+
+		// Keep any previously set public key if we're not passed a new one
+		if (accountData.getPublicKey() != null)
+			cachedAccountData.setPublicKey(accountData.getPublicKey());
+
+		return cachedAccountData;
+	}
+
+	// Flushing
+
+	/**
+	 * Writes all pending changes to repository, then empties cache.
+	 * <p>
+	 * Cache is emptied even if writing fails, as repository transaction would need to be rolled back anyway.
+	 */
+	public void flush() throws SQLException {
+		this.isBypassing = true;
+
+		try {
+			this.flushAccounts(this.lastReferences, "reference", AccountData::getReference);
+			this.flushAccounts(this.levels, "level", AccountData::getLevel);
+			this.flushMintedBlockCounts();
+			this.flushBalances();
+		} finally {
+			this.isBypassing = false;
+			this.clear();
+		}
+	}
+
+	/** Empties cache, discarding any pending changes. */
+	public void clear() {
+		this.balances.clear();
+		this.levels.clear();
+		this.mintedBlockCountDeltas.clear();
+		this.lastReferences.clear();
+	}
+
+	private void flushAccounts(Map<String, AccountData> cache, String column, Function<AccountData, Object> getter) throws SQLException {
+		if (cache.isEmpty())
+			return;
+
+		List<Object[]> withoutPublicKeyParams = new ArrayList<>();
+		List<Object[]> withPublicKeyParams = new ArrayList<>();
+
+		for (AccountData accountData : cache.values()) {
+			Object value = getter.apply(accountData);
+			byte[] publicKey = accountData.getPublicKey();
+
+			if (publicKey == null)
+				withoutPublicKeyParams.add(new Object[] { accountData.getAddress(), value, value });
+			else
+				withPublicKeyParams.add(new Object[] { accountData.getAddress(), value, publicKey, value, publicKey });
+		}
+
+		String sql = String.format("INSERT INTO Accounts (account, %1$s) VALUES (?, ?) " +
+				"ON DUPLICATE KEY UPDATE %1$s = ?", column);
+		this.repository.executeCheckedBatchUpdate(sql, withoutPublicKeyParams);
+
+		sql = String.format("INSERT INTO Accounts (account, %1$s, public_key) VALUES (?, ?, ?) " +
+				"ON DUPLICATE KEY UPDATE %1$s = ?, public_key = ?", column);
+		this.repository.executeCheckedBatchUpdate(sql, withPublicKeyParams);
+	}
+
+	private void flushMintedBlockCounts() throws SQLException {
+		List<Object[]> bindParamRows = new ArrayList<>();
+		for (Entry<String, Integer> entry : this.mintedBlockCountDeltas.entrySet())
+			if (entry.getValue() != 0)
+				bindParamRows.add(new Object[] { entry.getKey(), entry.getValue(), entry.getValue() });
+
+		String sql = "INSERT INTO Accounts (account, blocks_minted) VALUES (?, ?) " +
+				"ON DUPLICATE KEY UPDATE blocks_minted = blocks_minted + ?";
+		this.repository.executeCheckedBatchUpdate(sql, bindParamRows);
+	}
+
+	private void flushBalances() throws SQLException {
+		Set<String> ensureAddresses = new LinkedHashSet<>();
+		List<Object[]> modifyBalanceParams = new ArrayList<>();
+		List<Object[]> setBalanceParams = new ArrayList<>();
+		List<Object[]> deleteBalanceParams = new ArrayList<>();
+
+		for (Entry<BalanceKey, BalanceEntry> mapEntry : this.balances.entrySet()) {
+			BalanceKey key = mapEntry.getKey();
+			BalanceEntry entry = mapEntry.getValue();
+
+			if (!entry.isKnown) {
+				// Even if pending deltas cancel out, we still upsert, as row would have been created anyway
+				modifyBalanceParams.add(new Object[] { key.address, key.assetId, entry.balance, entry.balance });
+
+				ensureAddresses.add(key.address);
+				continue;
+			}
+
+			if (!entry.isModified)
+				continue;
+
+			if (entry.exists) {
+				setBalanceParams.add(new Object[] { key.address, key.assetId, entry.balance, entry.balance });
+				ensureAddresses.add(key.address);
+			} else {
+				deleteBalanceParams.add(new Object[] { key.address, key.assetId });
+			}
+		}
+
+		// Ensure parent accounts exist to satisfy foreign key constraint
+		List<Object[]> ensureParams = new ArrayList<>();
+		for (String address : ensureAddresses)
+			ensureParams.add(new Object[] { address });
+
+		String ensureSql = "INSERT IGNORE INTO Accounts (account) VALUES (?)"; // MySQL syntax
+		this.repository.executeCheckedBatchUpdate(ensureSql, ensureParams);
+
+		String modifySql = "INSERT INTO AccountBalances (account, asset_id, balance) VALUES (?, ?, ?) " +
+				"ON DUPLICATE KEY UPDATE balance = balance + ?";
+		this.repository.executeCheckedBatchUpdate(modifySql, modifyBalanceParams);
+
+		String setSql = "INSERT INTO AccountBalances (account, asset_id, balance) VALUES (?, ?, ?) " +
+				"ON DUPLICATE KEY UPDATE balance = ?";
+		this.repository.executeCheckedBatchUpdate(setSql, setBalanceParams);
+
+		this.repository.deleteBatch("AccountBalances", "account = ? AND asset_id = ?", deleteBalanceParams);
+	}
+
+}
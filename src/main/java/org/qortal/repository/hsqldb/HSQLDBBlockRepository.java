@@ -14,6 +14,7 @@ import org.qortal.data.block.BlockArchiveData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.repository.BlockRepository;
 import org.qortal.repository.DataException;
+import org.qortal.repository.RecentBlockCache;
 import org.qortal.repository.TransactionRepository;
 
 public class HSQLDBBlockRepository implements BlockRepository {
@@ -61,12 +62,26 @@ public class HSQLDBBlockRepository implements BlockRepository {
 		}
 	}
 
+	private BlockData maybeCacheBlock(RecentBlockCache recentBlockCache, BlockData blockData) {
+		if (recentBlockCache != null && blockData != null)
+			recentBlockCache.putBlock(blockData, this.repository.getRecentBlockCacheGeneration());
+
+		return blockData;
+	}
+
 	@Override
 	public BlockData fromSignature(byte[] signature) throws DataException {
+		RecentBlockCache recentBlockCache = this.repository.getRecentBlockCache();
+		if (recentBlockCache != null) {
+			BlockData cachedBlockData = recentBlockCache.getBlock(signature, this.repository.getRecentBlockCacheMaxGeneration());
+			if (cachedBlockData != null)
+				return cachedBlockData;
+		}
+
 		String sql = "SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE signature = ? LIMIT 1";
 
 		try (ResultSet resultSet = this.repository.checkedExecute(sql, signature)) {
-			return getBlockFromResultSet(resultSet);
+			return this.maybeCacheBlock(recentBlockCache, getBlockFromResultSet(resultSet));
 		} catch (SQLException e) {
 			throw new DataException("Error fetching block by signature from repository", e);
 		}
@@ -85,10 +100,17 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public BlockData fromHeight(int height) throws DataException {
+		RecentBlockCache recentBlockCache = this.repository.getRecentBlockCache();
+		if (recentBlockCache != null) {
+			BlockData cachedBlockData = recentBlockCache.getBlock(height, this.repository.getRecentBlockCacheMaxGeneration());
+			if (cachedBlockData != null)
+				return cachedBlockData;
+		}
+
 		String sql = "SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE height = ? LIMIT 1";
 
 		try (ResultSet resultSet = this.repository.checkedExecute(sql, height)) {
-			return getBlockFromResultSet(resultSet);
+			return this.maybeCacheBlock(recentBlockCache, getBlockFromResultSet(resultSet));
 		} catch (SQLException e) {
 			throw new DataException("Error fetching block by height from repository", e);
 		}
@@ -423,6 +445,8 @@ public class HSQLDBBlockRepository implements BlockRepository {
 	public int trimOldOnlineAccountsSignatures(int minHeight, int maxHeight) throws DataException {
 		// We're often called so no need to trim all blocks in one go.
 		// Limit updates to reduce CPU and memory load.
+		this.repository.getRecentBlockCacheInvalidations().invalidateBlocks(minHeight, maxHeight);
+
 		String sql = "UPDATE Blocks SET online_accounts_signatures = NULL "
 				+ "WHERE online_accounts_signatures IS NOT NULL "
 				+ "AND height BETWEEN ? AND ?";
@@ -474,6 +498,8 @@ public class HSQLDBBlockRepository implements BlockRepository {
 			minHeight = 2;
 		}
 
+		this.repository.getRecentBlockCacheInvalidations().invalidateBlocks(minHeight, maxHeight);
+
 		try {
 			return this.repository.delete("Blocks", "height BETWEEN ? AND ?", minHeight, maxHeight);
 		} catch (SQLException e) {
@@ -499,6 +525,8 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public void save(BlockData blockData) throws DataException {
+		this.repository.getRecentBlockCacheInvalidations().invalidateBlock(blockData.getHeight(), blockData.getSignature());
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Blocks");
 
 		saveHelper.bind("signature", blockData.getSignature()).bind("version", blockData.getVersion()).bind("reference", blockData.getReference())
@@ -520,6 +548,8 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public void delete(BlockData blockData) throws DataException {
+		this.repository.getRecentBlockCacheInvalidations().invalidateBlock(blockData.getHeight(), blockData.getSignature());
+
 		try {
 			this.repository.delete("Blocks", "signature = ?", blockData.getSignature());
 		} catch (SQLException e) {
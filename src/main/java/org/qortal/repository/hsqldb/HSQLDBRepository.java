@@ -16,6 +16,7 @@ import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -39,6 +40,11 @@ public class HSQLDBRepository implements Repository {
 	// "serialization failure"
 	private static final Integer DEADLOCK_ERROR_CODE = Integer.valueOf(-4861);
 
+	/** Tables whose changes can be held in Java by {@link HSQLDBAccountStateCache}, so must be flushed before SQL using them. */
+	private static final Set<String> ACCOUNT_STATE_TABLES = Set.of("Accounts", "AccountBalances");
+	private static final Pattern ACCOUNT_STATE_TABLES_PATTERN = Pattern.compile("\\b(?:" + String.join("|", ACCOUNT_STATE_TABLES) + ")\\b",
+			Pattern.CASE_INSENSITIVE);
+
 	protected Connection connection;
 	protected final Deque<Savepoint> savepoints = new ArrayDeque<>(3);
 	protected boolean debugState = false;
@@ -49,6 +55,18 @@ public class HSQLDBRepository implements Repository {
 	// We want the same object corresponding to the actual DB
 	protected final Object trimHeightsLock = RepositoryManager.getRepositoryFactory();
 	protected final Object latestATStatesLock = RepositoryManager.getRepositoryFactory();
+	/** Account state changes held in Java, or null if not caching. */
+	protected HSQLDBAccountStateCache accountStateCache = null;
+	/** Statements with queued, but not yet executed, batched updates, in order of first use. Null if not batching. */
+	protected Map<String, PreparedStatement> batchedStatements = null;
+	/** Recent block cache changes to apply once our block/transaction changes are committed. Null if no such changes. */
+	protected RecentBlockCache.Invalidations recentBlockCacheInvalidations = null;
+	/** Recent block cache generation when our current repository transaction started. */
+	protected long recentBlockCacheGeneration;
+	/** Whether this session uses a read-only (READ COMMITTED) connection. */
+	private final boolean isReadOnly;
+	/** Permits for read-only sessions, one of which is released when this session closes. Null if read-write session, or permit already released. */
+	private Semaphore readOnlySessionPermits = null;
 
 	private final ATRepository atRepository = new HSQLDBATRepository(this);
 	private final AccountRepository accountRepository = new HSQLDBAccountRepository(this);
@@ -69,7 +87,20 @@ public class HSQLDBRepository implements Repository {
 
 	// NB: no visibility modifier so only callable from within same package
 	/* package */ HSQLDBRepository(Connection connection) throws DataException {
+		this(connection, null);
+	}
+
+	/**
+	 * Constructs repository session using passed <tt>connection</tt>.
+	 * <p>
+	 * If <tt>readOnlySessionPermits</tt> is not null, then this session is read-only
+	 * and releases a permit back to <tt>readOnlySessionPermits</tt> when closed.
+	 */
+	/* package */ HSQLDBRepository(Connection connection, Semaphore readOnlySessionPermits) throws DataException {
 		this.connection = connection;
+		this.readOnlySessionPermits = readOnlySessionPermits;
+		this.isReadOnly = readOnlySessionPermits != null;
+		this.resetRecentBlockCacheGeneration();
 
 		this.slowQueryThreshold = Settings.getInstance().getSlowQueryThreshold();
 		if (this.slowQueryThreshold != null)
@@ -178,10 +209,40 @@ public class HSQLDBRepository implements Repository {
 		this.debugState = debugState;
 	}
 
+	/* package */ HSQLDBAccountStateCache getAccountStateCache() {
+		return this.accountStateCache;
+	}
+
+	/* package */ void setAccountStateCache(HSQLDBAccountStateCache accountStateCache) {
+		this.accountStateCache = accountStateCache;
+	}
+
+	/** Writes account state changes held in Java to repository, if passed SQL uses any of their tables. */
+	private void maybeFlushAccountStateCache(String sql) throws SQLException {
+		if (this.accountStateCache == null || this.accountStateCache.isBypassing())
+			return;
+
+		if (ACCOUNT_STATE_TABLES_PATTERN.matcher(sql).find())
+			this.accountStateCache.flush();
+	}
+
 	// Transaction COMMIT / ROLLBACK / savepoints
 
 	@Override
 	public void saveChanges() throws DataException {
+		try {
+			// Queued updates and account state changes held in Java need to be part of this commit
+			if (this.batchedStatements != null) {
+				this.executeBatchedStatements();
+				this.batchedStatements = null;
+			}
+
+			if (this.accountStateCache != null)
+				this.accountStateCache.flush();
+		} catch (SQLException e) {
+			throw new DataException("commit error", e);
+		}
+
 		long beforeQuery = this.slowQueryThreshold == null ? 0 : System.currentTimeMillis();
 
 		try {
@@ -199,6 +260,8 @@ public class HSQLDBRepository implements Repository {
 		} catch (SQLException e) {
 			throw new DataException("commit error", e);
 		} finally {
+			this.applyRecentBlockCacheInvalidations();
+
 			this.savepoints.clear();
 
 			// Before clearing statements so we can log what led to assertion error
@@ -211,11 +274,21 @@ public class HSQLDBRepository implements Repository {
 
 	@Override
 	public void discardChanges() throws DataException {
+		this.batchedStatements = null;
+
+		if (this.accountStateCache != null)
+			this.accountStateCache.clear();
+
+		// Our uncommitted changes were never cached, so nothing to invalidate
+		this.recentBlockCacheInvalidations = null;
+
 		try {
 			this.connection.rollback();
 		} catch (SQLException e) {
 			throw new DataException("rollback error", e);
 		} finally {
+			this.resetRecentBlockCacheGeneration();
+
 			this.savepoints.clear();
 
 			// Before clearing statements so we can log what led to assertion error
@@ -229,6 +302,13 @@ public class HSQLDBRepository implements Repository {
 	@Override
 	public void setSavepoint() throws DataException {
 		try {
+			// Queued updates and account state changes held in Java need to be before savepoint, so they survive rollback
+			if (this.batchedStatements != null)
+				this.executeBatchedStatements();
+
+			if (this.accountStateCache != null)
+				this.accountStateCache.flush();
+
 			if (this.sqlStatements != null)
 				// We don't know savepoint's ID yet
 				this.sqlStatements.add("SAVEPOINT [?]");
@@ -251,6 +331,13 @@ public class HSQLDBRepository implements Repository {
 
 		Savepoint savepoint = this.savepoints.pop();
 
+		// Any queued updates, or account state changes held in Java, were made after savepoint (as savepoint flushed them)
+		// so discard them, and stop batching, as with full rollback
+		this.batchedStatements = null;
+
+		if (this.accountStateCache != null)
+			this.accountStateCache.clear();
+
 		try {
 			if (this.sqlStatements != null)
 				this.sqlStatements.add("ROLLBACK TO SAVEPOINT [" + savepoint.getSavepointId() + "]");
@@ -261,6 +348,60 @@ public class HSQLDBRepository implements Repository {
 		}
 	}
 
+	// Recent block cache
+
+	/**
+	 * Returns shared cache of recent blocks and transactions, or null if this session mustn't use it.
+	 * <p>
+	 * Sessions with uncommitted block/transaction changes must not use cache,
+	 * as it wouldn't reflect their changes, and they mustn't add uncommitted data to it.
+	 */
+	public RecentBlockCache getRecentBlockCache() {
+		if (this.recentBlockCacheInvalidations != null)
+			return null;
+
+		return RepositoryManager.getRecentBlockCache();
+	}
+
+	/**
+	 * Returns newest recent block cache generation whose entries this session can use.
+	 * <p>
+	 * Read-only (READ COMMITTED) sessions see latest committed data, so can use any entry.
+	 * Read-write (SERIALIZABLE) sessions can only use entries cached no later than their current repository transaction started,
+	 * as newer entries might hold data committed after their snapshot.
+	 */
+	public long getRecentBlockCacheMaxGeneration() {
+		return this.isReadOnly ? Long.MAX_VALUE : this.recentBlockCacheGeneration;
+	}
+
+	/** Returns recent block cache generation when our current repository transaction started, for passing to cache when adding data. */
+	public long getRecentBlockCacheGeneration() {
+		return this.recentBlockCacheGeneration;
+	}
+
+	/** Returns invalidations, to be applied to recent block cache after commit, for recording block/transaction changes. */
+	public RecentBlockCache.Invalidations getRecentBlockCacheInvalidations() {
+		if (this.recentBlockCacheInvalidations == null)
+			this.recentBlockCacheInvalidations = new RecentBlockCache.Invalidations();
+
+		return this.recentBlockCacheInvalidations;
+	}
+
+	private void applyRecentBlockCacheInvalidations() {
+		RecentBlockCache recentBlockCache = RepositoryManager.getRecentBlockCache();
+
+		if (this.recentBlockCacheInvalidations != null && recentBlockCache != null)
+			recentBlockCache.invalidate(this.recentBlockCacheInvalidations);
+
+		this.recentBlockCacheInvalidations = null;
+		this.resetRecentBlockCacheGeneration();
+	}
+
+	private void resetRecentBlockCacheGeneration() {
+		RecentBlockCache recentBlockCache = RepositoryManager.getRecentBlockCache();
+		this.recentBlockCacheGeneration = recentBlockCache != null ? recentBlockCache.getGeneration() : 0L;
+	}
+
 	// Close / backup / rebuild / restore
 
 	@Override
@@ -275,18 +416,28 @@ public class HSQLDBRepository implements Repository {
 			assertEmptyTransaction("connection close");
 
 			// Assume we are not going to be GC'd for a while
+			this.accountStateCache = null;
+			this.batchedStatements = null;
+			this.recentBlockCacheInvalidations = null;
 			this.preparedStatementCache.clear();
 			this.sqlStatements = null;
 			this.savepoints.clear();
 
-			// If a checkpoint has been requested, we could perform that now
-			this.maybeCheckpoint();
+			// If a checkpoint has been requested, we could perform that now (but read-only sessions can't)
+			if (!this.isReadOnly)
+				this.maybeCheckpoint();
 
 			// Give connection back to the pool
 			this.connection.close();
 			this.connection = null;
 		} catch (SQLException e) {
 			throw new DataException("Error while closing repository", e);
+		} finally {
+			// Release permit even if closing failed, otherwise read-only sessions would eventually run out
+			if (this.readOnlySessionPermits != null) {
+				this.readOnlySessionPermits.release();
+				this.readOnlySessionPermits = null;
+			}
 		}
 	}
 
@@ -468,6 +619,68 @@ public class HSQLDBRepository implements Repository {
 		}
 	}
 
+	@Override
+	public boolean tryCheckpoint(boolean quick) throws DataException {
+		synchronized (CHECKPOINT_LOCK) {
+			// We can only perform a CHECKPOINT if no other HSQLDB session is mid-transaction,
+			// otherwise the CHECKPOINT blocks for COMMITs and other threads can't open HSQLDB sessions.
+			// Waiting here would hold CHECKPOINT_LOCK, stalling all other sessions, so let caller retry instead.
+			if (this.otherTransactionsCount() > 0)
+				return false;
+
+			try (Statement stmt = this.connection.createStatement()) {
+				stmt.execute(quick ? "CHECKPOINT" : "CHECKPOINT DEFRAG");
+			} catch (SQLException e) {
+				throw new DataException("Unable to checkpoint repository", e);
+			}
+
+			return true;
+		}
+	}
+
+	@Override
+	public long getUncheckpointedSize() throws DataException {
+		try {
+			String dbPathname = getDbPathname(this.connection.getMetaData().getURL());
+			if (dbPathname == null || dbPathname.equals("mem"))
+				return 0;
+
+			// Uncheckpointed changes are held in HSQLDB's .log file
+			Path logPath = Paths.get(dbPathname + ".log");
+			return Files.exists(logPath) ? Files.size(logPath) : 0;
+		} catch (SQLException | IOException e) {
+			throw new DataException("Unable to determine size of repository log", e);
+		}
+	}
+
+	@Override
+	public Double getReclaimableSpaceRatio() throws DataException {
+		String sql = "SELECT SUM(file_lost_bytes), SUM(file_free_pos) FROM Information_schema.system_cacheinfo";
+
+		try {
+			String dbPathname = getDbPathname(this.connection.getMetaData().getURL());
+			if (dbPathname == null || dbPathname.equals("mem"))
+				// Nothing to defrag
+				return 0.0;
+
+			try (ResultSet resultSet = this.checkedExecute(sql)) {
+				if (resultSet == null)
+					return null;
+
+				long lostBytes = resultSet.getLong(1);
+				long usedBytes = resultSet.getLong(2);
+				if (usedBytes <= 0)
+					return null;
+
+				return (double) lostBytes / usedBytes;
+			}
+		} catch (SQLException e) {
+			// Older HSQLDB versions might not support this, so treat as unknown
+			LOGGER.debug(() -> String.format("Unable to determine reclaimable repository space: %s", e.getMessage()));
+			return null;
+		}
+	}
+
 	@Override
 	public void exportNodeLocalData() throws DataException {
 		HSQLDBImportExport.backupTradeBotStates(this, null);
@@ -558,8 +771,18 @@ public class HSQLDBRepository implements Repository {
 
 	/**
 	 * Returns prepared statement using passed SQL, logging query if necessary.
+	 * <p>
+	 * Any queued batched updates are executed first.
+	 * If SQL mentions account tables, any cached account state is written to repository first.
 	 */
 	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		// Any SQL might depend on queued updates
+		if (this.batchedStatements != null && !this.batchedStatements.isEmpty())
+			this.executeBatchedStatements();
+
+		// SQL touching account tables needs to see any account state changes held in Java
+		this.maybeFlushAccountStateCache(sql);
+
 		if (this.debugState)
 			LOGGER.debug(() -> String.format("[%d] %s", this.sessionId, sql));
 
@@ -741,6 +964,88 @@ public class HSQLDBRepository implements Repository {
 		return totalCount;
 	}
 
+	// Batched updates
+
+	@Override
+	public void startBatchedUpdates() {
+		if (this.batchedStatements == null)
+			this.batchedStatements = new LinkedHashMap<>();
+	}
+
+	@Override
+	public void executeBatchedUpdates() throws DataException {
+		if (this.batchedStatements == null)
+			return;
+
+		try {
+			this.executeBatchedStatements();
+		} catch (SQLException e) {
+			throw new DataException("Unable to execute batched updates in repository", e);
+		} finally {
+			this.batchedStatements = null;
+		}
+	}
+
+	/* package */ boolean isBatchingUpdates() {
+		return this.batchedStatements != null;
+	}
+
+	/**
+	 * Returns prepared statement, using passed SQL, for caller to bind values then call {@link PreparedStatement#addBatch()}.
+	 * <p>
+	 * Unlike {@link #prepareStatement(String)}, other queued updates are not executed first,
+	 * so consecutive updates to multiple tables can be batched together.
+	 * <p>
+	 * Only for use when {@link #isBatchingUpdates()} returns true.
+	 */
+	/* package */ PreparedStatement prepareBatchedStatement(String sql) throws SQLException {
+		// SQL touching account tables still needs to see any account state changes held in Java
+		this.maybeFlushAccountStateCache(sql);
+
+		if (this.debugState)
+			LOGGER.debug(() -> String.format("[%d] (batched) %s", this.sessionId, sql));
+
+		if (this.sqlStatements != null)
+			this.sqlStatements.add(sql);
+
+		PreparedStatement preparedStatement = this.batchedStatements.get(sql);
+		if (preparedStatement == null) {
+			preparedStatement = cachePreparedStatement(sql);
+			this.batchedStatements.put(sql, preparedStatement);
+		}
+
+		return preparedStatement;
+	}
+
+	/** Executes queued batched updates, in the order their tables were first updated, e.g. parent rows before child rows. */
+	private void executeBatchedStatements() throws SQLException {
+		// Take a copy so we can't be called recursively
+		List<PreparedStatement> preparedStatements = new ArrayList<>(this.batchedStatements.values());
+		this.batchedStatements.clear();
+
+		long beforeQuery = this.slowQueryThreshold == null ? 0 : System.currentTimeMillis();
+
+		// synchronize to block new executions if checkpointing in progress
+		synchronized (CHECKPOINT_LOCK) {
+			for (PreparedStatement preparedStatement : preparedStatements)
+				try {
+					preparedStatement.executeBatch();
+				} catch (SQLException e) {
+					throw this.examineException(e);
+				}
+		}
+
+		if (this.slowQueryThreshold != null) {
+			long queryTime = System.currentTimeMillis() - beforeQuery;
+
+			if (queryTime > this.slowQueryThreshold) {
+				LOGGER.info(() -> String.format("[Session %d] HSQLDB batched updates took %d ms", this.sessionId, queryTime), new SQLException("slow query"));
+
+				logStatements();
+			}
+		}
+	}
+
 	/**
 	 * Fetch last value of IDENTITY column after an INSERT statement.
 	 * <p>
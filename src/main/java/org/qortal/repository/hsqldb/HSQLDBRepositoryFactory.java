@@ -4,13 +4,18 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hsqldb.HsqlException;
 import org.hsqldb.error.ErrorCode;
 import org.hsqldb.jdbc.HSQLDBPool;
+import org.qortal.repository.ConnectionPoolStats;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryFactory;
@@ -25,6 +30,10 @@ public class HSQLDBRepositoryFactory implements RepositoryFactory {
 
 	private String connectionUrl;
 	private HSQLDBPool connectionPool;
+	/** Separate pool for read-only sessions, so they don't compete with read-write sessions. Null if disabled. */
+	private HSQLDBPool readOnlyConnectionPool;
+	/** Limits concurrent read-only sessions to size of read-only pool. */
+	private Semaphore readOnlySessionPermits;
 	private final boolean wasPristine;
 
 	/**
@@ -57,13 +66,27 @@ public class HSQLDBRepositoryFactory implements RepositoryFactory {
 			HSQLDBRepository.attemptRecovery(connectionUrl, "backup");
 		}
 
-		this.connectionPool = new HSQLDBPool(Settings.getInstance().getRepositoryConnectionPoolSize());
+		this.connectionPool = new HSQLDBPool("repository",
+				Settings.getInstance().getRepositoryConnectionPoolSize(),
+				Settings.getInstance().getRepositoryConnectionPoolMaxSize(),
+				Settings.getInstance().getRepositoryConnectionLeakThreshold());
 		this.connectionPool.setUrl(this.connectionUrl);
 
 		Properties properties = new Properties();
 		properties.setProperty("close_result", "true"); // Auto-close old ResultSet if Statement creates new ResultSet
 		this.connectionPool.setProperties(properties);
 
+		int readOnlyPoolSize = Settings.getInstance().getReadOnlyRepositoryConnectionPoolSize();
+		if (readOnlyPoolSize > 0) {
+			// Fixed size, as read-only sessions are limited by readOnlySessionPermits anyway
+			this.readOnlyConnectionPool = new HSQLDBPool("read-only repository", readOnlyPoolSize, readOnlyPoolSize,
+					Settings.getInstance().getRepositoryConnectionLeakThreshold());
+			this.readOnlyConnectionPool.setUrl(this.connectionUrl);
+			this.readOnlyConnectionPool.setProperties(properties);
+
+			this.readOnlySessionPermits = new Semaphore(readOnlyPoolSize, true);
+		}
+
 		// Perform DB updates?
 		try (final Connection connection = this.connectionPool.getConnection()) {
 			this.wasPristine = HSQLDBDatabaseUpdates.updateDatabase(connection);
@@ -104,6 +127,48 @@ public class HSQLDBRepositoryFactory implements RepositoryFactory {
 		}
 	}
 
+	@Override
+	public Repository getReadOnlyRepository() throws DataException {
+		if (this.readOnlyConnectionPool == null)
+			// Read-only pool disabled
+			return this.getRepository();
+
+		final long timeout = Settings.getInstance().getReadOnlyRepositoryTimeout();
+
+		try {
+			if (!this.readOnlySessionPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+				throw new DataException(String.format("Timed out waiting for read-only repository session (timeout: %dms)", timeout));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataException("Interrupted while waiting for read-only repository session");
+		}
+
+		try {
+			Connection connection = this.readOnlyConnectionPool.getConnection();
+			setupReadOnlyConnection(connection);
+
+			return new HSQLDBRepository(connection, this.readOnlySessionPermits);
+		} catch (SQLException e) {
+			this.readOnlySessionPermits.release();
+			throw new DataException("Repository instantiation error", e);
+		} catch (DataException | RuntimeException e) {
+			this.readOnlySessionPermits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public List<ConnectionPoolStats> getConnectionPoolStats() {
+		List<ConnectionPoolStats> poolStats = new ArrayList<>();
+
+		poolStats.add(this.connectionPool.getStats());
+
+		if (this.readOnlyConnectionPool != null)
+			poolStats.add(this.readOnlyConnectionPool.getStats());
+
+		return poolStats;
+	}
+
 	private Connection getConnection() throws SQLException {
 		final long before = System.currentTimeMillis();
 		Connection connection = this.connectionPool.getConnection();
@@ -132,10 +197,20 @@ public class HSQLDBRepositoryFactory implements RepositoryFactory {
 		connection.setAutoCommit(false);
 	}
 
+	private void setupReadOnlyConnection(Connection connection) throws SQLException {
+		// With MVCC, READ COMMITTED means each statement sees latest committed snapshot without waiting for writers
+		connection.setReadOnly(true);
+		connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+		connection.setAutoCommit(false);
+	}
+
 	@Override
 	public void close() throws DataException {
 		try {
 			// Close all existing connections immediately
+			if (this.readOnlyConnectionPool != null)
+				this.readOnlyConnectionPool.close(0);
+
 			this.connectionPool.close(0);
 
 			// Now that all connections are closed, create a dedicated connection to shut down repository
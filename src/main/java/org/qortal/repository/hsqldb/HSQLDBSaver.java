@@ -52,15 +52,29 @@ public class HSQLDBSaver {
 
 	/**
 	 * Build PreparedStatement using bound column-value pairs then execute it.
+	 * <p>
+	 * If repository is batching updates, then statement is queued instead, and executed later in a batch.
 	 * 
 	 * @param repository
 	 *
-	 * @return the result from {@link PreparedStatement#execute()}
+	 * @return the result from {@link PreparedStatement#execute()}, or false if queued
 	 * @throws SQLException
 	 */
 	public boolean execute(HSQLDBRepository repository) throws SQLException {
 		String sql = this.formatInsertWithPlaceholders();
 
+		if (repository.isBatchingUpdates()) {
+			try {
+				PreparedStatement preparedStatement = repository.prepareBatchedStatement(sql);
+				this.bindValues(preparedStatement);
+				preparedStatement.addBatch();
+
+				return false;
+			} catch (SQLException e) {
+				throw repository.examineException(e);
+			}
+		}
+
 		synchronized (HSQLDBRepository.CHECKPOINT_LOCK) {
 			try {
 				PreparedStatement preparedStatement = repository.prepareStatement(sql);
@@ -20,6 +20,7 @@ import org.qortal.data.transaction.GroupApprovalTransactionData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.data.transaction.TransferAssetTransactionData;
 import org.qortal.repository.DataException;
+import org.qortal.repository.RecentBlockCache;
 import org.qortal.repository.TransactionRepository;
 import org.qortal.repository.hsqldb.HSQLDBRepository;
 import org.qortal.repository.hsqldb.HSQLDBSaver;
@@ -120,6 +121,13 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	@Override
 	public TransactionData fromSignature(byte[] signature) throws DataException {
+		RecentBlockCache recentBlockCache = this.repository.getRecentBlockCache();
+		if (recentBlockCache != null) {
+			TransactionData cachedTransactionData = recentBlockCache.getTransaction(signature, this.repository.getRecentBlockCacheMaxGeneration());
+			if (cachedTransactionData != null)
+				return cachedTransactionData;
+		}
+
 		String sql = "SELECT type, reference, creator, created_when, fee, tx_group_id, block_height, approval_status, approval_height "
 				+ "FROM Transactions WHERE signature = ?";
 
@@ -149,7 +157,12 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 				approvalHeight = null;
 
 			BaseTransactionData baseTransactionData = new BaseTransactionData(timestamp, txGroupId, reference, creatorPublicKey, fee, approvalStatus, blockHeight, approvalHeight, signature);
-			return this.fromBase(type, baseTransactionData);
+			TransactionData transactionData = this.fromBase(type, baseTransactionData);
+
+			if (recentBlockCache != null && transactionData != null)
+				recentBlockCache.putTransaction(transactionData, this.repository.getRecentBlockCacheGeneration());
+
+			return transactionData;
 		} catch (SQLException e) {
 			throw new DataException("Unable to fetch transaction from repository", e);
 		}
@@ -1491,6 +1504,8 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	@Override
 	public void updateBlockHeight(byte[] signature, Integer blockHeight) throws DataException {
+		this.repository.getRecentBlockCacheInvalidations().invalidateTransaction(signature, blockHeight);
+
 		HSQLDBSaver saver = new HSQLDBSaver("Transactions");
 
 		saver.bind("signature", signature).bind("block_height", blockHeight);
@@ -1504,6 +1519,8 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	@Override
 	public void updateBlockSequence(byte[] signature, Integer blockSequence) throws DataException {
+		this.repository.getRecentBlockCacheInvalidations().invalidateTransaction(signature, null);
+
 		HSQLDBSaver saver = new HSQLDBSaver("Transactions");
 
 		saver.bind("signature", signature).bind("block_sequence", blockSequence);
@@ -1517,6 +1534,8 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	@Override
 	public void updateApprovalHeight(byte[] signature, Integer approvalHeight) throws DataException {
+		this.repository.getRecentBlockCacheInvalidations().invalidateTransaction(signature, null);
+
 		HSQLDBSaver saver = new HSQLDBSaver("Transactions");
 
 		saver.bind("signature", signature).bind("approval_height", approvalHeight);
@@ -1543,6 +1562,8 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	@Override
 	public void save(TransactionData transactionData) throws DataException {
+		this.repository.getRecentBlockCacheInvalidations().invalidateTransaction(transactionData.getSignature(), transactionData.getBlockHeight());
+
 		HSQLDBSaver saver = new HSQLDBSaver("Transactions");
 
 		// Do not include "block_height" or "approval_height" as they are modified a different way
@@ -1577,8 +1598,24 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 		}
 	}
 
+	@Override
+	public void save(List<TransactionData> transactions) throws DataException {
+		// Rows for each table are then sent to the database in one batch
+		this.repository.startBatchedUpdates();
+
+		try {
+			for (TransactionData transactionData : transactions)
+				this.save(transactionData);
+		} finally {
+			// Always stop batching, even on failure, so later updates aren't left queued
+			this.repository.executeBatchedUpdates();
+		}
+	}
+
 	@Override
 	public void delete(TransactionData transactionData) throws DataException {
+		this.repository.getRecentBlockCacheInvalidations().invalidateTransaction(transactionData.getSignature(), transactionData.getBlockHeight());
+
 		// NOTE: The corresponding row in sub-table is deleted automatically by the database thanks to "ON DELETE CASCADE" in the sub-table's FOREIGN KEY
 		// definition.
 		try {
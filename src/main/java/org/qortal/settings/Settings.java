@@ -141,10 +141,20 @@ public class Settings {
 	private boolean showMaintenanceNotification = false;
 	/** How long between repository checkpoints (ms). */
 	private long repositoryCheckpointInterval = 60 * 60 * 1000L; // 1 hour (ms) default
+	/** Checkpoint repository early once this many bytes of changes are pending, keeping each checkpoint short. 0 to disable. */
+	private long repositoryCheckpointMaxPendingSize = 16 * 1024 * 1024L; // bytes
+	/** How long after a new block before repository checkpoints/maintenance may run (ms). */
+	private long repositoryMaintenanceQuietPeriod = 5 * 1000L; // ms
+	/** Minimum percentage of repository data file that must be reclaimable before scheduled maintenance defrags. */
+	private int repositoryDefragMinReclaimablePercent = 10;
 	/** Whether to show a notification when we perform repository 'checkpoint'. */
 	private boolean showCheckpointNotification = false;
 	/* How many blocks to cache locally. Defaulted to 10, which covers a typical Synchronizer request + a few spare */
 	private int blockCacheSize = 10;
+	/** How many pre-serialized BLOCK_SUMMARIES / SIGNATURES replies, for ranges further back than blockCacheSize, to cache for peers syncing from us. 0 to disable. */
+	private int blockReplyCacheSize = 100;
+	/** Maximum total size of serialized BLOCK / BLOCK_V2 messages cached for serving to peers (bytes). 0 to disable. */
+	private long blockMessageCacheMaxBytes = 32 * 1024 * 1024L; // 32MiB
 
 	/** Maximum number of transactions for the block minter to include in a block */
 	private int maxTransactionsPerBlock = 50;
@@ -190,7 +200,9 @@ public class Settings {
 	private boolean archiveEnabled = true;
 	/** How often to attempt archiving (ms). */
 	private long archiveInterval = 7171L; // milliseconds
-	/** Serialization version to use when building an archive */
+	/** Serialization version to use when building an archive.
+	 * Version 3 compresses V2 serialized blocks, in independently compressed frames,
+	 * but can't be read by older nodes, e.g. when sharing bootstraps. */
 	private int defaultArchiveVersion = 2;
 
 	/** Whether to automatically bootstrap instead of syncing from genesis */
@@ -217,10 +229,21 @@ public class Settings {
 	private int maxDataPeers = 4;
 	/** Maximum number of threads for network engine. */
 	private int maxNetworkThreadPoolSize = 120;
+	/** Number of network channel selectors, each with its own processing loop. Peers are spread across selectors. */
+	private int networkSelectorCount = 1;
+	/** Whether to run network message handlers and broadcasts on virtual threads (Java 21+, otherwise up to maxNetworkThreadPoolSize platform threads)
+	 * instead of networking engine threads. Per-message-type limits from maxThreadsPerMessageType are then enforced by semaphores. */
+	private boolean networkVirtualThreadsEnabled = false;
 	/** Maximum number of threads for network proof-of-work compute, used during handshaking. */
 	private int networkPoWComputePoolSize = 2;
 	/** Maximum number of retry attempts if a peer fails to respond with the requested data */
 	private int maxRetries = 2;
+	/** Maximum number of outstanding block requests while synchronizing. Set to 1 to fetch blocks one at a time. */
+	private int syncBlockRequestWindow = 16;
+	/** Maximum number of peers, sharing the same chain tip, to spread block requests across while synchronizing. */
+	private int maxSyncBlockPeers = 4;
+	/** Whether to check signatures of downloaded blocks on other threads, while earlier blocks are being processed. */
+	private boolean syncPreValidationEnabled = true;
 
 	/** The number of seconds of no activity before recovery mode begins */
 	public long recoveryModeTimeout = 9999999999999L;
@@ -275,6 +298,18 @@ public class Settings {
 	private String repositoryPath = "db";
 	/** Repository connection pool size. Needs to be a bit bigger than maxNetworkThreadPoolSize */
 	private int repositoryConnectionPoolSize = 240;
+	/** Repository connection pool can grow up to this size under contention. Ignored if less than repositoryConnectionPoolSize. */
+	private int repositoryConnectionPoolMaxSize = 320;
+	/** Repository connections held longer than this are logged as possible leaks. 0 disables. (milliseconds) */
+	private long repositoryConnectionLeakThreshold = 10 * 60 * 1000L; // ms
+	/** Separate connection pool size for read-only sessions, e.g. API queries. 0 means read-only sessions share main pool. */
+	private int readOnlyRepositoryConnectionPoolSize = 40;
+	/** How long to wait for a read-only session when all are in use, before giving up. (milliseconds) */
+	private long readOnlyRepositoryTimeout = 5000L;
+	/** Whether account state changes made while processing/orphaning a block are buffered and written in one batch. Experimental, so off by default. */
+	private boolean accountStateCacheEnabled = false;
+	/** How many of the most recent blocks, and their transactions, to cache in memory for all repository sessions. 0 to disable. */
+	private int recentBlockCacheSize = 200;
 	private List<String> fixedNetwork;
 
 	// Export/import
@@ -282,6 +317,12 @@ public class Settings {
 
 	// Bootstrap
 	private String bootstrapFilenamePrefix = "";
+	/** Whether to create bootstraps as an immutable base segment plus delta segments, instead of a single 7z file */
+	private boolean segmentedBootstrapEnabled = false;
+	/** Maximum number of delta segments to create on top of a base segment, before creating a new base segment */
+	private int maxBootstrapDeltaSegments = 24;
+	/** How many bootstrap segments to download, and verify, in parallel when importing */
+	private int bootstrapSegmentDownloadThreads = 4;
 
 	// Bootstrap sources
 	private String[] bootstrapHosts = new String[] {
@@ -366,6 +407,12 @@ public class Settings {
 	/** Whether to make connections directly with peers that have the required data */
 	private boolean directDataRetrievalEnabled = true;
 
+	/** Number of threads requesting data file chunks from peers. Per-peer concurrency is limited separately, based on each peer's measured throughput. */
+	private int arbitraryDataFileRequestThreads = 16;
+
+	/** Whether to keep a single copy of each chunk, shared by every transaction that uses it, rather than one copy per transaction. Requires hard link support. */
+	private boolean chunkDeduplicationEnabled = true;
+
 	/** Expiry time (ms) for (unencrypted) built/cached data */
 	private Long builtDataExpiryInterval = 30 * 24 * 60 * 60 * 1000L; // 30 days
 
@@ -383,6 +430,12 @@ public class Settings {
 	/** Whether to serve QDN data without authentication */
 	private boolean qdnAuthBypassEnabled = true;
 
+	/** Whether to serve QDN resources straight from their chunks, where possible, rather than waiting for them to be built. */
+	private boolean qdnStreamingEnabled = true;
+
+	/** Maximum size of HTML file that is parsed (in memory) when rendering QDN resources, in bytes. Larger files are served unparsed. */
+	private long maxRenderedHtmlSize = 10 * 1024 * 1024L; // bytes
+
 	/** Limit threads per message type */
 	private Set<ThreadLimit> maxThreadsPerMessageType = new HashSet<>();
 
@@ -591,6 +644,45 @@ public class Settings {
 		if (this.apiKey != null && this.apiKey.trim().length() < 8)
 			throwValidationError("apiKey must be at least 8 characters");
 
+		if (this.syncBlockRequestWindow < 1)
+			throwValidationError("syncBlockRequestWindow must be at least 1");
+
+		if (this.maxSyncBlockPeers < 1)
+			throwValidationError("maxSyncBlockPeers must be at least 1");
+
+		if (this.blockReplyCacheSize < 0)
+			throwValidationError("blockReplyCacheSize must not be negative");
+
+		if (this.blockMessageCacheMaxBytes < 0)
+			throwValidationError("blockMessageCacheMaxBytes must not be negative");
+
+		if (this.recentBlockCacheSize < 0)
+			throwValidationError("recentBlockCacheSize must not be negative");
+
+		if (this.readOnlyRepositoryConnectionPoolSize < 0)
+			throwValidationError("readOnlyRepositoryConnectionPoolSize must not be negative");
+
+		if (this.repositoryCheckpointMaxPendingSize < 0)
+			throwValidationError("repositoryCheckpointMaxPendingSize must not be negative");
+
+		if (this.repositoryMaintenanceQuietPeriod < 0)
+			throwValidationError("repositoryMaintenanceQuietPeriod must not be negative");
+
+		if (this.repositoryDefragMinReclaimablePercent < 0 || this.repositoryDefragMinReclaimablePercent > 100)
+			throwValidationError("repositoryDefragMinReclaimablePercent must be between 0 and 100");
+
+		if (this.arbitraryDataFileRequestThreads < 1)
+			throwValidationError("arbitraryDataFileRequestThreads must be at least 1");
+
+		if (this.maxRenderedHtmlSize < 0)
+			throwValidationError("maxRenderedHtmlSize must not be negative");
+
+		if (this.maxBootstrapDeltaSegments < 0)
+			throwValidationError("maxBootstrapDeltaSegments must not be negative");
+
+		if (this.bootstrapSegmentDownloadThreads < 1)
+			throwValidationError("bootstrapSegmentDownloadThreads must be at least 1");
+
 		try {
 			StoragePolicy.valueOf(this.storagePolicy);
 		} catch (IllegalArgumentException ex) {
@@ -777,6 +869,14 @@ public class Settings {
 		return this.blockCacheSize;
 	}
 
+	public int getBlockReplyCacheSize() {
+		return this.blockReplyCacheSize;
+	}
+
+	public long getBlockMessageCacheMaxBytes() {
+		return this.blockMessageCacheMaxBytes;
+	}
+
 	public int getMaxTransactionsPerBlock() {
 		return this.maxTransactionsPerBlock;
 	}
@@ -835,12 +935,32 @@ public class Settings {
 		return this.maxNetworkThreadPoolSize;
 	}
 
+	public int getNetworkSelectorCount() {
+		return this.networkSelectorCount;
+	}
+
+	public boolean isNetworkVirtualThreadsEnabled() {
+		return this.networkVirtualThreadsEnabled;
+	}
+
 	public int getNetworkPoWComputePoolSize() {
 		return this.networkPoWComputePoolSize;
 	}
 
 	public int getMaxRetries() { return this.maxRetries; }
 
+	public int getSyncBlockRequestWindow() {
+		return this.syncBlockRequestWindow;
+	}
+
+	public int getMaxSyncBlockPeers() {
+		return this.maxSyncBlockPeers;
+	}
+
+	public boolean isSyncPreValidationEnabled() {
+		return this.syncPreValidationEnabled;
+	}
+
 	public long getRecoveryModeTimeout() {
 		return recoveryModeTimeout;
 	}
@@ -909,10 +1029,34 @@ public class Settings {
 		return this.repositoryPath;
 	}
 
+	public boolean isAccountStateCacheEnabled() {
+		return this.accountStateCacheEnabled;
+	}
+
+	public int getRecentBlockCacheSize() {
+		return this.recentBlockCacheSize;
+	}
+
 	public int getRepositoryConnectionPoolSize() {
 		return this.repositoryConnectionPoolSize;
 	}
 
+	public int getRepositoryConnectionPoolMaxSize() {
+		return this.repositoryConnectionPoolMaxSize;
+	}
+
+	public long getRepositoryConnectionLeakThreshold() {
+		return this.repositoryConnectionLeakThreshold;
+	}
+
+	public int getReadOnlyRepositoryConnectionPoolSize() {
+		return this.readOnlyRepositoryConnectionPoolSize;
+	}
+
+	public long getReadOnlyRepositoryTimeout() {
+		return this.readOnlyRepositoryTimeout;
+	}
+
 	public String getExportPath() {
 		return this.exportPath;
 	}
@@ -921,6 +1065,18 @@ public class Settings {
 		return this.bootstrapFilenamePrefix;
 	}
 
+	public boolean isSegmentedBootstrapEnabled() {
+		return this.segmentedBootstrapEnabled;
+	}
+
+	public int getMaxBootstrapDeltaSegments() {
+		return this.maxBootstrapDeltaSegments;
+	}
+
+	public int getBootstrapSegmentDownloadThreads() {
+		return this.bootstrapSegmentDownloadThreads;
+	}
+
 	public boolean isFastSyncEnabled() {
 		return this.fastSyncEnabled;
 	}
@@ -981,6 +1137,18 @@ public class Settings {
 		return this.repositoryCheckpointInterval;
 	}
 
+	public long getRepositoryCheckpointMaxPendingSize() {
+		return this.repositoryCheckpointMaxPendingSize;
+	}
+
+	public long getRepositoryMaintenanceQuietPeriod() {
+		return this.repositoryMaintenanceQuietPeriod;
+	}
+
+	public int getRepositoryDefragMinReclaimablePercent() {
+		return this.repositoryDefragMinReclaimablePercent;
+	}
+
 	public boolean getShowCheckpointNotification() {
 		return this.showCheckpointNotification;
 	}
@@ -1104,6 +1272,14 @@ public class Settings {
 		return this.directDataRetrievalEnabled;
 	}
 
+	public int getArbitraryDataFileRequestThreads() {
+		return this.arbitraryDataFileRequestThreads;
+	}
+
+	public boolean isChunkDeduplicationEnabled() {
+		return this.chunkDeduplicationEnabled;
+	}
+
 	public boolean isOriginalCopyIndicatorFileEnabled() {
 		return this.originalCopyIndicatorFileEnabled;
 	}
@@ -1128,6 +1304,14 @@ public class Settings {
 		return this.maxStorageCapacity;
 	}
 
+	public boolean isQdnStreamingEnabled() {
+		return this.qdnStreamingEnabled;
+	}
+
+	public long getMaxRenderedHtmlSize() {
+		return this.maxRenderedHtmlSize;
+	}
+
 	public boolean isQDNAuthBypassEnabled() {
 		if (this.gatewayEnabled) {
 			// We must always bypass QDN authentication in gateway mode, in order for it to function properly
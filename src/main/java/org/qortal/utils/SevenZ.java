@@ -9,12 +9,30 @@ package org.qortal.utils;
 import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
 import org.apache.commons.compress.archivers.sevenz.SevenZFile;
 import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.qortal.gui.SplashFrame;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SevenZ {
 
+    private static final Logger LOGGER = LogManager.getLogger(SevenZ.class);
+
+    /** Upper limit on parallel extraction threads, as each holds its own LZMA decoder dictionary in memory */
+    private static final int MAX_EXTRACTION_THREADS = 4;
+
+    /** Size of direct buffer used by each extraction thread to write to disk */
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024 * 1024; // 4MiB
+
+    private static final long PROGRESS_INTERVAL = 1000L; // ms
+
     private SevenZ() {
 
     }
@@ -27,7 +45,162 @@ public class SevenZ {
         }
     }
 
+    /**
+     * Extracts <tt>in</tt> into <tt>destination</tt>, using parallel threads where possible.
+     */
     public static void decompress(String in, File destination) throws IOException {
+        int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), MAX_EXTRACTION_THREADS);
+        if (threadCount <= 1) {
+            decompressSequentially(in, destination);
+            return;
+        }
+
+        decompress(in, destination, threadCount);
+    }
+
+    /**
+     * Extracts <tt>in</tt> into <tt>destination</tt> using <tt>threadCount</tt> threads.
+     * <p>
+     * Each thread has its own {@link SevenZFile} and takes the next entry, in archive order, from a shared queue.
+     * {@link SevenZOutputFile} compresses each file into its own folder (independent block), so entries from
+     * our bootstraps can be decoded in parallel without any thread decoding data for another's entry.
+     * Output files are preallocated to their final size and written through large direct buffers.
+     * Overall progress, in MB/s, is reported to the splash screen.
+     */
+    public static void decompress(String in, File destination, int threadCount) throws IOException {
+        // Entries are only valid with the SevenZFile that produced them, so threads share entry indexes instead
+        BlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+        long totalSize = 0;
+        try (SevenZFile sevenZFile = new SevenZFile(new File(in))) {
+            List<SevenZArchiveEntry> entries = getFileEntries(sevenZFile);
+            for (int entryIndex = 0; entryIndex < entries.size(); ++entryIndex) {
+                queue.add(entryIndex);
+                totalSize += entries.get(entryIndex).getSize();
+            }
+        }
+
+        AtomicLong extracted = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new DaemonThreadFactory("SevenZ-extract"));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; ++i) {
+                futures.add(executor.submit(() -> {
+                    extractEntries(in, destination, queue, extracted);
+                    return null;
+                }));
+            }
+
+            // Report progress until all threads are done
+            final long startTime = System.currentTimeMillis();
+            for (Future<Void> future : futures) {
+                while (true) {
+                    try {
+                        future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        updateProgress(extracted.get(), totalSize, startTime);
+                    }
+                }
+            }
+
+            updateProgress(extracted.get(), totalSize, startTime);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to extract archive", cause);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while extracting archive");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<SevenZArchiveEntry> getFileEntries(SevenZFile sevenZFile) {
+        List<SevenZArchiveEntry> entries = new ArrayList<>();
+        for (SevenZArchiveEntry entry : sevenZFile.getEntries()) {
+            if (!entry.isDirectory()) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static void extractEntries(String in, File destination, BlockingQueue<Integer> queue, AtomicLong extracted) throws IOException {
+        ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        byte[] readBuffer = new byte[1024 * 1024];
+
+        try (SevenZFile sevenZFile = new SevenZFile(new File(in))) {
+            List<SevenZArchiveEntry> entries = getFileEntries(sevenZFile);
+
+            Integer entryIndex;
+            while ((entryIndex = queue.poll()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Interrupted while extracting archive");
+                }
+
+                SevenZArchiveEntry entry = entries.get(entryIndex);
+
+                File curfile = new File(destination, entry.getName());
+                File parent = curfile.getParentFile();
+                if (!parent.exists()) {
+                    parent.mkdirs();
+                }
+
+                try (InputStream entryInputStream = sevenZFile.getInputStream(entry);
+                     RandomAccessFile file = new RandomAccessFile(curfile, "rw")) {
+                    // Preallocate, so the file system can allocate contiguous space up front
+                    file.setLength(entry.getSize());
+
+                    FileChannel fileChannel = file.getChannel();
+                    writeBuffer.clear();
+
+                    int count;
+                    while ((count = entryInputStream.read(readBuffer)) > 0) {
+                        int offset = 0;
+                        while (offset < count) {
+                            int length = Math.min(count - offset, writeBuffer.remaining());
+                            writeBuffer.put(readBuffer, offset, length);
+                            offset += length;
+
+                            if (!writeBuffer.hasRemaining()) {
+                                flush(fileChannel, writeBuffer);
+                            }
+                        }
+
+                        extracted.addAndGet(count);
+                    }
+
+                    flush(fileChannel, writeBuffer);
+                }
+            }
+        }
+    }
+
+    private static void flush(FileChannel fileChannel, ByteBuffer writeBuffer) throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            fileChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    private static void updateProgress(long extracted, long totalSize, long startTime) {
+        long elapsed = Math.max(System.currentTimeMillis() - startTime, 1L);
+        double megabytesPerSecond = extracted / 1024.0 / 1024.0 * 1000.0 / elapsed;
+        int progress = totalSize > 0 ? (int) ((double) extracted / (double) totalSize * 100) : 100;
+
+        String status = String.format("Extracting bootstrap... (%d%%, %.1f MB/s)", progress, megabytesPerSecond);
+        LOGGER.debug(status);
+        SplashFrame.getInstance().updateStatus(status);
+    }
+
+    /**
+     * Extracts <tt>in</tt> into <tt>destination</tt>, one entry at a time, on calling thread.
+     */
+    public static void decompressSequentially(String in, File destination) throws IOException {
         SevenZFile sevenZFile = new SevenZFile(new File(in));
         SevenZArchiveEntry entry;
         while ((entry = sevenZFile.getNextEntry()) != null){
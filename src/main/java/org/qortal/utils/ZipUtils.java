@@ -33,6 +33,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Paths;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -50,6 +51,18 @@ public class ZipUtils {
         fileOutputStream.close();
     }
 
+    /**
+     * Zips <tt>sourcePath</tt> into <tt>outputStream</tt>, e.g. so that it can be encrypted as it is compressed.
+     * Caller is responsible for closing <tt>outputStream</tt>.
+     */
+    public static void zip(String sourcePath, OutputStream outputStream, String enclosingFolderName) throws IOException, InterruptedException {
+        File sourceFile = new File(sourcePath);
+        boolean isSingleFile = Paths.get(sourcePath).toFile().isFile();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        ZipUtils.zip(sourceFile, enclosingFolderName, zipOutputStream, isSingleFile);
+        zipOutputStream.finish();
+    }
+
     public static void zip(final File fileToZip, final String enclosingFolderName, final ZipOutputStream zipOut, boolean isSingleFile) throws IOException, InterruptedException {
         if (Controller.isStopping()) {
             throw new InterruptedException("Controller is stopping");
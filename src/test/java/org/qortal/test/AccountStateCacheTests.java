@@ -0,0 +1,206 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.account.Account;
+import org.qortal.account.AccountStateCache;
+import org.qortal.account.PublicKeyAccount;
+import org.qortal.asset.Asset;
+import org.qortal.data.account.AccountBalanceData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+import org.qortal.test.common.BlockUtils;
+import org.qortal.test.common.Common;
+import org.qortal.test.common.TestAccount;
+
+public class AccountStateCacheTests extends Common {
+
+	private static final Random RANDOM = new Random();
+
+	@Before
+	public void beforeTest() throws DataException, IllegalAccessException {
+		Common.useDefaultSettings();
+
+		// Off by default
+		FieldUtils.writeField(Settings.getInstance(), "accountStateCacheEnabled", true, true);
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		Common.orphanCheck();
+	}
+
+	/** Tests that cached changes are visible during caching, and saved on commit. */
+	@Test
+	public void testCommit() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			TestAccount alice = Common.getTestAccount(repository, "alice");
+			Account newbie = createRandomAccount(repository);
+
+			long initialBalance = alice.getConfirmedBalance(Asset.QORT);
+			long amount = 123L;
+
+			byte[] lastReference = new byte[64];
+			RANDOM.nextBytes(lastReference);
+
+			try (AccountStateCache accountStateCache = new AccountStateCache(repository)) {
+				alice.modifyAssetBalance(Asset.QORT, -amount);
+				newbie.modifyAssetBalance(Asset.QORT, amount);
+				newbie.setLastReference(lastReference);
+
+				// Reads should return latest values
+				assertEquals(initialBalance - amount, alice.getConfirmedBalance(Asset.QORT));
+				assertEquals(amount, newbie.getConfirmedBalance(Asset.QORT));
+				assertTrue(Arrays.equals(lastReference, newbie.getLastReference()));
+
+				// Further changes to same balance are combined
+				newbie.modifyAssetBalance(Asset.QORT, amount);
+				assertEquals(amount * 2, newbie.getConfirmedBalance(Asset.QORT));
+
+				accountStateCache.commit();
+			}
+
+			assertEquals(initialBalance - amount, alice.getConfirmedBalance(Asset.QORT));
+			assertEquals(amount * 2, newbie.getConfirmedBalance(Asset.QORT));
+			assertTrue(Arrays.equals(lastReference, newbie.getLastReference()));
+
+			repository.discardChanges();
+		}
+	}
+
+	/** Tests that cached changes are discarded if cache is closed without commit. */
+	@Test
+	public void testDiscard() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			TestAccount alice = Common.getTestAccount(repository, "alice");
+			Account newbie = createRandomAccount(repository);
+
+			long initialBalance = alice.getConfirmedBalance(Asset.QORT);
+
+			try (AccountStateCache accountStateCache = new AccountStateCache(repository)) {
+				alice.modifyAssetBalance(Asset.QORT, -100L);
+				newbie.modifyAssetBalance(Asset.QORT, 100L);
+			}
+
+			assertEquals(initialBalance, alice.getConfirmedBalance(Asset.QORT));
+			assertEquals(0L, newbie.getConfirmedBalance(Asset.QORT));
+			assertFalse(repository.getAccountRepository().accountExists(newbie.getAddress()));
+		}
+	}
+
+	/** Tests that other SQL involving accounts sees cached changes. */
+	@Test
+	public void testOtherQueriesSeeCachedChanges() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			Account newbie = createRandomAccount(repository);
+
+			try (AccountStateCache accountStateCache = new AccountStateCache(repository)) {
+				// Delta-only change, without fetching newbie's balance first
+				repository.getAccountRepository().modifyAssetBalances(Collections.singletonList(new AccountBalanceData(newbie.getAddress(), Asset.QORT, 500L)));
+
+				// Different SQL should cause cached changes to be written first
+				assertTrue(repository.getAccountRepository().accountExists(newbie.getAddress()));
+
+				List<AccountBalanceData> balances = repository.getAccountRepository().getAssetBalances(Collections.singletonList(newbie.getAddress()),
+						Collections.singletonList(Asset.QORT), null, true, null, null, null);
+				assertEquals(1, balances.size());
+				assertEquals(500L, balances.get(0).getBalance());
+
+				// Cache should still be usable afterwards
+				newbie.modifyAssetBalance(Asset.QORT, -200L);
+				assertEquals(300L, newbie.getConfirmedBalance(Asset.QORT));
+
+				accountStateCache.commit();
+			}
+
+			assertEquals(300L, newbie.getConfirmedBalance(Asset.QORT));
+
+			repository.discardChanges();
+		}
+	}
+
+	/** Tests that rolling back to savepoint also discards cached changes made after savepoint. */
+	@Test
+	public void testSavepointRollback() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			TestAccount alice = Common.getTestAccount(repository, "alice");
+
+			long initialBalance = alice.getConfirmedBalance(Asset.QORT);
+
+			try (AccountStateCache accountStateCache = new AccountStateCache(repository)) {
+				alice.modifyAssetBalance(Asset.QORT, -100L);
+
+				repository.setSavepoint();
+
+				alice.modifyAssetBalance(Asset.QORT, -50L);
+				assertEquals(initialBalance - 150L, alice.getConfirmedBalance(Asset.QORT));
+
+				repository.rollbackToSavepoint();
+
+				assertEquals(initialBalance - 100L, alice.getConfirmedBalance(Asset.QORT));
+
+				accountStateCache.commit();
+			}
+
+			assertEquals(initialBalance - 100L, alice.getConfirmedBalance(Asset.QORT));
+
+			repository.discardChanges();
+		}
+	}
+
+	/** Tests that reducing a non-existent balance has no effect, as with uncached repository. */
+	@Test
+	public void testReduceMissingBalance() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			Account newbie = createRandomAccount(repository);
+
+			try (AccountStateCache accountStateCache = new AccountStateCache(repository)) {
+				newbie.modifyAssetBalance(Asset.QORT, -100L);
+				assertNull(repository.getAccountRepository().getBalance(newbie.getAddress(), Asset.QORT));
+
+				accountStateCache.commit();
+			}
+
+			assertNull(repository.getAccountRepository().getBalance(newbie.getAddress(), Asset.QORT));
+		}
+	}
+
+	/** Tests that block processing and orphaning, which use cache, leave balances as before. */
+	@Test
+	public void testBlockProcessAndOrphan() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			TestAccount alice = Common.getTestAccount(repository, "alice");
+
+			long initialBalance = alice.getConfirmedBalance(Asset.QORT);
+			int initialBlocksMinted = alice.getBlocksMinted();
+
+			BlockUtils.mintBlock(repository);
+
+			assertTrue(alice.getConfirmedBalance(Asset.QORT) > initialBalance);
+			assertEquals(initialBlocksMinted + 1, (int) alice.getBlocksMinted());
+
+			BlockUtils.orphanLastBlock(repository);
+
+			assertEquals(initialBalance, alice.getConfirmedBalance(Asset.QORT));
+			assertEquals(initialBlocksMinted, (int) alice.getBlocksMinted());
+		}
+	}
+
+	private static Account createRandomAccount(Repository repository) {
+		byte[] randomPublicKey = new byte[32];
+		RANDOM.nextBytes(randomPublicKey);
+		return new PublicKeyAccount(repository, randomPublicKey);
+	}
+
+}
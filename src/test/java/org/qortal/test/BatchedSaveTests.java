@@ -0,0 +1,166 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.data.transaction.PaymentTransactionData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.test.common.Common;
+import org.qortal.test.common.TestAccount;
+import org.qortal.test.common.transaction.TestTransaction;
+import org.qortal.transform.Transformer;
+
+public class BatchedSaveTests extends Common {
+
+	private static final Random RANDOM = new Random();
+
+	private static final int TRANSACTIONS_PER_BLOCK = 400;
+	private static final int BENCHMARK_BLOCKS = 20;
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		Common.orphanCheck();
+	}
+
+	/** Tests that transactions saved in a batch are the same as those saved individually. */
+	@Test
+	public void testBatchedSave() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			List<TransactionData> transactions = buildPayments(repository, 50);
+
+			repository.getTransactionRepository().save(transactions);
+
+			for (TransactionData transactionData : transactions) {
+				TransactionData savedTransactionData = repository.getTransactionRepository().fromSignature(transactionData.getSignature());
+				assertNotNull("Batched transaction not saved", savedTransactionData);
+
+				PaymentTransactionData paymentTransactionData = (PaymentTransactionData) transactionData;
+				PaymentTransactionData savedPaymentTransactionData = (PaymentTransactionData) savedTransactionData;
+				assertEquals(paymentTransactionData.getRecipient(), savedPaymentTransactionData.getRecipient());
+				assertEquals(paymentTransactionData.getAmount(), savedPaymentTransactionData.getAmount());
+			}
+
+			repository.discardChanges();
+		}
+	}
+
+	/** Tests that queries see queued saves. */
+	@Test
+	public void testQueriesSeeQueuedSaves() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			TransactionData transactionData = buildPayments(repository, 1).get(0);
+
+			repository.startBatchedUpdates();
+
+			repository.getTransactionRepository().save(transactionData);
+			assertTrue(repository.getTransactionRepository().exists(transactionData.getSignature()));
+
+			repository.executeBatchedUpdates();
+
+			repository.discardChanges();
+		}
+	}
+
+	/** Tests that rolling back to savepoint discards saves queued after savepoint. */
+	@Test
+	public void testRollbackDiscardsQueuedSaves() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			List<TransactionData> transactions = buildPayments(repository, 2);
+
+			repository.startBatchedUpdates();
+
+			repository.getTransactionRepository().save(transactions.get(0));
+
+			repository.setSavepoint();
+
+			repository.getTransactionRepository().save(transactions.get(1));
+
+			repository.rollbackToSavepoint();
+
+			repository.executeBatchedUpdates();
+
+			assertTrue(repository.getTransactionRepository().exists(transactions.get(0).getSignature()));
+			assertFalse(repository.getTransactionRepository().exists(transactions.get(1).getSignature()));
+
+			repository.discardChanges();
+		}
+	}
+
+	/** Compares rate of saving blocks' worth of transactions, as done by Synchronizer, individually versus batched. */
+	@Test
+	public void testBlockImportBenchmark() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			List<List<TransactionData>> blocks = new ArrayList<>();
+			for (int i = 0; i < BENCHMARK_BLOCKS; ++i)
+				blocks.add(buildPayments(repository, TRANSACTIONS_PER_BLOCK));
+
+			// Warm up prepared statement cache, JIT, etc.
+			saveIndividually(repository, blocks.subList(0, 2));
+			repository.discardChanges();
+
+			long individualTime = saveIndividually(repository, blocks);
+			repository.discardChanges();
+
+			long batchedTime = saveBatched(repository, blocks);
+			repository.discardChanges();
+
+			System.out.println(String.format("Saving %d blocks of %d transactions: individually %d ms (%.1f blocks/s), batched %d ms (%.1f blocks/s)",
+					BENCHMARK_BLOCKS, TRANSACTIONS_PER_BLOCK,
+					individualTime, BENCHMARK_BLOCKS * 1000.0 / Math.max(individualTime, 1L),
+					batchedTime, BENCHMARK_BLOCKS * 1000.0 / Math.max(batchedTime, 1L)));
+		}
+	}
+
+	private static long saveIndividually(Repository repository, List<List<TransactionData>> blocks) throws DataException {
+		long before = System.currentTimeMillis();
+
+		for (List<TransactionData> transactions : blocks)
+			for (TransactionData transactionData : transactions)
+				repository.getTransactionRepository().save(transactionData);
+
+		return System.currentTimeMillis() - before;
+	}
+
+	private static long saveBatched(Repository repository, List<List<TransactionData>> blocks) throws DataException {
+		long before = System.currentTimeMillis();
+
+		for (List<TransactionData> transactions : blocks)
+			repository.getTransactionRepository().save(transactions);
+
+		return System.currentTimeMillis() - before;
+	}
+
+	private static List<TransactionData> buildPayments(Repository repository, int count) throws DataException {
+		TestAccount alice = Common.getTestAccount(repository, "alice");
+		TestAccount bob = Common.getTestAccount(repository, "bob");
+
+		List<TransactionData> transactions = new ArrayList<>();
+		for (int i = 0; i < count; ++i) {
+			TransactionData transactionData = new PaymentTransactionData(TestTransaction.generateBase(alice), bob.getAddress(), 1000L + i);
+
+			// Unsigned, but we only need unique signatures for saving
+			byte[] signature = new byte[Transformer.SIGNATURE_LENGTH];
+			RANDOM.nextBytes(signature);
+			transactionData.setSignature(signature);
+
+			transactions.add(transactionData);
+		}
+
+		return transactions;
+	}
+
+}
@@ -504,6 +504,9 @@ public class BlockArchiveV1Tests extends Common {
 		} catch (IOException e) {
 
 		}
+
+		// Stop reader serving blocks from its mappings of deleted files
+		BlockArchiveReader.getInstance().invalidateFileListCache();
 	}
 
 }
@@ -4,6 +4,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.controller.BlockMinter;
@@ -25,10 +26,14 @@ import org.qortal.utils.NTP;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -468,6 +473,148 @@ public class BlockArchiveV2Tests extends Common {
 	}
 
 
+	@Test
+	public void testReaderAcrossFiles() throws DataException, InterruptedException, TransformationException, IOException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			this.buildArchiveFiles(repository);
+
+			BlockArchiveReader reader = BlockArchiveReader.getInstance();
+			assertEquals(900, reader.getHeightOfLastArchivedBlock());
+
+			// Check boundaries of both files, and heights outside the archive
+			for (int height : new int[] { 2, 450, 451, 900 }) {
+				BlockData archivedBlockData = reader.fetchBlockAtHeight(height).getBlockData();
+				BlockData repositoryBlockData = repository.getBlockRepository().fromHeight(height);
+				assertEquals(height, (int) archivedBlockData.getHeight());
+				assertArrayEquals(repositoryBlockData.getSignature(), archivedBlockData.getSignature());
+
+				// Slice of mapped file should match copied bytes
+				ByteBuffer blockBuffer = reader.fetchBlockBufferForHeight(height);
+				assertTrue(blockBuffer.isReadOnly());
+				byte[] blockBytes = reader.fetchSerializedBlockBytesForHeight(height).getA();
+				assertEquals(ByteBuffer.wrap(blockBytes), blockBuffer);
+			}
+
+			assertNull(reader.fetchBlockAtHeight(1));
+			assertNull(reader.fetchBlockAtHeight(901));
+			assertNull(reader.fetchBlockBufferForHeight(901));
+		}
+	}
+
+	/** Tests reading archived blocks in random order, as done when serving peers, across both files. */
+	@Test
+	public void testReaderRandomOrder() throws DataException, InterruptedException, TransformationException, IOException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			this.buildArchiveFiles(repository);
+
+			BlockArchiveReader reader = BlockArchiveReader.getInstance();
+
+			List<Integer> heights = new ArrayList<>();
+			for (int height = 2; height <= 900; ++height)
+				heights.add(height);
+
+			Collections.shuffle(heights, new Random(1L));
+
+			for (int height : heights) {
+				BlockData archivedBlockData = reader.fetchBlockAtHeight(height).getBlockData();
+				assertEquals(height, (int) archivedBlockData.getHeight());
+
+				BlockData repositoryBlockData = repository.getBlockRepository().fromHeight(height);
+				assertArrayEquals(repositoryBlockData.getSignature(), archivedBlockData.getSignature());
+
+				byte[] blockBytes = reader.fetchSerializedBlockBytesForHeight(height).getA();
+				assertEquals(ByteBuffer.wrap(blockBytes), reader.fetchBlockBufferForHeight(height));
+			}
+		}
+	}
+
+	/** Compares rate of reading blocks from archive, sequentially versus in random order, as done when serving peers. */
+	@Ignore(value = "Benchmark, so only run manually")
+	@Test
+	public void testReaderBenchmark() throws DataException, InterruptedException, TransformationException, IOException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			this.buildArchiveFiles(repository);
+
+			BlockArchiveReader reader = BlockArchiveReader.getInstance();
+
+			List<Integer> sequentialHeights = new ArrayList<>();
+			for (int height = 2; height <= 900; ++height)
+				sequentialHeights.add(height);
+
+			List<Integer> randomHeights = new ArrayList<>(sequentialHeights);
+			Collections.shuffle(randomHeights, new Random(1L));
+
+			// Warm up mappings, JIT, etc.
+			readBlocks(reader, sequentialHeights);
+
+			long sequentialTime = readBlocks(reader, sequentialHeights);
+			long randomTime = readBlocks(reader, randomHeights);
+
+			final int blockCount = sequentialHeights.size();
+			System.out.println(String.format("Reading %d archived blocks: sequentially %d ms (%.1f blocks/s), randomly %d ms (%.1f blocks/s)",
+					blockCount,
+					sequentialTime, blockCount * 1000.0 / Math.max(sequentialTime, 1L),
+					randomTime, blockCount * 1000.0 / Math.max(randomTime, 1L)));
+		}
+	}
+
+	private static long readBlocks(BlockArchiveReader reader, List<Integer> heights) {
+		long before = System.currentTimeMillis();
+
+		for (int height : heights) {
+			assertNotNull(reader.fetchSerializedBlockBytesForHeight(height));
+			assertNotNull(reader.fetchBlockAtHeight(height));
+		}
+
+		return System.currentTimeMillis() - before;
+	}
+
+	/** Tests that stopped reader doesn't read archive files, e.g. while they're deleted, until started again. */
+	@Test
+	public void testReaderStopped() throws DataException, InterruptedException, TransformationException, IOException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			this.buildArchiveFiles(repository);
+
+			BlockArchiveReader reader = BlockArchiveReader.getInstance();
+			assertNotNull(reader.fetchBlockAtHeight(2));
+
+			reader.stop();
+			try {
+				assertNull(reader.fetchBlockAtHeight(2));
+				assertNull(reader.fetchSerializedBlockBytesForHeight(2));
+				assertEquals(0, reader.getHeightOfLastArchivedBlock());
+			} finally {
+				reader.start();
+			}
+
+			assertNotNull(reader.fetchBlockAtHeight(2));
+			assertEquals(900, reader.getHeightOfLastArchivedBlock());
+		}
+	}
+
+	/** Mints 1000 blocks and archives blocks 2-900, split across two files. */
+	private void buildArchiveFiles(Repository repository) throws DataException, InterruptedException, TransformationException, IOException {
+		for (int i = 0; i < 1000; i++) {
+			BlockMinter.mintTestingBlock(repository, Common.getTestAccount(repository, "alice-reward-share"));
+		}
+
+		// 900 blocks are trimmed (this specifies the first untrimmed height)
+		repository.getBlockRepository().setOnlineAccountsSignaturesTrimHeight(901);
+		repository.getATRepository().setAtTrimHeight(901);
+
+		// Write blocks 2-450 to the first file
+		BlockArchiveWriter writer = new BlockArchiveWriter(0, 450, repository);
+		writer.setShouldEnforceFileSizeTarget(false); // To avoid the need to pre-calculate file sizes
+		assertEquals(BlockArchiveWriter.BlockArchiveWriteResult.OK, writer.write());
+		assertEquals(450 - 1, writer.getWrittenCount());
+
+		// Write blocks 451-900 to the second file
+		writer = new BlockArchiveWriter(451, 900, repository);
+		writer.setShouldEnforceFileSizeTarget(false);
+		assertEquals(BlockArchiveWriter.BlockArchiveWriteResult.OK, writer.write());
+		assertEquals(900 - 450, writer.getWrittenCount());
+	}
+
 	/**
 	 * Many nodes are missing an ATStatesHeightIndex due to an earlier bug
 	 * In these cases we disable archiving and pruning as this index is a
@@ -499,6 +646,9 @@ public class BlockArchiveV2Tests extends Common {
 		} catch (IOException e) {
 
 		}
+
+		// Stop reader serving blocks from its mappings of deleted files
+		BlockArchiveReader.getInstance().invalidateFileListCache();
 	}
 
 }
@@ -0,0 +1,124 @@
+package org.qortal.test;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.controller.BlockMinter;
+import org.qortal.data.block.BlockData;
+import org.qortal.repository.*;
+import org.qortal.settings.Settings;
+import org.qortal.test.common.Common;
+import org.qortal.transform.TransformationException;
+import org.qortal.transform.block.BlockTransformation;
+import org.qortal.utils.NTP;
+import org.qortal.utils.Triple;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class BlockArchiveV3Tests extends Common {
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useSettings("test-settings-v2-block-archive.json");
+		NTP.setFixedOffset(Settings.getInstance().getTestNtpOffset());
+		this.deleteArchiveDirectories();
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		this.deleteArchiveDirectories();
+	}
+
+	@Test
+	public void testWriterAndReader() throws DataException, InterruptedException, TransformationException, IOException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			this.mintAndTrim(repository);
+
+			// Write blocks 2-900 to a compressed archive
+			Path archivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive");
+			BlockArchiveWriter writer = new BlockArchiveWriter(0, 900, 3, archivePath, repository);
+			writer.setShouldEnforceFileSizeTarget(false); // To avoid the need to pre-calculate file sizes
+			assertEquals(BlockArchiveWriter.BlockArchiveWriteResult.OK, writer.write());
+			assertEquals(900 - 1, writer.getWrittenCount());
+
+			BlockArchiveReader reader = BlockArchiveReader.getInstance();
+			assertEquals(3, (int) reader.fetchSerializationVersionForHeight(2));
+
+			// Check first and last blocks of frames, in random-ish order
+			final int blocksPerFrame = BlockArchiveWriter.BLOCKS_PER_FRAME_V3;
+			int[] heights = { 900, 2, 2 + blocksPerFrame, 1 + blocksPerFrame, 2 + 5 * blocksPerFrame, 899 };
+			for (int height : heights) {
+				BlockTransformation blockInfo = reader.fetchBlockAtHeight(height);
+				assertNotNull(blockInfo);
+
+				BlockData archivedBlockData = blockInfo.getBlockData();
+				BlockData repositoryBlockData = repository.getBlockRepository().fromHeight(height);
+				assertEquals(height, (int) archivedBlockData.getHeight());
+				assertArrayEquals(repositoryBlockData.getSignature(), archivedBlockData.getSignature());
+
+				// Compressed archives contain V2 serialized blocks
+				Triple<byte[], Integer, Integer> serializedBlock = reader.fetchSerializedBlockBytesForHeight(height);
+				assertEquals(2, (int) serializedBlock.getB());
+			}
+
+			assertNull(reader.fetchBlockAtHeight(901));
+		}
+	}
+
+	@Test
+	public void testCompression() throws DataException, InterruptedException, TransformationException, IOException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			this.mintAndTrim(repository);
+
+			Path v2ArchivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive-v2");
+			BlockArchiveWriter v2Writer = new BlockArchiveWriter(0, 900, 2, v2ArchivePath, repository);
+			v2Writer.setShouldEnforceFileSizeTarget(false);
+			assertEquals(BlockArchiveWriter.BlockArchiveWriteResult.OK, v2Writer.write());
+
+			Path v3ArchivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive");
+			BlockArchiveWriter v3Writer = new BlockArchiveWriter(0, 900, 3, v3ArchivePath, repository);
+			v3Writer.setShouldEnforceFileSizeTarget(false);
+			assertEquals(BlockArchiveWriter.BlockArchiveWriteResult.OK, v3Writer.write());
+
+			long v2Size = Files.size(v2Writer.getOutputPath());
+			long v3Size = Files.size(v3Writer.getOutputPath());
+			System.out.println(String.format("Archive of %d blocks: V2 %d bytes, V3 %d bytes (%.1f%%)",
+					v3Writer.getWrittenCount(), v2Size, v3Size, v3Size * 100.0 / v2Size));
+
+			assertTrue(v3Size < v2Size);
+		}
+	}
+
+	private void mintAndTrim(Repository repository) throws DataException {
+		// Mint some blocks so that we are able to archive them later
+		for (int i = 0; i < 1000; i++) {
+			BlockMinter.mintTestingBlock(repository, Common.getTestAccount(repository, "alice-reward-share"));
+		}
+
+		// 900 blocks are trimmed (this specifies the first untrimmed height)
+		repository.getBlockRepository().setOnlineAccountsSignaturesTrimHeight(901);
+		repository.getATRepository().setAtTrimHeight(901);
+	}
+
+	private void deleteArchiveDirectories() {
+		// Delete archive directories if exist
+		for (String archiveDirectory : new String[] { "archive", "archive-v2" }) {
+			Path archivePath = Paths.get(Settings.getInstance().getRepositoryPath(), archiveDirectory).toAbsolutePath();
+			try {
+				FileUtils.deleteDirectory(archivePath.toFile());
+			} catch (IOException e) {
+
+			}
+		}
+
+		// Stop reader serving blocks from its mappings of deleted files
+		BlockArchiveReader.getInstance().invalidateFileListCache();
+	}
+
+}
@@ -0,0 +1,151 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.qortal.controller.BlockMessageCache;
+import org.qortal.network.message.CachedBlockV2Message;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.MessageType;
+import org.qortal.transform.block.BlockTransformer;
+
+public class BlockMessageCacheTests {
+
+	private static final Random RANDOM = new Random();
+
+	@Test
+	public void testCachedMessageIsCloned() {
+		BlockMessageCache blockMessageCache = new BlockMessageCache(1024 * 1024);
+
+		byte[] signature = randomSignature();
+		Message blockMessage = new CachedBlockV2Message(randomBytes(1000));
+
+		blockMessageCache.put(MessageType.BLOCK_V2, signature, blockMessage);
+
+		Message cachedMessage = blockMessageCache.get(MessageType.BLOCK_V2, signature, 1234);
+		assertNotNull(cachedMessage);
+		assertNotSame(blockMessage, cachedMessage);
+		assertEquals(1234, cachedMessage.getId());
+		assertEquals(-1, blockMessage.getId());
+
+		// Older peers ask for different message type
+		assertNull(blockMessageCache.get(MessageType.BLOCK, signature, 1234));
+
+		BlockMessageCache.Stats stats = blockMessageCache.getStats();
+		assertEquals(1, stats.hits);
+		assertEquals(1, stats.misses);
+		assertEquals(1, stats.entries);
+	}
+
+	@Test
+	public void testByteBudget() {
+		final int messageCount = 10;
+		final int maxBytes = 5000;
+		BlockMessageCache blockMessageCache = new BlockMessageCache(maxBytes);
+
+		List<byte[]> signatures = new ArrayList<>();
+		for (int i = 0; i < messageCount; ++i) {
+			byte[] signature = randomSignature();
+			signatures.add(signature);
+
+			blockMessageCache.put(MessageType.BLOCK_V2, signature, new CachedBlockV2Message(randomBytes(1000)));
+		}
+
+		BlockMessageCache.Stats stats = blockMessageCache.getStats();
+		assertTrue("Cache over budget", stats.bytes <= maxBytes);
+		assertTrue("Nothing evicted", stats.evictions > 0);
+		assertEquals(messageCount - stats.evictions, stats.entries);
+
+		// Oldest evicted first
+		assertNull(blockMessageCache.get(MessageType.BLOCK_V2, signatures.get(0), 1));
+		assertNotNull(blockMessageCache.get(MessageType.BLOCK_V2, signatures.get(messageCount - 1), 1));
+
+		// Message larger than whole budget isn't cached
+		byte[] signature = randomSignature();
+		blockMessageCache.put(MessageType.BLOCK_V2, signature, new CachedBlockV2Message(randomBytes(maxBytes)));
+		assertNull(blockMessageCache.get(MessageType.BLOCK_V2, signature, 1));
+		assertEquals(1, blockMessageCache.getStats().oversized);
+	}
+
+	@Test
+	public void testSingleBuildForConcurrentRequests() throws Exception {
+		final int peerCount = 20;
+		BlockMessageCache blockMessageCache = new BlockMessageCache(1024 * 1024);
+
+		byte[] signature = randomSignature();
+		byte[] blockBytes = randomBytes(1000);
+
+		AtomicInteger buildCount = new AtomicInteger();
+		CountDownLatch startLatch = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(peerCount);
+		try {
+			List<Future<Message>> futures = new ArrayList<>();
+
+			for (int i = 0; i < peerCount; ++i) {
+				final int id = i + 1;
+
+				futures.add(executor.submit(() -> {
+					startLatch.await();
+
+					return blockMessageCache.getOrBuild(MessageType.BLOCK_V2, signature, id, () -> {
+						buildCount.incrementAndGet();
+
+						// Simulate slow serialization
+						try {
+							Thread.sleep(100);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+
+						return new CachedBlockV2Message(blockBytes);
+					});
+				}));
+			}
+
+			startLatch.countDown();
+
+			for (int i = 0; i < peerCount; ++i) {
+				Message blockMessage = futures.get(i).get(10, TimeUnit.SECONDS);
+				assertNotNull(blockMessage);
+				assertEquals(i + 1, blockMessage.getId());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, buildCount.get());
+		assertEquals(1, blockMessageCache.getStats().builds);
+	}
+
+	@Test
+	public void testNullBuildNotCached() throws Exception {
+		BlockMessageCache blockMessageCache = new BlockMessageCache(1024 * 1024);
+
+		byte[] signature = randomSignature();
+
+		assertNull(blockMessageCache.getOrBuild(MessageType.BLOCK_V2, signature, 1, () -> null));
+		assertEquals(0, blockMessageCache.getStats().entries);
+	}
+
+	private static byte[] randomSignature() {
+		return randomBytes(BlockTransformer.BLOCK_SIGNATURE_LENGTH);
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		RANDOM.nextBytes(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.qortal.controller.BlockReplyCache;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.MessageType;
+import org.qortal.network.message.SignaturesMessage;
+import org.qortal.transform.block.BlockTransformer;
+
+public class BlockReplyCacheTests {
+
+	private static final Random RANDOM = new Random();
+
+	@Test
+	public void testCachedReplyIsCloned() {
+		BlockReplyCache blockReplyCache = new BlockReplyCache(10);
+
+		byte[] parentSignature = randomSignature();
+		Message reply = new SignaturesMessage(randomSignatures(5));
+
+		blockReplyCache.put(blockReplyCache.getGeneration(), parentSignature, 5, 105, reply);
+
+		Message cachedReply = blockReplyCache.get(MessageType.SIGNATURES, parentSignature, 5, 1234);
+		assertNotNull(cachedReply);
+		assertNotSame(reply, cachedReply);
+		assertEquals(1234, cachedReply.getId());
+		assertEquals(-1, reply.getId());
+
+		// Different number requested or reply type shouldn't match
+		assertNull(blockReplyCache.get(MessageType.SIGNATURES, parentSignature, 6, 1234));
+		assertNull(blockReplyCache.get(MessageType.BLOCK_SUMMARIES_V2, parentSignature, 5, 1234));
+	}
+
+	@Test
+	public void testInvalidateFrom() {
+		BlockReplyCache blockReplyCache = new BlockReplyCache(10);
+
+		byte[] earlierParentSignature = randomSignature();
+		byte[] laterParentSignature = randomSignature();
+
+		long generation = blockReplyCache.getGeneration();
+		blockReplyCache.put(generation, earlierParentSignature, 5, 105, new SignaturesMessage(randomSignatures(5)));
+		blockReplyCache.put(generation, laterParentSignature, 5, 110, new SignaturesMessage(randomSignatures(5)));
+
+		// Orphaning block 110 only invalidates reply covering it
+		blockReplyCache.invalidateFrom(110);
+
+		assertNotNull(blockReplyCache.get(MessageType.SIGNATURES, earlierParentSignature, 5, 1));
+		assertNull(blockReplyCache.get(MessageType.SIGNATURES, laterParentSignature, 5, 1));
+	}
+
+	@Test
+	public void testStaleGenerationNotCached() {
+		BlockReplyCache blockReplyCache = new BlockReplyCache(10);
+
+		byte[] parentSignature = randomSignature();
+
+		long generation = blockReplyCache.getGeneration();
+
+		// Blocks orphaned while reply was being built
+		blockReplyCache.invalidateFrom(200);
+
+		blockReplyCache.put(generation, parentSignature, 5, 105, new SignaturesMessage(randomSignatures(5)));
+		assertNull(blockReplyCache.get(MessageType.SIGNATURES, parentSignature, 5, 1));
+	}
+
+	@Test
+	public void testEviction() {
+		final int maxReplies = 3;
+		BlockReplyCache blockReplyCache = new BlockReplyCache(maxReplies);
+
+		List<byte[]> parentSignatures = new ArrayList<>();
+		for (int i = 0; i <= maxReplies; ++i) {
+			byte[] parentSignature = randomSignature();
+			parentSignatures.add(parentSignature);
+
+			blockReplyCache.put(blockReplyCache.getGeneration(), parentSignature, 5, 100 + i, new SignaturesMessage(randomSignatures(5)));
+		}
+
+		assertEquals(maxReplies, blockReplyCache.size());
+
+		// Eldest reply should have been evicted
+		assertNull(blockReplyCache.get(MessageType.SIGNATURES, parentSignatures.get(0), 5, 1));
+		assertNotNull(blockReplyCache.get(MessageType.SIGNATURES, parentSignatures.get(maxReplies), 5, 1));
+	}
+
+	@Test
+	public void testDisabled() {
+		BlockReplyCache blockReplyCache = new BlockReplyCache(0);
+
+		byte[] parentSignature = randomSignature();
+		blockReplyCache.put(blockReplyCache.getGeneration(), parentSignature, 5, 105, new SignaturesMessage(randomSignatures(5)));
+
+		assertEquals(0, blockReplyCache.size());
+	}
+
+	private static byte[] randomSignature() {
+		byte[] signature = new byte[BlockTransformer.BLOCK_SIGNATURE_LENGTH];
+		RANDOM.nextBytes(signature);
+		return signature;
+	}
+
+	private static List<byte[]> randomSignatures(int count) {
+		List<byte[]> signatures = new ArrayList<>();
+		for (int i = 0; i < count; ++i)
+			signatures.add(randomSignature());
+
+		return signatures;
+	}
+
+}
@@ -12,6 +12,7 @@ import org.junit.Test;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.block.Block;
 import org.qortal.block.GenesisBlock;
+import org.qortal.controller.OnlineAccountsManager;
 import org.qortal.data.at.ATStateData;
 import org.qortal.data.block.BlockData;
 import org.qortal.data.transaction.TransactionData;
@@ -243,6 +244,53 @@ public class BlockTests extends Common {
 		}
 	}
 
+	@Test
+	public void testPreValidation() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			Block block = mintUnprocessedBlock(repository);
+
+			// Pre-validate using separate repository session, as synchronizer would
+			try (final Repository preValidationRepository = RepositoryManager.getRepository()) {
+				block.preValidate(preValidationRepository);
+			}
+
+			assertTrue(block.isSignatureValid());
+			assertEquals(Block.ValidationResult.OK, block.isValid());
+		}
+	}
+
+	@Test
+	public void testPreValidationWithInvalidSignature() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			Block block = mintUnprocessedBlock(repository);
+
+			// Corrupt minter signature
+			byte[] minterSignature = block.getBlockData().getMinterSignature().clone();
+			minterSignature[0] ^= 0x01;
+			block.getBlockData().setMinterSignature(minterSignature);
+
+			try (final Repository preValidationRepository = RepositoryManager.getRepository()) {
+				block.preValidate(preValidationRepository);
+			}
+
+			// Failed checks must not be remembered as passed
+			assertFalse(block.isSignatureValid());
+		}
+	}
+
+	private Block mintUnprocessedBlock(Repository repository) throws DataException {
+		PrivateKeyAccount mintingAccount = Common.getTestAccount(repository, "alice-reward-share");
+		OnlineAccountsManager.getInstance().ensureTestingAccountsOnline(mintingAccount);
+
+		BlockData parentBlockData = repository.getBlockRepository().getLastBlock();
+		Block block = Block.mint(repository, parentBlockData, mintingAccount);
+		assertNotNull(block);
+
+		block.sign();
+
+		return block;
+	}
+
 	private Deque<BlockData> buildLatestBlockCache(Repository repository, int count) throws DataException {
 		Deque<BlockData> latestBlockCache = new LinkedList<>();
 
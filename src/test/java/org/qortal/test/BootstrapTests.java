@@ -1,6 +1,9 @@
 package org.qortal.test;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -26,6 +29,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -140,6 +144,108 @@ public class BootstrapTests extends Common {
     }
 
 
+    @Test
+    public void testCreateAndImportSegmentedBootstrap() throws DataException, InterruptedException, TransformationException, IOException, IllegalAccessException {
+        FieldUtils.writeField(Settings.getInstance(), "segmentedBootstrapEnabled", true, true);
+
+        Path archivePath = Paths.get(Settings.getInstance().getRepositoryPath(), "archive", "2-900.dat");
+        BlockData block1010;
+        URL baseUrl;
+
+        try (final Repository repository = RepositoryManager.getRepository()) {
+            this.buildDummyBlockchain(repository);
+
+            Bootstrap bootstrap = new Bootstrap(repository);
+            Path outputDirectory = bootstrap.getBootstrapOutputPath().getParent();
+            baseUrl = outputDirectory.toUri().toURL();
+
+            // First segment is the base
+            Path manifestPath = Paths.get(bootstrap.create());
+            assertTrue(Files.exists(manifestPath));
+
+            // Mint some more blocks, then create a delta segment
+            for (int i = 0; i < 10; i++)
+                BlockMinter.mintTestingBlock(repository, Common.getTestAccount(repository, "alice-reward-share"));
+
+            bootstrap.create();
+
+            JSONArray segments = new JSONObject(Files.readString(manifestPath)).getJSONArray("segments");
+            assertEquals(2, segments.length());
+            assertEquals(BootstrapSegments.SegmentType.BASE.name(), segments.getJSONObject(0).getString("type"));
+            assertEquals(BootstrapSegments.SegmentType.DELTA.name(), segments.getJSONObject(1).getString("type"));
+
+            // Delta should only contain changed chunks
+            assertTrue(segments.getJSONObject(1).getLong("size") < segments.getJSONObject(0).getLong("size"));
+
+            block1010 = repository.getBlockRepository().fromHeight(1010);
+            assertNotNull(block1010);
+
+            // Now delete block 1010, and the archive
+            repository.getBlockRepository().delete(block1010);
+            repository.saveChanges();
+            Files.delete(archivePath);
+
+            // Import the bootstrap back in
+            JSONObject manifest = new BootstrapSegments(bootstrap.getBootstrapName()).fetchManifest(baseUrl);
+            assertNotNull(manifest);
+
+            Path tempDir = Files.createTempDirectory("bootstrap-segments");
+            try {
+                bootstrap.importFromSegments(baseUrl, manifest, tempDir);
+            } finally {
+                FileUtils.deleteDirectory(tempDir.toFile());
+            }
+        }
+
+        // We need a new connection because we have switched to a new repository
+        try (final Repository repository = RepositoryManager.getRepository()) {
+            assertTrue(Files.exists(archivePath));
+
+            // Make sure that block 1010, from the delta segment, exists again
+            BlockData newBlock1010 = repository.getBlockRepository().fromHeight(1010);
+            assertNotNull(newBlock1010);
+            assertArrayEquals(block1010.getSignature(), newBlock1010.getSignature());
+
+            // Ensure we can retrieve block 10 from the archive
+            assertNotNull(repository.getBlockArchiveRepository().fromHeight(10));
+        }
+    }
+
+    @Test
+    public void testSegmentShrinksFileWithoutChangedChunks() throws DataException, InterruptedException, IOException {
+        Path sourcePath = Files.createTempDirectory("bootstrap-source");
+        Path outputDirectory = Files.createTempDirectory("bootstrap-output");
+        Path tempDir = Files.createTempDirectory("bootstrap-temp");
+
+        try {
+            byte[] data = new byte[3 * BootstrapSegments.CHUNK_SIZE];
+            new Random().nextBytes(data);
+            Path dataFilePath = sourcePath.resolve("test.data");
+            Files.write(dataFilePath, data);
+
+            BootstrapSegments bootstrapSegments = new BootstrapSegments("test-bootstrap");
+            bootstrapSegments.createSegment(outputDirectory, sourcePath, null, 10);
+
+            // Drop the last chunk, leaving the remaining chunks unchanged
+            byte[] shrunkData = Arrays.copyOf(data, 2 * BootstrapSegments.CHUNK_SIZE);
+            Files.write(dataFilePath, shrunkData);
+            bootstrapSegments.createSegment(outputDirectory, sourcePath, null, 10);
+
+            URL baseUrl = outputDirectory.toUri().toURL();
+            JSONObject manifest = bootstrapSegments.fetchManifest(baseUrl);
+            assertEquals(2, manifest.getJSONArray("segments").length());
+
+            Path importPath = tempDir.resolve("db");
+            bootstrapSegments.importSegments(baseUrl, manifest, importPath, tempDir, 2);
+
+            assertArrayEquals(shrunkData, Files.readAllBytes(importPath.resolve("test.data")));
+        } finally {
+            FileUtils.deleteDirectory(sourcePath.toFile());
+            FileUtils.deleteDirectory(outputDirectory.toFile());
+            FileUtils.deleteDirectory(tempDir.toFile());
+        }
+    }
+
     private void buildDummyBlockchain(Repository repository) throws DataException, InterruptedException, TransformationException, IOException {
         // Alice self share online
         List<PrivateKeyAccount> mintingAndOnlineAccounts = new ArrayList<>();
@@ -241,6 +347,10 @@ public class BootstrapTests extends Common {
     }
 
     private void deleteBootstraps() throws IOException {
+        Path outputDirectory = Paths.get(Settings.getInstance().getRepositoryPath()).toAbsolutePath().getParent();
+        new BootstrapSegments(String.format("%s%s", Settings.getInstance().getBootstrapFilenamePrefix(), "bootstrap-archive"))
+                .deleteAll(outputDirectory);
+
         try {
             Path archivePath = Paths.get(String.format("%s%s", Settings.getInstance().getBootstrapFilenamePrefix(), "bootstrap-archive.7z"));
             Files.delete(archivePath);
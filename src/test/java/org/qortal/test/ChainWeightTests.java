@@ -12,6 +12,8 @@ import java.util.Random;
 import org.qortal.account.Account;
 import org.qortal.block.Block;
 import org.qortal.block.BlockChain;
+import org.qortal.block.ChainWeightCalculator;
+import org.qortal.block.CompactBlockSummaries;
 import org.qortal.data.block.BlockSummaryData;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
@@ -273,6 +275,66 @@ public class ChainWeightTests extends Common {
 		testMinterLevels("alice-reward-share", "dilbert-reward-share");
 	}
 
+	// Check compact calculator agrees with Block.calcChainWeight()
+	@Test
+	public void testCompactChainWeight() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			ChainWeightCalculator chainWeightCalculator = new ChainWeightCalculator();
+
+			for (int attempt = 0; attempt < 20; ++attempt) {
+				final int commonBlockHeight = 1 + RANDOM.nextInt(10000);
+				BlockSummaryData commonBlockSummary = genBlockSummary(repository, commonBlockHeight);
+
+				List<BlockSummaryData> blockSummaries = genBlockSummaries(repository, 1 + RANDOM.nextInt(200), commonBlockSummary);
+				blockSummaries.remove(0);
+				populateBlockSummariesMinterLevels(repository, blockSummaries);
+
+				CompactBlockSummaries compactBlockSummaries = CompactBlockSummaries.fromBlockSummaries(blockSummaries);
+				final int maxHeight = commonBlockHeight + 1 + RANDOM.nextInt(blockSummaries.size());
+
+				BigInteger expectedChainWeight = Block.calcChainWeight(commonBlockHeight, commonBlockSummary.getSignature(), blockSummaries, maxHeight);
+				BigInteger actualChainWeight = chainWeightCalculator.calcChainWeight(commonBlockHeight, commonBlockSummary.getSignature(), compactBlockSummaries, maxHeight);
+
+				assertEquals(expectedChainWeight, actualChainWeight);
+			}
+		}
+	}
+
+	@Test
+	public void benchmarkChainWeight() throws DataException {
+		final int summaryCount = 500;
+		final int iterations = 2000;
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			BlockSummaryData commonBlockSummary = genBlockSummary(repository, 1);
+			List<BlockSummaryData> blockSummaries = genBlockSummaries(repository, summaryCount, commonBlockSummary);
+			blockSummaries.remove(0);
+			populateBlockSummariesMinterLevels(repository, blockSummaries);
+
+			final int maxHeight = 1 + summaryCount;
+			ChainWeightCalculator chainWeightCalculator = new ChainWeightCalculator();
+
+			// Warm up
+			for (int i = 0; i < iterations / 10; ++i) {
+				Block.calcChainWeight(1, commonBlockSummary.getSignature(), blockSummaries, maxHeight);
+				chainWeightCalculator.calcChainWeight(1, commonBlockSummary.getSignature(), CompactBlockSummaries.fromBlockSummaries(blockSummaries), maxHeight);
+			}
+
+			long before = System.nanoTime();
+			for (int i = 0; i < iterations; ++i)
+				Block.calcChainWeight(1, commonBlockSummary.getSignature(), blockSummaries, maxHeight);
+			long bigIntegerNanos = System.nanoTime() - before;
+
+			before = System.nanoTime();
+			for (int i = 0; i < iterations; ++i)
+				chainWeightCalculator.calcChainWeight(1, commonBlockSummary.getSignature(), CompactBlockSummaries.fromBlockSummaries(blockSummaries), maxHeight);
+			long compactNanos = System.nanoTime() - before;
+
+			System.out.println(String.format("Chain weight of %d summaries: BigInteger %d µs, compact %d µs (including conversion)",
+					summaryCount, bigIntegerNanos / iterations / 1000, compactNanos / iterations / 1000));
+		}
+	}
+
 	private void populateBlockSummariesMinterLevels(Repository repository, List<BlockSummaryData> blockSummaries) throws DataException {
 		for (int i = 0; i < blockSummaries.size(); ++i) {
 			BlockSummaryData blockSummary = blockSummaries.get(i);
@@ -0,0 +1,79 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.hsqldb.jdbc.HSQLDBPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.repository.ConnectionPoolStats;
+
+public class ConnectionPoolTests {
+
+	private static final String CONNECTION_URL = "jdbc:hsqldb:mem:connectionPoolTests";
+
+	private HSQLDBPool pool;
+
+	@Before
+	public void beforeTest() {
+		// Fixed leak threshold so we can check leak suspects
+		this.pool = new HSQLDBPool("test", 1, 2, 1L);
+		this.pool.setUrl(CONNECTION_URL);
+	}
+
+	@After
+	public void afterTest() throws SQLException {
+		this.pool.close(0);
+	}
+
+	/** Tests that connection holders are tracked, and released on close. */
+	@Test
+	public void testHolders() throws SQLException, InterruptedException {
+		try (Connection connection = this.pool.getConnection()) {
+			Thread.sleep(5L);
+
+			ConnectionPoolStats stats = this.pool.getStats();
+			assertEquals(1, stats.inUse);
+			assertEquals(1, stats.holders.size());
+			assertEquals(Thread.currentThread().getName(), stats.holders.get(0).threadName);
+			assertTrue(stats.holders.get(0).isLeakSuspect);
+		}
+
+		ConnectionPoolStats stats = this.pool.getStats();
+		assertEquals(0, stats.inUse);
+		assertEquals(1, stats.idle);
+		assertTrue(stats.holders.isEmpty());
+		assertEquals(1, stats.acquisitions);
+		assertTrue(stats.maxHeldMillis >= 5L);
+	}
+
+	/** Tests that pool grows, within bounds, when callers have to wait. */
+	@Test
+	public void testGrowth() throws SQLException {
+		try (Connection connection1 = this.pool.getConnection()) {
+			// Only one connection allowed initially
+			assertNull(this.pool.tryConnection());
+
+			try (Connection connection2 = this.pool.getConnection()) {
+				ConnectionPoolStats stats = this.pool.getStats();
+				assertEquals(2, stats.currentSize);
+				assertEquals(1, stats.growths);
+				assertEquals(2, stats.inUse);
+				assertTrue(stats.maxWaitMillis > 0);
+
+				// Pool is now at maximum size
+				assertNull(this.pool.tryConnection());
+			}
+		}
+
+		ConnectionPoolStats stats = this.pool.getStats();
+		assertEquals(2, stats.tryFailures);
+
+		long histogramCount = stats.waitHistogram.stream().mapToLong(bucket -> bucket.count).sum();
+		assertEquals(stats.acquisitions, histogramCount);
+	}
+
+}
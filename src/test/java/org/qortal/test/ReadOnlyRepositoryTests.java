@@ -0,0 +1,133 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.data.transaction.PaymentTransactionData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+import org.qortal.test.common.Common;
+import org.qortal.test.common.TestAccount;
+import org.qortal.test.common.transaction.TestTransaction;
+import org.qortal.transform.Transformer;
+
+public class ReadOnlyRepositoryTests extends Common {
+
+	private static final Random RANDOM = new Random();
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		Common.orphanCheck();
+	}
+
+	/** Tests that read-only sessions can read, but not write. */
+	@Test
+	public void testReadOnly() throws DataException {
+		TransactionData transactionData;
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			transactionData = buildPayment(repository);
+		}
+
+		try (final Repository repository = RepositoryManager.getReadOnlyRepository()) {
+			assertTrue(repository.getBlockRepository().getBlockchainHeight() > 0);
+
+			try {
+				repository.getTransactionRepository().save(transactionData);
+				fail("Read-only session should not be able to save");
+			} catch (DataException e) {
+				// Expected
+			}
+
+			repository.discardChanges();
+		}
+	}
+
+	/** Tests that read-only sessions see changes committed by other sessions, even mid-transaction. */
+	@Test
+	public void testSeesCommittedChanges() throws DataException {
+		try (final Repository readOnlyRepository = RepositoryManager.getReadOnlyRepository();
+				final Repository repository = RepositoryManager.getRepository()) {
+			TransactionData transactionData = buildPayment(repository);
+
+			assertFalse(readOnlyRepository.getTransactionRepository().exists(transactionData.getSignature()));
+
+			repository.getTransactionRepository().save(transactionData);
+
+			// Uncommitted changes should not be visible
+			assertFalse(readOnlyRepository.getTransactionRepository().exists(transactionData.getSignature()));
+
+			repository.saveChanges();
+
+			assertTrue(readOnlyRepository.getTransactionRepository().exists(transactionData.getSignature()));
+
+			repository.getTransactionRepository().delete(transactionData);
+			repository.saveChanges();
+		}
+	}
+
+	/** Tests that closing read-only sessions makes them available for reuse. */
+	@Test
+	public void testSessionsReleased() throws DataException {
+		int poolSize = Settings.getInstance().getReadOnlyRepositoryConnectionPoolSize();
+
+		for (int i = 0; i < poolSize * 2; ++i)
+			try (final Repository repository = RepositoryManager.getReadOnlyRepository()) {
+				assertTrue(repository.getBlockRepository().getBlockchainHeight() > 0);
+			}
+	}
+
+	/** Tests that read-only sessions are made available for reuse even if closing them fails. */
+	@Test
+	public void testSessionsReleasedOnCloseFailure() throws DataException, IllegalAccessException, SQLException {
+		int poolSize = Settings.getInstance().getReadOnlyRepositoryConnectionPoolSize();
+
+		for (int i = 0; i < poolSize * 2; ++i) {
+			Repository repository = RepositoryManager.getReadOnlyRepository();
+
+			// Break underlying connection so that closing session fails
+			Connection connection = (Connection) FieldUtils.readField(repository, "connection", true);
+			connection.close();
+
+			try {
+				repository.close();
+				fail("Closing session with broken connection should fail");
+			} catch (DataException e) {
+				// Expected
+			}
+		}
+
+		try (final Repository repository = RepositoryManager.getReadOnlyRepository()) {
+			assertTrue(repository.getBlockRepository().getBlockchainHeight() > 0);
+		}
+	}
+
+	private static TransactionData buildPayment(Repository repository) throws DataException {
+		TestAccount alice = Common.getTestAccount(repository, "alice");
+		TestAccount bob = Common.getTestAccount(repository, "bob");
+
+		TransactionData transactionData = new PaymentTransactionData(TestTransaction.generateBase(alice), bob.getAddress(), 1000L);
+
+		// Unsigned, but we only need unique signature for saving
+		byte[] signature = new byte[Transformer.SIGNATURE_LENGTH];
+		RANDOM.nextBytes(signature);
+		transactionData.setSignature(signature);
+
+		return transactionData;
+	}
+
+}
@@ -0,0 +1,215 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.account.PrivateKeyAccount;
+import org.qortal.block.Block;
+import org.qortal.data.block.BlockData;
+import org.qortal.data.transaction.PaymentTransactionData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.RecentBlockCache;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.test.common.BlockUtils;
+import org.qortal.test.common.Common;
+import org.qortal.test.common.TransactionUtils;
+import org.qortal.test.common.transaction.TestTransaction;
+import org.qortal.transaction.Transaction.ApprovalStatus;
+
+public class RecentBlockCacheTests extends Common {
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		Common.orphanCheck();
+	}
+
+	/** Tests that recent blocks are served from cache, as copies. */
+	@Test
+	public void testBlockCached() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			BlockUtils.mintBlock(repository);
+		}
+
+		try (final Repository repository = RepositoryManager.getReadOnlyRepository()) {
+			int height = repository.getBlockRepository().getBlockchainHeight();
+
+			RecentBlockCache recentBlockCache = RepositoryManager.getRecentBlockCache();
+
+			BlockData blockData = repository.getBlockRepository().fromHeight(height);
+			assertNotNull(blockData);
+
+			long hitsBefore = recentBlockCache.getStats().hits;
+
+			BlockData cachedBlockData = repository.getBlockRepository().fromSignature(blockData.getSignature());
+			assertEquals(hitsBefore + 1, recentBlockCache.getStats().hits);
+
+			assertNotSame(blockData, cachedBlockData);
+			assertTrue(Arrays.equals(blockData.getSignature(), cachedBlockData.getSignature()));
+
+			// Modifying returned data, including arrays, must not affect cache
+			cachedBlockData.setHeight(-1);
+			cachedBlockData.getMinterSignature()[0] ^= 0xff;
+
+			BlockData refetchedBlockData = repository.getBlockRepository().fromHeight(height);
+			assertEquals(height, (int) refetchedBlockData.getHeight());
+			assertTrue(Arrays.equals(blockData.getMinterSignature(), refetchedBlockData.getMinterSignature()));
+		}
+	}
+
+	/** Tests that confirmed transactions are served from cache, as copies. */
+	@Test
+	public void testTransactionCached() throws DataException {
+		byte[] signature;
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+
+			TransactionData paymentTransactionData = new PaymentTransactionData(TestTransaction.generateBase(alice), bob.getAddress(), 1234L);
+			TransactionUtils.signAndMint(repository, paymentTransactionData, alice);
+
+			signature = paymentTransactionData.getSignature();
+		}
+
+		try (final Repository repository = RepositoryManager.getReadOnlyRepository()) {
+			TransactionData transactionData = repository.getTransactionRepository().fromSignature(signature);
+			assertNotNull(transactionData.getBlockHeight());
+			ApprovalStatus approvalStatus = transactionData.getApprovalStatus();
+			String recipient = ((PaymentTransactionData) transactionData).getRecipient();
+
+			RecentBlockCache recentBlockCache = RepositoryManager.getRecentBlockCache();
+			long hitsBefore = recentBlockCache.getStats().hits;
+
+			PaymentTransactionData cachedTransactionData = (PaymentTransactionData) repository.getTransactionRepository().fromSignature(signature);
+			assertEquals(hitsBefore + 1, recentBlockCache.getStats().hits);
+
+			assertNotSame(transactionData, cachedTransactionData);
+			assertEquals(recipient, cachedTransactionData.getRecipient());
+			assertEquals(1234L, cachedTransactionData.getAmount());
+
+			// Modifying returned data, including arrays, must not affect cache
+			cachedTransactionData.setApprovalStatus(ApprovalStatus.REJECTED);
+			cachedTransactionData.getSignature()[0] ^= 0xff;
+
+			TransactionData refetchedTransactionData = repository.getTransactionRepository().fromSignature(signature);
+			assertEquals(approvalStatus, refetchedTransactionData.getApprovalStatus());
+			assertTrue(Arrays.equals(signature, refetchedTransactionData.getSignature()));
+		}
+	}
+
+	/** Tests that read-write sessions use entries cached before their repository transaction started. */
+	@Test
+	public void testReadWriteSessionCached() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			BlockUtils.mintBlock(repository);
+		}
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			int height = repository.getBlockRepository().getBlockchainHeight();
+
+			RecentBlockCache recentBlockCache = RepositoryManager.getRecentBlockCache();
+
+			BlockData blockData = repository.getBlockRepository().fromHeight(height);
+			assertNotNull(blockData);
+
+			long hitsBefore = recentBlockCache.getStats().hits;
+
+			assertNotNull(repository.getBlockRepository().fromSignature(blockData.getSignature()));
+			assertEquals(hitsBefore + 1, recentBlockCache.getStats().hits);
+		}
+	}
+
+	/** Tests that read-write sessions don't use entries cached after their repository transaction started, as these might be newer than their snapshot. */
+	@Test
+	public void testReadWriteSessionSnapshot() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			int height = repository.getBlockRepository().getBlockchainHeight();
+
+			// Other session mints a new block, which a read-only session then caches
+			try (final Repository otherRepository = RepositoryManager.getRepository()) {
+				BlockUtils.mintBlock(otherRepository);
+			}
+
+			try (final Repository readOnlyRepository = RepositoryManager.getReadOnlyRepository()) {
+				assertNotNull(readOnlyRepository.getBlockRepository().fromHeight(height + 1));
+			}
+
+			// Our snapshot predates new block, so we mustn't see it
+			assertNull(repository.getBlockRepository().fromHeight(height + 1));
+
+			// New repository transaction, so new block is visible
+			repository.discardChanges();
+			assertNotNull(repository.getBlockRepository().fromHeight(height + 1));
+		}
+	}
+
+	/** Tests that orphaning removes block, and its transactions, from cache. */
+	@Test
+	public void testOrphanInvalidates() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+
+			TransactionData paymentTransactionData = new PaymentTransactionData(TestTransaction.generateBase(alice), bob.getAddress(), 1234L);
+			TransactionUtils.signAndMint(repository, paymentTransactionData, alice);
+
+			int height = repository.getBlockRepository().getBlockchainHeight();
+			byte[] signature = paymentTransactionData.getSignature();
+
+			// Populate cache
+			BlockData blockData;
+			try (final Repository readOnlyRepository = RepositoryManager.getReadOnlyRepository()) {
+				blockData = readOnlyRepository.getBlockRepository().fromHeight(height);
+				assertNotNull(readOnlyRepository.getTransactionRepository().fromSignature(signature).getBlockHeight());
+			}
+
+			BlockUtils.orphanLastBlock(repository);
+
+			try (final Repository readOnlyRepository = RepositoryManager.getReadOnlyRepository()) {
+				assertNull(readOnlyRepository.getBlockRepository().fromHeight(height));
+				assertNull(readOnlyRepository.getBlockRepository().fromSignature(blockData.getSignature()));
+				assertNull(readOnlyRepository.getTransactionRepository().fromSignature(signature).getBlockHeight());
+			}
+		}
+	}
+
+	/** Tests that other sessions don't see, or cache, uncommitted changes. */
+	@Test
+	public void testUncommittedChanges() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			BlockUtils.mintBlock(repository);
+		}
+
+		try (final Repository repository = RepositoryManager.getRepository();
+				final Repository otherRepository = RepositoryManager.getReadOnlyRepository()) {
+			int height = repository.getBlockRepository().getBlockchainHeight();
+
+			BlockData blockData = repository.getBlockRepository().fromHeight(height);
+
+			// Orphan block, but don't commit
+			new Block(repository, blockData).orphan();
+
+			// Our session should see our changes
+			assertNull(repository.getBlockRepository().fromHeight(height));
+
+			// Other session should still see committed block
+			assertNotNull(otherRepository.getBlockRepository().fromHeight(height));
+
+			repository.discardChanges();
+
+			assertNotNull(repository.getBlockRepository().fromHeight(height));
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.block.Block;
+import org.qortal.controller.Controller;
+import org.qortal.controller.repository.RepositoryMaintenanceScheduler;
+import org.qortal.controller.repository.RepositoryMaintenanceScheduler.MaintenanceResult;
+import org.qortal.data.block.BlockData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.settings.Settings;
+import org.qortal.test.common.BlockUtils;
+import org.qortal.test.common.Common;
+
+public class RepositoryMaintenanceSchedulerTests extends Common {
+
+	/** Scheduler is a singleton, so keep moving time forward across tests. */
+	private static long now = System.currentTimeMillis();
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		Common.orphanCheck();
+	}
+
+	/** Tests that checkpoints wait while blocks are being processed, and that the pause is recorded. */
+	@Test
+	public void testPauseWhileBlockchainLocked() throws DataException {
+		RepositoryMaintenanceScheduler scheduler = RepositoryMaintenanceScheduler.getInstance();
+		long checkpointsBefore = scheduler.getStats().checkpoints;
+		long pausesBefore = scheduler.getStats().pauses;
+
+		long checkpointTime = nextCheckpointDueTime();
+
+		ReentrantLock blockchainLock = Controller.getInstance().getBlockchainLock();
+		blockchainLock.lock();
+		try {
+			assertFalse(scheduler.isQuietWindow(checkpointTime));
+			assertEquals(MaintenanceResult.PAUSED, scheduler.maybePerformMaintenance(checkpointTime));
+			assertEquals(MaintenanceResult.PAUSED, scheduler.maybePerformMaintenance(checkpointTime + 1000L));
+		} finally {
+			blockchainLock.unlock();
+		}
+
+		assertEquals(MaintenanceResult.CHECKPOINTED, scheduler.maybePerformMaintenance(checkpointTime + 2500L));
+
+		RepositoryMaintenanceScheduler.Stats stats = scheduler.getStats();
+		assertEquals(checkpointsBefore + 1, stats.checkpoints);
+		assertEquals(pausesBefore + 1, stats.pauses);
+		assertEquals(2500L, stats.lastPauseMillis);
+
+		// Nothing more to do until next interval
+		assertEquals(MaintenanceResult.NOTHING_DUE, scheduler.maybePerformMaintenance(checkpointTime + 3000L));
+		now = checkpointTime + 3000L;
+	}
+
+	/** Tests that checkpoints wait, without blocking, while other sessions are mid-transaction. */
+	@Test
+	public void testPauseWhileTransactionOpen() throws DataException {
+		RepositoryMaintenanceScheduler scheduler = RepositoryMaintenanceScheduler.getInstance();
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			BlockUtils.mintBlock(repository);
+		}
+
+		long checkpointTime = nextCheckpointDueTime();
+
+		try (final Repository repository = RepositoryManager.getRepository();
+				final Repository otherRepository = RepositoryManager.getRepository()) {
+			BlockData blockData = repository.getBlockRepository().getLastBlock();
+
+			// Orphan block, but don't commit
+			new Block(repository, blockData).orphan();
+
+			assertFalse(otherRepository.tryCheckpoint(true));
+			assertEquals(MaintenanceResult.PAUSED, scheduler.maybePerformMaintenance(checkpointTime));
+
+			repository.discardChanges();
+
+			assertTrue(otherRepository.tryCheckpoint(true));
+			otherRepository.discardChanges();
+
+			assertEquals(MaintenanceResult.CHECKPOINTED, scheduler.maybePerformMaintenance(checkpointTime + 1000L));
+		}
+
+		now = checkpointTime + 1000L;
+	}
+
+	/** Tests that requested maintenance doesn't defrag when there is nothing to reclaim. */
+	@Test
+	public void testDefragSkipped() throws DataException {
+		RepositoryMaintenanceScheduler scheduler = RepositoryMaintenanceScheduler.getInstance();
+		long defragsSkippedBefore = scheduler.getStats().defragsSkipped;
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			// In-memory repository has nothing to reclaim
+			assertEquals(0.0, repository.getReclaimableSpaceRatio(), 0.0);
+		}
+
+		scheduler.requestMaintenance();
+		assertTrue(scheduler.getStats().isMaintenanceRequested);
+
+		assertEquals(MaintenanceResult.DEFRAG_SKIPPED, scheduler.maybePerformMaintenance(now));
+
+		RepositoryMaintenanceScheduler.Stats stats = scheduler.getStats();
+		assertEquals(defragsSkippedBefore + 1, stats.defragsSkipped);
+		assertFalse(stats.isMaintenanceRequested);
+	}
+
+	private static long nextCheckpointDueTime() {
+		now += 2 * Settings.getInstance().getRepositoryCheckpointInterval();
+		return now;
+	}
+
+}
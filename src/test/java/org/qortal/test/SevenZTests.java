@@ -0,0 +1,67 @@
+package org.qortal.test;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.utils.SevenZ;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SevenZTests {
+
+	private static final int FILE_COUNT = 8;
+
+	private Path tempDir;
+
+	@Before
+	public void beforeTest() throws IOException {
+		this.tempDir = Files.createTempDirectory("sevenz-tests");
+	}
+
+	@After
+	public void afterTest() throws IOException {
+		FileUtils.deleteDirectory(this.tempDir.toFile());
+	}
+
+	/** Tests that parallel extraction produces the same files as sequential extraction. */
+	@Test
+	public void testParallelDecompress() throws IOException {
+		Random random = new Random(1L);
+
+		Path inputPath = this.tempDir.resolve("input");
+		Files.createDirectories(inputPath.resolve("archive"));
+		for (int i = 0; i < FILE_COUNT; ++i) {
+			// Mix of sizes, including empty and larger than write buffer
+			byte[] data = new byte[i * 1024 * 1024 + random.nextInt(1024)];
+			random.nextBytes(data);
+
+			Path filePath = (i % 2 == 0) ? inputPath.resolve("file" + i) : inputPath.resolve("archive").resolve("file" + i);
+			Files.write(filePath, data);
+		}
+
+		String compressedPath = this.tempDir.resolve("test.7z").toString();
+		SevenZ.compress(compressedPath, inputPath.toFile());
+
+		File sequentialOutput = this.tempDir.resolve("sequential").toFile();
+		SevenZ.decompressSequentially(compressedPath, sequentialOutput);
+
+		File parallelOutput = this.tempDir.resolve("parallel").toFile();
+		SevenZ.decompress(compressedPath, parallelOutput, 4);
+
+		for (int i = 0; i < FILE_COUNT; ++i) {
+			String relativePath = (i % 2 == 0) ? "input/file" + i : "input/archive/file" + i;
+
+			byte[] expected = Files.readAllBytes(inputPath.resolve(relativePath.substring("input/".length())));
+			assertArrayEquals(expected, Files.readAllBytes(sequentialOutput.toPath().resolve(relativePath)));
+			assertArrayEquals(expected, Files.readAllBytes(parallelOutput.toPath().resolve(relativePath)));
+		}
+	}
+
+}
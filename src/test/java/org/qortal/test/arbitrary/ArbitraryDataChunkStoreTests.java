@@ -0,0 +1,100 @@
+package org.qortal.test.arbitrary;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.arbitrary.ArbitraryDataChunkStore;
+import org.qortal.arbitrary.ArbitraryDataFile;
+import org.qortal.arbitrary.ArbitraryDataFileChunk;
+import org.qortal.repository.DataException;
+import org.qortal.test.common.Common;
+import org.qortal.utils.Base58;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ArbitraryDataChunkStoreTests extends Common {
+
+    @Before
+    public void beforeTest() throws DataException {
+        Common.useDefaultSettings();
+
+        // Deduplication needs hard link support
+        assumeTrue(ArbitraryDataChunkStore.isEnabled());
+    }
+
+    @Test
+    public void testChunkStoredOnce() throws DataException, IOException {
+        byte[] data = randomBytes(ArbitraryDataFile.CHUNK_SIZE);
+        byte[] signature1 = randomBytes(64);
+        byte[] signature2 = randomBytes(64);
+
+        ArbitraryDataFileChunk chunk1 = new ArbitraryDataFileChunk(data, signature1);
+        ArbitraryDataFileChunk chunk2 = new ArbitraryDataFileChunk(data, signature2);
+        String hash58 = chunk1.getHash58();
+
+        // Each transaction has its own path, sharing the same stored copy
+        assertTrue(chunk1.exists());
+        assertTrue(chunk2.exists());
+        assertNotEquals(chunk1.getFilePath(), chunk2.getFilePath());
+        assertTrue(Files.isSameFile(chunk1.getFilePath(), chunk2.getFilePath()));
+        assertTrue(Files.isSameFile(chunk1.getFilePath(), ArbitraryDataChunkStore.getStoredFilePath(hash58)));
+        assertEquals(2, ArbitraryDataChunkStore.getReferenceCount(hash58));
+
+        // Stored copy is kept whilst still referenced
+        chunk1.delete();
+        assertEquals(1, ArbitraryDataChunkStore.getReferenceCount(hash58));
+        ArbitraryDataChunkStore.cleanup();
+        assertTrue(ArbitraryDataChunkStore.contains(hash58));
+        assertArrayEquals(data, chunk2.getBytes());
+
+        // ... and removed once no longer referenced
+        chunk2.delete();
+        assertEquals(0, ArbitraryDataChunkStore.getReferenceCount(hash58));
+        ArbitraryDataChunkStore.cleanup();
+        assertFalse(ArbitraryDataChunkStore.contains(hash58));
+    }
+
+    @Test
+    public void testLink() throws DataException {
+        byte[] data = randomBytes(1000);
+        byte[] signature1 = randomBytes(64);
+        byte[] signature2 = randomBytes(64);
+
+        ArbitraryDataFileChunk chunk1 = new ArbitraryDataFileChunk(data, signature1);
+        String hash58 = chunk1.getHash58();
+
+        // Chunk for another transaction is linked, rather than fetched
+        ArbitraryDataFileChunk chunk2 = ArbitraryDataFileChunk.fromHash58(hash58, signature2);
+        assertFalse(chunk2.exists());
+        assertTrue(ArbitraryDataChunkStore.link(hash58, chunk2.getFilePath()));
+        assertTrue(chunk2.exists());
+        assertArrayEquals(data, chunk2.getBytes());
+        assertEquals(2, ArbitraryDataChunkStore.getReferenceCount(hash58));
+
+        // Linking again has no effect
+        assertTrue(ArbitraryDataChunkStore.link(hash58, chunk2.getFilePath()));
+        assertEquals(2, ArbitraryDataChunkStore.getReferenceCount(hash58));
+
+        // Unknown data can't be linked
+        String unknownHash58 = Base58.encode(randomBytes(32));
+        ArbitraryDataFileChunk unknownChunk = ArbitraryDataFileChunk.fromHash58(unknownHash58, signature2);
+        assertFalse(ArbitraryDataChunkStore.link(unknownHash58, unknownChunk.getFilePath()));
+        assertFalse(unknownChunk.exists());
+
+        chunk1.delete();
+        chunk2.delete();
+        ArbitraryDataChunkStore.cleanup();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+
+}
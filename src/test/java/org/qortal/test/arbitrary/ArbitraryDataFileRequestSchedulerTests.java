@@ -0,0 +1,219 @@
+package org.qortal.test.arbitrary;
+
+import org.junit.Test;
+import org.qortal.arbitrary.ArbitraryDataFile;
+import org.qortal.controller.arbitrary.ArbitraryDataFileRequestScheduler;
+import org.qortal.controller.arbitrary.ArbitraryDataFileRequestScheduler.PeerStats;
+import org.qortal.controller.arbitrary.ArbitraryDataFileRequestScheduler.ScheduledRequest;
+import org.qortal.data.arbitrary.ArbitraryFileListResponseInfo;
+import org.qortal.data.network.PeerData;
+import org.qortal.network.Peer;
+import org.qortal.network.PeerAddress;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class ArbitraryDataFileRequestSchedulerTests {
+
+    private static final String SIGNATURE_58 = "signature";
+    private static final long NOW = 1_000_000L;
+    private static final Predicate<String> NOT_REQUESTED_ELSEWHERE = hash58 -> false;
+
+    private final Peer peerA = newPeer("10.0.0.1:12392");
+    private final Peer peerB = newPeer("10.0.0.2:12392");
+    private final Peer peerC = newPeer("10.0.0.3:12392");
+
+    @Test
+    public void testRarestFirst() {
+        ArbitraryDataFileRequestScheduler scheduler = new ArbitraryDataFileRequestScheduler();
+        List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+
+        // Chunk "common" is held by all three peers, chunk "rare" only by peer C
+        responses.add(newResponse("common", peerA));
+        responses.add(newResponse("common", peerB));
+        responses.add(newResponse("common", peerC));
+        responses.add(newResponse("rare", peerC));
+
+        ScheduledRequest request = scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE);
+        assertNotNull(request);
+        assertEquals("rare", request.getHash58());
+        assertEquals(peerC, request.getPeer());
+        assertFalse(request.isEndgame());
+
+        // Chosen response is removed, others remain
+        assertEquals(3, responses.size());
+        assertTrue(scheduler.isRequesting("rare"));
+    }
+
+    @Test
+    public void testSkipsChunksRequestedElsewhere() {
+        ArbitraryDataFileRequestScheduler scheduler = new ArbitraryDataFileRequestScheduler();
+        List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+        responses.add(newResponse("direct", peerA));
+        responses.add(newResponse("direct", peerB));
+
+        // Chunk is already being fetched outside the scheduler, so isn't requested, nor treated as endgame
+        Predicate<String> isRequestedElsewhere = hash58 -> hash58.equals("direct");
+        assertNull(scheduler.nextRequest(responses, NOW, isRequestedElsewhere));
+        assertFalse(scheduler.isRequesting("direct"));
+
+        // Responses are kept, in case that request fails
+        assertEquals(2, responses.size());
+        assertNotNull(scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE));
+    }
+
+    @Test
+    public void testExpiredResponsesRemoved() {
+        ArbitraryDataFileRequestScheduler scheduler = new ArbitraryDataFileRequestScheduler();
+        List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+        responses.add(new ArbitraryFileListResponseInfo("old", SIGNATURE_58, peerA, 0L, 0L, 0));
+
+        assertNull(scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE));
+        assertTrue(responses.isEmpty());
+    }
+
+    @Test
+    public void testWindowLimitsInFlightRequests() {
+        ArbitraryDataFileRequestScheduler scheduler = new ArbitraryDataFileRequestScheduler();
+        List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(newResponse("chunk" + i, peerA));
+        }
+
+        for (int i = 0; i < ArbitraryDataFileRequestScheduler.INITIAL_WINDOW; i++) {
+            assertNotNull(scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE));
+        }
+
+        // Peer's window is full
+        assertNull(scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE));
+        assertEquals(ArbitraryDataFileRequestScheduler.INITIAL_WINDOW, scheduler.getPeerStats(peerA).getInFlight());
+    }
+
+    @Test
+    public void testWindowAdapts() {
+        ArbitraryDataFileRequestScheduler scheduler = new ArbitraryDataFileRequestScheduler();
+        List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            responses.add(newResponse("chunk" + i, peerA));
+        }
+
+        // Consistently quick responses grow the window up to the maximum
+        long now = NOW;
+        for (int i = 0; i < 20; i++) {
+            ScheduledRequest request = scheduler.nextRequest(responses, now, NOT_REQUESTED_ELSEWHERE);
+            assertNotNull(request);
+            now += 100;
+            scheduler.onRequestFinished(request, (long) ArbitraryDataFile.CHUNK_SIZE, now);
+        }
+
+        PeerStats stats = scheduler.getPeerStats(peerA);
+        assertEquals(ArbitraryDataFileRequestScheduler.MAX_WINDOW, stats.getWindow());
+        assertEquals(ArbitraryDataFile.CHUNK_SIZE / 100.0, stats.getThroughput(), 0.001);
+        assertEquals(0, stats.getInFlight());
+
+        // Failures halve it
+        ScheduledRequest request = scheduler.nextRequest(responses, now, NOT_REQUESTED_ELSEWHERE);
+        scheduler.onRequestFinished(request, null, now + 1000);
+        assertEquals(ArbitraryDataFileRequestScheduler.MAX_WINDOW / 2, stats.getWindow());
+        assertEquals(1, stats.getConsecutiveFailures());
+
+        // Finishing the same request again has no effect
+        scheduler.onRequestFinished(request, null, now + 1000);
+        assertEquals(1, stats.getConsecutiveFailures());
+        assertEquals(0, stats.getInFlight());
+    }
+
+    @Test
+    public void testFasterPeerPreferred() {
+        ArbitraryDataFileRequestScheduler scheduler = new ArbitraryDataFileRequestScheduler();
+
+        // Measure peer A as slow and peer B as fast
+        List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+        responses.add(newResponse("slow", peerA));
+        ScheduledRequest request = scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE);
+        scheduler.onRequestFinished(request, (long) ArbitraryDataFile.CHUNK_SIZE, NOW + 5000);
+
+        responses.add(newResponse("fast", peerB));
+        request = scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE);
+        scheduler.onRequestFinished(request, (long) ArbitraryDataFile.CHUNK_SIZE, NOW + 100);
+
+        // Equally rare chunk, held by both
+        responses.add(newResponse("chunk", peerA));
+        responses.add(newResponse("chunk", peerB));
+        request = scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE);
+        assertEquals(peerB, request.getPeer());
+    }
+
+    @Test
+    public void testEndgame() {
+        ArbitraryDataFileRequestScheduler scheduler = new ArbitraryDataFileRequestScheduler();
+        List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+
+        // Two remaining chunks, both available from peers A and B
+        responses.add(newResponse("chunk1", peerA));
+        responses.add(newResponse("chunk1", peerB));
+        responses.add(newResponse("chunk2", peerA));
+        responses.add(newResponse("chunk2", peerB));
+
+        ScheduledRequest first = scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE);
+        ScheduledRequest second = scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE);
+        assertFalse(first.isEndgame());
+        assertFalse(second.isEndgame());
+        assertNotEquals(first.getHash58(), second.getHash58());
+
+        // Everything is in flight, so remaining chunks are requested again, from other peers
+        Set<String> endgameHashes = new HashSet<>();
+        ScheduledRequest request;
+        while ((request = scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE)) != null) {
+            assertTrue(request.isEndgame());
+
+            ScheduledRequest original = request.getHash58().equals(first.getHash58()) ? first : second;
+            assertNotEquals(original.getPeer(), request.getPeer());
+            endgameHashes.add(request.getHash58());
+        }
+        assertEquals(Set.of("chunk1", "chunk2"), endgameHashes);
+
+        // Once received from one peer, chunk is no longer in flight
+        scheduler.onRequestFinished(first, (long) ArbitraryDataFile.CHUNK_SIZE, NOW + 100);
+        assertFalse(scheduler.isRequesting(first.getHash58()));
+        assertTrue(scheduler.isRequesting(second.getHash58()));
+    }
+
+    @Test
+    public void testNoEndgameWhileChunksUnrequested() {
+        ArbitraryDataFileRequestScheduler scheduler = new ArbitraryDataFileRequestScheduler();
+        List<ArbitraryFileListResponseInfo> responses = new ArrayList<>();
+
+        // Peer A's window fills up, with chunks still waiting for it
+        for (int i = 0; i < 5; i++) {
+            responses.add(newResponse("chunk" + i, peerA));
+        }
+        responses.add(newResponse("chunk0", peerB));
+        responses.add(newResponse("chunk1", peerB));
+
+        // Peer B takes its chunks, then peer A takes chunks until its window is full
+        List<ScheduledRequest> requests = new ArrayList<>();
+        ScheduledRequest request;
+        while ((request = scheduler.nextRequest(responses, NOW, NOT_REQUESTED_ELSEWHERE)) != null) {
+            requests.add(request);
+        }
+
+        // No duplicates, since unrequested chunks remain
+        assertTrue(requests.stream().noneMatch(ScheduledRequest::isEndgame));
+        assertEquals(requests.size(), requests.stream().map(ScheduledRequest::getHash58).distinct().count());
+    }
+
+    private static Peer newPeer(String address) {
+        return new Peer(new PeerData(PeerAddress.fromString(address)));
+    }
+
+    private static ArbitraryFileListResponseInfo newResponse(String hash58, Peer peer) {
+        return new ArbitraryFileListResponseInfo(hash58, SIGNATURE_58, peer, NOW, NOW, 0);
+    }
+
+}
@@ -2,10 +2,18 @@ package org.qortal.test.arbitrary;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.qortal.crypto.Crypto;
 import org.qortal.repository.DataException;
+import org.qortal.arbitrary.ArbitraryDataChunkWriter;
 import org.qortal.arbitrary.ArbitraryDataFile;
 import org.qortal.test.common.Common;
+import org.qortal.utils.Base58;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.*;
@@ -74,4 +82,83 @@ public class ArbitraryDataFileTests extends Common {
 		assertEquals(originalFileDigest, arbitraryDataFile.digest58());
 	}
 
+	@Test
+	public void testChunkWriter() throws DataException, IOException {
+		int fileSize = (int) (5.5f * 1024 * 1024); // 5.5MiB
+		int chunkSize = 1 * 1024 * 1024;
+		byte[] randomData = new byte[fileSize];
+		new Random().nextBytes(randomData); // No need for SecureRandom here
+
+		// Chunks should match those produced by split()
+		ArbitraryDataFile splitDataFile = new ArbitraryDataFile(randomData, null, false);
+		splitDataFile.split(chunkSize);
+		List<byte[]> expectedChunkHashes = splitDataFile.getChunkHashes();
+
+		Path outputPath = Files.createTempFile("chunkWriter", null);
+		ArbitraryDataChunkWriter chunkWriter = new ArbitraryDataChunkWriter(outputPath, chunkSize, null);
+		try (OutputStream outputStream = chunkWriter) {
+			// Write in uneven pieces, so that writes straddle chunk boundaries
+			Random random = new Random();
+			int offset = 0;
+			while (offset < fileSize) {
+				int length = Math.min(random.nextInt(300 * 1024) + 1, fileSize - offset);
+				outputStream.write(randomData, offset, length);
+				offset += length;
+			}
+		}
+		assertEquals(fileSize, chunkWriter.getSize());
+
+		ArbitraryDataFile arbitraryDataFile = chunkWriter.getArbitraryDataFile();
+		assertTrue(arbitraryDataFile.exists());
+		assertEquals(fileSize, arbitraryDataFile.size());
+		assertEquals(Base58.encode(Crypto.digest(randomData)), arbitraryDataFile.getHash58());
+		assertEquals(arbitraryDataFile.getHash58(), arbitraryDataFile.digest58());
+
+		assertEquals(6, arbitraryDataFile.chunkCount());
+		List<byte[]> chunkHashes = arbitraryDataFile.getChunkHashes();
+		assertEquals(expectedChunkHashes.size(), chunkHashes.size());
+		for (int i = 0; i < expectedChunkHashes.size(); i++) {
+			assertArrayEquals(expectedChunkHashes.get(i), chunkHashes.get(i));
+		}
+
+		// Chunks can be joined back into the original file
+		arbitraryDataFile.delete();
+		assertTrue(arbitraryDataFile.join());
+		assertEquals(Base58.encode(Crypto.digest(randomData)), arbitraryDataFile.digest58());
+	}
+
+	@Test
+	public void testChunkWriterSingleChunk() throws DataException, IOException {
+		int chunkSize = 1024;
+
+		// Data that fits in a single chunk, including exactly, isn't chunked
+		for (int fileSize : new int[] { 1, chunkSize - 1, chunkSize }) {
+			byte[] randomData = new byte[fileSize];
+			new Random().nextBytes(randomData);
+
+			Path outputPath = Files.createTempFile("chunkWriter", null);
+			ArbitraryDataChunkWriter chunkWriter = new ArbitraryDataChunkWriter(outputPath, chunkSize, null);
+			try (OutputStream outputStream = chunkWriter) {
+				outputStream.write(randomData);
+			}
+
+			ArbitraryDataFile arbitraryDataFile = chunkWriter.getArbitraryDataFile();
+			assertEquals(0, arbitraryDataFile.chunkCount());
+			assertEquals(fileSize, arbitraryDataFile.size());
+			assertEquals(Base58.encode(Crypto.digest(randomData)), arbitraryDataFile.digest58());
+		}
+
+		// One byte more is split into two chunks
+		byte[] randomData = new byte[chunkSize + 1];
+		new Random().nextBytes(randomData);
+
+		ArbitraryDataChunkWriter chunkWriter = new ArbitraryDataChunkWriter(Files.createTempFile("chunkWriter", null), chunkSize, null);
+		try (OutputStream outputStream = chunkWriter) {
+			outputStream.write(randomData);
+		}
+		ArbitraryDataFile arbitraryDataFile = chunkWriter.getArbitraryDataFile();
+		assertEquals(2, arbitraryDataFile.chunkCount());
+		assertEquals(1, arbitraryDataFile.getChunks().get(1).size());
+	}
+
 }
@@ -0,0 +1,69 @@
+package org.qortal.test.arbitrary;
+
+import org.junit.Test;
+import org.qortal.arbitrary.ArbitraryDataRenderer;
+import org.qortal.arbitrary.ArbitraryDataRenderer.ByteRange;
+
+import static org.junit.Assert.*;
+
+public class ArbitraryDataRendererTests {
+
+    private static final long FILE_SIZE = 1000L;
+
+    @Test
+    public void testParseRange() {
+        assertRange(0, 499, ByteRange.parse("bytes=0-499", FILE_SIZE));
+        assertRange(500, 999, ByteRange.parse("bytes=500-", FILE_SIZE));
+        assertRange(900, 999, ByteRange.parse("bytes=-100", FILE_SIZE));
+
+        // Clamped to file size
+        assertRange(500, 999, ByteRange.parse("bytes=500-5000", FILE_SIZE));
+        assertRange(0, 999, ByteRange.parse("bytes=-5000", FILE_SIZE));
+
+        // Single byte
+        assertRange(999, 999, ByteRange.parse("bytes=999-999", FILE_SIZE));
+    }
+
+    @Test
+    public void testParseRangeServesWholeFile() {
+        assertNull(ByteRange.parse(null, FILE_SIZE));
+        assertNull(ByteRange.parse("items=0-10", FILE_SIZE));
+        assertNull(ByteRange.parse("bytes=0-10,20-30", FILE_SIZE));
+        assertNull(ByteRange.parse("bytes=abc-def", FILE_SIZE));
+        assertNull(ByteRange.parse("bytes=500-100", FILE_SIZE));
+    }
+
+    @Test
+    public void testParseRangeUnsatisfiable() {
+        String[] rangeHeaders = { "bytes=1000-", "bytes=2000-3000", "bytes=-0" };
+        for (String rangeHeader : rangeHeaders) {
+            try {
+                ByteRange.parse(rangeHeader, FILE_SIZE);
+                fail(String.format("%s should be unsatisfiable", rangeHeader));
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesETag() {
+        String eTag = "\"abc\"";
+
+        assertTrue(ArbitraryDataRenderer.matchesETag("\"abc\"", eTag));
+        assertTrue(ArbitraryDataRenderer.matchesETag("W/\"abc\"", eTag));
+        assertTrue(ArbitraryDataRenderer.matchesETag("\"xyz\", \"abc\"", eTag));
+        assertTrue(ArbitraryDataRenderer.matchesETag("*", eTag));
+
+        assertFalse(ArbitraryDataRenderer.matchesETag("\"xyz\"", eTag));
+        assertFalse(ArbitraryDataRenderer.matchesETag("abc", eTag));
+    }
+
+    private static void assertRange(long expectedStart, long expectedEnd, ByteRange range) {
+        assertNotNull(range);
+        assertEquals(expectedStart, range.start);
+        assertEquals(expectedEnd, range.end);
+        assertEquals(expectedEnd - expectedStart + 1, range.getLength());
+    }
+
+}
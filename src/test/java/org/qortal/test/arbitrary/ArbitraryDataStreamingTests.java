@@ -0,0 +1,198 @@
+package org.qortal.test.arbitrary;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.arbitrary.ArbitraryDataChunkChannel;
+import org.qortal.arbitrary.ArbitraryDataStreamingReader;
+import org.qortal.crypto.AES;
+import org.qortal.crypto.AESDecryptingChannel;
+import org.qortal.data.transaction.ArbitraryTransactionData.Compression;
+import org.qortal.repository.DataException;
+import org.qortal.test.common.Common;
+import org.qortal.utils.ZipUtils;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ArbitraryDataStreamingTests extends Common {
+
+    private static final String ALGORITHM = "AES/CBC/PKCS5Padding";
+
+    @Before
+    public void beforeTest() throws DataException {
+        Common.useDefaultSettings();
+    }
+
+    @Test
+    public void testRandomAccessDecryption() throws Exception {
+        Random random = new Random();
+        byte[] data = new byte[100003];
+        random.nextBytes(data);
+
+        Path inputFilePath = Files.createTempFile("inputFile", null);
+        Path encryptedFilePath = Files.createTempFile("encryptedFile", null);
+        inputFilePath.toFile().deleteOnExit();
+        encryptedFilePath.toFile().deleteOnExit();
+        Files.write(inputFilePath, data);
+
+        SecretKey aesKey = AES.generateKey(256);
+        AES.encryptFile(ALGORITHM, aesKey, inputFilePath.toString(), encryptedFilePath.toString());
+
+        // Uneven chunk sizes, so that reads and cipher blocks straddle chunk boundaries
+        List<Path> chunkPaths = this.splitIntoChunks(encryptedFilePath, 7001, 0, 33333, 50000);
+
+        try (SeekableByteChannel channel = new AESDecryptingChannel(new ArbitraryDataChunkChannel(chunkPaths), aesKey)) {
+            assertEquals(data.length, channel.size());
+
+            for (int i = 0; i < 100; i++) {
+                int start = random.nextInt(data.length);
+                int length = Math.min(random.nextInt(80000) + 1, data.length - start);
+
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                channel.position(start);
+                while (buffer.hasRemaining()) {
+                    assertTrue(channel.read(buffer) > 0);
+                }
+
+                assertArrayEquals(Arrays.copyOfRange(data, start, start + length), buffer.array());
+            }
+
+            // Reading at end of data
+            channel.position(data.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+        }
+    }
+
+    @Test
+    public void testWrongKey() throws Exception {
+        byte[] data = new byte[1000];
+        new Random().nextBytes(data);
+
+        Path inputFilePath = Files.createTempFile("inputFile", null);
+        Path encryptedFilePath = Files.createTempFile("encryptedFile", null);
+        inputFilePath.toFile().deleteOnExit();
+        encryptedFilePath.toFile().deleteOnExit();
+        Files.write(inputFilePath, data);
+
+        AES.encryptFile(ALGORITHM, AES.generateKey(256), inputFilePath.toString(), encryptedFilePath.toString());
+
+        // Padding check will fail (with overwhelming probability) when using a different key
+        try (ArbitraryDataChunkChannel chunkChannel = new ArbitraryDataChunkChannel(List.of(encryptedFilePath))) {
+            new AESDecryptingChannel(chunkChannel, AES.generateKey(256));
+            fail("Decryption with wrong key should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStreamEncryptedZip() throws Exception {
+        // Build a directory resource
+        Path sourceDirectory = Files.createTempDirectory("sourceDirectory");
+        sourceDirectory.toFile().deleteOnExit();
+        Files.createDirectories(Paths.get(sourceDirectory.toString(), "assets", "media"));
+
+        Random random = new Random();
+        byte[] indexData = "<html><body>Hello</body></html>".getBytes();
+        byte[] mediaData = new byte[500000];
+        random.nextBytes(mediaData);
+
+        Files.write(Paths.get(sourceDirectory.toString(), "index.html"), indexData);
+        Files.write(Paths.get(sourceDirectory.toString(), "assets", "media", "video.mp4"), mediaData);
+
+        // Zip and encrypt it, as ArbitraryDataWriter does
+        Path zipFilePath = Files.createTempFile("zipFile", null);
+        Path encryptedFilePath = Files.createTempFile("encryptedFile", null);
+        zipFilePath.toFile().deleteOnExit();
+        encryptedFilePath.toFile().deleteOnExit();
+        Files.delete(zipFilePath);
+
+        ZipUtils.zip(sourceDirectory.toString(), zipFilePath.toString(), "data");
+        SecretKey aesKey = AES.generateKey(256);
+        AES.encryptFile(ALGORITHM, aesKey, zipFilePath.toString(), encryptedFilePath.toString());
+
+        List<Path> chunkPaths = this.splitIntoChunks(encryptedFilePath, 100000, 100000, 100000);
+        SeekableByteChannel channel = new AESDecryptingChannel(new ArbitraryDataChunkChannel(chunkPaths), aesKey);
+
+        try (ArbitraryDataStreamingReader streamingReader = new ArbitraryDataStreamingReader(channel, Compression.ZIP)) {
+            assertEquals(List.of("assets", "index.html"), streamingReader.getRootNames());
+
+            assertTrue(streamingReader.isFile("index.html"));
+            assertTrue(streamingReader.isFile("/assets/media/video.mp4"));
+            assertFalse(streamingReader.isFile("assets/media"));
+            assertFalse(streamingReader.isFile("missing.html"));
+            assertFalse(streamingReader.isFile("../index.html"));
+
+            assertTrue(streamingReader.isDirectory("assets"));
+            assertTrue(streamingReader.isDirectory("assets/media/"));
+            assertFalse(streamingReader.isDirectory("index.html"));
+
+            assertEquals(indexData.length, streamingReader.getSize("index.html"));
+            assertEquals(mediaData.length, streamingReader.getSize("assets/media/video.mp4"));
+            assertEquals(indexData.length + mediaData.length, streamingReader.getTotalSize());
+
+            try (InputStream inputStream = streamingReader.getInputStream("index.html")) {
+                assertArrayEquals(indexData, IOUtils.toByteArray(inputStream));
+            }
+            try (InputStream inputStream = streamingReader.getInputStream("assets/media/video.mp4")) {
+                assertArrayEquals(mediaData, IOUtils.toByteArray(inputStream));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamUncompressed() throws Exception {
+        byte[] data = new byte[12345];
+        new Random().nextBytes(data);
+
+        Path filePath = Files.createTempFile("inputFile", null);
+        filePath.toFile().deleteOnExit();
+        Files.write(filePath, data);
+
+        List<Path> chunkPaths = this.splitIntoChunks(filePath, 5000, 5000);
+
+        try (ArbitraryDataStreamingReader streamingReader = new ArbitraryDataStreamingReader(new ArbitraryDataChunkChannel(chunkPaths), Compression.NONE)) {
+            assertEquals(List.of("data"), streamingReader.getRootNames());
+            assertTrue(streamingReader.isFile("data"));
+            assertEquals(data.length, streamingReader.getSize("data"));
+
+            try (InputStream inputStream = streamingReader.getInputStream("data")) {
+                assertArrayEquals(data, IOUtils.toByteArray(inputStream));
+            }
+        }
+    }
+
+    /** Splits file into chunks of given sizes, with any remainder in a final chunk. */
+    private List<Path> splitIntoChunks(Path filePath, int... chunkSizes) throws IOException {
+        byte[] data = Files.readAllBytes(filePath);
+        List<Path> chunkPaths = new ArrayList<>();
+
+        int offset = 0;
+        for (int i = 0; i <= chunkSizes.length; i++) {
+            int chunkSize = i < chunkSizes.length ? Math.min(chunkSizes[i], data.length - offset) : data.length - offset;
+
+            Path chunkPath = Files.createTempFile("chunk", null);
+            chunkPath.toFile().deleteOnExit();
+            Files.write(chunkPath, Arrays.copyOfRange(data, offset, offset + chunkSize));
+            chunkPaths.add(chunkPath);
+
+            offset += chunkSize;
+        }
+
+        return chunkPaths;
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.qortal.test.network;
+
+import org.junit.Test;
+import org.qortal.network.ByteBufferPool;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ByteBufferPoolTests {
+
+	private static final int MAX_BUFFER_SIZE = 2 * 1024 * 1024 + 9;
+
+	@Test
+	public void testSizeClasses() {
+		ByteBufferPool pool = new ByteBufferPool(MAX_BUFFER_SIZE);
+
+		ByteBuffer small = pool.acquire(100);
+		assertTrue(small.isDirect());
+		assertEquals(ByteBufferPool.SMALL_BUFFER_SIZE, small.capacity());
+
+		ByteBuffer medium = pool.acquire(ByteBufferPool.SMALL_BUFFER_SIZE + 1);
+		assertEquals(ByteBufferPool.MEDIUM_BUFFER_SIZE, medium.capacity());
+
+		ByteBuffer large = pool.acquire(ByteBufferPool.MEDIUM_BUFFER_SIZE + 1);
+		assertEquals(MAX_BUFFER_SIZE, large.capacity());
+
+		// Oversized requests are served, but not from pool
+		ByteBuffer oversized = pool.acquire(MAX_BUFFER_SIZE + 1);
+		assertFalse(oversized.isDirect());
+		assertEquals(1, pool.getStats().oversized);
+	}
+
+	@Test
+	public void testReuse() {
+		ByteBufferPool pool = new ByteBufferPool(MAX_BUFFER_SIZE);
+
+		ByteBuffer buffer = pool.acquire(100);
+		buffer.putInt(12345);
+		pool.release(buffer);
+
+		ByteBufferPool.Stats stats = pool.getStats();
+		assertEquals(1, stats.misses);
+		assertEquals(1, stats.releases);
+		assertEquals(1, stats.pooledBuffers);
+
+		ByteBuffer reusedBuffer = pool.acquire(200);
+		assertSame(buffer, reusedBuffer);
+		assertEquals("Reused buffer should be cleared", 0, reusedBuffer.position());
+		assertEquals(reusedBuffer.capacity(), reusedBuffer.limit());
+
+		stats = pool.getStats();
+		assertEquals(1, stats.hits);
+		assertEquals(0, stats.pooledBuffers);
+	}
+
+	@Test
+	public void testGrow() {
+		ByteBufferPool pool = new ByteBufferPool(MAX_BUFFER_SIZE);
+
+		ByteBuffer buffer = pool.acquire(100);
+		while (buffer.hasRemaining())
+			buffer.put((byte) 0x5a);
+
+		ByteBuffer grownBuffer = pool.grow(buffer);
+		assertEquals(ByteBufferPool.MEDIUM_BUFFER_SIZE, grownBuffer.capacity());
+		assertEquals(ByteBufferPool.SMALL_BUFFER_SIZE, grownBuffer.position());
+		assertEquals((byte) 0x5a, grownBuffer.get(ByteBufferPool.SMALL_BUFFER_SIZE - 1));
+
+		// Original buffer should have been returned to pool
+		assertEquals(1, pool.getStats().pooledBuffers);
+
+		// Largest size class can't grow any further
+		ByteBuffer largeBuffer = pool.acquire(MAX_BUFFER_SIZE);
+		assertSame(largeBuffer, pool.grow(largeBuffer));
+	}
+
+	@Test
+	public void testSmallMaxBufferSize() {
+		ByteBufferPool pool = new ByteBufferPool(1000);
+
+		assertEquals(1000, pool.getMaxBufferSize());
+		assertEquals(1000, pool.acquire(10).capacity());
+	}
+
+}
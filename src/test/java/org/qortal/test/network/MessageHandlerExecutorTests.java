@@ -0,0 +1,136 @@
+package org.qortal.test.network;
+
+import org.junit.Test;
+import org.qortal.network.MessageHandlerExecutor;
+import org.qortal.network.message.MessageType;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MessageHandlerExecutorTests {
+
+	private static final int MAX_PLATFORM_THREADS = 4;
+	private static final int LIMITED_MESSAGE_TYPE_LIMIT = 2;
+
+	private static MessageHandlerExecutor newMessageHandlerExecutor() {
+		return new MessageHandlerExecutor("Test-Message", MAX_PLATFORM_THREADS,
+				messageType -> messageType == MessageType.GET_ARBITRARY_DATA_FILE ? LIMITED_MESSAGE_TYPE_LIMIT : null);
+	}
+
+	@Test
+	public void testMessageTypeLimit() throws InterruptedException {
+		MessageHandlerExecutor messageHandlerExecutor = newMessageHandlerExecutor();
+
+		try {
+			for (int i = 0; i < LIMITED_MESSAGE_TYPE_LIMIT; ++i)
+				assertTrue(messageHandlerExecutor.tryAcquire(MessageType.GET_ARBITRARY_DATA_FILE));
+
+			// Limit reached
+			assertFalse(messageHandlerExecutor.tryAcquire(MessageType.GET_ARBITRARY_DATA_FILE));
+
+			// Other message types unaffected
+			for (int i = 0; i < 100; ++i)
+				assertTrue(messageHandlerExecutor.tryAcquire(MessageType.GET_BLOCK));
+
+			messageHandlerExecutor.release(MessageType.GET_ARBITRARY_DATA_FILE);
+			assertTrue(messageHandlerExecutor.tryAcquire(MessageType.GET_ARBITRARY_DATA_FILE));
+		} finally {
+			messageHandlerExecutor.shutdown(5000L);
+		}
+	}
+
+	@Test
+	public void testQueuedHandlersLimited() throws InterruptedException {
+		MessageHandlerExecutor messageHandlerExecutor = newMessageHandlerExecutor();
+
+		final CountDownLatch releaseHandlers = new CountDownLatch(1);
+		final CountDownLatch handlersDone = new CountDownLatch(LIMITED_MESSAGE_TYPE_LIMIT);
+		Runnable blockingHandler = () -> {
+			try {
+				releaseHandlers.await();
+			} catch (InterruptedException e) {
+				// Shutdown
+			} finally {
+				handlersDone.countDown();
+			}
+		};
+
+		try {
+			for (int i = 0; i < LIMITED_MESSAGE_TYPE_LIMIT; ++i)
+				assertTrue(messageHandlerExecutor.executeHandler(MessageType.GET_ARBITRARY_DATA_FILE, blockingHandler));
+
+			// Limit reached, whether earlier handlers are running or still queued, so discarded
+			assertFalse(messageHandlerExecutor.executeHandler(MessageType.GET_ARBITRARY_DATA_FILE, blockingHandler));
+
+			releaseHandlers.countDown();
+			assertTrue(handlersDone.await(10L, TimeUnit.SECONDS));
+
+			// Slots released once handlers finish
+			final CountDownLatch handlerDone = new CountDownLatch(1);
+			long deadline = System.currentTimeMillis() + 10_000L;
+			boolean isAccepted = false;
+			while (!isAccepted && System.currentTimeMillis() < deadline) {
+				isAccepted = messageHandlerExecutor.executeHandler(MessageType.GET_ARBITRARY_DATA_FILE, handlerDone::countDown);
+				if (!isAccepted)
+					Thread.sleep(1L);
+			}
+
+			assertTrue(isAccepted);
+			assertTrue(handlerDone.await(10L, TimeUnit.SECONDS));
+		} finally {
+			messageHandlerExecutor.shutdown(5000L);
+		}
+	}
+
+	@Test
+	public void testAllHandlersRun() throws InterruptedException {
+		MessageHandlerExecutor messageHandlerExecutor = newMessageHandlerExecutor();
+
+		final int handlerCount = MAX_PLATFORM_THREADS * 10;
+		final CountDownLatch releaseHandlers = new CountDownLatch(1);
+		final CountDownLatch handlersDone = new CountDownLatch(handlerCount);
+		final AtomicInteger activeCount = new AtomicInteger();
+		final AtomicInteger greatestActiveCount = new AtomicInteger();
+
+		try {
+			for (int i = 0; i < handlerCount; ++i)
+				messageHandlerExecutor.execute(() -> {
+					int active = activeCount.incrementAndGet();
+					greatestActiveCount.accumulateAndGet(active, Math::max);
+
+					try {
+						releaseHandlers.await();
+					} catch (InterruptedException e) {
+						// Shutdown
+					} finally {
+						activeCount.decrementAndGet();
+						handlersDone.countDown();
+					}
+				});
+
+			// Wait for pool to fill up
+			long deadline = System.currentTimeMillis() + 10_000L;
+			while (activeCount.get() < MAX_PLATFORM_THREADS && System.currentTimeMillis() < deadline)
+				Thread.sleep(1L);
+
+			assertTrue(activeCount.get() >= MAX_PLATFORM_THREADS);
+
+			if (!messageHandlerExecutor.isUsingVirtualThreads())
+				assertEquals(MAX_PLATFORM_THREADS, activeCount.get());
+
+			releaseHandlers.countDown();
+
+			// Handlers beyond thread limit must be queued, not discarded
+			assertTrue(handlersDone.await(10L, TimeUnit.SECONDS));
+
+			if (!messageHandlerExecutor.isUsingVirtualThreads())
+				assertTrue(greatestActiveCount.get() <= MAX_PLATFORM_THREADS);
+		} finally {
+			messageHandlerExecutor.shutdown(5000L);
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package org.qortal.test.network;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.qortal.network.MessageHandlerExecutor;
+import org.qortal.network.message.MessageType;
+import org.qortal.utils.ExecuteProduceConsume;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares handled messages/sec for network message handling on bounded EPC threads
+ * versus handing off to {@link MessageHandlerExecutor}, under the same synthetic peer load.
+ * <p>
+ * Takes about 20 seconds and only reports rates, so is ignored by default. Remove <tt>@Ignore</tt> to run.
+ */
+public class MessageHandlingBenchmarkTests {
+
+	private static final int PEER_COUNT = 300;
+	private static final int MAX_EPC_THREADS = 120; // as per default Settings.maxNetworkThreadPoolSize
+	private static final int MIN_HANDLER_DELAY = 5; // ms, simulating repository I/O or waiting for peer response
+	private static final int MAX_HANDLER_DELAY = 50; // ms
+	private static final int LIMITED_MESSAGE_TYPE_PERCENT = 20;
+	private static final int LIMITED_MESSAGE_TYPE_LIMIT = 5; // as per default maxThreadsPerMessageType
+	private static final long RUN_TIME = 10_000L; // ms
+
+	/** Synthetic peer load: every peer sends its next message as soon as its previous one has been handled. */
+	static class SyntheticLoadEPC extends ExecuteProduceConsume {
+		private final MessageHandlerExecutor messageHandlerExecutor;
+		private final Semaphore limitedTypeThreads = new Semaphore(LIMITED_MESSAGE_TYPE_LIMIT);
+		private final AtomicLong handledCount = new AtomicLong();
+		private final AtomicLong discardedCount = new AtomicLong();
+		private final Random random = new Random(0L);
+		private final AtomicBoolean[] isPeerBusy = new AtomicBoolean[PEER_COUNT];
+		private int nextPeerIndex = 0;
+
+		SyntheticLoadEPC(ExecutorService executor, MessageHandlerExecutor messageHandlerExecutor) {
+			super(executor);
+			this.messageHandlerExecutor = messageHandlerExecutor;
+
+			for (int i = 0; i < PEER_COUNT; ++i)
+				this.isPeerBusy[i] = new AtomicBoolean(false);
+		}
+
+		@Override
+		protected Task produceTask(boolean canBlock) throws InterruptedException {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+
+			// Find next peer with a pending message
+			int peerIndex = -1;
+			for (int i = 0; i < PEER_COUNT; ++i) {
+				int candidateIndex = (this.nextPeerIndex + i) % PEER_COUNT;
+
+				if (this.isPeerBusy[candidateIndex].compareAndSet(false, true)) {
+					peerIndex = candidateIndex;
+					break;
+				}
+			}
+
+			if (peerIndex == -1) {
+				// All peers are waiting for their messages to be handled
+				if (canBlock)
+					Thread.sleep(1L);
+
+				return null;
+			}
+
+			this.nextPeerIndex = (peerIndex + 1) % PEER_COUNT;
+			final AtomicBoolean peerBusy = this.isPeerBusy[peerIndex];
+			final int finalPeerIndex = peerIndex;
+
+			final MessageType messageType = random.nextInt(100) < LIMITED_MESSAGE_TYPE_PERCENT
+					? MessageType.GET_ARBITRARY_DATA_FILE
+					: MessageType.GET_BLOCK;
+			final int handlerDelay = MIN_HANDLER_DELAY + random.nextInt(MAX_HANDLER_DELAY - MIN_HANDLER_DELAY);
+
+			return new Task() {
+				@Override
+				public String getName() {
+					return "SyntheticMessageTask::" + finalPeerIndex + "::" + messageType;
+				}
+
+				@Override
+				public void perform() throws InterruptedException {
+					if (messageHandlerExecutor == null) {
+						try {
+							handleOnEpcThread(messageType, handlerDelay);
+						} finally {
+							peerBusy.set(false);
+						}
+						return;
+					}
+
+					boolean isAccepted = messageHandlerExecutor.executeHandler(messageType, () -> {
+						try {
+							handleOnMessageExecutor(handlerDelay);
+						} finally {
+							peerBusy.set(false);
+						}
+					});
+
+					if (!isAccepted) {
+						discardedCount.incrementAndGet();
+						peerBusy.set(false);
+					}
+				}
+			};
+		}
+
+		private void handleOnEpcThread(MessageType messageType, int handlerDelay) throws InterruptedException {
+			boolean isLimited = messageType == MessageType.GET_ARBITRARY_DATA_FILE;
+			if (isLimited && !this.limitedTypeThreads.tryAcquire()) {
+				this.discardedCount.incrementAndGet();
+				return;
+			}
+
+			try {
+				Thread.sleep(handlerDelay);
+				this.handledCount.incrementAndGet();
+			} finally {
+				if (isLimited)
+					this.limitedTypeThreads.release();
+			}
+		}
+
+		private void handleOnMessageExecutor(int handlerDelay) {
+			// Per-message-type limit already applied by executeHandler()
+			try {
+				Thread.sleep(handlerDelay);
+				this.handledCount.incrementAndGet();
+			} catch (InterruptedException e) {
+				// Shutdown
+			}
+		}
+	}
+
+	@Ignore(value = "Benchmark, so only run manually")
+	@Test
+	public void benchmarkMessageHandling() throws InterruptedException {
+		List<String> results = new ArrayList<>();
+
+		double epcRate = runBenchmark(null);
+		results.add(String.format("EPC threads only: %.0f messages/sec", epcRate));
+
+		MessageHandlerExecutor messageHandlerExecutor = new MessageHandlerExecutor("Benchmark-Message", MAX_EPC_THREADS,
+				messageType -> messageType == MessageType.GET_ARBITRARY_DATA_FILE ? LIMITED_MESSAGE_TYPE_LIMIT : null);
+		double handoffRate = runBenchmark(messageHandlerExecutor);
+		results.add(String.format("Message executor (%s threads): %.0f messages/sec",
+				messageHandlerExecutor.isUsingVirtualThreads() ? "virtual" : "platform", handoffRate));
+
+		messageHandlerExecutor.shutdown(5000L);
+
+		results.forEach(System.out::println);
+
+		assertTrue(epcRate > 0);
+		assertTrue(handoffRate > 0);
+	}
+
+	private double runBenchmark(MessageHandlerExecutor messageHandlerExecutor) throws InterruptedException {
+		ExecutorService epcExecutor = new ThreadPoolExecutor(1, MAX_EPC_THREADS,
+				10L, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>());
+
+		SyntheticLoadEPC epc = new SyntheticLoadEPC(epcExecutor, messageHandlerExecutor);
+
+		epc.start();
+		Thread.sleep(RUN_TIME);
+		epc.shutdown(5000L);
+
+		System.out.println(String.format("Handled %d, discarded %d, EPC stats: greatest active threads %d, spawn failures %d",
+				epc.handledCount.get(), epc.discardedCount.get(),
+				epc.getStatsSnapshot().greatestActiveThreadCount, epc.getStatsSnapshot().spawnFailures));
+
+		return epc.handledCount.get() * 1000.0 / RUN_TIME;
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.qortal.test.network;
+
+import org.junit.Test;
+import org.qortal.network.ReplyTable;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.PingMessage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ReplyTableTests {
+
+	@Test
+	public void testReplyCompletesFuture() throws Exception {
+		ReplyTable replyTable = new ReplyTable();
+
+		ReplyTable.PendingReply pendingReply = replyTable.allocate();
+		assertNotNull(pendingReply);
+		assertTrue(pendingReply.getId() > 0);
+
+		Message reply = new PingMessage();
+		reply.setId(pendingReply.getId());
+
+		assertTrue(replyTable.complete(reply));
+		assertSame(reply, pendingReply.getFuture().get());
+	}
+
+	@Test
+	public void testUnknownIdNotMatched() {
+		ReplyTable replyTable = new ReplyTable();
+
+		ReplyTable.PendingReply pendingReply = replyTable.allocate();
+
+		Message reply = new PingMessage();
+		reply.setId(pendingReply.getId() + 1);
+
+		assertFalse(replyTable.complete(reply));
+		assertFalse(pendingReply.getFuture().isDone());
+	}
+
+	@Test
+	public void testLateReplyAfterRelease() {
+		ReplyTable replyTable = new ReplyTable();
+
+		ReplyTable.PendingReply pendingReply = replyTable.allocate();
+		replyTable.release(pendingReply);
+
+		Message lateReply = new PingMessage();
+		lateReply.setId(pendingReply.getId());
+
+		assertFalse(replyTable.complete(lateReply));
+	}
+
+	@Test
+	public void testTableFull() {
+		ReplyTable replyTable = new ReplyTable();
+
+		Set<Integer> ids = new HashSet<>();
+		List<ReplyTable.PendingReply> pendingReplies = new ArrayList<>();
+
+		for (int i = 0; i < ReplyTable.SLOT_COUNT; ++i) {
+			ReplyTable.PendingReply pendingReply = replyTable.allocate();
+			assertNotNull(pendingReply);
+			assertTrue("Duplicate message ID", ids.add(pendingReply.getId()));
+			pendingReplies.add(pendingReply);
+		}
+
+		assertNull("All slots should be in use", replyTable.allocate());
+
+		replyTable.release(pendingReplies.get(0));
+		assertNotNull(replyTable.allocate());
+	}
+
+	@Test
+	public void testCancelAll() throws Exception {
+		ReplyTable replyTable = new ReplyTable();
+
+		ReplyTable.PendingReply pendingReply = replyTable.allocate();
+		replyTable.cancelAll();
+
+		assertTrue(pendingReply.getFuture().isDone());
+		assertNull(pendingReply.getFuture().get());
+	}
+
+}